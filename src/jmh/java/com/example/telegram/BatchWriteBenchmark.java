@@ -0,0 +1,79 @@
+package com.example.telegram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * A burst of reaction updates written to a log file that flushes after every update, once through
+ * {@link UpdatePrinter#print(Update)} per update and once through {@link UpdatePrinter#printBatch}.
+ * Scores are per update; add {@code -prof perfnorm} on Linux to compare syscalls per update.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BatchWriteBenchmark {
+
+    private static final int BURST = 256;
+
+    @Param({"TEXT", "JSON", "BINARY"})
+    public String format;
+
+    private final Update[] burst = new Update[BURST];
+    private final long[] receivedAt = new long[BURST];
+    private UpdatePrinter printer;
+    private Path logDir;
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Arrays.fill(burst, UpdateFixtures.build(UpdateFixtures.Kind.REACTIONS));
+        logDir = Files.createTempDirectory("jmh-batch-write");
+        printer = new UpdatePrinter(UpdatePrinter.Format.valueOf(format), new LogFileSink(
+                logDir.resolve("updates.log"),
+                LogFileSink.FlushPolicy.everyUpdate(),
+                LogFileSink.DEFAULT_BUFFER_SIZE));
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(originalOut);
+        printer.close();
+        Files.deleteIfExists(logDir.resolve("updates.log"));
+        Files.deleteIfExists(logDir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void printEach() {
+        for (Update update : burst) {
+            printer.print(update);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int printBatch() {
+        Arrays.fill(receivedAt, System.nanoTime());
+        return printer.printBatch(burst, receivedAt, BURST);
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.telegram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.ChatInviteLink;
+import org.telegram.telegrambots.meta.api.objects.ChatMemberUpdated;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.MessageEntity;
+import org.telegram.telegrambots.meta.api.objects.PhotoSize;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
+import org.telegram.telegrambots.meta.api.objects.chatmember.ChatMemberLeft;
+import org.telegram.telegrambots.meta.api.objects.chatmember.ChatMemberMember;
+import org.telegram.telegrambots.meta.api.objects.payments.OrderInfo;
+import org.telegram.telegrambots.meta.api.objects.payments.PreCheckoutQuery;
+import org.telegram.telegrambots.meta.api.objects.payments.ShippingAddress;
+import org.telegram.telegrambots.meta.api.objects.polls.Poll;
+import org.telegram.telegrambots.meta.api.objects.polls.PollOption;
+import org.telegram.telegrambots.meta.api.objects.reactions.MessageReactionCountUpdated;
+import org.telegram.telegrambots.meta.api.objects.reactions.ReactionCount;
+import org.telegram.telegrambots.meta.api.objects.reactions.ReactionTypeCustomEmoji;
+import org.telegram.telegrambots.meta.api.objects.reactions.ReactionTypeEmoji;
+
+/**
+ * Realistic {@link Update} shapes for the benchmarks, roughly sized like what a busy supergroup
+ * sends.
+ */
+final class UpdateFixtures {
+
+    enum Kind {
+        TEXT_MESSAGE,
+        MEDIA_WITH_CAPTION,
+        POLL,
+        REACTIONS,
+        CHAT_MEMBER,
+        PRE_CHECKOUT
+    }
+
+    private UpdateFixtures() {
+    }
+
+    static Update build(Kind kind) {
+        switch (kind) {
+            case TEXT_MESSAGE:
+                return textMessage();
+            case MEDIA_WITH_CAPTION:
+                return mediaWithCaption();
+            case POLL:
+                return poll();
+            case REACTIONS:
+                return reactions();
+            case CHAT_MEMBER:
+                return chatMember();
+            case PRE_CHECKOUT:
+                return preCheckout();
+            default:
+                throw new IllegalArgumentException("Unknown fixture: " + kind);
+        }
+    }
+
+    private static Update textMessage() {
+        Message message = baseMessage(5001);
+        message.setText("Привет всем! Meeting moved to 15:30, see the pinned message for the agenda 📌");
+        MessageEntity mention = new MessageEntity();
+        mention.setType("mention");
+        mention.setOffset(0);
+        mention.setLength(6);
+        message.setEntities(List.of(mention));
+        return update(1, message);
+    }
+
+    private static Update mediaWithCaption() {
+        Message message = baseMessage(5002);
+        List<PhotoSize> sizes = new ArrayList<>();
+        int[][] dimensions = {{90, 67}, {320, 240}, {800, 600}, {1280, 960}};
+        for (int i = 0; i < dimensions.length; i++) {
+            PhotoSize size = new PhotoSize();
+            size.setFileId("AgACAgIAAxkBAAIBZ2Xb" + i + "QwPqkZ3n7oJmN4sR0aZ9k1lAAKyzzEbQ");
+            size.setFileUniqueId("AQADss8xG0" + i);
+            size.setWidth(dimensions[i][0]);
+            size.setHeight(dimensions[i][1]);
+            size.setFileSize(dimensions[i][0] * dimensions[i][1] / 4);
+            sizes.add(size);
+        }
+        message.setPhoto(sizes);
+        message.setCaption("Sunset over the harbour, shot on film. Full album in the channel description. "
+                + "#photo #travel #film");
+        return update(2, message);
+    }
+
+    private static Update poll() {
+        Poll poll = new Poll();
+        poll.setId("5436781209876543210");
+        poll.setQuestion("Which release should we prioritise for the next sprint?");
+        List<PollOption> options = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            PollOption option = new PollOption();
+            option.setText("Option " + i + ": feature track " + (char) ('A' + i));
+            option.setVoterCount(17 * i + 3);
+            options.add(option);
+        }
+        poll.setOptions(options);
+        poll.setTotalVoterCount(795);
+        poll.setIsClosed(false);
+        poll.setIsAnonymous(true);
+        poll.setType("regular");
+        poll.setAllowMultipleAnswers(true);
+        Update update = new Update();
+        update.setUpdateId(3);
+        update.setPoll(poll);
+        return update;
+    }
+
+    private static Update reactions() {
+        MessageReactionCountUpdated counts = new MessageReactionCountUpdated();
+        counts.setChat(chat());
+        counts.setMessageId(5003);
+        counts.setDate(1_700_000_000);
+        List<ReactionCount> reactions = new ArrayList<>();
+        String[] emoji = {"👍", "❤", "🔥", "🎉", "😁", "🤯"};
+        for (int i = 0; i < emoji.length; i++) {
+            ReactionTypeEmoji type = new ReactionTypeEmoji();
+            type.setType("emoji");
+            type.setEmoji(emoji[i]);
+            ReactionCount count = new ReactionCount();
+            count.setType(type);
+            count.setTotalCount(1000 - i * 130);
+            reactions.add(count);
+        }
+        ReactionTypeCustomEmoji custom = new ReactionTypeCustomEmoji();
+        custom.setType("custom_emoji");
+        custom.setCustomEmoji("5368324170671202286");
+        ReactionCount customCount = new ReactionCount();
+        customCount.setType(custom);
+        customCount.setTotalCount(42);
+        reactions.add(customCount);
+        counts.setReactions(reactions);
+        Update update = new Update();
+        update.setUpdateId(4);
+        update.setMessageReactionCount(counts);
+        return update;
+    }
+
+    private static Update chatMember() {
+        ChatMemberUpdated updated = new ChatMemberUpdated();
+        updated.setChat(chat());
+        updated.setFrom(user(7001, "moderator_bot"));
+        updated.setDate(1_700_000_100);
+        ChatMemberLeft oldMember = new ChatMemberLeft();
+        oldMember.setUser(user(7002, "newcomer"));
+        ChatMemberMember newMember = new ChatMemberMember();
+        newMember.setUser(user(7002, "newcomer"));
+        updated.setOldChatMember(oldMember);
+        updated.setNewChatMember(newMember);
+        ChatInviteLink link = new ChatInviteLink();
+        link.setInviteLink("https://t.me/+AbCdEfGhIjKlMnOp");
+        link.setCreator(user(7001, "moderator_bot"));
+        link.setCreatesJoinRequest(false);
+        link.setIsPrimary(false);
+        link.setIsRevoked(false);
+        updated.setInviteLink(link);
+        Update update = new Update();
+        update.setUpdateId(5);
+        update.setChatMember(updated);
+        return update;
+    }
+
+    private static Update preCheckout() {
+        ShippingAddress address = new ShippingAddress();
+        address.setCountryCode("DE");
+        address.setState("Berlin");
+        address.setCity("Berlin");
+        address.setStreetLine1("Friedrichstraße 123");
+        address.setStreetLine2("Hinterhaus, 3. OG");
+        address.setPostCode("10117");
+        OrderInfo info = new OrderInfo();
+        info.setName("Erika Mustermann");
+        info.setPhoneNumber("+4930123456");
+        info.setEmail("erika@example.com");
+        info.setShippingAddress(address);
+        PreCheckoutQuery query = new PreCheckoutQuery();
+        query.setId("4815162342");
+        query.setFrom(user(7003, "buyer"));
+        query.setCurrency("EUR");
+        query.setTotalAmount(4999);
+        query.setInvoicePayload("order-2024-000123");
+        query.setShippingOptionId("dhl-express");
+        query.setOrderInfo(info);
+        Update update = new Update();
+        update.setUpdateId(6);
+        update.setPreCheckoutQuery(query);
+        return update;
+    }
+
+    private static Update update(int id, Message message) {
+        Update update = new Update();
+        update.setUpdateId(id);
+        update.setMessage(message);
+        return update;
+    }
+
+    private static Message baseMessage(int id) {
+        Message message = new Message();
+        message.setMessageId(id);
+        message.setDate(1_700_000_000);
+        message.setChat(chat());
+        message.setFrom(user(7000, "alice_dev"));
+        return message;
+    }
+
+    private static Chat chat() {
+        Chat chat = new Chat();
+        chat.setId(-1001234567890L);
+        chat.setType("supergroup");
+        chat.setTitle("Kotlin & Java Developers");
+        chat.setUserName("jvm_devs");
+        return chat;
+    }
+
+    private static User user(long id, String username) {
+        User user = new User();
+        user.setId(id);
+        user.setFirstName(username.substring(0, 1).toUpperCase() + username.substring(1));
+        user.setUserName(username);
+        user.setIsBot(username.endsWith("_bot"));
+        user.setLanguageCode("en");
+        return user;
+    }
+}
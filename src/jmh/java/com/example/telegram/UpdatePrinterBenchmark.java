@@ -0,0 +1,100 @@
+package com.example.telegram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Throughput of the formatters and of the full print path into the log file sink. Run with the
+ * {@code jmh} Maven profile; {@code -prof gc} reports bytes allocated per op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UpdatePrinterBenchmark {
+
+    @Param({"TEXT_MESSAGE", "MEDIA_WITH_CAPTION", "POLL", "REACTIONS", "CHAT_MEMBER", "PRE_CHECKOUT"})
+    public String fixture;
+
+    /**
+     * SLIM_JSON is JSON with {@link #SLIM_FIELDS} as the {@link JsonProjection}.
+     */
+    @Param({"TEXT", "JSON", "SLIM_JSON", "BINARY"})
+    public String format;
+
+    static final String SLIM_FIELDS = "update_id,message.chat.id,message.from.id,message.text,message.caption,"
+            + "callback_query.data,message_reaction.chat.id";
+
+    private Update update;
+    private UpdatePrinter printer;
+    private BinaryUpdateEncoder binaryEncoder;
+    private UpdatePrinter filePrinter;
+    private Path logDir;
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        update = UpdateFixtures.build(UpdateFixtures.Kind.valueOf(fixture));
+        JsonProjection projection = "SLIM_JSON".equals(format) ? JsonProjection.compile(SLIM_FIELDS) : null;
+        UpdatePrinter.Format outputFormat = projection != null
+                ? UpdatePrinter.Format.JSON
+                : UpdatePrinter.Format.valueOf(format);
+        printer = new UpdatePrinter(outputFormat, null, null, new UpdateMetrics(), null,
+                UpdatePrinter.DEFAULT_BATCH_BYTES, UpdatePrinter.DEFAULT_BATCH_MAX_NANOS, projection);
+        binaryEncoder = new BinaryUpdateEncoder(UpdatePrinter.newObjectMapper().writer());
+        logDir = Files.createTempDirectory("jmh-update-printer");
+        filePrinter = new UpdatePrinter(outputFormat, null, new LogFileSink(
+                logDir.resolve("updates.log"),
+                LogFileSink.FlushPolicy.of(0, 0),
+                LogFileSink.DEFAULT_BUFFER_SIZE), new UpdateMetrics(), null,
+                UpdatePrinter.DEFAULT_BATCH_BYTES, UpdatePrinter.DEFAULT_BATCH_MAX_NANOS, projection);
+        // stdout is not what we measure here; keep the console quiet and cheap.
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(originalOut);
+        filePrinter.close();
+        Files.deleteIfExists(logDir.resolve("updates.log"));
+        Files.deleteIfExists(logDir);
+    }
+
+    /**
+     * TEXT: {@link UpdatePrinter#describe(Update)}; JSON and SLIM_JSON: {@link UpdatePrinter#toJson(Update)};
+     * BINARY: one {@link BinaryUpdateEncoder} record.
+     */
+    @Benchmark
+    public Object format() throws IOException {
+        switch (format) {
+            case "TEXT":
+                return printer.describe(update);
+            case "JSON":
+            case "SLIM_JSON":
+                return printer.toJson(update);
+            default:
+                return binaryEncoder.encode(update, UpdateClassification.of(update));
+        }
+    }
+
+    @Benchmark
+    public void printToFile() {
+        filePrinter.print(update);
+    }
+}
@@ -0,0 +1,410 @@
+package com.example.telegram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.telegram.telegrambots.bots.DefaultBotOptions;
+import org.telegram.telegrambots.bots.TelegramLongPollingBot;
+import org.telegram.telegrambots.meta.api.methods.updates.GetUpdates;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import org.telegram.telegrambots.meta.generics.BotOptions;
+import org.telegram.telegrambots.meta.generics.BotSession;
+import org.telegram.telegrambots.meta.generics.LongPollingBot;
+
+/**
+ * Long-polling session that sizes each {@code getUpdates} call from the previous answer. A full batch
+ * means Telegram holds more, so the next call doubles {@code limit} and asks with {@code timeout=0}; an
+ * empty one halves {@code limit} and goes back to the long idle timeout. A burst therefore drains in
+ * few round trips while an idle bot sits in one long poll. Requests go through the bot's own
+ * {@link AbsSender}, so base URL, proxy and {@code allowed_updates} come from its
+ * {@link DefaultBotOptions}. Updates are handed to the bot on the polling thread.
+ *
+ * <p>With an {@link OffsetCheckpoint} the session starts from the checkpointed offset and only confirms
+ * a batch to Telegram, by asking for the next offset, once the checkpoint reports it durable. A crash
+ * then neither loses updates nor replays more than the batches still in flight. If the handler chain
+ * throws or a stage loses an update, the checkpoint halts, the session stops polling and runs its halt
+ * handler, which is expected to end the process so a supervisor restarts it. The updates from there on
+ * are polled again then, one per call until past the ones in flight at the failure, so that a repeated
+ * failure pins a single update; once that update has failed {@link OffsetCheckpoint#maxAttempts} times
+ * it is {@link OffsetCheckpoint#skip skipped}.
+ */
+public class AdaptivePollingSession implements BotSession {
+
+    /**
+     * Bounds for the adaptive {@code getUpdates} parameters.
+     */
+    public static final class Tuning {
+        /**
+         * Largest {@code limit} the Bot API accepts.
+         */
+        public static final int MAX_LIMIT = 100;
+        /**
+         * Stays below the 75 s socket timeout of the bot's HTTP client.
+         */
+        public static final int MAX_TIMEOUT_SECONDS = 60;
+
+        private final int idleTimeoutSeconds;
+        private final int minLimit;
+        private final int maxLimit;
+
+        private Tuning(int idleTimeoutSeconds, int minLimit, int maxLimit) {
+            this.idleTimeoutSeconds = idleTimeoutSeconds;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+        }
+
+        /**
+         * @param idleTimeoutSeconds long-poll timeout used while no backlog is seen
+         * @param minLimit           {@code limit} to start from and to shrink back to when idle
+         * @param maxLimit           {@code limit} ceiling under sustained load
+         */
+        public static Tuning of(int idleTimeoutSeconds, int minLimit, int maxLimit) {
+            if (idleTimeoutSeconds < 0 || idleTimeoutSeconds > MAX_TIMEOUT_SECONDS) {
+                throw new IllegalArgumentException(
+                        "idleTimeoutSeconds must be in [0, " + MAX_TIMEOUT_SECONDS + "]: " + idleTimeoutSeconds);
+            }
+            if (minLimit < 1 || maxLimit > MAX_LIMIT || minLimit > maxLimit) {
+                throw new IllegalArgumentException(
+                        "need 1 <= minLimit <= maxLimit <= " + MAX_LIMIT + ": " + minLimit + ", " + maxLimit);
+            }
+            return new Tuning(idleTimeoutSeconds, minLimit, maxLimit);
+        }
+
+        public static Tuning defaults() {
+            return of(50, 10, MAX_LIMIT);
+        }
+
+        public int idleTimeoutSeconds() {
+            return idleTimeoutSeconds;
+        }
+
+        public int minLimit() {
+            return minLimit;
+        }
+
+        public int maxLimit() {
+            return maxLimit;
+        }
+    }
+
+    private static final long MIN_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final long CHECKPOINT_WAIT_MILLIS = 10_000;
+
+    private final Tuning tuning;
+    private final UpdateMetrics metrics;
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder polledUpdates = new LongAdder();
+    private final LongAdder fullPolls = new LongAdder();
+    private final LongAdder emptyPolls = new LongAdder();
+    private final LongAdder failedPolls = new LongAdder();
+    private DefaultBotOptions options;
+    private OffsetCheckpoint checkpoint;
+    private Runnable onHalt = () -> { };
+    private LongPollingBot callback;
+    private Thread poller;
+    private volatile boolean running;
+    private volatile int limit;
+    private volatile int timeoutSeconds;
+    private int lastUpdateId;
+    private long isolateThrough;
+    private boolean skipNext;
+
+    public AdaptivePollingSession(Tuning tuning, UpdateMetrics metrics) {
+        this.tuning = Objects.requireNonNull(tuning, "tuning");
+        this.metrics = Objects.requireNonNull(metrics, "metrics");
+        this.limit = tuning.minLimit;
+        this.timeoutSeconds = tuning.idleTimeoutSeconds;
+    }
+
+    /**
+     * Counterpart of {@code TelegramBotsApi.registerBot} for this session: removes any webhook, then
+     * starts polling with {@code botToken}, the token {@code bot} was constructed with.
+     */
+    public static AdaptivePollingSession register(TelegramLongPollingBot bot, String botToken, Tuning tuning,
+            UpdateMetrics metrics) throws TelegramApiException {
+        return register(bot, botToken, tuning, metrics, null);
+    }
+
+    /**
+     * Like {@link #register(TelegramLongPollingBot, String, Tuning, UpdateMetrics)}, resuming from and
+     * reporting to {@code checkpoint} unless it is {@code null}.
+     */
+    public static AdaptivePollingSession register(TelegramLongPollingBot bot, String botToken, Tuning tuning,
+            UpdateMetrics metrics, OffsetCheckpoint checkpoint) throws TelegramApiException {
+        return register(bot, botToken, tuning, metrics, checkpoint, () -> { });
+    }
+
+    /**
+     * Like {@link #register(TelegramLongPollingBot, String, Tuning, UpdateMetrics, OffsetCheckpoint)},
+     * running {@code onHalt} on the polling thread once the session stops because the checkpoint halted.
+     */
+    public static AdaptivePollingSession register(TelegramLongPollingBot bot, String botToken, Tuning tuning,
+            UpdateMetrics metrics, OffsetCheckpoint checkpoint, Runnable onHalt) throws TelegramApiException {
+        bot.onRegister();
+        bot.clearWebhook();
+        AdaptivePollingSession session = new AdaptivePollingSession(tuning, metrics);
+        session.setOptions(bot.getOptions());
+        session.setToken(Objects.requireNonNull(botToken, "botToken"));
+        session.setCallback(bot);
+        session.setCheckpoint(checkpoint);
+        session.setHaltHandler(onHalt);
+        session.start();
+        return session;
+    }
+
+    @Override
+    public void setOptions(BotOptions options) {
+        if (!(options instanceof DefaultBotOptions)) {
+            throw new IllegalArgumentException("Expected DefaultBotOptions, got " + options);
+        }
+        this.options = (DefaultBotOptions) options;
+    }
+
+    /**
+     * Unused: requests are sent by the bot, which already knows its token.
+     */
+    @Override
+    public void setToken(String token) {
+    }
+
+    @Override
+    public void setCallback(LongPollingBot callback) {
+        if (!(callback instanceof AbsSender)) {
+            throw new IllegalArgumentException("The bot must be an AbsSender to send getUpdates: " + callback);
+        }
+        this.callback = callback;
+    }
+
+    /**
+     * Must be called before {@link #start()}.
+     */
+    public synchronized void setCheckpoint(OffsetCheckpoint checkpoint) {
+        if (running) {
+            throw new IllegalStateException("Session already running");
+        }
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Must be called before {@link #start()}.
+     */
+    public synchronized void setHaltHandler(Runnable onHalt) {
+        if (running) {
+            throw new IllegalStateException("Session already running");
+        }
+        this.onHalt = Objects.requireNonNull(onHalt, "onHalt");
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            throw new IllegalStateException("Session already running");
+        }
+        Objects.requireNonNull(options, "options");
+        Objects.requireNonNull(callback, "callback");
+        if (checkpoint != null) {
+            lastUpdateId = Math.toIntExact(checkpoint.durableUpdateId());
+            isolateThrough = checkpoint.failedAttempts() > 0 ? checkpoint.failedThroughUpdateId() : 0;
+            skipNext = checkpoint.failedAttempts() >= checkpoint.maxAttempts();
+        }
+        running = true;
+        poller = new Thread(this::runPoller, "adaptive-poller");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    /**
+     * Stops after the call in flight, whose updates are not delivered and not confirmed, so Telegram
+     * sends them again on the next start.
+     */
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        poller.interrupt();
+        callback.onClosing();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int currentLimit() {
+        return limit;
+    }
+
+    public int currentTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    public long pollCount() {
+        return polls.sum();
+    }
+
+    public long polledUpdateCount() {
+        return polledUpdates.sum();
+    }
+
+    public long failedPollCount() {
+        return failedPolls.sum();
+    }
+
+    /**
+     * Publishes poll counters and the current parameters. Updates per poll is
+     * {@code telegram_poll_updates_total / telegram_poll_requests_total}; round trips are in
+     * {@link UpdateMetrics#pollLatency()}.
+     */
+    public void registerMetrics(UpdateMetrics metrics) {
+        metrics.registerGauge("telegram_poll_requests_total", "Successful getUpdates calls.", true, polls::sum);
+        metrics.registerGauge("telegram_poll_updates_total", "Updates returned by getUpdates.", true,
+                polledUpdates::sum);
+        metrics.registerGauge("telegram_poll_full_total", "getUpdates calls that filled the limit.", true,
+                fullPolls::sum);
+        metrics.registerGauge("telegram_poll_empty_total", "getUpdates calls that returned nothing.", true,
+                emptyPolls::sum);
+        metrics.registerGauge("telegram_poll_errors_total", "getUpdates calls that failed.", true,
+                failedPolls::sum);
+        metrics.registerGauge("telegram_poll_limit", "limit of the next getUpdates call.", false,
+                this::currentLimit);
+        metrics.registerGauge("telegram_poll_timeout_seconds", "timeout of the next getUpdates call.", false,
+                this::currentTimeoutSeconds);
+    }
+
+    private void runPoller() {
+        AbsSender sender = (AbsSender) callback;
+        long backoffMillis = MIN_BACKOFF_MILLIS;
+        while (running) {
+            if (checkpoint != null && checkpoint.isHalted()) {
+                // Polling on would only fetch updates the checkpoint can no longer confirm.
+                System.err.println("Stopping the poller: the offset checkpoint is halted; a restart polls again "
+                        + "from update " + (checkpoint.durableUpdateId() + 1));
+                running = false;
+                onHalt.run();
+                break;
+            }
+            // Retrying after a failed run: one update per call, each durable before the next is polled.
+            boolean isolated = lastUpdateId < isolateThrough;
+            int requestedLimit = isolated ? 1 : limit;
+            GetUpdates request = new GetUpdates(confirmedUpdateId() + 1, requestedLimit, timeoutSeconds,
+                    options.getAllowedUpdates());
+            long start = System.nanoTime();
+            List<Update> updates;
+            try {
+                updates = sender.execute(request);
+            } catch (TelegramApiException e) {
+                failedPolls.increment();
+                long pause = backoffMillis;
+                if (e instanceof TelegramApiRequestException) {
+                    TelegramApiRequestException requestError = (TelegramApiRequestException) e;
+                    if (requestError.getParameters() != null && requestError.getParameters().getRetryAfter() != null) {
+                        pause = TimeUnit.SECONDS.toMillis(requestError.getParameters().getRetryAfter());
+                    }
+                }
+                if (running) {
+                    System.err.println("getUpdates failed, retrying in " + pause + " ms: " + e.getMessage());
+                }
+                backoffMillis = Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+                if (!pause(pause)) {
+                    break;
+                }
+                continue;
+            }
+            metrics.recordPoll(System.nanoTime() - start);
+            backoffMillis = MIN_BACKOFF_MILLIS;
+            polls.increment();
+            polledUpdates.add(updates.size());
+            if (!isolated) {
+                adapt(updates.size(), requestedLimit);
+            }
+            if (running) {
+                deliver(updates);
+            }
+        }
+    }
+
+    /**
+     * The offset Telegram may forget up to. Without a checkpoint that is everything delivered; with one,
+     * the poll waits a bounded time for the checkpoint to catch up and otherwise asks again from the
+     * durable offset, whose already delivered updates {@link #deliver} skips.
+     */
+    private int confirmedUpdateId() {
+        if (checkpoint == null || checkpoint.durableUpdateId() >= lastUpdateId) {
+            return lastUpdateId;
+        }
+        try {
+            checkpoint.awaitDurable(lastUpdateId, CHECKPOINT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+        return (int) Math.min(lastUpdateId, checkpoint.durableUpdateId());
+    }
+
+    private void adapt(int received, int requestedLimit) {
+        if (received >= requestedLimit) {
+            fullPolls.increment();
+            limit = Math.min(tuning.maxLimit, requestedLimit * 2);
+            timeoutSeconds = 0;
+        } else {
+            if (received == 0) {
+                emptyPolls.increment();
+                limit = Math.max(tuning.minLimit, requestedLimit / 2);
+            }
+            timeoutSeconds = tuning.idleTimeoutSeconds;
+        }
+    }
+
+    private void deliver(List<Update> updates) {
+        List<Update> fresh = new ArrayList<>(updates.size());
+        for (Update update : updates) {
+            // Same guard as the library session: never go back behind the confirmed offset.
+            if (update.getUpdateId() != null && update.getUpdateId() > lastUpdateId) {
+                lastUpdateId = update.getUpdateId();
+                fresh.add(update);
+            }
+        }
+        if (fresh.isEmpty()) {
+            return;
+        }
+        if (skipNext) {
+            // The first update after the checkpoint has failed too often; never hand it over again.
+            skipNext = false;
+            checkpoint.skip(fresh.remove(0).getUpdateId());
+            if (fresh.isEmpty()) {
+                return;
+            }
+        }
+        try {
+            callback.onUpdatesReceived(fresh);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to handle polled updates: " + e.getMessage());
+            if (checkpoint != null) {
+                checkpoint.halt(lastUpdateId, "handling updates up to " + lastUpdateId + " failed");
+            }
+            return;
+        }
+        if (checkpoint != null) {
+            checkpoint.delivered(lastUpdateId);
+        }
+    }
+
+    private boolean pause(long millis) {
+        try {
+            Thread.sleep(millis);
+            return running;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.telegram;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Decouples the polling thread from output. {@link #handle(Update)} only places the update into a
+ * preallocated ring buffer; a dedicated writer thread drains whatever has accumulated, up to the batch
+ * size, and hands it to {@link UpdatePrinter#printBatch} so a burst costs a few writes, not one per
+ * update.
+ */
+public class AsyncUpdatePipeline implements UpdateHandler, OffsetCheckpoint.Stage, Closeable {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * What {@link #handle(Update)} does when the ring buffer is full.
+     */
+    public enum BackpressurePolicy {
+        BLOCK,
+        DROP_OLDEST,
+        DROP_NEWEST;
+
+        public static BackpressurePolicy fromString(String raw) {
+            if (raw == null || raw.isBlank()) {
+                return BLOCK;
+            }
+            String normalized = raw.trim().toLowerCase(Locale.ROOT).replace('-', '_');
+            switch (normalized) {
+                case "block":
+                    return BLOCK;
+                case "drop_oldest":
+                    return DROP_OLDEST;
+                case "drop_newest":
+                    return DROP_NEWEST;
+                default:
+                    throw new IllegalArgumentException("Unknown backpressure policy: " + raw);
+            }
+        }
+    }
+
+    private final UpdatePrinter printer;
+    private final BackpressurePolicy policy;
+    private final Update[] ring;
+    private final long[] enqueuedAt;
+    private final long[] classifications;
+    private final long[] positions;
+    private final Update[] batch;
+    private final long[] batchEnqueuedAt;
+    private final long[] batchClassifications;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final Thread writer;
+    private int head;
+    private int size;
+    private boolean running = true;
+    // Written under the lock, read by the checkpoint without it.
+    private volatile long handed;
+    private volatile long firstLost = Long.MAX_VALUE;
+    private long batchFirstPosition;
+
+    public AsyncUpdatePipeline(UpdatePrinter printer) {
+        this(printer, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, BackpressurePolicy.BLOCK);
+    }
+
+    public AsyncUpdatePipeline(UpdatePrinter printer, int capacity, int batchSize, BackpressurePolicy policy) {
+        this(printer, capacity, batchSize, policy, "update-writer");
+    }
+
+    AsyncUpdatePipeline(UpdatePrinter printer, int capacity, int batchSize, BackpressurePolicy policy,
+            String threadName) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1: " + capacity);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be >= 1: " + batchSize);
+        }
+        this.printer = Objects.requireNonNull(printer, "printer");
+        this.policy = Objects.requireNonNull(policy, "policy");
+        this.ring = new Update[capacity];
+        this.enqueuedAt = new long[capacity];
+        this.classifications = new long[capacity];
+        this.positions = new long[capacity];
+        this.batch = new Update[Math.min(batchSize, capacity)];
+        this.batchEnqueuedAt = new long[batch.length];
+        this.batchClassifications = new long[batch.length];
+        this.writer = new Thread(this::runWriter, threadName);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Enqueues the update according to the configured {@link BackpressurePolicy}. Never formats or
+     * writes on the calling thread.
+     */
+    @Override
+    public void handle(Update update) {
+        handle(update, UpdateClassification.of(update));
+    }
+
+    /**
+     * Queues the classification with the update, so the writer thread does not classify it again.
+     */
+    @Override
+    public void handle(Update update, long classification) {
+        if (update == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            long position = ++handed;
+            if (!running) {
+                drop(position);
+                return;
+            }
+            if (size == ring.length) {
+                switch (policy) {
+                    case DROP_NEWEST:
+                        drop(position);
+                        return;
+                    case DROP_OLDEST:
+                        drop(positions[head]);
+                        ring[head] = null;
+                        head = (head + 1) % ring.length;
+                        size--;
+                        break;
+                    case BLOCK:
+                    default:
+                        while (size == ring.length && running) {
+                            notFull.awaitUninterruptibly();
+                        }
+                        if (!running) {
+                            drop(position);
+                            return;
+                        }
+                        break;
+                }
+            }
+            int tail = (head + size) % ring.length;
+            ring[tail] = update;
+            enqueuedAt[tail] = now;
+            classifications[tail] = classification;
+            positions[tail] = position;
+            size++;
+            published.increment();
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    public int queueDepth() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long publishedCount() {
+        return published.sum();
+    }
+
+    /**
+     * Updates passed to {@link #handle(Update)}, whether they were queued or dropped.
+     */
+    @Override
+    public long handedCount() {
+        return handed;
+    }
+
+    /**
+     * Position, in {@link #handedCount()} terms, of the first update that was dropped or that the
+     * printer failed to write.
+     */
+    @Override
+    public long firstLostPosition() {
+        return firstLost;
+    }
+
+    /**
+     * Forces what the writer thread has printed so far to stable storage.
+     */
+    @Override
+    public void sync() {
+        printer.sync();
+    }
+
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long writtenCount() {
+        return written.sum();
+    }
+
+    public BackpressurePolicy policy() {
+        return policy;
+    }
+
+    /**
+     * Publishes queue depth, capacity and the published/written/dropped counters.
+     */
+    public void registerMetrics(UpdateMetrics metrics) {
+        metrics.registerGauge("telegram_queue_depth", "Updates waiting for the writer thread.", false,
+                this::queueDepth);
+        metrics.registerGauge("telegram_queue_capacity", "Ring buffer capacity.", false, this::capacity);
+        metrics.registerGauge("telegram_queue_published_total", "Updates accepted into the queue.", true,
+                this::publishedCount);
+        metrics.registerGauge("telegram_queue_written_total", "Updates printed by the writer thread.", true,
+                this::writtenCount);
+        metrics.registerGauge("telegram_queue_dropped_total", "Updates dropped by backpressure.", true,
+                this::droppedCount);
+    }
+
+    /**
+     * Stops accepting updates, waits for the writer to drain what is already queued and flushes the
+     * printer.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWriter() {
+        while (true) {
+            int count = takeBatch();
+            if (count < 0) {
+                break;
+            }
+            int printed = 0;
+            try {
+                printed = printer.printBatch(batch, batchEnqueuedAt, batchClassifications, count);
+            } catch (RuntimeException e) {
+                System.err.println("Failed to print updates: " + e.getMessage());
+            }
+            if (printed < count) {
+                // Which ones were skipped is not known; the whole batch counts as lost. Recorded before
+                // the written count moves, so the checkpoint never sees the count without the loss.
+                lock.lock();
+                try {
+                    lose(batchFirstPosition);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            written.add(printed);
+            Arrays.fill(batch, 0, count, null);
+        }
+        printer.flush();
+    }
+
+    private void drop(long position) {
+        dropped.increment();
+        lose(position);
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private void lose(long position) {
+        if (position < firstLost) {
+            firstLost = position;
+        }
+    }
+
+    /**
+     * Moves up to {@code batch.length} updates out of the ring.
+     *
+     * @return number of updates copied into {@link #batch}, or {@code -1} once closed and drained
+     */
+    private int takeBatch() {
+        lock.lock();
+        try {
+            while (size == 0) {
+                if (!running) {
+                    return -1;
+                }
+                notEmpty.awaitUninterruptibly();
+            }
+            int count = Math.min(size, batch.length);
+            batchFirstPosition = positions[head];
+            for (int i = 0; i < count; i++) {
+                batch[i] = ring[head];
+                batchEnqueuedAt[i] = enqueuedAt[head];
+                batchClassifications[i] = classifications[head];
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+            }
+            size -= count;
+            notFull.signalAll();
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.telegram;
+
+import static com.example.telegram.BinaryRecordFormat.readVarLong;
+import static com.example.telegram.BinaryRecordFormat.readZigZag;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One decoded {@link BinaryRecordFormat} record. Header fields are parsed eagerly; the body is only
+ * walked when the update is converted back to JSON.
+ */
+public final class BinaryRecord {
+
+    private static final JsonFactory JSON_FACTORY = UpdatePrinter.newObjectMapper().getFactory();
+
+    private final int version;
+    private final long updateId;
+    private final int typeMask;
+    private final long chatId;
+    private final long userId;
+    private final long date;
+    private final long writtenAtMillis;
+    private final ByteBuffer body;
+
+    private BinaryRecord(int version, long updateId, int typeMask, long chatId, long userId, long date,
+            long writtenAtMillis, ByteBuffer body) {
+        this.version = version;
+        this.updateId = updateId;
+        this.typeMask = typeMask;
+        this.chatId = chatId;
+        this.userId = userId;
+        this.date = date;
+        this.writtenAtMillis = writtenAtMillis;
+        this.body = body;
+    }
+
+    /**
+     * Parses the part of a record that follows the length prefix, i.e. from the current position
+     * to the limit of {@code record}. The buffer is not copied.
+     */
+    static BinaryRecord parse(int version, ByteBuffer record) {
+        if (version != BinaryRecordFormat.VERSION) {
+            throw new IllegalArgumentException("Unsupported binary record version: " + version);
+        }
+        long updateId = readZigZag(record);
+        int typeMask = (int) readVarLong(record);
+        long chatId = readZigZag(record);
+        long userId = readZigZag(record);
+        long date = readVarLong(record);
+        long writtenAtMillis = readVarLong(record);
+        return new BinaryRecord(version, updateId, typeMask, chatId, userId, date, writtenAtMillis,
+                record.slice());
+    }
+
+    public int version() {
+        return version;
+    }
+
+    /**
+     * {@code -1} when the update had no id.
+     */
+    public long updateId() {
+        return updateId;
+    }
+
+    public int typeMask() {
+        return typeMask;
+    }
+
+    public boolean has(UpdateType type) {
+        return (typeMask & (1 << type.ordinal())) != 0;
+    }
+
+    public long chatId() {
+        return chatId;
+    }
+
+    public long userId() {
+        return userId;
+    }
+
+    /**
+     * Epoch seconds of the primary section, {@code 0} when unknown.
+     */
+    public long date() {
+        return date;
+    }
+
+    public long writtenAtMillis() {
+        return writtenAtMillis;
+    }
+
+    /**
+     * Rebuilds the update as the same single-line JSON {@link UpdatePrinter.Format#JSON} writes,
+     * without the trailing line separator.
+     */
+    public String toJson() {
+        StringWriter json = new StringWriter(body.remaining() * 2);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(json)) {
+            writeJson(generator);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode binary record " + updateId, e);
+        }
+        return json.toString();
+    }
+
+    /**
+     * Replays the body tokens into {@code generator}.
+     */
+    public void writeJson(JsonGenerator generator) throws IOException {
+        ByteBuffer in = body.duplicate();
+        List<String> interned = new ArrayList<>();
+        while (in.hasRemaining()) {
+            int tag = in.get();
+            switch (tag) {
+                case BinaryRecordFormat.START_OBJECT:
+                    generator.writeStartObject();
+                    break;
+                case BinaryRecordFormat.END_OBJECT:
+                    generator.writeEndObject();
+                    break;
+                case BinaryRecordFormat.START_ARRAY:
+                    generator.writeStartArray();
+                    break;
+                case BinaryRecordFormat.END_ARRAY:
+                    generator.writeEndArray();
+                    break;
+                case BinaryRecordFormat.FIELD_CODE:
+                    generator.writeFieldName(BinaryRecordFormat.fieldName(version, (int) readVarLong(in)));
+                    break;
+                case BinaryRecordFormat.FIELD_NEW:
+                    generator.writeFieldName(readNewString(in, interned));
+                    break;
+                case BinaryRecordFormat.FIELD_REF:
+                    generator.writeFieldName(interned.get((int) readVarLong(in)));
+                    break;
+                case BinaryRecordFormat.STRING_NEW:
+                    generator.writeString(readNewString(in, interned));
+                    break;
+                case BinaryRecordFormat.STRING_REF:
+                    generator.writeString(interned.get((int) readVarLong(in)));
+                    break;
+                case BinaryRecordFormat.INT:
+                    generator.writeNumber(readZigZag(in));
+                    break;
+                case BinaryRecordFormat.FLOAT:
+                    generator.writeNumber(Float.intBitsToFloat(in.getInt()));
+                    break;
+                case BinaryRecordFormat.DOUBLE:
+                    generator.writeNumber(Double.longBitsToDouble(in.getLong()));
+                    break;
+                case BinaryRecordFormat.BIG_NUMBER:
+                    generator.writeNumber(readUtf8(in));
+                    break;
+                case BinaryRecordFormat.TRUE:
+                    generator.writeBoolean(true);
+                    break;
+                case BinaryRecordFormat.FALSE:
+                    generator.writeBoolean(false);
+                    break;
+                case BinaryRecordFormat.NULL:
+                    generator.writeNull();
+                    break;
+                default:
+                    throw new IOException("Unknown token tag " + tag + " in binary record " + updateId);
+            }
+        }
+    }
+
+    private static String readNewString(ByteBuffer in, List<String> interned) {
+        String value = readUtf8(in);
+        interned.add(value);
+        return value;
+    }
+
+    private static String readUtf8(ByteBuffer in) {
+        int length = (int) readVarLong(in);
+        if (in.hasArray()) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+        byte[] utf8 = new byte[length];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
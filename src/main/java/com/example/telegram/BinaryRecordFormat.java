@@ -0,0 +1,144 @@
+package com.example.telegram;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Layout of {@link UpdatePrinter.Format#BINARY} records. Every record is self-contained so a file
+ * can be rotated, truncated or scanned from any record boundary:
+ *
+ * <pre>
+ * magic     u8    0xB7
+ * version   u8    schema version, currently 1
+ * length    u32   big-endian size of everything that follows
+ * updateId  zigzag varint, -1 when absent
+ * typeMask  varint, bit {@code 1 << UpdateType.ordinal()} per section present
+ * chatId    zigzag varint, see ChatKeys#routingKey
+ * userId    zigzag varint, see ChatKeys#userKey
+ * date      varint, epoch seconds of the primary section, 0 when absent
+ * writtenAt varint, epoch milliseconds when the record was encoded
+ * body      token stream of the update's JSON tree
+ * </pre>
+ *
+ * Body field names listed in the versioned dictionary are written as a one-byte code; other field
+ * names and string values are interned per record: the first occurrence carries the UTF-8 bytes,
+ * later ones only their index.
+ */
+final class BinaryRecordFormat {
+
+    static final byte MAGIC = (byte) 0xB7;
+    static final byte VERSION = 1;
+    /** Magic, version and the length prefix. */
+    static final int PREFIX_BYTES = 6;
+    static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+
+    static final int START_OBJECT = 1;
+    static final int END_OBJECT = 2;
+    static final int START_ARRAY = 3;
+    static final int END_ARRAY = 4;
+    static final int FIELD_CODE = 5;
+    static final int FIELD_NEW = 6;
+    static final int FIELD_REF = 7;
+    static final int STRING_NEW = 8;
+    static final int STRING_REF = 9;
+    static final int INT = 10;
+    static final int FLOAT = 11;
+    static final int DOUBLE = 12;
+    static final int BIG_NUMBER = 13;
+    static final int TRUE = 14;
+    static final int FALSE = 15;
+    static final int NULL = 16;
+
+    /**
+     * Field names of schema version 1. Append-only: codes are positions in this array, so new
+     * names go at the end together with a version bump.
+     */
+    private static final String[] FIELD_NAMES_V1 = {
+        "update_id", "message", "message_id", "from", "id", "is_bot", "first_name", "last_name",
+        "username", "language_code", "is_premium", "chat", "type", "title", "date", "text", "entities",
+        "offset", "length", "url", "user", "edit_date", "caption", "caption_entities", "photo", "file_id",
+        "file_unique_id", "width", "height", "file_size", "reply_to_message", "forward_from",
+        "forward_from_chat", "forward_date", "sender_chat", "all_members_are_administrators", "is_forum",
+        "callback_query", "chat_instance", "data", "game_short_name", "inline_query", "query",
+        "chat_type", "chosen_inline_result", "result_id", "inline_message_id", "edited_message",
+        "channel_post", "edited_channel_post", "poll", "question", "options", "voter_count",
+        "total_voter_count", "is_closed", "is_anonymous", "allows_multiple_answers",
+        "correct_option_id", "explanation", "poll_id", "option_ids", "poll_answer", "voter_chat",
+        "my_chat_member", "chat_member", "old_chat_member", "new_chat_member", "status", "invite_link",
+        "creator", "is_primary", "is_revoked", "name", "chat_join_request", "user_chat_id", "bio",
+        "message_reaction", "actor_chat", "old_reaction", "new_reaction", "emoji", "custom_emoji_id",
+        "message_reaction_count", "reactions", "total_count", "chat_boost", "boost", "boost_id",
+        "add_date", "expiration_date", "source", "removed_chat_boost", "remove_date", "shipping_query",
+        "invoice_payload", "shipping_address", "country_code", "state", "city", "street_line1",
+        "street_line2", "post_code", "pre_checkout_query", "currency", "total_amount",
+        "shipping_option_id", "order_info", "phone_number", "email", "sticker", "document", "file_name",
+        "mime_type", "video", "duration", "voice", "audio", "performer", "thumbnail", "location",
+        "latitude", "longitude", "horizontal_accuracy", "contact", "vcard", "new_chat_members",
+        "left_chat_member", "new_chat_title", "new_chat_photo", "is_topic_message", "message_thread_id",
+        "has_protected_content", "media_group_id", "author_signature", "via_bot", "reply_markup",
+        "inline_keyboard", "callback_data", "is_automatic_forward", "has_media_spoiler", "quote",
+        "position", "language", "emoji_status_custom_emoji_id", "can_join_groups",
+        "can_read_all_group_messages", "supports_inline_queries", "until_date", "can_send_messages",
+        "can_be_edited", "is_member", "custom_title", "via_chat_folder_invite_link", "big",
+        "forward_sender_name", "forward_signature", "forward_from_message_id", "link_preview_options",
+        "is_disabled", "web_page", "animation", "video_note", "dice", "value", "game", "venue",
+        "address", "pinned_message", "successful_payment", "telegram_payment_charge_id",
+        "provider_payment_charge_id", "is_recurring", "is_first_recurring",
+    };
+
+    private static final Map<String, Integer> FIELD_CODES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < FIELD_NAMES_V1.length; i++) {
+            FIELD_CODES.put(FIELD_NAMES_V1[i], i);
+        }
+    }
+
+    private BinaryRecordFormat() {
+    }
+
+    /**
+     * Dictionary code of a field name, or {@code -1} if it has to be interned.
+     */
+    static int fieldCode(String name) {
+        Integer code = FIELD_CODES.get(name);
+        return code == null ? -1 : code;
+    }
+
+    static String fieldName(int version, int code) {
+        if (version != VERSION || code < 0 || code >= FIELD_NAMES_V1.length) {
+            throw new IllegalArgumentException("Unknown field code " + code + " in schema version " + version);
+        }
+        return FIELD_NAMES_V1[code];
+    }
+
+    static void writeVarLong(PayloadBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static void writeZigZag(PayloadBuffer out, long value) {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    static long readZigZag(ByteBuffer in) {
+        long raw = readVarLong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.telegram;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Sequential reader for files written with {@link UpdatePrinter.Format#BINARY}, including rotated
+ * segments compressed with gzip. Run {@link #main(String[])} to convert files back to NDJSON.
+ */
+public final class BinaryRecordReader implements Closeable {
+
+    private final DataInputStream in;
+    private long offset;
+
+    public BinaryRecordReader(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+    }
+
+    /**
+     * Opens a log file or segment; names ending in {@code .gz} are decompressed on the fly.
+     */
+    public static BinaryRecordReader open(Path file) throws IOException {
+        InputStream raw = Files.newInputStream(file);
+        if (file.getFileName().toString().endsWith(".gz")) {
+            raw = new GZIPInputStream(raw, 64 * 1024);
+        }
+        return new BinaryRecordReader(raw);
+    }
+
+    /**
+     * @return the next record, or {@code null} at a clean end of input
+     * @throws EOFException if the input ends in the middle of a record, e.g. after a crash
+     */
+    public BinaryRecord next() throws IOException {
+        int magic = in.read();
+        if (magic < 0) {
+            return null;
+        }
+        if ((byte) magic != BinaryRecordFormat.MAGIC) {
+            throw new IOException("No binary record at byte offset " + offset);
+        }
+        int version = in.readUnsignedByte();
+        int length = in.readInt();
+        if (length < 0 || length > BinaryRecordFormat.MAX_RECORD_BYTES) {
+            throw new IOException("Corrupt record length " + length + " at byte offset " + offset);
+        }
+        byte[] record = new byte[length];
+        in.readFully(record);
+        offset += BinaryRecordFormat.PREFIX_BYTES + length;
+        try {
+            return BinaryRecord.parse(version, ByteBuffer.wrap(record));
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("Corrupt record header before byte offset " + offset, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Decodes every given file, in order, to NDJSON on stdout.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: BinaryRecordReader <file>...");
+            System.exit(2);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024);
+        for (String name : args) {
+            try (BinaryRecordReader reader = open(Paths.get(name))) {
+                BinaryRecord record;
+                while ((record = reader.next()) != null) {
+                    out.write(record.toJson());
+                    out.write(System.lineSeparator());
+                }
+            } catch (EOFException e) {
+                System.err.println(name + ": truncated last record skipped");
+            }
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.telegram;
+
+import static com.example.telegram.BinaryRecordFormat.writeVarLong;
+import static com.example.telegram.BinaryRecordFormat.writeZigZag;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Encodes one update at a time into a {@link BinaryRecordFormat} record. Instances are reusable
+ * but not thread-safe; {@link UpdatePrinter} keeps them in an {@link EncoderCache}.
+ */
+final class BinaryUpdateEncoder {
+
+    private final ObjectWriter writer;
+    private final PayloadBuffer buffer = new PayloadBuffer();
+    private final Map<String, Integer> interned = new HashMap<>();
+
+    BinaryUpdateEncoder(ObjectWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * The returned buffer is only valid until the next call.
+     *
+     * @param classification the update's {@link UpdateClassification}, whose type mask goes into the header
+     */
+    PayloadBuffer encode(Update update, long classification) throws IOException {
+        buffer.reset();
+        interned.clear();
+        buffer.write(BinaryRecordFormat.MAGIC);
+        buffer.write(BinaryRecordFormat.VERSION);
+        buffer.write(0);
+        buffer.write(0);
+        buffer.write(0);
+        buffer.write(0);
+        writeZigZag(buffer, update.getUpdateId() == null ? -1 : update.getUpdateId());
+        writeVarLong(buffer, UpdateClassification.types(classification));
+        writeZigZag(buffer, ChatKeys.routingKey(update));
+        writeZigZag(buffer, ChatKeys.userKey(update));
+        writeVarLong(buffer, primaryDate(update));
+        writeVarLong(buffer, System.currentTimeMillis());
+        writeBody(update);
+
+        int length = buffer.size() - BinaryRecordFormat.PREFIX_BYTES;
+        if (length > BinaryRecordFormat.MAX_RECORD_BYTES) {
+            throw new IOException("Encoded update exceeds " + BinaryRecordFormat.MAX_RECORD_BYTES + " bytes");
+        }
+        byte[] bytes = buffer.array();
+        bytes[2] = (byte) (length >>> 24);
+        bytes[3] = (byte) (length >>> 16);
+        bytes[4] = (byte) (length >>> 8);
+        bytes[5] = (byte) length;
+        return buffer;
+    }
+
+    private void writeBody(Update update) throws IOException {
+        TokenBuffer tokens = new TokenBuffer(null, false);
+        writer.writeValue(tokens, update);
+        try (JsonParser parser = tokens.asParser()) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                switch (token) {
+                    case START_OBJECT:
+                        buffer.write(BinaryRecordFormat.START_OBJECT);
+                        break;
+                    case END_OBJECT:
+                        buffer.write(BinaryRecordFormat.END_OBJECT);
+                        break;
+                    case START_ARRAY:
+                        buffer.write(BinaryRecordFormat.START_ARRAY);
+                        break;
+                    case END_ARRAY:
+                        buffer.write(BinaryRecordFormat.END_ARRAY);
+                        break;
+                    case FIELD_NAME:
+                        writeFieldName(parser.currentName());
+                        break;
+                    case VALUE_STRING:
+                        writeString(BinaryRecordFormat.STRING_NEW, BinaryRecordFormat.STRING_REF, parser.getText());
+                        break;
+                    case VALUE_NUMBER_INT:
+                        writeInteger(parser);
+                        break;
+                    case VALUE_NUMBER_FLOAT:
+                        writeFloat(parser);
+                        break;
+                    case VALUE_TRUE:
+                        buffer.write(BinaryRecordFormat.TRUE);
+                        break;
+                    case VALUE_FALSE:
+                        buffer.write(BinaryRecordFormat.FALSE);
+                        break;
+                    case VALUE_NULL:
+                        buffer.write(BinaryRecordFormat.NULL);
+                        break;
+                    default:
+                        throw new IOException("Unsupported token in update: " + token);
+                }
+            }
+        }
+    }
+
+    private void writeFieldName(String name) {
+        int code = BinaryRecordFormat.fieldCode(name);
+        if (code >= 0) {
+            buffer.write(BinaryRecordFormat.FIELD_CODE);
+            writeVarLong(buffer, code);
+        } else {
+            writeString(BinaryRecordFormat.FIELD_NEW, BinaryRecordFormat.FIELD_REF, name);
+        }
+    }
+
+    /**
+     * Field names and string values share one intern table per record.
+     */
+    private void writeString(int newTag, int refTag, String value) {
+        Integer index = interned.get(value);
+        if (index != null) {
+            buffer.write(refTag);
+            writeVarLong(buffer, index);
+            return;
+        }
+        interned.put(value, interned.size());
+        buffer.write(newTag);
+        writeVarLong(buffer, PayloadBuffer.utf8Length(value));
+        buffer.writeUtf8(value);
+    }
+
+    private void writeInteger(JsonParser parser) throws IOException {
+        if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+            writeBigNumber(parser.getText());
+            return;
+        }
+        buffer.write(BinaryRecordFormat.INT);
+        writeZigZag(buffer, parser.getLongValue());
+    }
+
+    private void writeFloat(JsonParser parser) throws IOException {
+        switch (parser.getNumberType()) {
+            case FLOAT:
+                buffer.write(BinaryRecordFormat.FLOAT);
+                writeFixed(Float.floatToIntBits(parser.getFloatValue()) & 0xFFFFFFFFL, 4);
+                break;
+            case DOUBLE:
+                buffer.write(BinaryRecordFormat.DOUBLE);
+                writeFixed(Double.doubleToLongBits(parser.getDoubleValue()), 8);
+                break;
+            default:
+                writeBigNumber(parser.getText());
+                break;
+        }
+    }
+
+    private void writeBigNumber(String text) {
+        buffer.write(BinaryRecordFormat.BIG_NUMBER);
+        writeVarLong(buffer, text.length());
+        buffer.writeUtf8(text);
+    }
+
+    private void writeFixed(long bits, int bytes) {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            buffer.write((int) (bits >>> shift));
+        }
+    }
+
+    private static long primaryDate(Update update) {
+        Integer date = messageDate(update.getMessage());
+        if (date == null) {
+            date = messageDate(update.getEditedMessage());
+        }
+        if (date == null) {
+            date = messageDate(update.getChannelPost());
+        }
+        if (date == null) {
+            date = messageDate(update.getEditedChannelPost());
+        }
+        if (date == null && update.getMyChatMember() != null) {
+            date = update.getMyChatMember().getDate();
+        }
+        if (date == null && update.getChatMember() != null) {
+            date = update.getChatMember().getDate();
+        }
+        if (date == null && update.getChatJoinRequest() != null) {
+            date = update.getChatJoinRequest().getDate();
+        }
+        if (date == null && update.getMessageReaction() != null) {
+            date = update.getMessageReaction().getDate();
+        }
+        if (date == null && update.getMessageReactionCount() != null) {
+            date = update.getMessageReactionCount().getDate();
+        }
+        return date == null || date < 0 ? 0 : date;
+    }
+
+    private static Integer messageDate(Message message) {
+        return message == null ? null : message.getDate();
+    }
+}
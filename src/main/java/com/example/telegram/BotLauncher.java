@@ -1,11 +1,29 @@
 package com.example.telegram;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.generics.BotSession;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
 /**
@@ -20,24 +38,586 @@ public final class BotLauncher {
         String token = readConfig("TELEGRAM_BOT_TOKEN");
         String username = readConfig("TELEGRAM_BOT_USERNAME");
 
-        UpdatePrinter printer = buildPrinter();
-        TelegramTriggerBot bot = new TelegramTriggerBot(token, username, printer);
-        TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
-        botsApi.registerBot(bot);
+        // Closed in reverse registration order: upstream stages drain before the sinks close.
+        Deque<Closeable> resources = new ArrayDeque<>();
+        UpdateMetrics metrics = new UpdateMetrics();
+        OffsetCheckpoint checkpoint = openCheckpoint(metrics);
+        Optional<String> rawSinks = readOptionalConfig("TELEGRAM_SINKS");
+        String aggregate = readOptionalConfig("TELEGRAM_AGGREGATE").orElse("off").toLowerCase(Locale.ROOT);
+        UpdateHandler output = null;
+        if (rawSinks.isPresent()) {
+            output = buildRouter(rawSinks.get(), metrics, checkpoint, resources);
+        } else if (!"only".equals(aggregate)) {
+            UpdatePrinter printer = buildPrinter(metrics);
+            resources.push(printer);
+            output = buildHandler(printer, metrics, checkpoint, resources);
+        }
+        output = aggregate(aggregate, output, metrics, checkpoint, resources);
+        UpdateFilter.Rules filterRules = readFilterRules();
+        UpdateHandler handler = filter(deduplicate(sample(output, metrics, resources), metrics, resources),
+                filterRules, metrics);
+        exposeMetrics(metrics, resources);
 
-        System.out.printf("Bot %s is up. Waiting for updates...%n", username);
+        TelegramTriggerBot bot = new TelegramTriggerBot(
+                buildBotOptions(filterRules), token, username, handler, metrics);
+        String mode = readOptionalConfig("TELEGRAM_MODE").orElse("polling").toLowerCase(Locale.ROOT);
+        switch (mode) {
+            case "polling":
+                BotSession session = startPolling(bot, token, metrics, checkpoint);
+                resources.push(session::stop);
+                System.out.printf("Bot %s is up. Waiting for updates...%n", username);
+                break;
+            case "webhook":
+                startWebhook(bot, handler, metrics, filterRules, resources);
+                System.out.printf("Bot %s is up in webhook mode. Waiting for updates...%n", username);
+                break;
+            default:
+                throw new IllegalStateException("Unsupported TELEGRAM_MODE value: " + mode);
+        }
 
         CountDownLatch latch = new CountDownLatch(1);
-        Runtime.getRuntime().addShutdownHook(new Thread(latch::countDown));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                closeAll(resources);
+            } finally {
+                latch.countDown();
+            }
+        }));
         latch.await();
     }
 
-    private static UpdatePrinter buildPrinter() {
+    /**
+     * Opens TELEGRAM_CHECKPOINT_FILE, if set. Only the adaptive polling session resumes from it, and only
+     * a single writer queue can tell when an update has been written, so other setups are rejected. A
+     * dropping backpressure policy would halt the checkpoint at the first full queue, so it must block.
+     */
+    private static OffsetCheckpoint openCheckpoint(UpdateMetrics metrics) {
+        Optional<Path> file = readOptionalConfig("TELEGRAM_CHECKPOINT_FILE").map(Path::of);
+        if (file.isEmpty()) {
+            return null;
+        }
+        if (!"polling".equalsIgnoreCase(readOptionalConfig("TELEGRAM_MODE").orElse("polling"))
+                || !"adaptive".equalsIgnoreCase(readOptionalConfig("TELEGRAM_POLL_SESSION").orElse("default"))) {
+            throw new IllegalStateException("TELEGRAM_CHECKPOINT_FILE requires TELEGRAM_POLL_SESSION=adaptive");
+        }
+        if (!"writer".equalsIgnoreCase(readOptionalConfig("TELEGRAM_HANDLER_THREADS").orElse("writer"))
+                || readIntConfig("TELEGRAM_CHAT_LANES", 1) > 1) {
+            throw new IllegalStateException(
+                    "TELEGRAM_CHECKPOINT_FILE requires TELEGRAM_HANDLER_THREADS=writer and TELEGRAM_CHAT_LANES=1");
+        }
+        if (parseBackpressure(readOptionalConfig("TELEGRAM_BACKPRESSURE"))
+                != AsyncUpdatePipeline.BackpressurePolicy.BLOCK) {
+            throw new IllegalStateException("TELEGRAM_CHECKPOINT_FILE requires TELEGRAM_BACKPRESSURE=block");
+        }
+        long intervalMillis = readLongConfig("TELEGRAM_CHECKPOINT_INTERVAL_MS",
+                OffsetCheckpoint.DEFAULT_COMMIT_INTERVAL_MILLIS);
+        if (intervalMillis < 1) {
+            throw new IllegalStateException("Unsupported TELEGRAM_CHECKPOINT_INTERVAL_MS value: " + intervalMillis);
+        }
+        int maxAttempts = readIntConfig("TELEGRAM_CHECKPOINT_MAX_ATTEMPTS", OffsetCheckpoint.DEFAULT_MAX_ATTEMPTS);
+        if (maxAttempts < 2) {
+            throw new IllegalStateException("Unsupported TELEGRAM_CHECKPOINT_MAX_ATTEMPTS value: " + maxAttempts);
+        }
+        OffsetCheckpoint checkpoint;
+        try {
+            checkpoint = new OffsetCheckpoint(file.get(), intervalMillis, maxAttempts);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open checkpoint " + file.get(), e);
+        }
+        checkpoint.registerMetrics(metrics);
+        return checkpoint;
+    }
+
+    private static UpdateHandler buildHandler(UpdatePrinter printer, UpdateMetrics metrics,
+            OffsetCheckpoint checkpoint, Deque<Closeable> resources) {
+        String threads = readOptionalConfig("TELEGRAM_HANDLER_THREADS").orElse("writer").toLowerCase(Locale.ROOT);
+        switch (threads) {
+            case "writer":
+                break;
+            case "virtual":
+            case "platform":
+                ThreadPerUpdateDispatcher dispatcher = new ThreadPerUpdateDispatcher(printer,
+                        readIntConfig("TELEGRAM_HANDLER_MAX_IN_FLIGHT", ThreadPerUpdateDispatcher.DEFAULT_MAX_IN_FLIGHT),
+                        "virtual".equals(threads));
+                if ("virtual".equals(threads) && !dispatcher.usesVirtualThreads()) {
+                    System.err.println("Virtual threads need JDK 21+, falling back to platform threads");
+                }
+                dispatcher.registerMetrics(metrics);
+                resources.push(dispatcher);
+                return dispatcher;
+            default:
+                throw new IllegalStateException("Unsupported TELEGRAM_HANDLER_THREADS value: " + threads);
+        }
+        int capacity = readIntConfig("TELEGRAM_QUEUE_CAPACITY", AsyncUpdatePipeline.DEFAULT_CAPACITY);
+        if (capacity <= 0) {
+            if (checkpoint != null) {
+                checkpoint.register(OffsetCheckpoint.Stage.synchronous(printer));
+                resources.push(checkpoint);
+            }
+            return printer;
+        }
+        int batchSize = readIntConfig("TELEGRAM_WRITER_BATCH_SIZE", AsyncUpdatePipeline.DEFAULT_BATCH_SIZE);
+        AsyncUpdatePipeline.BackpressurePolicy policy = parseBackpressure(readOptionalConfig("TELEGRAM_BACKPRESSURE"));
+        int lanes = readIntConfig("TELEGRAM_CHAT_LANES", 1);
+        if (lanes > 1) {
+            ChatStripedDispatcher dispatcher = new ChatStripedDispatcher(printer, lanes, capacity, batchSize, policy);
+            dispatcher.registerMetrics(metrics);
+            resources.push(dispatcher);
+            return dispatcher;
+        }
+        AsyncUpdatePipeline pipeline = new AsyncUpdatePipeline(printer, capacity, batchSize, policy);
+        pipeline.registerMetrics(metrics);
+        if (checkpoint != null) {
+            // Closed after the pipeline drains, before the printer: the last commit covers the whole queue.
+            checkpoint.register(pipeline);
+            resources.push(checkpoint);
+        }
+        resources.push(pipeline);
+        return pipeline;
+    }
+
+    /**
+     * TELEGRAM_AGGREGATE=only replaces the raw output with one summary per window, {@code with-output}
+     * adds the summaries next to it. Summaries go to TELEGRAM_AGGREGATE_FILE, or to stdout.
+     */
+    private static UpdateHandler aggregate(String mode, UpdateHandler output, UpdateMetrics metrics,
+            OffsetCheckpoint checkpoint, Deque<Closeable> resources) {
+        switch (mode) {
+            case "off":
+                return output;
+            case "only":
+                if (output != null) {
+                    throw new IllegalStateException("TELEGRAM_AGGREGATE=only cannot be combined with TELEGRAM_SINKS");
+                }
+                if (checkpoint != null) {
+                    // Counts live in memory until the window closes; there is nothing durable to checkpoint.
+                    throw new IllegalStateException("TELEGRAM_AGGREGATE=only cannot be combined with "
+                            + "TELEGRAM_CHECKPOINT_FILE");
+                }
+                break;
+            case "with-output":
+                break;
+            default:
+                throw new IllegalStateException("Unsupported TELEGRAM_AGGREGATE value: " + mode);
+        }
+        long windowMillis = readLongConfig("TELEGRAM_AGGREGATE_WINDOW_MS", TimeUnit.MINUTES.toMillis(1));
+        UpdateAggregator.Window window;
+        try {
+            window = UpdateAggregator.Window.sliding(windowMillis,
+                    readLongConfig("TELEGRAM_AGGREGATE_STEP_MS", windowMillis));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalStateException("Unsupported TELEGRAM_AGGREGATE_* values: " + ex.getMessage(), ex);
+        }
+        Optional<Path> file = readOptionalConfig("TELEGRAM_AGGREGATE_FILE").map(Path::of);
+        LogFileSink logSink = null;
+        StdoutSink stdout = null;
+        if (file.isPresent()) {
+            try {
+                logSink = new LogFileSink(file.get());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open aggregate file " + file.get(), e);
+            }
+            resources.push(logSink);
+        } else {
+            stdout = new StdoutSink(parseStdoutFlush(readOptionalConfig("TELEGRAM_STDOUT_FLUSH")),
+                    readIntConfig("TELEGRAM_STDOUT_BUFFER_SIZE", StdoutSink.DEFAULT_BUFFER_SIZE),
+                    readLongConfig("TELEGRAM_STDOUT_IDLE_MS", StdoutSink.DEFAULT_IDLE_MILLIS));
+            resources.push(stdout);
+        }
+        UpdateAggregator aggregator = new UpdateAggregator(output, window, stdout, logSink);
+        aggregator.registerMetrics(metrics);
+        resources.push(aggregator);
+        return aggregator;
+    }
+
+    private static UpdateHandler filter(UpdateHandler handler, UpdateFilter.Rules rules, UpdateMetrics metrics) {
+        if (rules.acceptsEverything()) {
+            return handler;
+        }
+        UpdateFilter filter = new UpdateFilter(handler, rules);
+        filter.registerMetrics(metrics);
+        return filter;
+    }
+
+    private static UpdateFilter.Rules readFilterRules() {
+        UpdateFilter.Rules rules = UpdateFilter.Rules.acceptAll();
+        Optional<String> rawTypes = readOptionalConfig("TELEGRAM_FILTER_TYPES");
+        if (rawTypes.isPresent()) {
+            List<UpdateType> types = new ArrayList<>();
+            for (String name : rawTypes.get().split(",")) {
+                if (name.isBlank()) {
+                    continue;
+                }
+                try {
+                    types.add(UpdateType.fromString(name));
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalStateException("Unsupported TELEGRAM_FILTER_TYPES value: " + rawTypes.get(), ex);
+                }
+            }
+            rules = rules.withTypes(types);
+        }
+        rules = rules.withChats(
+                readIdsConfig("TELEGRAM_FILTER_CHATS_ALLOW"), readIdsConfig("TELEGRAM_FILTER_CHATS_DENY"));
+        rules = rules.withUsers(
+                readIdsConfig("TELEGRAM_FILTER_USERS_ALLOW"), readIdsConfig("TELEGRAM_FILTER_USERS_DENY"));
+        rules = rules.withTextContaining(readOptionalConfig("TELEGRAM_FILTER_TEXT_CONTAINS").orElse(null));
+        Optional<String> regex = readOptionalConfig("TELEGRAM_FILTER_TEXT_REGEX");
+        if (regex.isPresent()) {
+            try {
+                rules = rules.withTextMatching(Pattern.compile(regex.get()));
+            } catch (PatternSyntaxException ex) {
+                throw new IllegalStateException("Unsupported TELEGRAM_FILTER_TEXT_REGEX value: " + regex.get(), ex);
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Per-type sampling from TELEGRAM_SAMPLE_RATES (e.g. {@code message_reaction_count:0.01,message:0.5})
+     * and a per-chat token bucket from TELEGRAM_SAMPLE_CHAT_RATE/BURST. Suppressed runs are reported on
+     * stderr so the record formats on stdout and in files stay intact.
+     */
+    private static UpdateHandler sample(UpdateHandler handler, UpdateMetrics metrics, Deque<Closeable> resources) {
+        UpdateSampler.Rules rules = UpdateSampler.Rules.keepAll();
+        Optional<String> rawRates = readOptionalConfig("TELEGRAM_SAMPLE_RATES");
+        if (rawRates.isPresent()) {
+            for (String rawRate : rawRates.get().split(",")) {
+                if (rawRate.isBlank()) {
+                    continue;
+                }
+                String[] parts = rawRate.split(":", 2);
+                try {
+                    rules = rules.withRate(UpdateType.fromString(parts[0]), Double.parseDouble(parts[1].trim()));
+                } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+                    throw new IllegalStateException("Unsupported TELEGRAM_SAMPLE_RATES value: " + rawRates.get(), ex);
+                }
+            }
+        }
+        int chatRate = readIntConfig("TELEGRAM_SAMPLE_CHAT_RATE", 0);
+        try {
+            rules = rules.withChatLimit(chatRate, readIntConfig("TELEGRAM_SAMPLE_CHAT_BURST", chatRate));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalStateException("Unsupported TELEGRAM_SAMPLE_CHAT_* values: " + ex.getMessage(), ex);
+        }
+        if (rules.keepsEverything()) {
+            return handler;
+        }
+        long reportMillis = readLongConfig("TELEGRAM_SAMPLE_REPORT_MS", UpdateSampler.DEFAULT_REPORT_INTERVAL_MILLIS);
+        if (reportMillis < 1) {
+            throw new IllegalStateException("Unsupported TELEGRAM_SAMPLE_REPORT_MS value: " + reportMillis);
+        }
+        UpdateSampler sampler = new UpdateSampler(handler, rules, System.err::println, reportMillis);
+        sampler.registerMetrics(metrics);
+        resources.push(sampler);
+        return sampler;
+    }
+
+    private static UpdateHandler deduplicate(UpdateHandler handler, UpdateMetrics metrics,
+            Deque<Closeable> resources) {
+        int capacity = readIntConfig("TELEGRAM_DEDUP_CAPACITY", 0);
+        if (capacity <= 0) {
+            return handler;
+        }
+        long maxAgeMillis = readLongConfig("TELEGRAM_DEDUP_MAX_AGE_MS", UpdateDeduplicator.DEFAULT_MAX_AGE_MILLIS);
+        Path snapshot = readOptionalConfig("TELEGRAM_DEDUP_SNAPSHOT").map(Path::of).orElse(null);
+        UpdateDeduplicator deduplicator = new UpdateDeduplicator(handler, capacity, maxAgeMillis, snapshot);
+        deduplicator.registerMetrics(metrics);
+        resources.push(deduplicator);
+        return deduplicator;
+    }
+
+    /**
+     * TELEGRAM_API_URL points the bot at another Bot API server (a self-hosted one or a local stand-in
+     * for tests); the token path segment is appended the way {@code api.telegram.org} expects it. A type
+     * filter is also sent as {@code allowed_updates} so Telegram skips those updates altogether.
+     */
+    private static DefaultBotOptions buildBotOptions(UpdateFilter.Rules filterRules) {
+        DefaultBotOptions options = new DefaultBotOptions();
+        if (!filterRules.allowedUpdates().isEmpty()) {
+            options.setAllowedUpdates(filterRules.allowedUpdates());
+        }
+        Optional<String> apiUrl = readOptionalConfig("TELEGRAM_API_URL");
+        if (apiUrl.isPresent()) {
+            String url = apiUrl.get();
+            if (!url.startsWith("http://") && !url.startsWith("https://")) {
+                throw new IllegalStateException("Unsupported TELEGRAM_API_URL value: " + url);
+            }
+            while (url.endsWith("/")) {
+                url = url.substring(0, url.length() - 1);
+            }
+            options.setBaseUrl(url + "/bot");
+        }
+        options.setGetUpdatesTimeout(readIntConfig("TELEGRAM_POLL_TIMEOUT_S", options.getGetUpdatesTimeout()));
+        options.setGetUpdatesLimit(readIntConfig("TELEGRAM_POLL_LIMIT", options.getGetUpdatesLimit()));
+        return options;
+    }
+
+    private static BotSession startPolling(TelegramTriggerBot bot, String token, UpdateMetrics metrics,
+            OffsetCheckpoint checkpoint) throws TelegramApiException {
+        String sessionType = readOptionalConfig("TELEGRAM_POLL_SESSION").orElse("default").toLowerCase(Locale.ROOT);
+        switch (sessionType) {
+            case "default":
+                return new TelegramBotsApi(DefaultBotSession.class).registerBot(bot);
+            case "adaptive":
+                AdaptivePollingSession.Tuning defaults = AdaptivePollingSession.Tuning.defaults();
+                AdaptivePollingSession.Tuning tuning;
+                try {
+                    tuning = AdaptivePollingSession.Tuning.of(bot.getOptions().getGetUpdatesTimeout(),
+                            readIntConfig("TELEGRAM_POLL_MIN_LIMIT", defaults.minLimit()),
+                            bot.getOptions().getGetUpdatesLimit());
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalStateException("Unsupported TELEGRAM_POLL_* values: " + ex.getMessage(), ex);
+                }
+                // A halted checkpoint never advances again in this process; exit so a supervisor restarts it.
+                AdaptivePollingSession session = AdaptivePollingSession.register(bot, token, tuning, metrics, checkpoint,
+                        () -> {
+                            System.err.println("Exiting: the offset checkpoint halted");
+                            System.exit(1);
+                        });
+                session.registerMetrics(metrics);
+                return session;
+            default:
+                throw new IllegalStateException("Unsupported TELEGRAM_POLL_SESSION value: " + sessionType);
+        }
+    }
+
+    private static void startWebhook(TelegramTriggerBot bot, UpdateHandler handler, UpdateMetrics metrics,
+            UpdateFilter.Rules filterRules, Deque<Closeable> resources) throws TelegramApiException {
+        String host = readOptionalConfig("TELEGRAM_WEBHOOK_HOST").orElse("0.0.0.0");
+        int port = readIntConfig("TELEGRAM_WEBHOOK_PORT", 8443);
+        String path = readOptionalConfig("TELEGRAM_WEBHOOK_PATH").orElse(WebhookReceiver.DEFAULT_PATH);
+        String secret = readOptionalConfig("TELEGRAM_WEBHOOK_SECRET").orElse(null);
+        try {
+            resources.push(new WebhookReceiver(handler, metrics, new InetSocketAddress(host, port), path,
+                    secret, readIntConfig("TELEGRAM_WEBHOOK_THREADS", 4)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to start webhook receiver on " + host + ":" + port, e);
+        }
+        // Without a public URL the endpoint is expected to be registered out of band (or fed locally).
+        Optional<String> publicUrl = readOptionalConfig("TELEGRAM_WEBHOOK_URL");
+        if (publicUrl.isPresent()) {
+            SetWebhook setWebhook = new SetWebhook(publicUrl.get());
+            setWebhook.setSecretToken(secret);
+            if (!filterRules.allowedUpdates().isEmpty()) {
+                setWebhook.setAllowedUpdates(filterRules.allowedUpdates());
+            }
+            bot.execute(setWebhook);
+        }
+    }
+
+    private static void exposeMetrics(UpdateMetrics metrics, Deque<Closeable> resources) {
+        if (readBooleanConfig("TELEGRAM_METRICS_JMX", true)) {
+            metrics.registerMBean("com.example.telegram:type=UpdateMetrics");
+        }
+        int port = readIntConfig("TELEGRAM_METRICS_PORT", 0);
+        if (port > 0) {
+            try {
+                resources.push(new MetricsHttpServer(metrics, port));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to start metrics endpoint on port " + port, e);
+            }
+            System.out.printf("Prometheus metrics on http://127.0.0.1:%d/metrics%n", port);
+        }
+    }
+
+    private static void closeAll(Deque<Closeable> resources) {
+        while (!resources.isEmpty()) {
+            Closeable resource = resources.pop();
+            try {
+                resource.close();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to close " + resource + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static UpdatePrinter buildPrinter(UpdateMetrics metrics) {
         UpdatePrinter.Format format = parseFormat(readOptionalConfig("TELEGRAM_OUTPUT_FORMAT"));
-        Path logFile = readOptionalConfig("TELEGRAM_LOG_FILE")
-                .map(Path::of)
-                .orElse(null);
-        return new UpdatePrinter(format, logFile);
+        Optional<Path> logFile = readOptionalConfig("TELEGRAM_LOG_FILE").map(Path::of);
+        Optional<Path> journalDir = readOptionalConfig("TELEGRAM_JOURNAL_DIR").map(Path::of);
+        if (journalDir.isPresent() && format != UpdatePrinter.Format.BINARY) {
+            throw new IllegalStateException("TELEGRAM_JOURNAL_DIR requires TELEGRAM_OUTPUT_FORMAT=binary");
+        }
+        if (format == UpdatePrinter.Format.BINARY && logFile.isEmpty() && journalDir.isEmpty()) {
+            throw new IllegalStateException(
+                    "TELEGRAM_OUTPUT_FORMAT=binary requires TELEGRAM_LOG_FILE or TELEGRAM_JOURNAL_DIR");
+        }
+        return newPrinter(format, format != UpdatePrinter.Format.BINARY, logFile.orElse(null),
+                journalDir.orElse(null), metrics);
+    }
+
+    /**
+     * Builds one printer per format listed in TELEGRAM_SINKS, for example
+     * {@code text:stdout,json:file:/var/log/updates.ndjson,binary:journal:/var/lib/updates}, each with
+     * its own latency histograms, and puts every target behind its own queue. The other TELEGRAM_LOG_*
+     * and TELEGRAM_JOURNAL_* settings apply to every file and journal target.
+     */
+    private static UpdateHandler buildRouter(String rawSinks, UpdateMetrics metrics, OffsetCheckpoint checkpoint,
+            Deque<Closeable> resources) {
+        for (String replaced : List.of("TELEGRAM_OUTPUT_FORMAT", "TELEGRAM_LOG_FILE", "TELEGRAM_JOURNAL_DIR")) {
+            if (readOptionalConfig(replaced).isPresent()) {
+                throw new IllegalStateException(replaced + " cannot be combined with TELEGRAM_SINKS");
+            }
+        }
+        if (!"writer".equalsIgnoreCase(readOptionalConfig("TELEGRAM_HANDLER_THREADS").orElse("writer"))
+                || readIntConfig("TELEGRAM_CHAT_LANES", 1) > 1) {
+            throw new IllegalStateException(
+                    "TELEGRAM_SINKS requires TELEGRAM_HANDLER_THREADS=writer and TELEGRAM_CHAT_LANES=1");
+        }
+        Map<UpdatePrinter.Format, SinkTargets> targets = parseSinks(rawSinks);
+        List<UpdatePrinter> printers = new ArrayList<>();
+        int targetCount = 0;
+        for (Map.Entry<UpdatePrinter.Format, SinkTargets> entry : targets.entrySet()) {
+            SinkTargets sink = entry.getValue();
+            UpdatePrinter printer = newPrinter(entry.getKey(), sink.stdout, sink.file, sink.journal, metrics,
+                    new UpdateMetrics());
+            resources.push(printer);
+            printers.add(printer);
+            targetCount += printer.targets().size();
+        }
+        AsyncUpdatePipeline.BackpressurePolicy policy = parseBackpressure(readOptionalConfig("TELEGRAM_BACKPRESSURE"));
+        if (policy == AsyncUpdatePipeline.BackpressurePolicy.BLOCK && targetCount > 1) {
+            System.err.println("TELEGRAM_BACKPRESSURE=block: a sink whose queue is full holds up every other sink; "
+                    + "use drop_newest or drop_oldest to keep the sinks independent");
+        }
+        SinkRouter router = new SinkRouter(printers,
+                Math.max(1, readIntConfig("TELEGRAM_QUEUE_CAPACITY", AsyncUpdatePipeline.DEFAULT_CAPACITY)),
+                readIntConfig("TELEGRAM_WRITER_BATCH_SIZE", AsyncUpdatePipeline.DEFAULT_BATCH_SIZE), policy);
+        router.registerMetrics(metrics);
+        if (checkpoint != null) {
+            router.registerStages(checkpoint);
+            resources.push(checkpoint);
+        }
+        resources.push(router);
+        return router;
+    }
+
+    private static final class SinkTargets {
+        private boolean stdout;
+        private Path file;
+        private Path journal;
+    }
+
+    private static Map<UpdatePrinter.Format, SinkTargets> parseSinks(String rawSinks) {
+        Map<UpdatePrinter.Format, SinkTargets> targets = new EnumMap<>(UpdatePrinter.Format.class);
+        for (String rawSink : rawSinks.split(",")) {
+            if (rawSink.isBlank()) {
+                continue;
+            }
+            // format:target[:path]; the path keeps any further colons.
+            String[] parts = rawSink.trim().split(":", 3);
+            UpdatePrinter.Format format;
+            try {
+                format = UpdatePrinter.Format.fromString(parts[0]);
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalStateException("Unsupported TELEGRAM_SINKS value: " + rawSink, ex);
+            }
+            String target = parts.length > 1 ? parts[1].trim().toLowerCase(Locale.ROOT) : "";
+            Path path = parts.length > 2 && !parts[2].isBlank() ? Path.of(parts[2].trim()) : null;
+            SinkTargets sink = targets.computeIfAbsent(format, ignored -> new SinkTargets());
+            boolean duplicate;
+            switch (target) {
+                case "stdout":
+                    if (path != null || format == UpdatePrinter.Format.BINARY) {
+                        throw new IllegalStateException("Unsupported TELEGRAM_SINKS value: " + rawSink);
+                    }
+                    duplicate = sink.stdout;
+                    sink.stdout = true;
+                    break;
+                case "file":
+                    if (path == null) {
+                        throw new IllegalStateException("TELEGRAM_SINKS file target needs a path: " + rawSink);
+                    }
+                    duplicate = sink.file != null;
+                    sink.file = path;
+                    break;
+                case "journal":
+                    if (path == null || format != UpdatePrinter.Format.BINARY) {
+                        throw new IllegalStateException("Unsupported TELEGRAM_SINKS value: " + rawSink);
+                    }
+                    duplicate = sink.journal != null;
+                    sink.journal = path;
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported TELEGRAM_SINKS value: " + rawSink);
+            }
+            if (duplicate) {
+                throw new IllegalStateException("TELEGRAM_SINKS lists " + format.name().toLowerCase(Locale.ROOT)
+                        + ":" + target + " more than once");
+            }
+        }
+        if (targets.isEmpty()) {
+            throw new IllegalStateException("Unsupported TELEGRAM_SINKS value: " + rawSinks);
+        }
+        return targets;
+    }
+
+    private static UpdatePrinter newPrinter(UpdatePrinter.Format format, boolean toStdout, Path logFile,
+            Path journalDir, UpdateMetrics metrics) {
+        return newPrinter(format, toStdout, logFile, journalDir, metrics, metrics);
+    }
+
+    /**
+     * @param printerMetrics receives the printer's latencies; {@code metrics} the journal's gauges
+     */
+    private static UpdatePrinter newPrinter(UpdatePrinter.Format format, boolean toStdout, Path logFile,
+            Path journalDir, UpdateMetrics metrics, UpdateMetrics printerMetrics) {
+        int batchBytes = readIntConfig("TELEGRAM_WRITER_BATCH_BYTES", UpdatePrinter.DEFAULT_BATCH_BYTES);
+        long batchMaxNanos = TimeUnit.MICROSECONDS.toNanos(readLongConfig("TELEGRAM_WRITER_BATCH_MAX_US",
+                TimeUnit.NANOSECONDS.toMicros(UpdatePrinter.DEFAULT_BATCH_MAX_NANOS)));
+        UpdateJournal journal = journalDir == null ? null : openJournal(journalDir, metrics);
+        StdoutSink stdout = !toStdout ? null : new StdoutSink(
+                parseStdoutFlush(readOptionalConfig("TELEGRAM_STDOUT_FLUSH")),
+                readIntConfig("TELEGRAM_STDOUT_BUFFER_SIZE", StdoutSink.DEFAULT_BUFFER_SIZE),
+                readLongConfig("TELEGRAM_STDOUT_IDLE_MS", StdoutSink.DEFAULT_IDLE_MILLIS));
+        JsonProjection projection = format == UpdatePrinter.Format.JSON ? readProjection() : null;
+        if (logFile == null) {
+            return new UpdatePrinter(format, stdout, null, printerMetrics, journal, batchBytes, batchMaxNanos,
+                    projection);
+        }
+        LogFileSink.FlushPolicy flushPolicy = LogFileSink.FlushPolicy.of(
+                readIntConfig("TELEGRAM_LOG_FLUSH_EVERY", 1),
+                readLongConfig("TELEGRAM_LOG_FLUSH_INTERVAL_MS", 0));
+        LogFileSink.RotationPolicy rotationPolicy = LogFileSink.RotationPolicy.of(
+                readLongConfig("TELEGRAM_LOG_MAX_BYTES", 0),
+                readLongConfig("TELEGRAM_LOG_ROTATE_INTERVAL_MS", 0),
+                readIntConfig("TELEGRAM_LOG_MAX_SEGMENTS", 0),
+                parseCompression(readOptionalConfig("TELEGRAM_LOG_COMPRESSION")));
+        int bufferSize = readIntConfig("TELEGRAM_LOG_BUFFER_SIZE", LogFileSink.DEFAULT_BUFFER_SIZE);
+        try {
+            return new UpdatePrinter(format, stdout, new LogFileSink(logFile, flushPolicy, rotationPolicy, bufferSize),
+                    printerMetrics, journal, batchBytes, batchMaxNanos, projection);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open log file " + logFile, e);
+        }
+    }
+
+    private static JsonProjection readProjection() {
+        Optional<String> rawFields = readOptionalConfig("TELEGRAM_JSON_FIELDS");
+        if (rawFields.isEmpty()) {
+            return null;
+        }
+        try {
+            return JsonProjection.compile(rawFields.get());
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalStateException("Unsupported TELEGRAM_JSON_FIELDS value: " + rawFields.get(), ex);
+        }
+    }
+
+    private static UpdateJournal openJournal(Path directory, UpdateMetrics metrics) {
+        try {
+            UpdateJournal journal = new UpdateJournal(directory,
+                    readLongConfig("TELEGRAM_JOURNAL_SEGMENT_BYTES", UpdateJournal.DEFAULT_SEGMENT_BYTES),
+                    readIntConfig("TELEGRAM_JOURNAL_INDEX_INTERVAL", UpdateJournal.DEFAULT_INDEX_INTERVAL),
+                    readIntConfig("TELEGRAM_JOURNAL_MAX_SEGMENTS", 0));
+            if (journal.truncatedBytes() > 0) {
+                System.err.printf("Journal recovery cut off %d bytes of a torn record%n", journal.truncatedBytes());
+            }
+            journal.registerMetrics(metrics);
+            return journal;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open journal " + directory, e);
+        }
     }
 
     private static UpdatePrinter.Format parseFormat(Optional<String> rawFormat) {
@@ -52,6 +632,96 @@ public final class BotLauncher {
         }
     }
 
+    private static AsyncUpdatePipeline.BackpressurePolicy parseBackpressure(Optional<String> rawPolicy) {
+        try {
+            return AsyncUpdatePipeline.BackpressurePolicy.fromString(rawPolicy.orElse(null));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalStateException(
+                    "Unsupported TELEGRAM_BACKPRESSURE value: " + rawPolicy.orElse(""), ex);
+        }
+    }
+
+    private static StdoutSink.FlushMode parseStdoutFlush(Optional<String> rawMode) {
+        try {
+            return StdoutSink.FlushMode.fromString(rawMode.orElse(null));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalStateException(
+                    "Unsupported TELEGRAM_STDOUT_FLUSH value: " + rawMode.orElse(""), ex);
+        }
+    }
+
+    private static LogFileSink.Compression parseCompression(Optional<String> rawCompression) {
+        try {
+            return LogFileSink.Compression.fromString(rawCompression.orElse(null));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalStateException(
+                    "Unsupported TELEGRAM_LOG_COMPRESSION value: " + rawCompression.orElse(""), ex);
+        }
+    }
+
+    private static boolean readBooleanConfig(String key, boolean defaultValue) {
+        Optional<String> raw = readOptionalConfig(key);
+        if (raw.isEmpty()) {
+            return defaultValue;
+        }
+        switch (raw.get().toLowerCase(Locale.ROOT)) {
+            case "true":
+            case "yes":
+            case "1":
+                return true;
+            case "false":
+            case "no":
+            case "0":
+                return false;
+            default:
+                throw new IllegalStateException("Unsupported " + key + " value: " + raw.get());
+        }
+    }
+
+    private static int readIntConfig(String key, int defaultValue) {
+        long value = readLongConfig(key, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Unsupported " + key + " value: " + value);
+        }
+        return (int) value;
+    }
+
+    private static long readLongConfig(String key, long defaultValue) {
+        Optional<String> raw = readOptionalConfig(key);
+        if (raw.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(raw.get());
+        } catch (NumberFormatException ex) {
+            throw new IllegalStateException("Unsupported " + key + " value: " + raw.get(), ex);
+        }
+    }
+
+    /**
+     * Comma-separated ids, e.g. {@code -1001234567890,42}; empty when the key is not set.
+     */
+    private static long[] readIdsConfig(String key) {
+        Optional<String> raw = readOptionalConfig(key);
+        if (raw.isEmpty()) {
+            return new long[0];
+        }
+        String[] parts = raw.get().split(",");
+        long[] ids = new long[parts.length];
+        int count = 0;
+        for (String part : parts) {
+            if (part.isBlank()) {
+                continue;
+            }
+            try {
+                ids[count++] = Long.parseLong(part.trim());
+            } catch (NumberFormatException ex) {
+                throw new IllegalStateException("Unsupported " + key + " value: " + raw.get(), ex);
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
     private static Optional<String> readOptionalConfig(String key) {
         String value = System.getenv(key);
         if (value == null || value.isBlank()) {
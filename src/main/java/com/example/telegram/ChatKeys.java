@@ -0,0 +1,217 @@
+package com.example.telegram;
+
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.InaccessibleMessage;
+import org.telegram.telegrambots.meta.api.objects.MaybeInaccessibleMessage;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
+import org.telegram.telegrambots.meta.api.objects.polls.PollAnswer;
+
+/**
+ * Finds the conversation an {@link Update} belongs to, so updates can be partitioned without
+ * breaking per-chat ordering.
+ */
+final class ChatKeys {
+
+    /**
+     * Key for updates that carry neither a chat nor a user (e.g. a bare {@code poll} update).
+     */
+    static final long NO_CHAT = 0L;
+
+    /**
+     * {@link #messageKey} of updates without a message-like section.
+     */
+    static final long NO_MESSAGE = 0L;
+
+    private ChatKeys() {
+    }
+
+    /**
+     * Chat id of the first section that has one; for inline, callback, payment and poll-answer
+     * updates without a chat, the id of the user who triggered them. {@link #NO_CHAT} otherwise.
+     */
+    static long routingKey(Update update) {
+        if (update == null) {
+            return NO_CHAT;
+        }
+        Long chatId = messageChat(update.getMessage());
+        if (chatId == null) {
+            chatId = messageChat(update.getEditedMessage());
+        }
+        if (chatId == null) {
+            chatId = messageChat(update.getChannelPost());
+        }
+        if (chatId == null) {
+            chatId = messageChat(update.getEditedChannelPost());
+        }
+        if (chatId == null && update.getCallbackQuery() != null) {
+            chatId = callbackChat(update.getCallbackQuery());
+        }
+        if (chatId == null && update.getMyChatMember() != null) {
+            chatId = chatId(update.getMyChatMember().getChat());
+        }
+        if (chatId == null && update.getChatMember() != null) {
+            chatId = chatId(update.getChatMember().getChat());
+        }
+        if (chatId == null && update.getChatJoinRequest() != null) {
+            chatId = chatId(update.getChatJoinRequest().getChat());
+        }
+        if (chatId == null && update.getMessageReaction() != null) {
+            chatId = chatId(update.getMessageReaction().getChat());
+        }
+        if (chatId == null && update.getMessageReactionCount() != null) {
+            chatId = chatId(update.getMessageReactionCount().getChat());
+        }
+        if (chatId == null && update.getChatBoost() != null) {
+            chatId = chatId(update.getChatBoost().getChat());
+        }
+        if (chatId == null && update.getRemovedChatBoost() != null) {
+            chatId = chatId(update.getRemovedChatBoost().getChat());
+        }
+        if (chatId == null && update.getPollAnswer() != null) {
+            chatId = pollAnswerKey(update.getPollAnswer());
+        }
+        if (chatId == null && update.getInlineQuery() != null) {
+            chatId = userId(update.getInlineQuery().getFrom());
+        }
+        if (chatId == null && update.getChosenInlineQuery() != null) {
+            chatId = userId(update.getChosenInlineQuery().getFrom());
+        }
+        if (chatId == null && update.getShippingQuery() != null) {
+            chatId = userId(update.getShippingQuery().getFrom());
+        }
+        if (chatId == null && update.getPreCheckoutQuery() != null) {
+            chatId = userId(update.getPreCheckoutQuery().getFrom());
+        }
+        return chatId == null ? NO_CHAT : chatId;
+    }
+
+    /**
+     * Id of the user who caused the update, or {@link #NO_CHAT} when no section names one.
+     */
+    static long userKey(Update update) {
+        if (update == null) {
+            return NO_CHAT;
+        }
+        Long userId = messageFrom(update.getMessage());
+        if (userId == null) {
+            userId = messageFrom(update.getEditedMessage());
+        }
+        if (userId == null) {
+            userId = messageFrom(update.getChannelPost());
+        }
+        if (userId == null) {
+            userId = messageFrom(update.getEditedChannelPost());
+        }
+        if (userId == null && update.getCallbackQuery() != null) {
+            userId = userId(update.getCallbackQuery().getFrom());
+        }
+        if (userId == null && update.getInlineQuery() != null) {
+            userId = userId(update.getInlineQuery().getFrom());
+        }
+        if (userId == null && update.getChosenInlineQuery() != null) {
+            userId = userId(update.getChosenInlineQuery().getFrom());
+        }
+        if (userId == null && update.getShippingQuery() != null) {
+            userId = userId(update.getShippingQuery().getFrom());
+        }
+        if (userId == null && update.getPreCheckoutQuery() != null) {
+            userId = userId(update.getPreCheckoutQuery().getFrom());
+        }
+        if (userId == null && update.getPollAnswer() != null) {
+            userId = userId(update.getPollAnswer().getUser());
+        }
+        if (userId == null && update.getMyChatMember() != null) {
+            userId = userId(update.getMyChatMember().getFrom());
+        }
+        if (userId == null && update.getChatMember() != null) {
+            userId = userId(update.getChatMember().getFrom());
+        }
+        if (userId == null && update.getChatJoinRequest() != null) {
+            userId = userId(update.getChatJoinRequest().getUser());
+        }
+        if (userId == null && update.getMessageReaction() != null) {
+            userId = userId(update.getMessageReaction().getUser());
+        }
+        return userId == null ? NO_CHAT : userId;
+    }
+
+    /**
+     * 64-bit fingerprint of the (chat id, message id, edit date) of the message, edited message,
+     * channel post or edited channel post, so a message redelivered under a new update id is
+     * recognized while every further edit stays distinct. {@link #NO_MESSAGE} when there is none.
+     */
+    static long messageKey(Update update) {
+        if (update == null) {
+            return NO_MESSAGE;
+        }
+        Message message = update.getMessage();
+        if (message == null) {
+            message = update.getEditedMessage();
+        }
+        if (message == null) {
+            message = update.getChannelPost();
+        }
+        if (message == null) {
+            message = update.getEditedChannelPost();
+        }
+        Long chatId = messageChat(message);
+        if (chatId == null || message.getMessageId() == null) {
+            return NO_MESSAGE;
+        }
+        long hash = chatId;
+        hash = hash * 0x9E3779B97F4A7C15L + message.getMessageId();
+        hash = hash * 0x9E3779B97F4A7C15L + (message.getEditDate() == null ? 0 : message.getEditDate());
+        // murmur3 fmix64
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash == NO_MESSAGE ? 1L : hash;
+    }
+
+    /**
+     * Maps a routing key onto {@code [0, lanes)}. Chat ids are mostly sequential and supergroup ids
+     * share a large common prefix, so the key is mixed before taking the remainder.
+     */
+    static int lane(long key, int lanes) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return Math.floorMod((int) (mixed ^ (mixed >>> 32)), lanes);
+    }
+
+    private static Long messageChat(Message message) {
+        // Message#getChatId dereferences the chat without a null check.
+        return message == null ? null : chatId(message.getChat());
+    }
+
+    private static Long messageFrom(Message message) {
+        return message == null ? null : userId(message.getFrom());
+    }
+
+    private static Long callbackChat(CallbackQuery callbackQuery) {
+        MaybeInaccessibleMessage message = callbackQuery.getMessage();
+        Long chatId = null;
+        if (message instanceof Message) {
+            chatId = messageChat((Message) message);
+        } else if (message instanceof InaccessibleMessage) {
+            chatId = chatId(((InaccessibleMessage) message).getChat());
+        }
+        return chatId != null ? chatId : userId(callbackQuery.getFrom());
+    }
+
+    private static Long pollAnswerKey(PollAnswer pollAnswer) {
+        Long voterChat = chatId(pollAnswer.getVoterChat());
+        return voterChat != null ? voterChat : userId(pollAnswer.getUser());
+    }
+
+    private static Long chatId(Chat chat) {
+        return chat == null ? null : chat.getId();
+    }
+
+    private static Long userId(User user) {
+        return user == null ? null : user.getId();
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.telegram;
+
+/**
+ * Open-addressing map from a chat key to the {@link UpdateSampler}'s per-chat state: a token bucket
+ * and the length of the open drop run of every update type, all in parallel primitive arrays, so
+ * tracking a chat never boxes or allocates once the table has grown. Removal only marks a slot free;
+ * {@link #compact()} must run before the next lookup to rebuild the probe chains. Iterate with
+ * {@code for (int i = 0; i < slots(); i++) if (used(i))}. Not thread-safe.
+ */
+final class ChatStateTable {
+
+    private static final int MIN_SLOTS = 16;
+
+    private final int types;
+    private long[] chats;
+    private boolean[] used;
+    private double[] tokens;
+    private long[] refilledAt;
+    private int[] openRuns;
+    private long[] suppressed;
+    private int mask;
+    private int size;
+
+    ChatStateTable(int types) {
+        this.types = types;
+        allocate(MIN_SLOTS);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int slots() {
+        return used.length;
+    }
+
+    boolean used(int slot) {
+        return used[slot];
+    }
+
+    long chat(int slot) {
+        return chats[slot];
+    }
+
+    /**
+     * @return the chat's slot, or {@code -1} if it is not tracked
+     */
+    int find(long chat) {
+        for (int slot = slot(chat); used[slot]; slot = (slot + 1) & mask) {
+            if (chats[slot] == chat) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Slot of the chat, inserted with a bucket of {@code initialTokens} refilled at {@code now} if absent.
+     * The slot stays valid until the next insert.
+     */
+    int findOrInsert(long chat, double initialTokens, long now) {
+        for (int slot = slot(chat); ; slot = (slot + 1) & mask) {
+            if (!used[slot]) {
+                if (size + 1 > used.length / 2) {
+                    grow(used.length << 1);
+                    return findOrInsert(chat, initialTokens, now);
+                }
+                used[slot] = true;
+                chats[slot] = chat;
+                tokens[slot] = initialTokens;
+                refilledAt[slot] = now;
+                size++;
+                return slot;
+            }
+            if (chats[slot] == chat) {
+                return slot;
+            }
+        }
+    }
+
+    double tokens(int slot) {
+        return tokens[slot];
+    }
+
+    long refilledAt(int slot) {
+        return refilledAt[slot];
+    }
+
+    void refill(int slot, double tokens, long at) {
+        this.tokens[slot] = tokens;
+        refilledAt[slot] = at;
+    }
+
+    int openRuns(int slot) {
+        return openRuns[slot];
+    }
+
+    long suppressed(int slot, int type) {
+        return suppressed[slot * types + type];
+    }
+
+    /**
+     * Counts one more dropped update of the type.
+     *
+     * @return {@code true} if this opened a new run
+     */
+    boolean suppress(int slot, int type) {
+        if (suppressed[slot * types + type]++ == 0) {
+            openRuns[slot]++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Closes the type's run.
+     *
+     * @return how many updates it had dropped
+     */
+    long closeRun(int slot, int type) {
+        int index = slot * types + type;
+        long count = suppressed[index];
+        suppressed[index] = 0;
+        openRuns[slot]--;
+        return count;
+    }
+
+    /**
+     * Frees the slot; call {@link #compact()} before the next lookup.
+     */
+    void remove(int slot) {
+        used[slot] = false;
+        size--;
+    }
+
+    /**
+     * Rehashes what {@link #remove} left, shrinking the table after a flood of chats has gone quiet.
+     */
+    void compact() {
+        int slots = MIN_SLOTS;
+        while (size > slots / 2) {
+            slots <<= 1;
+        }
+        grow(slots);
+    }
+
+    private int slot(long chat) {
+        long h = chat * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void grow(int slots) {
+        long[] oldChats = chats;
+        boolean[] oldUsed = used;
+        double[] oldTokens = tokens;
+        long[] oldRefilledAt = refilledAt;
+        int[] oldOpenRuns = openRuns;
+        long[] oldSuppressed = suppressed;
+        allocate(slots);
+        size = 0;
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                int slot = findOrInsert(oldChats[i], oldTokens[i], oldRefilledAt[i]);
+                openRuns[slot] = oldOpenRuns[i];
+                System.arraycopy(oldSuppressed, i * types, suppressed, slot * types, types);
+            }
+        }
+    }
+
+    private void allocate(int slots) {
+        chats = new long[slots];
+        used = new boolean[slots];
+        tokens = new double[slots];
+        refilledAt = new long[slots];
+        openRuns = new int[slots];
+        suppressed = new long[slots * types];
+        mask = slots - 1;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.telegram;
+
+import java.io.Closeable;
+import java.util.Objects;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Spreads updates over several {@link AsyncUpdatePipeline} lanes by chat, see
+ * {@link ChatKeys#routingKey(Update)}. Every update of a chat lands on the same lane and therefore
+ * keeps its order, while different chats are formatted in parallel. The lanes merge again in the
+ * sinks, whose locks serialize the already encoded payloads.
+ */
+public class ChatStripedDispatcher implements UpdateHandler, Closeable {
+
+    private final AsyncUpdatePipeline[] lanes;
+
+    /**
+     * @param capacity ring buffer capacity of each lane
+     */
+    public ChatStripedDispatcher(UpdatePrinter printer, int laneCount, int capacity, int batchSize,
+            AsyncUpdatePipeline.BackpressurePolicy policy) {
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("laneCount must be >= 1: " + laneCount);
+        }
+        Objects.requireNonNull(printer, "printer");
+        this.lanes = new AsyncUpdatePipeline[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new AsyncUpdatePipeline(printer, capacity, batchSize, policy, "update-lane-" + i);
+        }
+    }
+
+    @Override
+    public void handle(Update update) {
+        handle(update, UpdateClassification.of(update));
+    }
+
+    @Override
+    public void handle(Update update, long classification) {
+        if (update == null) {
+            return;
+        }
+        lanes[laneOf(update)].handle(update, classification);
+    }
+
+    int laneOf(Update update) {
+        return ChatKeys.lane(ChatKeys.routingKey(update), lanes.length);
+    }
+
+    public int laneCount() {
+        return lanes.length;
+    }
+
+    public int queueDepth() {
+        int depth = 0;
+        for (AsyncUpdatePipeline lane : lanes) {
+            depth += lane.queueDepth();
+        }
+        return depth;
+    }
+
+    public long publishedCount() {
+        long total = 0;
+        for (AsyncUpdatePipeline lane : lanes) {
+            total += lane.publishedCount();
+        }
+        return total;
+    }
+
+    public long writtenCount() {
+        long total = 0;
+        for (AsyncUpdatePipeline lane : lanes) {
+            total += lane.writtenCount();
+        }
+        return total;
+    }
+
+    public long droppedCount() {
+        long total = 0;
+        for (AsyncUpdatePipeline lane : lanes) {
+            total += lane.droppedCount();
+        }
+        return total;
+    }
+
+    /**
+     * Publishes the same telegram_queue_* series as a single pipeline, summed over all lanes, plus
+     * the depth of the busiest lane to spot a hot chat.
+     */
+    public void registerMetrics(UpdateMetrics metrics) {
+        metrics.registerGauge("telegram_queue_depth", "Updates waiting for the writer threads.", false,
+                this::queueDepth);
+        metrics.registerGauge("telegram_queue_capacity", "Ring buffer capacity, all lanes.", false,
+                () -> (long) lanes[0].capacity() * lanes.length);
+        metrics.registerGauge("telegram_queue_max_lane_depth", "Depth of the fullest lane.", false,
+                this::maxLaneDepth);
+        metrics.registerGauge("telegram_queue_published_total", "Updates accepted into the queue.", true,
+                this::publishedCount);
+        metrics.registerGauge("telegram_queue_written_total", "Updates printed by the writer threads.", true,
+                this::writtenCount);
+        metrics.registerGauge("telegram_queue_dropped_total", "Updates dropped by backpressure.", true,
+                this::droppedCount);
+    }
+
+    /**
+     * Drains and stops every lane.
+     */
+    @Override
+    public void close() {
+        for (AsyncUpdatePipeline lane : lanes) {
+            lane.close();
+        }
+    }
+
+    private long maxLaneDepth() {
+        int max = 0;
+        for (AsyncUpdatePipeline lane : lanes) {
+            max = Math.max(max, lane.queueDepth());
+        }
+        return max;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.telegram;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Hands out reusable encoder state. Platform threads keep theirs in a {@link ThreadLocal}, exactly
+ * as before; virtual threads are short-lived (often one per update), so a thread-local would
+ * allocate a fresh encoder every time and they borrow from a small shared free list instead.
+ */
+final class EncoderCache<T> {
+
+    private final Supplier<T> factory;
+    private final ThreadLocal<T> perThread;
+    private final ConcurrentLinkedQueue<T> shared = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger sharedSize = new AtomicInteger();
+    private final int maxShared;
+
+    EncoderCache(Supplier<T> factory, int maxShared) {
+        this.factory = Objects.requireNonNull(factory, "factory");
+        this.perThread = ThreadLocal.withInitial(factory);
+        this.maxShared = maxShared;
+    }
+
+    T acquire() {
+        if (!VirtualThreads.isVirtual(Thread.currentThread())) {
+            return perThread.get();
+        }
+        T encoder = shared.poll();
+        if (encoder == null) {
+            return factory.get();
+        }
+        sharedSize.decrementAndGet();
+        return encoder;
+    }
+
+    /**
+     * Returns an encoder obtained from {@link #acquire()} once its output has been consumed.
+     */
+    void release(T encoder) {
+        if (!VirtualThreads.isVirtual(Thread.currentThread())) {
+            return;
+        }
+        if (sharedSize.incrementAndGet() <= maxShared) {
+            shared.offer(encoder);
+        } else {
+            sharedSize.decrementAndGet();
+        }
+    }
+}
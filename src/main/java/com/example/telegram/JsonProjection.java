@@ -0,0 +1,221 @@
+package com.example.telegram;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Slim NDJSON: writes only the listed paths of an {@link Update}, such as
+ * {@code update_id,message.chat.id,message.text,callback_query.data}, keeping their nesting. Paths use
+ * the Bot API field names. They are compiled once into a tree of Jackson property accessors, so only
+ * those getters are called and the rest of the update graph is never visited. A path that ends on an
+ * object or list writes it whole; one that passes through a list projects every element. Null values,
+ * and objects along a path that are null, are left out.
+ */
+public final class JsonProjection {
+
+    private final String spec;
+    private final Node root;
+    private final ObjectWriter valueWriter;
+
+    private JsonProjection(String spec, Node root, ObjectWriter valueWriter) {
+        this.spec = spec;
+        this.root = root;
+        this.valueWriter = valueWriter;
+    }
+
+    /**
+     * @param spec comma-separated dotted paths
+     * @throws IllegalArgumentException if the spec is empty or names a field the Bot API type does not have
+     */
+    public static JsonProjection compile(String spec) {
+        ObjectMapper mapper = UpdatePrinter.newObjectMapper();
+        SerializationConfig config = mapper.getSerializationConfig();
+        Node root = new Node(config, null);
+        List<String> paths = new ArrayList<>();
+        for (String rawPath : spec.split(",")) {
+            String path = rawPath.trim();
+            if (path.isEmpty()) {
+                continue;
+            }
+            paths.add(path);
+            Node node = root;
+            JavaType declared = config.constructType(Update.class);
+            String[] segments = path.split("\\.", -1);
+            for (int i = 0; i < segments.length && !node.whole; i++) {
+                String segment = segments[i];
+                if (segment.isEmpty()) {
+                    throw new IllegalArgumentException("Empty field in projection path: " + path);
+                }
+                declared = validate(config, declared, segment, path);
+                node = node.child(segment);
+            }
+            node.makeWhole();
+        }
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("Projection has no paths: " + spec);
+        }
+        root.freeze();
+        return new JsonProjection(String.join(",", paths), root,
+                mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE));
+    }
+
+    /**
+     * Checks the segment against the declared type and returns the declared type of the field. Below
+     * an interface or abstract type the fields depend on the runtime class, so nothing more is checked.
+     */
+    private static JavaType validate(SerializationConfig config, JavaType declared, String segment, String path) {
+        if (declared == null) {
+            return null;
+        }
+        JavaType owner = declared.isContainerType() ? declared.getContentType() : declared;
+        if (owner.isAbstract() || Modifier.isInterface(owner.getRawClass().getModifiers())) {
+            return null;
+        }
+        AnnotatedMember accessor = findAccessor(config, owner.getRawClass(), segment);
+        if (accessor == null) {
+            throw new IllegalArgumentException("Unknown field '" + segment + "' of "
+                    + owner.getRawClass().getSimpleName() + " in projection path: " + path);
+        }
+        return accessor.getType();
+    }
+
+    private static AnnotatedMember findAccessor(SerializationConfig config, Class<?> type, String name) {
+        BeanDescription description = config.introspect(config.constructType(type));
+        for (BeanPropertyDefinition property : description.findProperties()) {
+            if (property.getName().equals(name) && property.getAccessor() != null) {
+                AnnotatedMember accessor = property.getAccessor();
+                accessor.fixAccess(true);
+                return accessor;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the projected update as one JSON object.
+     */
+    public void write(JsonGenerator generator, Update update) throws IOException {
+        writeObject(generator, root, update);
+    }
+
+    private void writeObject(JsonGenerator generator, Node node, Object bean) throws IOException {
+        generator.writeStartObject();
+        AnnotatedMember[] accessors = node.accessors.get(bean.getClass());
+        for (int i = 0; i < node.children.length; i++) {
+            AnnotatedMember accessor = accessors[i];
+            Object value = accessor == null ? null : accessor.getValue(bean);
+            if (value != null) {
+                Node child = node.children[i];
+                generator.writeFieldName(child.key);
+                writeValue(generator, child, value);
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeValue(JsonGenerator generator, Node node, Object value) throws IOException {
+        if (node.whole) {
+            writeLeaf(generator, value);
+        } else if (value instanceof Collection) {
+            generator.writeStartArray();
+            for (Object element : (Collection<?>) value) {
+                if (element == null) {
+                    generator.writeNull();
+                } else {
+                    writeObject(generator, node, element);
+                }
+            }
+            generator.writeEndArray();
+        } else {
+            writeObject(generator, node, value);
+        }
+    }
+
+    private void writeLeaf(JsonGenerator generator, Object value) throws IOException {
+        if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Integer) {
+            generator.writeNumber((Integer) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else {
+            valueWriter.writeValue(generator, value);
+        }
+    }
+
+    /**
+     * The normalized spec, paths joined by commas.
+     */
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    private static final class Node {
+        private final SerializationConfig config;
+        private final SerializableString key;
+        private Map<String, Node> pending = new LinkedHashMap<>();
+        private Node[] children;
+        private boolean whole;
+
+        /**
+         * Accessors of {@link #children}, in order, for each runtime class met; {@code null} where the
+         * class has no such field.
+         */
+        private final ClassValue<AnnotatedMember[]> accessors = new ClassValue<>() {
+            @Override
+            protected AnnotatedMember[] computeValue(Class<?> type) {
+                AnnotatedMember[] resolved = new AnnotatedMember[children.length];
+                for (int i = 0; i < children.length; i++) {
+                    resolved[i] = findAccessor(config, type, children[i].key.getValue());
+                }
+                return resolved;
+            }
+        };
+
+        private Node(SerializationConfig config, String name) {
+            this.config = config;
+            this.key = name == null ? null : new SerializedString(name);
+        }
+
+        private Node child(String name) {
+            return pending.computeIfAbsent(name, ignored -> new Node(config, name));
+        }
+
+        /**
+         * A path ends here, so the whole value is written and longer paths through it are redundant.
+         */
+        private void makeWhole() {
+            whole = true;
+            pending.clear();
+        }
+
+        private void freeze() {
+            children = pending.values().toArray(new Node[0]);
+            pending = null;
+            for (Node child : children) {
+                child.freeze();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.telegram;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear latency histogram in the spirit of HdrHistogram: every power of two is split
+ * into {@value #SUB_BUCKETS} linear sub-buckets, which bounds the relative error to about 6%.
+ * Counts are striped by thread so concurrent writers rarely touch the same cache line.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Values above 2^40 ns (about 18 minutes) are clamped into the last bucket. */
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final int stripeMask;
+    private final AtomicLongArray counts;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        this.stripeMask = Math.min(stripes, 16) - 1;
+        this.counts = new AtomicLongArray((stripeMask + 1) * BUCKETS);
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        counts.incrementAndGet(stripe * BUCKETS + bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sumNanos() {
+        return sum.sum();
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile in {@code [0, 100]}
+     * @return representative value of the bucket holding that percentile, {@code 0} when empty
+     */
+    public long percentileNanos(double percentile) {
+        long[] merged = merge();
+        long total = 0;
+        for (long bucket : merged) {
+            total += bucket;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < merged.length; i++) {
+            seen += merged[i];
+            if (seen >= rank) {
+                return Math.min(bucketMidpoint(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private long[] merge() {
+        long[] merged = new long[BUCKETS];
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            int base = stripe * BUCKETS;
+            for (int i = 0; i < BUCKETS; i++) {
+                merged[i] += counts.get(base + i);
+            }
+        }
+        return merged;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+    }
+
+    static long bucketLowerBound(int index) {
+        int group = index >> SUB_BUCKET_BITS;
+        if (group == 0) {
+            return index;
+        }
+        return (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << (group - 1);
+    }
+
+    private static long bucketMidpoint(int index) {
+        int group = index >> SUB_BUCKET_BITS;
+        long width = group == 0 ? 1 : 1L << (group - 1);
+        return bucketLowerBound(index) + width / 2;
+    }
+}
@@ -0,0 +1,592 @@
+package com.example.telegram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Append-only sink for {@code TELEGRAM_LOG_FILE}. Keeps one {@link FileChannel} open for the
+ * lifetime of the process and stages UTF-8 bytes in a reusable direct buffer, so a single update
+ * costs a memory copy instead of an open/write/close round trip.
+ *
+ * <p>With a {@link RotationPolicy} the active file is rolled into timestamped segments by size or
+ * wall-clock interval; a background timer closes a segment at its interval boundary even if nothing is
+ * written then. Closed segments are compressed and pruned on a background thread so the writer never
+ * waits for them.
+ */
+public class LogFileSink implements Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Decides when staged bytes reach the file: after every N updates, every N milliseconds, or
+     * only on {@link LogFileSink#flush()}/{@link LogFileSink#close()} when both are disabled.
+     */
+    public static final class FlushPolicy {
+        private final int everyUpdates;
+        private final long intervalMillis;
+
+        private FlushPolicy(int everyUpdates, long intervalMillis) {
+            if (everyUpdates < 0) {
+                throw new IllegalArgumentException("everyUpdates must be >= 0: " + everyUpdates);
+            }
+            if (intervalMillis < 0) {
+                throw new IllegalArgumentException("intervalMillis must be >= 0: " + intervalMillis);
+            }
+            this.everyUpdates = everyUpdates;
+            this.intervalMillis = intervalMillis;
+        }
+
+        /**
+         * Mirrors the historical behaviour: every update is visible in the file once printed.
+         */
+        public static FlushPolicy everyUpdate() {
+            return new FlushPolicy(1, 0);
+        }
+
+        /**
+         * @param everyUpdates   flush after this many updates, {@code 0} disables the count trigger
+         * @param intervalMillis flush in the background at this period, {@code 0} disables the timer
+         */
+        public static FlushPolicy of(int everyUpdates, long intervalMillis) {
+            return new FlushPolicy(everyUpdates, intervalMillis);
+        }
+
+        public static FlushPolicy onShutdown() {
+            return new FlushPolicy(0, 0);
+        }
+
+        public int getEveryUpdates() {
+            return everyUpdates;
+        }
+
+        public long getIntervalMillis() {
+            return intervalMillis;
+        }
+    }
+
+    /**
+     * How closed segments are stored.
+     */
+    public enum Compression {
+        NONE(""),
+        GZIP(".gz");
+
+        private final String extension;
+
+        Compression(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public static Compression fromString(String raw) {
+            if (raw == null || raw.isBlank()) {
+                return NONE;
+            }
+            String normalized = raw.trim().toLowerCase(Locale.ROOT);
+            switch (normalized) {
+                case "none":
+                    return NONE;
+                case "gz":
+                case "gzip":
+                    return GZIP;
+                default:
+                    throw new IllegalArgumentException("Unknown compression: " + raw);
+            }
+        }
+    }
+
+    /**
+     * When to roll the active file over and how many closed segments to keep.
+     */
+    public static final class RotationPolicy {
+        private final long maxBytes;
+        private final long intervalMillis;
+        private final int maxSegments;
+        private final Compression compression;
+
+        private RotationPolicy(long maxBytes, long intervalMillis, int maxSegments, Compression compression) {
+            if (maxBytes < 0) {
+                throw new IllegalArgumentException("maxBytes must be >= 0: " + maxBytes);
+            }
+            if (intervalMillis < 0) {
+                throw new IllegalArgumentException("intervalMillis must be >= 0: " + intervalMillis);
+            }
+            if (maxSegments < 0) {
+                throw new IllegalArgumentException("maxSegments must be >= 0: " + maxSegments);
+            }
+            this.maxBytes = maxBytes;
+            this.intervalMillis = intervalMillis;
+            this.maxSegments = maxSegments;
+            this.compression = Objects.requireNonNull(compression, "compression");
+        }
+
+        public static RotationPolicy none() {
+            return new RotationPolicy(0, 0, 0, Compression.NONE);
+        }
+
+        /**
+         * @param maxBytes       roll once the active file reaches this size, {@code 0} disables
+         * @param intervalMillis roll on wall-clock boundaries of this length, {@code 0} disables
+         * @param maxSegments    closed segments of this file to keep, oldest are deleted first; {@code 0} keeps
+         *                       all
+         * @param compression    applied to each closed segment in the background
+         */
+        public static RotationPolicy of(long maxBytes, long intervalMillis, int maxSegments, Compression compression) {
+            return new RotationPolicy(maxBytes, intervalMillis, maxSegments, compression);
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public long getIntervalMillis() {
+            return intervalMillis;
+        }
+
+        public int getMaxSegments() {
+            return maxSegments;
+        }
+
+        public Compression getCompression() {
+            return compression;
+        }
+
+        boolean isEnabled() {
+            return maxBytes > 0 || intervalMillis > 0;
+        }
+    }
+
+    private static final DateTimeFormatter SEGMENT_STAMP =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+    /**
+     * What {@link #rotate()} appends to the file name: the stamp, a sequence number and, once
+     * compressed, the extension.
+     */
+    private static final Pattern SEGMENT_SUFFIX = Pattern.compile("\\.\\d{8}-\\d{6}-\\d{3}-\\d{4}(\\.gz)?");
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+    private final CharsetEncoder encoder;
+    private final FlushPolicy flushPolicy;
+    private final RotationPolicy rotationPolicy;
+    private final Lock lock = new ReentrantLock();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService compressor;
+    private FileChannel channel;
+    private int pendingUpdates;
+    private long segmentBytes;
+    private long nextRotationAt;
+    private int rotationSequence;
+    private boolean closed;
+
+    public LogFileSink(Path file) throws IOException {
+        this(file, FlushPolicy.everyUpdate(), DEFAULT_BUFFER_SIZE);
+    }
+
+    public LogFileSink(Path file, FlushPolicy flushPolicy, int bufferSize) throws IOException {
+        this(file, flushPolicy, RotationPolicy.none(), bufferSize);
+    }
+
+    public LogFileSink(Path file, FlushPolicy flushPolicy, RotationPolicy rotationPolicy, int bufferSize)
+            throws IOException {
+        this.file = Objects.requireNonNull(file, "file").toAbsolutePath();
+        this.flushPolicy = Objects.requireNonNull(flushPolicy, "flushPolicy");
+        this.rotationPolicy = Objects.requireNonNull(rotationPolicy, "rotationPolicy");
+        if (bufferSize < 1024) {
+            throw new IllegalArgumentException("bufferSize must be >= 1024: " + bufferSize);
+        }
+        Files.createDirectories(this.file.getParent());
+        openSegment();
+        this.compressor = rotationPolicy.isEnabled() ? Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "log-segment-compressor");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.scheduler = flushPolicy.getIntervalMillis() > 0 || rotationPolicy.getIntervalMillis() > 0
+                ? startScheduler() : null;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Stages one update payload and flushes if the policy's update count is reached.
+     */
+    public void write(CharSequence payload) {
+        lock.lock();
+        try {
+            ensureOpen();
+            encode(payload);
+            completePayload();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write update payload to " + file, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stages one already encoded update payload.
+     */
+    public void write(byte[] payload, int offset, int length) {
+        lock.lock();
+        try {
+            ensureOpen();
+            while (length > 0) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int chunk = Math.min(length, buffer.remaining());
+                buffer.put(payload, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+            completePayload();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write update payload to " + file, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stages several already encoded payloads that lie back to back in {@code payload}. If they do not
+     * fit into the buffer, the staged bytes and the payloads go to the file in one gathering write
+     * instead of being copied through the buffer in chunks. Size-based rotation is checked once per
+     * batch, so a segment may exceed its limit by up to one batch.
+     *
+     * @param updates number of payloads, for the flush policy's update count
+     */
+    public void writeBatch(byte[] payload, int offset, int length, int updates) {
+        lock.lock();
+        try {
+            ensureOpen();
+            if (length <= buffer.remaining()) {
+                buffer.put(payload, offset, length);
+                completePayloads(updates);
+                return;
+            }
+            buffer.flip();
+            gather[0] = buffer;
+            gather[1] = ByteBuffer.wrap(payload, offset, length);
+            try {
+                while (gather[1].hasRemaining()) {
+                    segmentBytes += channel.write(gather);
+                }
+            } finally {
+                gather[1] = null;
+                buffer.clear();
+            }
+            // Everything staged so far is on its way to the file now.
+            pendingUpdates = 0;
+            if (rotationPolicy.isEnabled() && shouldRotate()) {
+                rotate();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write update payloads to " + file, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pushes every staged byte to the file channel.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            if (!closed) {
+                flushLocked();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to flush " + file, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes and forces the written bytes to stable storage, so an {@link OffsetCheckpoint} can vouch
+     * for them.
+     */
+    public void sync() {
+        lock.lock();
+        try {
+            if (!closed) {
+                flushLocked();
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to sync " + file, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                flushLocked();
+            } finally {
+                channel.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (compressor != null) {
+            compressor.shutdown();
+            try {
+                compressor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        segmentBytes = channel.size();
+        nextRotationAt = nextBoundary();
+    }
+
+    private long nextBoundary() {
+        long interval = rotationPolicy.getIntervalMillis();
+        return interval > 0 ? (System.currentTimeMillis() / interval + 1) * interval : Long.MAX_VALUE;
+    }
+
+    private boolean shouldRotate() {
+        long maxBytes = rotationPolicy.getMaxBytes();
+        if (maxBytes > 0 && segmentBytes + buffer.position() >= maxBytes) {
+            return true;
+        }
+        return System.currentTimeMillis() >= nextRotationAt;
+    }
+
+    /**
+     * Closes the active file under a timestamped name and starts a fresh one. Compression and
+     * retention are handed to {@link #compressor}.
+     */
+    private void rotate() throws IOException {
+        flushLocked();
+        // A later sync() only reaches the new segment; make sure nothing checkpointed is left behind.
+        channel.force(false);
+        channel.close();
+        String stamp = SEGMENT_STAMP.format(Instant.now());
+        Path segment = file.resolveSibling(
+                file.getFileName() + "." + stamp + "-" + String.format("%04d", rotationSequence++ % 10000));
+        Files.move(file, segment, StandardCopyOption.ATOMIC_MOVE);
+        openSegment();
+        compressor.execute(() -> finishSegment(segment));
+    }
+
+    private void finishSegment(Path segment) {
+        try {
+            if (rotationPolicy.getCompression() == Compression.GZIP) {
+                gzip(segment);
+            }
+            applyRetention();
+        } catch (IOException e) {
+            System.err.println("Failed to finish log segment " + segment + ": " + e.getMessage());
+        }
+    }
+
+    private void gzip(Path segment) throws IOException {
+        Path target = segment.resolveSibling(segment.getFileName() + Compression.GZIP.getExtension());
+        Path partial = target.resolveSibling(target.getFileName() + ".tmp");
+        try (InputStream in = Files.newInputStream(segment);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(partial), 64 * 1024)) {
+            in.transferTo(out);
+        }
+        Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(segment);
+    }
+
+    private void applyRetention() throws IOException {
+        int maxSegments = rotationPolicy.getMaxSegments();
+        if (maxSegments == 0) {
+            return;
+        }
+        List<Path> segments = listSegments();
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    /**
+     * Closed segments of this file sorted oldest first; the timestamp in the name sorts
+     * lexicographically. Other files sharing the name as a prefix, such as {@code updates.log.bak} or
+     * another sink's {@code updates.log.json}, are not segments.
+     */
+    List<Path> listSegments() throws IOException {
+        String prefix = file.getFileName().toString();
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParent(), prefix + ".*")) {
+            for (Path candidate : stream) {
+                String name = candidate.getFileName().toString();
+                if (name.startsWith(prefix)
+                        && SEGMENT_SUFFIX.matcher(name).region(prefix.length(), name.length()).matches()) {
+                    segments.add(candidate);
+                }
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private void encode(CharSequence payload) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(payload);
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                drain();
+                continue;
+            }
+            break;
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            drain();
+        }
+    }
+
+    private void completePayload() throws IOException {
+        completePayloads(1);
+    }
+
+    private void completePayloads(int updates) throws IOException {
+        pendingUpdates += updates;
+        if (rotationPolicy.isEnabled() && shouldRotate()) {
+            rotate();
+        }
+        if (flushPolicy.getEveryUpdates() > 0 && pendingUpdates >= flushPolicy.getEveryUpdates()) {
+            flushLocked();
+        }
+    }
+
+    private void flushLocked() throws IOException {
+        drain();
+        pendingUpdates = 0;
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segmentBytes += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Sink is closed");
+        }
+    }
+
+    private ScheduledExecutorService startScheduler() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "log-file-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = flushPolicy.getIntervalMillis();
+        if (intervalMillis > 0) {
+            executor.scheduleAtFixedRate(this::flushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if (rotationPolicy.getIntervalMillis() > 0) {
+            scheduleRotation(executor, nextRotationAt - System.currentTimeMillis());
+        }
+        return executor;
+    }
+
+    private void scheduleRotation(ScheduledExecutorService executor, long delayMillis) {
+        executor.schedule(() -> rotateOnTime(executor), Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes the segment at its interval boundary when no write has done it, so a quiet period does
+     * not end up in the next interval's segment. An empty segment is kept open for the next interval.
+     */
+    private void rotateOnTime(ScheduledExecutorService executor) {
+        long delayMillis;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (System.currentTimeMillis() >= nextRotationAt) {
+                if (segmentBytes + buffer.position() > 0) {
+                    rotate();
+                } else {
+                    nextRotationAt = nextBoundary();
+                }
+            }
+            delayMillis = nextRotationAt - System.currentTimeMillis();
+        } catch (IOException e) {
+            System.err.println("Scheduled rotation of " + file + " failed: " + e.getMessage());
+            delayMillis = TimeUnit.SECONDS.toMillis(1);
+        } finally {
+            lock.unlock();
+        }
+        scheduleRotation(executor, delayMillis);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (UncheckedIOException e) {
+            System.err.println("Background flush failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.telegram;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from a pair of {@code long} keys to a {@code long} value, in parallel primitive
+ * arrays, so counting per chat or per (chat, message) never boxes. Grows by doubling at half load and
+ * is reused after {@link #clear()}. Iterate with {@code for (int i = 0; i < slots(); i++) if (used(i))}.
+ * Not thread-safe.
+ */
+final class LongPairCounter {
+
+    private long[] first;
+    private long[] second;
+    private long[] values;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    LongPairCounter(int expected) {
+        int slots = Integer.highestOneBit(Math.max(8, expected * 2 - 1)) << 1;
+        allocate(slots);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int slots() {
+        return used.length;
+    }
+
+    boolean used(int slot) {
+        return used[slot];
+    }
+
+    long first(int slot) {
+        return first[slot];
+    }
+
+    long second(int slot) {
+        return second[slot];
+    }
+
+    long value(int slot) {
+        return values[slot];
+    }
+
+    void add(long a, long b, long delta) {
+        int slot = find(a, b);
+        values[slot] += delta;
+    }
+
+    void put(long a, long b, long value) {
+        int slot = find(a, b);
+        values[slot] = value;
+    }
+
+    /**
+     * Empties the map but keeps its arrays.
+     */
+    void clear() {
+        if (size == 0) {
+            return;
+        }
+        Arrays.fill(used, false);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    /**
+     * Slot of the pair, inserted with value {@code 0} if absent.
+     */
+    private int find(long a, long b) {
+        for (int slot = slot(a, b); ; slot = (slot + 1) & mask) {
+            if (!used[slot]) {
+                if (size + 1 > used.length / 2) {
+                    grow();
+                    return find(a, b);
+                }
+                used[slot] = true;
+                first[slot] = a;
+                second[slot] = b;
+                size++;
+                return slot;
+            }
+            if (first[slot] == a && second[slot] == b) {
+                return slot;
+            }
+        }
+    }
+
+    private int slot(long a, long b) {
+        long h = a * 0x9E3779B97F4A7C15L + b;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 29)) & mask;
+    }
+
+    private void grow() {
+        long[] oldFirst = first;
+        long[] oldSecond = second;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(oldUsed.length << 1);
+        size = 0;
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                values[find(oldFirst[i], oldSecond[i])] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int slots) {
+        first = new long[slots];
+        second = new long[slots];
+        values = new long[slots];
+        used = new boolean[slots];
+        mask = slots - 1;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.telegram;
+
+import java.util.Locale;
+
+import org.telegram.telegrambots.meta.api.objects.Message;
+
+/**
+ * What a {@link Message} carries, decided once by {@link #of(Message)}: text first, then the media
+ * and other payloads in the order {@link UpdatePrinter} has always labelled them.
+ */
+public enum MessageContent {
+    /**
+     * No message, e.g. the update has no message-like section.
+     */
+    NONE,
+    TEXT,
+    PHOTO,
+    DOCUMENT,
+    VIDEO,
+    ANIMATION,
+    STICKER,
+    AUDIO,
+    VOICE,
+    VIDEO_NOTE,
+    POLL,
+    LOCATION,
+    CONTACT,
+    DICE,
+    GAME,
+    UNKNOWN;
+
+    private static final MessageContent[] VALUES = values();
+
+    private final String label = name().toLowerCase(Locale.ROOT);
+
+    /**
+     * Lower-case name as printed after {@code type=}.
+     */
+    public String label() {
+        return label;
+    }
+
+    public static MessageContent of(Message message) {
+        if (message == null) {
+            return NONE;
+        }
+        if (message.hasText()) {
+            return TEXT;
+        }
+        if (message.hasPhoto()) {
+            return PHOTO;
+        }
+        if (message.hasDocument()) {
+            return DOCUMENT;
+        }
+        if (message.hasVideo()) {
+            return VIDEO;
+        }
+        if (message.hasAnimation()) {
+            return ANIMATION;
+        }
+        if (message.hasSticker()) {
+            return STICKER;
+        }
+        if (message.hasAudio()) {
+            return AUDIO;
+        }
+        if (message.hasVoice()) {
+            return VOICE;
+        }
+        if (message.hasVideoNote()) {
+            return VIDEO_NOTE;
+        }
+        if (message.hasPoll()) {
+            return POLL;
+        }
+        if (message.hasLocation()) {
+            return LOCATION;
+        }
+        if (message.hasContact()) {
+            return CONTACT;
+        }
+        if (message.hasDice()) {
+            return DICE;
+        }
+        if (message.getGame() != null) {
+            return GAME;
+        }
+        return UNKNOWN;
+    }
+
+    static MessageContent fromOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
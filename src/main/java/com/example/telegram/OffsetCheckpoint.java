@@ -0,0 +1,516 @@
+package com.example.telegram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Highest {@code update_id} whose handling is durable, kept in a small fixed-size state file. The
+ * polling session reports each batch it has {@link #delivered}; once every registered {@link Stage}
+ * has written the updates it had been handed at that moment, a commit thread syncs the stages, rewrites
+ * the file and fsyncs it. Everything delivered since the previous commit shares that one fsync. On
+ * startup {@link #durableUpdateId()} is read from the file alone, so resuming costs the same however
+ * large the log has grown.
+ *
+ * <p>An update that was not written, because a stage dropped it, failed to write it or the handler
+ * chain threw, {@link #halt halts} the checkpoint: it stays below that update for the rest of the run,
+ * and the file records that the run failed there. A restart polls the update again; after
+ * {@link #maxAttempts} runs in a row have failed at the same place, the polling session
+ * {@link #skip skips} it as a dead letter, so a poison update cannot block the bot for good.
+ */
+public class OffsetCheckpoint implements Closeable {
+
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 100;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /**
+     * A point of the handler chain where updates wait before they are written, e.g. the queue of an
+     * {@link AsyncUpdatePipeline}. Stages that write on the caller's thread report zero for both counts;
+     * their failures reach the polling session as exceptions instead.
+     */
+    public interface Stage {
+        /**
+         * Updates handed to the stage so far, including any it dropped. The n-th one is at position n.
+         */
+        long handedCount();
+
+        /**
+         * Handed updates the stage has written, in the order it was handed them.
+         */
+        long writtenCount();
+
+        /**
+         * Position of the first handed update the stage dropped or failed to write, or
+         * {@link Long#MAX_VALUE} while there is none.
+         */
+        long firstLostPosition();
+
+        /**
+         * Forces what the stage has written to stable storage.
+         */
+        void sync();
+
+        /**
+         * Stage for a printer written on the caller's thread: nothing is ever in flight, only synced.
+         */
+        static Stage synchronous(UpdatePrinter printer) {
+            Objects.requireNonNull(printer, "printer");
+            return new Stage() {
+                @Override
+                public long handedCount() {
+                    return 0;
+                }
+
+                @Override
+                public long writtenCount() {
+                    return 0;
+                }
+
+                @Override
+                public long firstLostPosition() {
+                    return Long.MAX_VALUE;
+                }
+
+                @Override
+                public void sync() {
+                    printer.sync();
+                }
+            };
+        }
+    }
+
+    private static final int MAGIC = 0x5447434B; // "TGCK"
+    private static final int FILE_SIZE = 28;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final long commitIntervalNanos;
+    private final int maxAttempts;
+    private final List<Stage> stages = new CopyOnWriteArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // Pairs of (update id, stage handed counts), oldest first.
+    private final ArrayDeque<long[]> pending = new ArrayDeque<>();
+    private final ByteBuffer record = ByteBuffer.allocate(FILE_SIZE);
+    private final CRC32C crc = new CRC32C();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder deadLetters = new LongAdder();
+    private final Thread committer;
+    private final long resumedFrom;
+    private final int failedAttempts;
+    private final long failedThrough;
+    private volatile long durable;
+    private volatile boolean halted;
+    private long waitingFor = -1;
+    private long lastDelivered;
+    private long haltedThrough;
+    private boolean failureRecorded;
+    private boolean running = true;
+
+    public OffsetCheckpoint(Path file) throws IOException {
+        this(file, DEFAULT_COMMIT_INTERVAL_MILLIS);
+    }
+
+    public OffsetCheckpoint(Path file, long commitIntervalMillis) throws IOException {
+        this(file, commitIntervalMillis, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * @param commitIntervalMillis longest a delivered batch waits for its commit unless someone
+     *                             {@link #awaitDurable awaits} it sooner
+     * @param maxAttempts          runs in a row that may fail on the same update before it is skipped
+     */
+    public OffsetCheckpoint(Path file, long commitIntervalMillis, int maxAttempts) throws IOException {
+        if (commitIntervalMillis < 1) {
+            throw new IllegalArgumentException("commitIntervalMillis must be >= 1: " + commitIntervalMillis);
+        }
+        if (maxAttempts < 2) {
+            // One failure may come from a batch of many updates; only a retry on its own pins the culprit.
+            throw new IllegalArgumentException("maxAttempts must be >= 2: " + maxAttempts);
+        }
+        this.file = Objects.requireNonNull(file, "file");
+        this.commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(commitIntervalMillis);
+        this.maxAttempts = maxAttempts;
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ByteBuffer stored;
+        try {
+            stored = read();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.durable = stored.getLong(4);
+        this.failedThrough = stored.getLong(12);
+        this.failedAttempts = stored.getInt(20);
+        this.resumedFrom = durable;
+        this.lastDelivered = durable;
+        this.committer = new Thread(this::runCommitter, "offset-checkpoint");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * @return the stored record, all zeros when nothing has been checkpointed yet
+     */
+    private ByteBuffer read() throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(FILE_SIZE);
+        if (channel.size() == 0) {
+            return in;
+        }
+        while (in.hasRemaining() && channel.read(in, in.position()) >= 0) {
+            // Keep reading until the record is complete or the file ends.
+        }
+        in.flip();
+        if (in.remaining() != FILE_SIZE || in.getInt(0) != MAGIC) {
+            throw new IOException("Not an offset checkpoint: " + file);
+        }
+        CRC32C check = new CRC32C();
+        check.update(in.array(), 0, FILE_SIZE - 4);
+        if ((int) check.getValue() != in.getInt(FILE_SIZE - 4)) {
+            throw new IOException("Corrupt offset checkpoint: " + file);
+        }
+        return in;
+    }
+
+    public void register(Stage stage) {
+        stages.add(Objects.requireNonNull(stage, "stage"));
+    }
+
+    /**
+     * Highest update id known to be durably handled; polling resumes after it.
+     */
+    public long durableUpdateId() {
+        return durable;
+    }
+
+    public long commitCount() {
+        return commits.sum();
+    }
+
+    /**
+     * Whether the checkpoint has stopped advancing because an update was not written.
+     */
+    public boolean isHalted() {
+        return halted;
+    }
+
+    /**
+     * Runs in a row, up to the one before this, that halted right after {@link #durableUpdateId()} as
+     * it was on open. {@code 0} if the last run did not halt there.
+     */
+    public int failedAttempts() {
+        return failedAttempts;
+    }
+
+    /**
+     * Newest update that had been delivered when the last failed run halted, {@code 0} if
+     * {@link #failedAttempts()} is {@code 0}. The update that failed is at most this one.
+     */
+    public long failedThroughUpdateId() {
+        return failedThrough;
+    }
+
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    public long deadLetterCount() {
+        return deadLetters.sum();
+    }
+
+    /**
+     * Gives up on {@code updateId}, the update right after {@link #durableUpdateId()} that
+     * {@link #maxAttempts} runs in a row failed to write: reports it and lets the checkpoint move past
+     * it as if it had been written. The caller does not hand it to the handler chain.
+     */
+    public void skip(long updateId) {
+        deadLetters.increment();
+        System.err.println("Offset checkpoint: skipping update " + updateId + " as a dead letter after "
+                + failedAttempts + " failed attempts");
+        delivered(updateId);
+    }
+
+    /**
+     * Records that every update up to {@code updateId} has been handed to the handler chain. It
+     * becomes durable once the stages have written what they had been handed by now.
+     */
+    public void delivered(long updateId) {
+        long[] entry = new long[1 + stages.size()];
+        entry[0] = updateId;
+        for (int i = 1; i < entry.length; i++) {
+            entry[i] = stages.get(i - 1).handedCount();
+        }
+        if (lost(entry)) {
+            halt(updateId, "a stage dropped or failed to write an update before " + updateId);
+            return;
+        }
+        lock.lock();
+        try {
+            if (!halted) {
+                lastDelivered = Math.max(lastDelivered, updateId);
+            }
+            if (halted || updateId <= durable
+                    || (!pending.isEmpty() && updateId <= pending.peekLast()[0])) {
+                return;
+            }
+            pending.addLast(entry);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the checkpoint from moving past the batches delivered so far, e.g. because handing over
+     * the next one threw. Those earlier batches are still committed once written; later ones are not in
+     * this run, and the file records the failure for the next.
+     *
+     * @param updateId newest update that may not have been written
+     */
+    public void halt(long updateId, String reason) {
+        lock.lock();
+        try {
+            if (halted) {
+                return;
+            }
+            haltedThrough = Math.max(lastDelivered, updateId);
+            halted = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        System.err.println("Offset checkpoint halted: " + reason);
+    }
+
+    /**
+     * Asks for an immediate commit and waits until {@code updateId} is durable.
+     *
+     * @return {@code false} if it was not durable within the timeout
+     */
+    public boolean awaitDurable(long updateId, long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            waitingFor = Math.max(waitingFor, updateId);
+            changed.signalAll();
+            while (durable < updateId && running && !(halted && pending.isEmpty())) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = changed.awaitNanos(remaining);
+            }
+            return durable >= updateId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void registerMetrics(UpdateMetrics metrics) {
+        metrics.registerGauge("telegram_checkpoint_update_id", "Highest durably handled update_id.", false,
+                this::durableUpdateId);
+        metrics.registerGauge("telegram_checkpoint_commits_total", "Checkpoint fsyncs.", true, commits::sum);
+        metrics.registerGauge("telegram_checkpoint_dead_letters_total",
+                "Updates skipped after failing in several runs in a row.", true, deadLetters::sum);
+    }
+
+    /**
+     * Commits whatever the stages have finished and stops the commit thread. Close the stages first so
+     * their queues are drained.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            running = false;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            committer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            commitReady();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void runCommitter() {
+        while (true) {
+            lock.lock();
+            try {
+                long deadline = System.nanoTime() + commitIntervalNanos;
+                // Sleep out the interval unless a caller is waiting for a batch that is already delivered
+                // or a halt has yet to be recorded.
+                while (running && !(waitingFor > durable && !pending.isEmpty()) && !(halted && !failureRecorded)) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0 && !pending.isEmpty()) {
+                        break;
+                    }
+                    changed.awaitNanos(left > 0 ? left : commitIntervalNanos);
+                }
+                if (!running) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                if (!commitReady()) {
+                    // The stages are still writing; give them a moment rather than spin.
+                    Thread.sleep(1);
+                }
+            } catch (UncheckedIOException | IOException e) {
+                System.err.println("Offset checkpoint failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Syncs the stages and stores the newest delivered id they have all written, along with the failure
+     * once the checkpoint has halted.
+     *
+     * @return {@code false} if nothing was ready
+     */
+    private boolean commitReady() throws IOException {
+        long[] written = new long[stages.size()];
+        for (int i = 0; i < written.length; i++) {
+            written[i] = stages.get(i).writtenCount();
+        }
+        long target = -1;
+        boolean lost = false;
+        long through;
+        lock.lock();
+        try {
+            through = lastDelivered;
+            for (long[] entry : pending) {
+                if (lost(entry)) {
+                    lost = true;
+                    break;
+                }
+                if (!written(entry, written)) {
+                    break;
+                }
+                target = entry[0];
+            }
+            if (lost) {
+                // Nothing from the lost update on can be committed any more.
+                while (!pending.isEmpty() && pending.peekLast()[0] > target) {
+                    pending.removeLast();
+                }
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (lost) {
+            halt(through, "a stage dropped or failed to write an update after " + Math.max(target, durable));
+        }
+        boolean failed;
+        long failedAt;
+        lock.lock();
+        try {
+            failed = halted;
+            failedAt = haltedThrough;
+        } finally {
+            lock.unlock();
+        }
+        boolean advance = target > durable;
+        if (!advance && !(failed && !failureRecorded)) {
+            return false;
+        }
+        if (advance) {
+            for (Stage stage : stages) {
+                stage.sync();
+            }
+        } else {
+            target = durable;
+        }
+        write(target, failed ? attemptsAt(target) : 0, failed ? failedAt : 0);
+        lock.lock();
+        try {
+            failureRecorded |= failed;
+            durable = target;
+            while (!pending.isEmpty() && pending.peekFirst()[0] <= target) {
+                pending.removeFirst();
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (advance) {
+            commits.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Failed runs in a row at {@code updateId}, counting this one.
+     */
+    private int attemptsAt(long updateId) {
+        return updateId == resumedFrom ? failedAttempts + 1 : 1;
+    }
+
+    private static boolean written(long[] entry, long[] written) {
+        // Stages registered after the entry was recorded had nothing of it to write.
+        for (int i = 1; i < entry.length && i - 1 < written.length; i++) {
+            if (written[i - 1] < entry[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether some stage lost one of the updates it had been handed when the entry was recorded.
+     */
+    private boolean lost(long[] entry) {
+        for (int i = 1; i < entry.length && i - 1 < stages.size(); i++) {
+            if (stages.get(i - 1).firstLostPosition() <= entry[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void write(long updateId, int attempts, long failedThroughId) throws IOException {
+        record.clear();
+        record.putInt(MAGIC).putLong(updateId).putLong(failedThroughId).putInt(attempts);
+        crc.reset();
+        crc.update(record.array(), 0, FILE_SIZE - 4);
+        record.putInt((int) crc.getValue()).flip();
+        // 28 bytes at offset 0 never straddle a sector, so the overwrite is all or nothing.
+        while (record.hasRemaining()) {
+            channel.write(record, record.position());
+        }
+        channel.force(false);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.telegram;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer that formatters encode into and sinks copy from. Unlike
+ * {@link java.io.ByteArrayOutputStream} it is unsynchronized, exposes its backing array and is meant
+ * to be {@link #reset()} and reused for every update on the same thread.
+ */
+public final class PayloadBuffer extends OutputStream {
+
+    private byte[] bytes;
+    private int size;
+
+    public PayloadBuffer() {
+        this(4096);
+    }
+
+    public PayloadBuffer(int initialCapacity) {
+        this.bytes = new byte[Math.max(initialCapacity, 64)];
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(size + 1);
+        bytes[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] source, int offset, int length) {
+        ensureCapacity(size + length);
+        System.arraycopy(source, offset, bytes, size, length);
+        size += length;
+    }
+
+    /**
+     * Encodes the characters as UTF-8 directly into the buffer, without an intermediate String or
+     * {@link java.nio.CharBuffer}. Unpaired surrogates become {@code '?'}, matching
+     * {@link String#getBytes(java.nio.charset.Charset)}.
+     */
+    public void writeUtf8(CharSequence chars) {
+        int length = chars.length();
+        ensureCapacity(size + length);
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                if (size == bytes.length) {
+                    ensureCapacity(size + 1 + (length - i) * 3);
+                }
+                bytes[size++] = (byte) c;
+            } else {
+                ensureCapacity(size + 4 + (length - i) * 3);
+                if (c < 0x800) {
+                    bytes[size++] = (byte) (0xC0 | (c >> 6));
+                    bytes[size++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                    bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    bytes[size++] = (byte) '?';
+                } else {
+                    bytes[size++] = (byte) (0xE0 | (c >> 12));
+                    bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of bytes {@link #writeUtf8(CharSequence)} produces for {@code chars}.
+     */
+    public static int utf8Length(CharSequence chars) {
+        int length = chars.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * Backing array; only the first {@link #size()} bytes are meaningful.
+     */
+    public byte[] array() {
+        return bytes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    void ensureCapacity(int required) {
+        if (required > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(required, bytes.length * 2));
+        }
+    }
+}
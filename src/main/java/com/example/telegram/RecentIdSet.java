@@ -0,0 +1,181 @@
+package com.example.telegram;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Bounded set of the most recently added {@code long} keys. Keys live in an open-addressing table of
+ * primitives and, in insertion order, in a ring that also records when each was added; the ring
+ * evicts entries once they are older than {@code maxAgeMillis} or once {@code capacity} is reached.
+ * Lookups and inserts never allocate. Not thread-safe.
+ */
+final class RecentIdSet {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final int capacity;
+    private final long maxAgeMillis;
+    private final long[] table;
+    private final int mask;
+    private final long[] ringKeys;
+    private final long[] ringTimes;
+    private int head;
+    private int size;
+
+    /**
+     * @param maxAgeMillis entries older than this are dropped; {@code 0} keeps them until capacity
+     *                     forces them out
+     */
+    RecentIdSet(int capacity, long maxAgeMillis) {
+        if (capacity < 1 || capacity > 1 << 29) {
+            throw new IllegalArgumentException("capacity must be in [1, 2^29]: " + capacity);
+        }
+        if (maxAgeMillis < 0) {
+            throw new IllegalArgumentException("maxAgeMillis must be >= 0: " + maxAgeMillis);
+        }
+        this.capacity = capacity;
+        this.maxAgeMillis = maxAgeMillis;
+        // Load factor stays at or below 0.5, which keeps linear probe chains short.
+        this.table = new long[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        this.mask = table.length - 1;
+        Arrays.fill(table, EMPTY);
+        this.ringKeys = new long[capacity];
+        this.ringTimes = new long[capacity];
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(long key) {
+        key = normalize(key);
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            long current = table[slot];
+            if (current == EMPTY) {
+                return false;
+            }
+            if (current == key) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Expires old entries, then adds {@code key} unless it is already present.
+     *
+     * @return {@code true} if the key was new
+     */
+    boolean add(long key, long nowMillis) {
+        expire(nowMillis);
+        if (contains(key)) {
+            return false;
+        }
+        if (size == capacity) {
+            evictOldest();
+        }
+        insert(normalize(key));
+        int tail = (head + size) % capacity;
+        ringKeys[tail] = key;
+        ringTimes[tail] = nowMillis;
+        size++;
+        return true;
+    }
+
+    /**
+     * Drops entries added more than {@code maxAgeMillis} before {@code nowMillis}.
+     */
+    void expire(long nowMillis) {
+        if (maxAgeMillis == 0) {
+            return;
+        }
+        while (size > 0 && nowMillis - ringTimes[head] > maxAgeMillis) {
+            evictOldest();
+        }
+    }
+
+    /**
+     * Writes the entry count followed by (key, added-at) pairs, oldest first.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % capacity;
+            out.writeLong(ringKeys[index]);
+            out.writeLong(ringTimes[index]);
+        }
+    }
+
+    /**
+     * Re-adds entries written by {@link #writeTo}, dropping those that have expired by
+     * {@code nowMillis}. When the snapshot holds more than {@link #capacity()} entries, the newest win.
+     */
+    void readFrom(DataInput in, long nowMillis) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt snapshot: negative entry count " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            long key = in.readLong();
+            long addedAt = in.readLong();
+            if (maxAgeMillis == 0 || nowMillis - addedAt <= maxAgeMillis) {
+                add(key, addedAt);
+            }
+        }
+        expire(nowMillis);
+    }
+
+    private void evictOldest() {
+        remove(normalize(ringKeys[head]));
+        head = (head + 1) % capacity;
+        size--;
+    }
+
+    private void insert(long key) {
+        int slot = slot(key);
+        while (table[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = key;
+    }
+
+    /**
+     * Backward-shift deletion: later entries of the probe chain move up so lookups never need
+     * tombstones.
+     */
+    private void remove(long key) {
+        int slot = slot(key);
+        while (table[slot] != key) {
+            if (table[slot] == EMPTY) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int hole = slot;
+        for (int next = (hole + 1) & mask; table[next] != EMPTY; next = (next + 1) & mask) {
+            int home = slot(table[next]);
+            // Move the entry into the hole unless its home lies cyclically in (hole, next].
+            boolean homeBetween = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+            if (!homeBetween) {
+                table[hole] = table[next];
+                hole = next;
+            }
+        }
+        table[hole] = EMPTY;
+    }
+
+    private int slot(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32)) & mask;
+    }
+
+    private static long normalize(long key) {
+        // EMPTY marks free slots, so the one real key equal to it is folded into its neighbour.
+        return key == EMPTY ? EMPTY + 1 : key;
+    }
+}
@@ -0,0 +1,348 @@
+package com.example.telegram;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Drives the listener offline: replays NDJSON recorded with {@link UpdatePrinter.Format#JSON} or
+ * {@link SyntheticUpdates} through {@link TelegramTriggerBot#onUpdateReceived} (queue included) or
+ * straight into {@link UpdatePrinter#print}, at a fixed rate, a linear ramp or as fast as possible.
+ *
+ * <p>Latency is measured from the moment an update was <em>scheduled</em> to be sent, not from when
+ * the driver got around to sending it, so a stalled listener shows up in the percentiles instead of
+ * silently lowering the offered rate.
+ *
+ * <pre>
+ * ReplayTool --input=updates.ndjson[.gz] | --synthetic[=chats]
+ *            [--count=N] [--rate=max|RPS|ramp:FROM:TO:SECONDS] [--target=bot|printer]
+ *            [--format=text|json|binary] [--log-file=PATH] [--lanes=N]
+ * </pre>
+ */
+public final class ReplayTool {
+
+    /**
+     * Where each replayed update is handed over.
+     */
+    public enum Target {
+        /** {@link TelegramTriggerBot#onUpdateReceived} in front of an {@link AsyncUpdatePipeline}. */
+        BOT,
+        /** {@link UpdatePrinter#print(Update, long)} on the driver thread. */
+        PRINTER;
+
+        public static Target fromString(String raw) {
+            if (raw == null || raw.isBlank()) {
+                return BOT;
+            }
+            switch (raw.trim().toLowerCase(Locale.ROOT)) {
+                case "bot":
+                    return BOT;
+                case "printer":
+                    return PRINTER;
+                default:
+                    throw new IllegalArgumentException("Unknown replay target: " + raw);
+            }
+        }
+    }
+
+    /**
+     * When the n-th update is due, relative to the start of the run.
+     */
+    public static final class RateSchedule {
+        private final double fromRps;
+        private final double toRps;
+        private final double rampSeconds;
+
+        private RateSchedule(double fromRps, double toRps, double rampSeconds) {
+            this.fromRps = fromRps;
+            this.toRps = toRps;
+            this.rampSeconds = rampSeconds;
+        }
+
+        public static RateSchedule unlimited() {
+            return new RateSchedule(0, 0, 0);
+        }
+
+        public static RateSchedule fixed(double rps) {
+            if (rps <= 0) {
+                throw new IllegalArgumentException("rps must be > 0: " + rps);
+            }
+            return new RateSchedule(rps, rps, 0);
+        }
+
+        /**
+         * Rate grows linearly from {@code fromRps} to {@code toRps} over {@code seconds}, then stays.
+         */
+        public static RateSchedule ramp(double fromRps, double toRps, double seconds) {
+            if (fromRps <= 0 || toRps <= 0 || seconds <= 0) {
+                throw new IllegalArgumentException("ramp rates and duration must be > 0");
+            }
+            return new RateSchedule(fromRps, toRps, seconds);
+        }
+
+        /**
+         * Parses {@code max}, a plain number of updates per second, or {@code ramp:FROM:TO:SECONDS}.
+         */
+        public static RateSchedule fromString(String raw) {
+            if (raw == null || raw.isBlank() || "max".equalsIgnoreCase(raw.trim())) {
+                return unlimited();
+            }
+            String value = raw.trim().toLowerCase(Locale.ROOT);
+            try {
+                if (value.startsWith("ramp:")) {
+                    String[] parts = value.split(":");
+                    if (parts.length != 4) {
+                        throw new IllegalArgumentException("Expected ramp:FROM:TO:SECONDS, got " + raw);
+                    }
+                    return ramp(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                            Double.parseDouble(parts[3]));
+                }
+                return fixed(Double.parseDouble(value));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Unknown rate: " + raw, e);
+            }
+        }
+
+        public boolean isUnlimited() {
+            return fromRps == 0;
+        }
+
+        /**
+         * Nanoseconds after the start at which update {@code index} (0-based) is due.
+         */
+        public long dueNanos(long index) {
+            if (isUnlimited()) {
+                return 0;
+            }
+            double seconds;
+            if (rampSeconds == 0) {
+                seconds = index / fromRps;
+            } else {
+                // Updates sent by time t during the ramp: n(t) = from*t + (to-from)*t^2 / (2*ramp).
+                double slope = (toRps - fromRps) / rampSeconds;
+                double rampCount = (fromRps + toRps) / 2 * rampSeconds;
+                if (index >= rampCount) {
+                    seconds = rampSeconds + (index - rampCount) / toRps;
+                } else if (slope == 0) {
+                    seconds = index / fromRps;
+                } else {
+                    seconds = (-fromRps + Math.sqrt(fromRps * fromRps + 2 * slope * index)) / slope;
+                }
+            }
+            return (long) (seconds * 1_000_000_000L);
+        }
+    }
+
+    /**
+     * Outcome of one run.
+     */
+    public static final class Result {
+        private final long updates;
+        private final long elapsedNanos;
+        private final LatencyHistogram latency;
+        private final UpdateMetrics metrics;
+
+        private Result(long updates, long elapsedNanos, LatencyHistogram latency, UpdateMetrics metrics) {
+            this.updates = updates;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+            this.metrics = metrics;
+        }
+
+        public long updates() {
+            return updates;
+        }
+
+        public double throughputPerSecond() {
+            return elapsedNanos == 0 ? 0 : updates * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        /**
+         * Scheduled send time to hand-over completion.
+         */
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        public UpdateMetrics metrics() {
+            return metrics;
+        }
+
+        public String describe() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "updates:     %d in %.3f s, %.0f updates/s%n", updates,
+                    elapsedNanos / 1e9, throughputPerSecond()));
+            appendLatency(sb, "hand-over", latency);
+            appendLatency(sb, "format", metrics.formatLatency());
+            appendLatency(sb, "write", metrics.writeLatency());
+            appendLatency(sb, "end-to-end", metrics.endToEndLatency());
+            return sb.toString();
+        }
+
+        private static void appendLatency(StringBuilder sb, String name, LatencyHistogram histogram) {
+            sb.append(String.format(Locale.ROOT,
+                    "%-12s p50=%s p90=%s p99=%s p99.9=%s max=%s (n=%d)%n", name + ":",
+                    micros(histogram.percentileNanos(50)), micros(histogram.percentileNanos(90)),
+                    micros(histogram.percentileNanos(99)), micros(histogram.percentileNanos(99.9)),
+                    micros(histogram.maxNanos()), histogram.count()));
+        }
+
+        private static String micros(long nanos) {
+            return String.format(Locale.ROOT, "%.1fus", nanos / 1000.0);
+        }
+    }
+
+    private ReplayTool() {
+    }
+
+    /**
+     * Sends {@code count} updates, cycling through {@code corpus}. For {@link Target#BOT} the run
+     * includes draining the queue, so throughput is what the listener sustained, not what was
+     * offered.
+     *
+     * @param lanes more than one puts a {@link ChatStripedDispatcher} behind the bot
+     */
+    public static Result run(List<Update> corpus, long count, RateSchedule schedule, Target target,
+            UpdatePrinter printer, int lanes) {
+        if (corpus.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to replay");
+        }
+        UpdateHandler handler = null;
+        TelegramTriggerBot bot = null;
+        if (target == Target.BOT) {
+            handler = lanes > 1
+                    ? new ChatStripedDispatcher(printer, lanes, AsyncUpdatePipeline.DEFAULT_CAPACITY,
+                            AsyncUpdatePipeline.DEFAULT_BATCH_SIZE, AsyncUpdatePipeline.BackpressurePolicy.BLOCK)
+                    : new AsyncUpdatePipeline(printer);
+            // A bot wired like BotLauncher does it; the token is never used.
+            bot = new TelegramTriggerBot("0:replay", "replay_bot", handler, printer.metrics());
+        }
+        LatencyHistogram latency = new LatencyHistogram();
+        long start = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            Update update = corpus.get((int) (i % corpus.size()));
+            long due = schedule.isUnlimited() ? System.nanoTime() : start + schedule.dueNanos(i);
+            waitUntil(due);
+            if (bot != null) {
+                bot.onUpdateReceived(update);
+            } else {
+                long classification = UpdateClassification.of(update);
+                printer.metrics().recordReceived(classification);
+                printer.print(update, due, classification);
+            }
+            latency.record(System.nanoTime() - due);
+        }
+        if (handler instanceof Closeable) {
+            try {
+                ((Closeable) handler).close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return new Result(count, System.nanoTime() - start, latency, printer.metrics());
+    }
+
+    /**
+     * Reads every update of an NDJSON file (optionally gzipped), skipping blank lines.
+     */
+    public static List<Update> readNdjson(Path file) throws IOException {
+        ObjectReader reader = UpdatePrinter.newObjectMapper()
+                .readerFor(Update.class)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        List<Update> updates = new ArrayList<>();
+        InputStream raw = Files.newInputStream(file);
+        if (file.getFileName().toString().endsWith(".gz")) {
+            raw = new GZIPInputStream(raw, 64 * 1024);
+        }
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(raw, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (!line.isBlank()) {
+                    updates.add(reader.readValue(line));
+                }
+            }
+        }
+        return updates;
+    }
+
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > 100_000) {
+                LockSupport.parkNanos(remaining - 50_000);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        List<Update> corpus;
+        if (options.containsKey("input")) {
+            corpus = readNdjson(Paths.get(options.get("input")));
+        } else if (options.containsKey("synthetic")) {
+            String chats = options.get("synthetic");
+            corpus = new SyntheticUpdates(42, chats.isEmpty() ? 100 : Integer.parseInt(chats)).next(10_000);
+        } else {
+            System.err.println("Usage: ReplayTool --input=updates.ndjson | --synthetic[=chats] [--count=N] "
+                    + "[--rate=max|RPS|ramp:FROM:TO:SECONDS] [--target=bot|printer] "
+                    + "[--format=text|json|binary] [--log-file=PATH] [--lanes=N]");
+            System.exit(2);
+            return;
+        }
+        long count = Long.parseLong(options.getOrDefault("count", Integer.toString(corpus.size())));
+        RateSchedule schedule = RateSchedule.fromString(options.get("rate"));
+        Target target = Target.fromString(options.get("target"));
+        UpdatePrinter.Format format = UpdatePrinter.Format.fromString(options.getOrDefault("format", "json"));
+        String logFile = options.get("log-file");
+        int lanes = Integer.parseInt(options.getOrDefault("lanes", "1"));
+
+        UpdateMetrics metrics = new UpdateMetrics();
+        PrintStream console = System.out;
+        // The printer's stdout copy is not what we measure; keep it off the console.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Result result;
+        try (UpdatePrinter printer = new UpdatePrinter(format,
+                logFile == null ? null : new LogFileSink(Paths.get(logFile)), metrics)) {
+            result = run(corpus, count, schedule, target, printer, lanes);
+        } finally {
+            System.setOut(console);
+        }
+        console.printf(Locale.ROOT, "replayed %d updates (%d distinct), target=%s, format=%s, rate=%s%n",
+                count, corpus.size(), target, format, options.getOrDefault("rate", "max"));
+        console.print(result.describe());
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "" : arg.substring(eq + 1));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.telegram;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue and writer thread of one output target of a {@link SinkRouter} route, e.g. the stdout copy of the
+ * TEXT route. The route's writer encodes each batch once and offers the same bytes to every target of
+ * its format; each target writes them at its own pace, so a slow file does not hold up stdout. Counts
+ * are in updates, in the order the route encoded them.
+ */
+public class SinkQueue implements Closeable {
+
+    /**
+     * Where a target's bytes go.
+     */
+    interface Target {
+        /**
+         * @param ends end offset in {@code bytes} of each of the {@code count} records
+         */
+        void write(byte[] bytes, int size, int[] ends, int count);
+
+        void flush();
+
+        /**
+         * Forces what was written to stable storage, where the target has any.
+         */
+        void sync();
+    }
+
+    /**
+     * Encoded payloads of consecutive updates, shared read-only by every target of a route.
+     */
+    static final class Batch {
+        private final byte[] bytes;
+        private final int size;
+        private final int[] ends;
+        private final long[] receivedAt;
+        private final int count;
+
+        Batch(byte[] bytes, int size, int[] ends, long[] receivedAt, int count) {
+            this.bytes = bytes;
+            this.size = size;
+            this.ends = ends;
+            this.receivedAt = receivedAt;
+            this.count = count;
+        }
+    }
+
+    private final String name;
+    private final Target target;
+    private final int capacity;
+    private final AsyncUpdatePipeline.BackpressurePolicy policy;
+    private final ArrayDeque<Batch> queue = new ArrayDeque<>();
+    private final ArrayDeque<Long> positions = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram endToEndLatency = new LatencyHistogram();
+    private final Thread writer;
+    private int queued;
+    private boolean running = true;
+    // Written under the lock, read by the checkpoint without it.
+    private volatile long handed;
+    private volatile long firstLost = Long.MAX_VALUE;
+
+    /**
+     * @param capacity updates the queue holds before {@code policy} applies; a single larger batch is
+     *                 still accepted into an empty queue
+     */
+    SinkQueue(String name, Target target, int capacity, AsyncUpdatePipeline.BackpressurePolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1: " + capacity);
+        }
+        this.name = Objects.requireNonNull(name, "name");
+        this.target = Objects.requireNonNull(target, "target");
+        this.capacity = capacity;
+        this.policy = Objects.requireNonNull(policy, "policy");
+        this.writer = new Thread(this::runWriter, "sink-writer-" + name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Route and target, e.g. {@code text_stdout}; also used in metric names.
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Queues the batch according to the {@link AsyncUpdatePipeline.BackpressurePolicy}.
+     */
+    void offer(Batch batch) {
+        lock.lock();
+        try {
+            long position = handed + 1;
+            handed += batch.count;
+            if (!running) {
+                drop(batch.count, position);
+                return;
+            }
+            if (queued > 0 && queued + batch.count > capacity) {
+                switch (policy) {
+                    case DROP_NEWEST:
+                        drop(batch.count, position);
+                        return;
+                    case DROP_OLDEST:
+                        while (queued > 0 && queued + batch.count > capacity) {
+                            Batch oldest = queue.pollFirst();
+                            queued -= oldest.count;
+                            drop(oldest.count, positions.pollFirst());
+                        }
+                        break;
+                    case BLOCK:
+                    default:
+                        while (queued > 0 && queued + batch.count > capacity && running) {
+                            notFull.awaitUninterruptibly();
+                        }
+                        if (!running) {
+                            drop(batch.count, position);
+                            return;
+                        }
+                        break;
+                }
+            }
+            queue.addLast(batch);
+            positions.addLast(position);
+            queued += batch.count;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int queueDepth() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Updates offered to the queue, whether they were queued or dropped.
+     */
+    public long handedCount() {
+        return handed;
+    }
+
+    public long writtenCount() {
+        return written.sum();
+    }
+
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Position, in {@link #handedCount()} terms, of the first update that was dropped or failed to
+     * write, {@link Long#MAX_VALUE} while there is none.
+     */
+    public long firstLostPosition() {
+        return firstLost;
+    }
+
+    /**
+     * Time to write one update to this target.
+     */
+    public LatencyHistogram writeLatency() {
+        return writeLatency;
+    }
+
+    /**
+     * Time from receiving an update to finishing its write to this target.
+     */
+    public LatencyHistogram endToEndLatency() {
+        return endToEndLatency;
+    }
+
+    void sync() {
+        target.sync();
+    }
+
+    /**
+     * Stops accepting batches, waits for the writer to drain what is already queued and flushes the
+     * target.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWriter() {
+        while (true) {
+            Batch batch;
+            long position;
+            lock.lock();
+            try {
+                while (queue.isEmpty() && running) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (queue.isEmpty()) {
+                    break;
+                }
+                batch = queue.pollFirst();
+                position = positions.pollFirst();
+                queued -= batch.count;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            long start = System.nanoTime();
+            try {
+                target.write(batch.bytes, batch.size, batch.ends, batch.count);
+            } catch (RuntimeException e) {
+                System.err.println("Failed to write updates to " + name + ": " + e.getMessage());
+                lock.lock();
+                try {
+                    lose(position);
+                } finally {
+                    lock.unlock();
+                }
+                continue;
+            }
+            long done = System.nanoTime();
+            long perUpdate = (done - start) / batch.count;
+            for (int i = 0; i < batch.count; i++) {
+                writeLatency.record(perUpdate);
+                endToEndLatency.record(done - batch.receivedAt[i]);
+            }
+            written.add(batch.count);
+        }
+        target.flush();
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private void drop(int count, long position) {
+        dropped.add(count);
+        lose(position);
+    }
+
+    private void lose(long position) {
+        if (position < firstLost) {
+            firstLost = position;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.telegram;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Fans every update out to several {@link UpdatePrinter}s, one per output format, for example text on
+ * stdout, NDJSON in a file and binary records in the journal at the same time. Each format has one
+ * {@link AsyncUpdatePipeline} whose writer encodes every update once; the encoded batch then goes to a
+ * {@link SinkQueue} per target of that format (stdout, file, journal), each with its own writer thread.
+ * With a dropping {@link AsyncUpdatePipeline.BackpressurePolicy} a slow target therefore only fills its
+ * own queue while the others keep writing. With {@code BLOCK} nothing is dropped, so a target whose
+ * queue is full holds up its route's writer and, once that queue fills too, the caller and every other
+ * route.
+ */
+public class SinkRouter implements UpdateHandler, Closeable {
+
+    /**
+     * One format with its encoding queue and the queues of its targets.
+     */
+    public static final class Route {
+        private final String name;
+        private final UpdatePrinter printer;
+        private final AsyncUpdatePipeline pipeline;
+        private final List<SinkQueue> targets;
+
+        private Route(UpdatePrinter printer, int capacity, int batchSize,
+                AsyncUpdatePipeline.BackpressurePolicy policy) {
+            this.name = printer.format().name().toLowerCase(Locale.ROOT);
+            this.printer = printer;
+            List<SinkQueue> queues = new ArrayList<>();
+            for (Map.Entry<String, SinkQueue.Target> target : printer.targets().entrySet()) {
+                queues.add(new SinkQueue(name + "_" + target.getKey(), target.getValue(), capacity, policy));
+            }
+            this.targets = List.copyOf(queues);
+            this.pipeline = new AsyncUpdatePipeline(printer.forwardingTo(batch -> {
+                for (SinkQueue queue : targets) {
+                    queue.offer(batch);
+                }
+            }), capacity, batchSize, policy, "update-encoder-" + name);
+        }
+
+        /**
+         * Lower-case format name, also used in metric names.
+         */
+        public String name() {
+            return name;
+        }
+
+        public UpdatePrinter printer() {
+            return printer;
+        }
+
+        /**
+         * One queue per sink of the printer, in the order stdout, file, journal.
+         */
+        public List<SinkQueue> targets() {
+            return targets;
+        }
+
+        /**
+         * Updates waiting to be encoded.
+         */
+        public int queueDepth() {
+            return pipeline.queueDepth();
+        }
+
+        /**
+         * Updates encoded and handed to every target.
+         */
+        public long encodedCount() {
+            return pipeline.writtenCount();
+        }
+
+        /**
+         * Updates dropped before they were encoded.
+         */
+        public long droppedCount() {
+            return pipeline.droppedCount();
+        }
+
+        /**
+         * The route as the checkpoint sees it: an update counts as written once every target has written
+         * it. Targets number updates in the order they were encoded, which is the order they were handed
+         * to the route as long as nothing was lost; after a loss the checkpoint stops anyway.
+         */
+        private OffsetCheckpoint.Stage stage() {
+            return new OffsetCheckpoint.Stage() {
+                @Override
+                public long handedCount() {
+                    return pipeline.handedCount();
+                }
+
+                @Override
+                public long writtenCount() {
+                    long written = pipeline.writtenCount();
+                    for (SinkQueue target : targets) {
+                        written = Math.min(written, target.writtenCount());
+                    }
+                    return written;
+                }
+
+                @Override
+                public long firstLostPosition() {
+                    long lost = pipeline.firstLostPosition();
+                    for (SinkQueue target : targets) {
+                        lost = Math.min(lost, target.firstLostPosition());
+                    }
+                    return lost;
+                }
+
+                @Override
+                public void sync() {
+                    for (SinkQueue target : targets) {
+                        target.sync();
+                    }
+                }
+            };
+        }
+    }
+
+    private final Route[] routes;
+
+    /**
+     * @param printers at most one per {@link UpdatePrinter.Format}; the router writes to their sinks
+     *                 through its own queues
+     * @param capacity capacity, in updates, of each route's queue and of each target's queue
+     */
+    public SinkRouter(Collection<UpdatePrinter> printers, int capacity, int batchSize,
+            AsyncUpdatePipeline.BackpressurePolicy policy) {
+        if (printers.isEmpty()) {
+            throw new IllegalArgumentException("At least one printer is required");
+        }
+        Set<UpdatePrinter.Format> formats = EnumSet.noneOf(UpdatePrinter.Format.class);
+        for (UpdatePrinter printer : printers) {
+            if (!formats.add(Objects.requireNonNull(printer, "printer").format())) {
+                throw new IllegalArgumentException("More than one printer for format " + printer.format());
+            }
+        }
+        this.routes = new Route[printers.size()];
+        int i = 0;
+        for (UpdatePrinter printer : printers) {
+            routes[i++] = new Route(printer, capacity, batchSize, policy);
+        }
+    }
+
+    /**
+     * Enqueues the update on every route.
+     */
+    @Override
+    public void handle(Update update) {
+        handle(update, UpdateClassification.of(update));
+    }
+
+    @Override
+    public void handle(Update update, long classification) {
+        if (update == null) {
+            return;
+        }
+        for (Route route : routes) {
+            route.pipeline.handle(update, classification);
+        }
+    }
+
+    public List<Route> routes() {
+        return List.of(routes);
+    }
+
+    /**
+     * Publishes, for each route, its encoding queue and format latency, and for each of its targets the
+     * queue depth, written and dropped counters and write and end-to-end latency, named after the format
+     * and the target. Format latency comes from the printer's own {@link UpdateMetrics}, so give every
+     * printer its own instance to keep formats apart.
+     */
+    public void registerMetrics(UpdateMetrics metrics) {
+        for (Route route : routes) {
+            String prefix = "telegram_sink_" + route.name;
+            metrics.registerGauge(prefix + "_queue_depth", "Updates waiting to be encoded as " + route.name + ".",
+                    false, route::queueDepth);
+            metrics.registerGauge(prefix + "_encoded_total",
+                    "Updates encoded as " + route.name + " and handed to its targets.", true, route::encodedCount);
+            metrics.registerGauge(prefix + "_dropped_total",
+                    "Updates dropped by backpressure before " + route.name + " encoding.", true,
+                    route::droppedCount);
+            metrics.registerSummary(prefix + "_format", "Time spent encoding one update as " + route.name + ".",
+                    route.printer.metrics().formatLatency());
+            for (SinkQueue target : route.targets) {
+                String name = "telegram_sink_" + target.name();
+                metrics.registerGauge(name + "_queue_depth", "Updates waiting for the " + target.name() + " writer.",
+                        false, target::queueDepth);
+                metrics.registerGauge(name + "_written_total", "Updates written by the " + target.name() + " writer.",
+                        true, target::writtenCount);
+                metrics.registerGauge(name + "_dropped_total",
+                        "Updates dropped by backpressure on the " + target.name() + " queue.", true,
+                        target::droppedCount);
+                metrics.registerSummary(name + "_write", "Time spent writing one update to " + target.name() + ".",
+                        target.writeLatency());
+                metrics.registerSummary(name + "_end_to_end",
+                        "Time from receiving an update to finishing its write to " + target.name() + ".",
+                        target.endToEndLatency());
+            }
+        }
+    }
+
+    /**
+     * Makes the checkpoint wait for every target of every route, so an update only counts as durable once
+     * all sinks have it.
+     */
+    public void registerStages(OffsetCheckpoint checkpoint) {
+        for (Route route : routes) {
+            checkpoint.register(route.stage());
+        }
+    }
+
+    /**
+     * Drains and stops every route, then every target queue. The printers are closed by their owners.
+     */
+    @Override
+    public void close() {
+        for (Route route : routes) {
+            route.pipeline.close();
+        }
+        for (Route route : routes) {
+            for (SinkQueue target : route.targets) {
+                target.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.telegram;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffered stdout for already encoded payloads. Writes go to the channel of {@link FileDescriptor#out}
+ * instead of {@link System#out}, which is a synchronized, autoflushing {@code PrintStream} that copies
+ * every payload through its own 8 KiB buffer. When the output is piped into a log shipper, the
+ * {@link FlushMode} decides how many writes the pipe sees.
+ */
+public class StdoutSink implements Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_IDLE_MILLIS = 50;
+
+    /**
+     * When staged bytes are pushed to the file descriptor. Besides the mode's own trigger, a full buffer,
+     * {@link #flush()} and {@link #close()} are always flush points.
+     */
+    public enum FlushMode {
+        /**
+         * After every {@link #write} call, i.e. once per update or per writer batch.
+         */
+        ALWAYS,
+        /**
+         * Once no write has arrived for the idle interval: bursts leave in full buffers, while a lone
+         * interactive update still shows up within milliseconds.
+         */
+        IDLE,
+        /**
+         * Only at the flush points every mode has.
+         */
+        BUFFERED;
+
+        public static FlushMode fromString(String raw) {
+            if (raw == null || raw.isBlank()) {
+                return ALWAYS;
+            }
+            switch (raw.trim().toLowerCase(Locale.ROOT)) {
+                case "always":
+                    return ALWAYS;
+                case "idle":
+                    return IDLE;
+                case "buffered":
+                    return BUFFERED;
+                default:
+                    throw new IllegalArgumentException("Unknown stdout flush mode: " + raw);
+            }
+        }
+    }
+
+    private final GatheringByteChannel channel;
+    private final ByteBuffer buffer;
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+    private final FlushMode mode;
+    private final long idleNanos;
+    private final Lock lock = new ReentrantLock();
+    private final ScheduledExecutorService idleFlusher;
+    private long lastWriteNanos;
+    private boolean closed;
+
+    public StdoutSink() {
+        this(FlushMode.ALWAYS, DEFAULT_BUFFER_SIZE, DEFAULT_IDLE_MILLIS);
+    }
+
+    /**
+     * @param idleMillis how long output must be quiet before {@link FlushMode#IDLE} flushes
+     */
+    public StdoutSink(FlushMode mode, int bufferSize, long idleMillis) {
+        // The descriptor is shared with System.out and must outlive this sink, so the stream is never closed.
+        this(new FileOutputStream(FileDescriptor.out).getChannel(), mode, bufferSize, idleMillis);
+    }
+
+    StdoutSink(GatheringByteChannel channel, FlushMode mode, int bufferSize, long idleMillis) {
+        if (bufferSize < 1024) {
+            throw new IllegalArgumentException("bufferSize must be >= 1024: " + bufferSize);
+        }
+        if (idleMillis < 1) {
+            throw new IllegalArgumentException("idleMillis must be >= 1: " + idleMillis);
+        }
+        this.channel = Objects.requireNonNull(channel, "channel");
+        this.mode = Objects.requireNonNull(mode, "mode");
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.idleFlusher = mode == FlushMode.IDLE ? startIdleFlusher(idleMillis) : null;
+    }
+
+    public FlushMode mode() {
+        return mode;
+    }
+
+    /**
+     * Stages one or more encoded payloads. A payload larger than the free space goes out together with
+     * the staged bytes in one gathering write rather than in buffer-sized chunks.
+     */
+    public void write(byte[] payload, int offset, int length) {
+        lock.lock();
+        try {
+            ensureOpen();
+            if (length <= buffer.remaining()) {
+                buffer.put(payload, offset, length);
+            } else {
+                buffer.flip();
+                gather[0] = buffer;
+                gather[1] = ByteBuffer.wrap(payload, offset, length);
+                try {
+                    while (gather[1].hasRemaining()) {
+                        channel.write(gather);
+                    }
+                } finally {
+                    gather[1] = null;
+                    buffer.clear();
+                }
+            }
+            lastWriteNanos = System.nanoTime();
+            if (mode == FlushMode.ALWAYS) {
+                drain();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write to stdout", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void flush() {
+        lock.lock();
+        try {
+            if (!closed) {
+                drain();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to flush stdout", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes and stops the idle flusher. The file descriptor itself stays open.
+     */
+    @Override
+    public void close() {
+        if (idleFlusher != null) {
+            idleFlusher.shutdownNow();
+        }
+        lock.lock();
+        try {
+            if (!closed) {
+                drain();
+                closed = true;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to flush stdout", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Sink is closed");
+        }
+    }
+
+    private ScheduledExecutorService startIdleFlusher(long idleMillis) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stdout-idle-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, idleMillis / 2);
+        executor.scheduleWithFixedDelay(this::flushIfIdle, period, period, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+    private void flushIfIdle() {
+        lock.lock();
+        try {
+            if (!closed && buffer.position() > 0 && System.nanoTime() - lastWriteNanos >= idleNanos) {
+                drain();
+            }
+        } catch (IOException e) {
+            System.err.println("Idle stdout flush failed: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
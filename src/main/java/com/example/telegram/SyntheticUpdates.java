@@ -0,0 +1,388 @@
+package com.example.telegram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.ChatInviteLink;
+import org.telegram.telegrambots.meta.api.objects.ChatJoinRequest;
+import org.telegram.telegrambots.meta.api.objects.ChatMemberUpdated;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
+import org.telegram.telegrambots.meta.api.objects.boost.ChatBoost;
+import org.telegram.telegrambots.meta.api.objects.boost.ChatBoostRemoved;
+import org.telegram.telegrambots.meta.api.objects.boost.ChatBoostSourcePremium;
+import org.telegram.telegrambots.meta.api.objects.boost.ChatBoostUpdated;
+import org.telegram.telegrambots.meta.api.objects.chatmember.ChatMemberLeft;
+import org.telegram.telegrambots.meta.api.objects.chatmember.ChatMemberMember;
+import org.telegram.telegrambots.meta.api.objects.inlinequery.ChosenInlineQuery;
+import org.telegram.telegrambots.meta.api.objects.inlinequery.InlineQuery;
+import org.telegram.telegrambots.meta.api.objects.payments.OrderInfo;
+import org.telegram.telegrambots.meta.api.objects.payments.PreCheckoutQuery;
+import org.telegram.telegrambots.meta.api.objects.payments.ShippingAddress;
+import org.telegram.telegrambots.meta.api.objects.payments.ShippingQuery;
+import org.telegram.telegrambots.meta.api.objects.polls.Poll;
+import org.telegram.telegrambots.meta.api.objects.polls.PollAnswer;
+import org.telegram.telegrambots.meta.api.objects.polls.PollOption;
+import org.telegram.telegrambots.meta.api.objects.reactions.MessageReactionCountUpdated;
+import org.telegram.telegrambots.meta.api.objects.reactions.MessageReactionUpdated;
+import org.telegram.telegrambots.meta.api.objects.reactions.ReactionCount;
+import org.telegram.telegrambots.meta.api.objects.reactions.ReactionTypeEmoji;
+
+/**
+ * Deterministic stream of plausible updates covering every {@link UpdateType}, for load tests
+ * without recorded traffic. Like a real group bot, about half of the stream are plain messages.
+ */
+public final class SyntheticUpdates {
+
+    private static final String[] WORDS = {
+        "deploy", "release", "ticket", "review", "merge", "build", "ok", "thanks", "lunch", "meeting",
+        "привет", "готово", "🔥", "👍", "tomorrow", "bug", "fixed", "please", "check", "link",
+    };
+    private static final int BASE_DATE = 1_700_000_000;
+    private static final String[] EMOJI = {"👍", "❤", "🔥", "🎉", "😁", "🤯"};
+
+    private final Random random;
+    private final int chats;
+    private int nextUpdateId = 1;
+    private int nextMessageId = 1;
+
+    /**
+     * @param chats number of distinct group chats the updates are spread over
+     */
+    public SyntheticUpdates(long seed, int chats) {
+        if (chats < 1) {
+            throw new IllegalArgumentException("chats must be >= 1: " + chats);
+        }
+        this.random = new Random(seed);
+        this.chats = chats;
+    }
+
+    public Update next() {
+        UpdateType[] types = UpdateType.all();
+        UpdateType type = random.nextBoolean() ? UpdateType.MESSAGE : types[random.nextInt(types.length)];
+        return next(type);
+    }
+
+    public List<Update> next(int count) {
+        List<Update> updates = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            updates.add(next());
+        }
+        return updates;
+    }
+
+    /**
+     * An update carrying exactly one section of the given type.
+     */
+    public Update next(UpdateType type) {
+        Update update = new Update();
+        update.setUpdateId(nextUpdateId++);
+        switch (type) {
+            case MESSAGE:
+                update.setMessage(message());
+                break;
+            case EDITED_MESSAGE:
+                Message edited = message();
+                edited.setEditDate(edited.getDate() + 30);
+                update.setEditedMessage(edited);
+                break;
+            case CHANNEL_POST:
+                update.setChannelPost(channelPost());
+                break;
+            case EDITED_CHANNEL_POST:
+                update.setEditedChannelPost(channelPost());
+                break;
+            case INLINE_QUERY:
+                update.setInlineQuery(inlineQuery());
+                break;
+            case CHOSEN_INLINE_RESULT:
+                update.setChosenInlineQuery(chosenInlineQuery());
+                break;
+            case CALLBACK_QUERY:
+                update.setCallbackQuery(callbackQuery());
+                break;
+            case SHIPPING_QUERY:
+                update.setShippingQuery(shippingQuery());
+                break;
+            case PRE_CHECKOUT_QUERY:
+                update.setPreCheckoutQuery(preCheckoutQuery());
+                break;
+            case POLL:
+                update.setPoll(poll());
+                break;
+            case POLL_ANSWER:
+                update.setPollAnswer(pollAnswer());
+                break;
+            case MY_CHAT_MEMBER:
+                update.setMyChatMember(chatMemberUpdated());
+                break;
+            case CHAT_MEMBER:
+                update.setChatMember(chatMemberUpdated());
+                break;
+            case CHAT_JOIN_REQUEST:
+                update.setChatJoinRequest(chatJoinRequest());
+                break;
+            case MESSAGE_REACTION:
+                update.setMessageReaction(messageReaction());
+                break;
+            case MESSAGE_REACTION_COUNT:
+                update.setMessageReactionCount(messageReactionCount());
+                break;
+            case CHAT_BOOST:
+                update.setChatBoost(chatBoost());
+                break;
+            case REMOVED_CHAT_BOOST:
+                update.setRemovedChatBoost(chatBoostRemoved());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown update type: " + type);
+        }
+        return update;
+    }
+
+    private Message message() {
+        Message message = new Message();
+        message.setMessageId(nextMessageId++);
+        message.setDate(date());
+        message.setChat(groupChat());
+        message.setFrom(user());
+        message.setText(sentence(3 + random.nextInt(20)));
+        return message;
+    }
+
+    private Message channelPost() {
+        Message post = new Message();
+        post.setMessageId(nextMessageId++);
+        post.setDate(date());
+        Chat channel = new Chat();
+        channel.setId(-1002000000000L - random.nextInt(Math.max(1, chats / 10) + 1));
+        channel.setType("channel");
+        channel.setTitle("Announcements");
+        post.setChat(channel);
+        post.setText(sentence(10 + random.nextInt(40)));
+        return post;
+    }
+
+    private InlineQuery inlineQuery() {
+        InlineQuery query = new InlineQuery();
+        query.setId(Long.toString(random.nextLong() & Long.MAX_VALUE));
+        query.setFrom(user());
+        query.setQuery(sentence(1 + random.nextInt(3)));
+        query.setOffset("");
+        query.setChatType("sender");
+        return query;
+    }
+
+    private ChosenInlineQuery chosenInlineQuery() {
+        ChosenInlineQuery chosen = new ChosenInlineQuery();
+        chosen.setResultId("result-" + random.nextInt(50));
+        chosen.setFrom(user());
+        chosen.setQuery(sentence(2));
+        return chosen;
+    }
+
+    private CallbackQuery callbackQuery() {
+        CallbackQuery callback = new CallbackQuery();
+        callback.setId(Long.toString(random.nextLong() & Long.MAX_VALUE));
+        callback.setFrom(user());
+        callback.setChatInstance(Long.toString(random.nextLong()));
+        callback.setData("action:" + WORDS[random.nextInt(WORDS.length)]);
+        callback.setMessage(message());
+        return callback;
+    }
+
+    private ShippingQuery shippingQuery() {
+        ShippingQuery query = new ShippingQuery();
+        query.setId(Long.toString(random.nextLong() & Long.MAX_VALUE));
+        query.setFrom(user());
+        query.setInvoicePayload("order-" + random.nextInt(100_000));
+        query.setShippingAddress(address());
+        return query;
+    }
+
+    private PreCheckoutQuery preCheckoutQuery() {
+        PreCheckoutQuery query = new PreCheckoutQuery();
+        query.setId(Long.toString(random.nextLong() & Long.MAX_VALUE));
+        query.setFrom(user());
+        query.setCurrency("EUR");
+        query.setTotalAmount(100 + random.nextInt(100_000));
+        query.setInvoicePayload("order-" + random.nextInt(100_000));
+        OrderInfo info = new OrderInfo();
+        info.setName("Customer " + random.nextInt(1000));
+        info.setShippingAddress(address());
+        query.setOrderInfo(info);
+        return query;
+    }
+
+    private Poll poll() {
+        Poll poll = new Poll();
+        poll.setId(Long.toString(random.nextLong() & Long.MAX_VALUE));
+        poll.setQuestion(sentence(5) + "?");
+        List<PollOption> options = new ArrayList<>();
+        int total = 0;
+        for (int i = 0, count = 2 + random.nextInt(8); i < count; i++) {
+            PollOption option = new PollOption();
+            option.setText(sentence(2));
+            option.setVoterCount(random.nextInt(200));
+            total += option.getVoterCount();
+            options.add(option);
+        }
+        poll.setOptions(options);
+        poll.setTotalVoterCount(total);
+        poll.setIsClosed(false);
+        poll.setIsAnonymous(true);
+        poll.setType("regular");
+        poll.setAllowMultipleAnswers(random.nextBoolean());
+        return poll;
+    }
+
+    private PollAnswer pollAnswer() {
+        PollAnswer answer = new PollAnswer();
+        answer.setPollId(Long.toString(random.nextLong() & Long.MAX_VALUE));
+        answer.setUser(user());
+        answer.setOptionIds(List.of(random.nextInt(4)));
+        return answer;
+    }
+
+    private ChatMemberUpdated chatMemberUpdated() {
+        ChatMemberUpdated updated = new ChatMemberUpdated();
+        updated.setChat(groupChat());
+        User member = user();
+        updated.setFrom(member);
+        updated.setDate(date());
+        ChatMemberLeft oldMember = new ChatMemberLeft();
+        oldMember.setUser(member);
+        ChatMemberMember newMember = new ChatMemberMember();
+        newMember.setUser(member);
+        updated.setOldChatMember(oldMember);
+        updated.setNewChatMember(newMember);
+        return updated;
+    }
+
+    private ChatJoinRequest chatJoinRequest() {
+        ChatJoinRequest request = new ChatJoinRequest();
+        request.setChat(groupChat());
+        User applicant = user();
+        request.setUser(applicant);
+        request.setUserChatId(applicant.getId());
+        request.setDate(date());
+        request.setBio(sentence(4));
+        ChatInviteLink link = new ChatInviteLink();
+        link.setInviteLink("https://t.me/+" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36));
+        link.setCreatesJoinRequest(true);
+        request.setInviteLink(link);
+        return request;
+    }
+
+    private MessageReactionUpdated messageReaction() {
+        MessageReactionUpdated reaction = new MessageReactionUpdated();
+        reaction.setChat(groupChat());
+        reaction.setMessageId(1 + random.nextInt(nextMessageId));
+        reaction.setUser(user());
+        reaction.setDate(date());
+        reaction.setOldReaction(List.of());
+        reaction.setNewReaction(List.of(emoji()));
+        return reaction;
+    }
+
+    private MessageReactionCountUpdated messageReactionCount() {
+        MessageReactionCountUpdated counts = new MessageReactionCountUpdated();
+        counts.setChat(groupChat());
+        counts.setMessageId(1 + random.nextInt(nextMessageId));
+        counts.setDate(date());
+        List<ReactionCount> reactions = new ArrayList<>();
+        for (int i = 0, count = 1 + random.nextInt(EMOJI.length); i < count; i++) {
+            ReactionCount reactionCount = new ReactionCount();
+            reactionCount.setType(emoji());
+            reactionCount.setTotalCount(1 + random.nextInt(500));
+            reactions.add(reactionCount);
+        }
+        counts.setReactions(reactions);
+        return counts;
+    }
+
+    private ChatBoostUpdated chatBoost() {
+        ChatBoostUpdated updated = new ChatBoostUpdated();
+        updated.setChat(groupChat());
+        ChatBoost boost = new ChatBoost();
+        boost.setBoostId(Long.toString(random.nextLong() & Long.MAX_VALUE, 36));
+        boost.setAddDate(date());
+        boost.setExpirationDate(date() + 30 * 24 * 3600);
+        boost.setSource(premiumSource());
+        updated.setBoost(boost);
+        return updated;
+    }
+
+    private ChatBoostRemoved chatBoostRemoved() {
+        ChatBoostRemoved removed = new ChatBoostRemoved();
+        removed.setChat(groupChat());
+        removed.setBoostId(Long.toString(random.nextLong() & Long.MAX_VALUE, 36));
+        removed.setRemoveDate(date());
+        removed.setSource(premiumSource());
+        return removed;
+    }
+
+    private ChatBoostSourcePremium premiumSource() {
+        ChatBoostSourcePremium source = new ChatBoostSourcePremium();
+        source.setSource("premium");
+        source.setUser(user());
+        return source;
+    }
+
+    private ReactionTypeEmoji emoji() {
+        ReactionTypeEmoji reaction = new ReactionTypeEmoji();
+        reaction.setType("emoji");
+        reaction.setEmoji(EMOJI[random.nextInt(EMOJI.length)]);
+        return reaction;
+    }
+
+    private ShippingAddress address() {
+        ShippingAddress address = new ShippingAddress();
+        address.setCountryCode("DE");
+        address.setState("Berlin");
+        address.setCity("Berlin");
+        address.setStreetLine1("Street " + random.nextInt(200));
+        address.setStreetLine2("");
+        address.setPostCode(Integer.toString(10000 + random.nextInt(90000)));
+        return address;
+    }
+
+    private Chat groupChat() {
+        int index = random.nextInt(chats);
+        Chat chat = new Chat();
+        chat.setId(-1001000000000L - index);
+        chat.setType("supergroup");
+        chat.setTitle("Group " + index);
+        return chat;
+    }
+
+    private User user() {
+        long id = 100_000L + random.nextInt(50_000);
+        User user = new User();
+        user.setId(id);
+        user.setFirstName("User" + id);
+        user.setUserName("user" + id);
+        user.setIsBot(false);
+        user.setLanguageCode(random.nextBoolean() ? "en" : "ru");
+        return user;
+    }
+
+    private String sentence(int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private int date() {
+        return BASE_DATE + nextUpdateId;
+    }
+}
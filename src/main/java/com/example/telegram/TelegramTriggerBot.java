@@ -2,36 +2,56 @@ package com.example.telegram;
 
 import java.util.Objects;
 
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.api.objects.Update;
 
 /**
- * Long-polling bot that dumps every received update to the console.
+ * Long-polling bot that dumps every received update to the console. The polling thread only hands
+ * updates to an {@link UpdateHandler}; formatting and I/O may happen elsewhere.
  */
 public class TelegramTriggerBot extends TelegramLongPollingBot {
 
-    private final String botToken;
     private final String botUsername;
-    private final UpdatePrinter printer;
+    private final UpdateHandler handler;
+    private final UpdateMetrics metrics;
 
     public TelegramTriggerBot(String botToken, String botUsername, UpdatePrinter printer) {
-        this.botToken = Objects.requireNonNull(botToken, "botToken");
+        this(botToken, botUsername, Objects.requireNonNull(printer, "printer"), printer.metrics());
+    }
+
+    public TelegramTriggerBot(String botToken, String botUsername, UpdateHandler handler) {
+        this(botToken, botUsername, handler, new UpdateMetrics());
+    }
+
+    public TelegramTriggerBot(String botToken, String botUsername, UpdateHandler handler, UpdateMetrics metrics) {
+        this(new DefaultBotOptions(), botToken, botUsername, handler, metrics);
+    }
+
+    /**
+     * @param options transport settings, e.g. a {@link DefaultBotOptions#setBaseUrl base URL} pointing
+     *                at a local Bot API server instead of {@code api.telegram.org}
+     */
+    public TelegramTriggerBot(DefaultBotOptions options, String botToken, String botUsername,
+            UpdateHandler handler, UpdateMetrics metrics) {
+        super(Objects.requireNonNull(options, "options"), Objects.requireNonNull(botToken, "botToken"));
         this.botUsername = Objects.requireNonNull(botUsername, "botUsername");
-        this.printer = Objects.requireNonNull(printer, "printer");
+        this.handler = Objects.requireNonNull(handler, "handler");
+        this.metrics = Objects.requireNonNull(metrics, "metrics");
     }
 
+    /**
+     * Classifies the update once; metrics and every stage of the handler chain reuse the result.
+     */
     @Override
     public void onUpdateReceived(Update update) {
-        printer.print(update);
+        long classification = UpdateClassification.of(update);
+        metrics.recordReceived(classification);
+        handler.handle(update, classification);
     }
 
     @Override
     public String getBotUsername() {
         return botUsername;
     }
-
-    @Override
-    public String getBotToken() {
-        return botToken;
-    }
 }
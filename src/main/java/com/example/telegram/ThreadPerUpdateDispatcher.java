@@ -0,0 +1,119 @@
+package com.example.telegram;
+
+import java.io.Closeable;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Prints every update on its own thread: a virtual thread on JDK 21+, one of a fixed pool of
+ * platform threads on older runtimes. Unlike {@link AsyncUpdatePipeline} there is no single writer,
+ * so output order across updates is not preserved; a {@link Semaphore} caps how many updates are in
+ * flight (running or waiting for a pool thread) and blocks the caller once the cap is reached.
+ */
+public class ThreadPerUpdateDispatcher implements UpdateHandler, Closeable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10_000;
+
+    private final UpdatePrinter printer;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxInFlight;
+    private final boolean virtual;
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @param preferVirtual use virtual threads when the runtime supports them
+     */
+    public ThreadPerUpdateDispatcher(UpdatePrinter printer, int maxInFlight, boolean preferVirtual) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be >= 1: " + maxInFlight);
+        }
+        this.printer = Objects.requireNonNull(printer, "printer");
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+        this.virtual = preferVirtual && VirtualThreads.isSupported();
+        this.executor = VirtualThreads.newTaskExecutor("update-handler", preferVirtual);
+    }
+
+    @Override
+    public void handle(Update update) {
+        handle(update, UpdateClassification.of(update));
+    }
+
+    @Override
+    public void handle(Update update, long classification) {
+        if (update == null) {
+            return;
+        }
+        long receivedAt = System.nanoTime();
+        permits.acquireUninterruptibly();
+        try {
+            executor.execute(() -> {
+                try {
+                    printer.print(update, receivedAt, classification);
+                } catch (RuntimeException e) {
+                    failed.increment();
+                    System.err.println("Failed to print update: " + e.getMessage());
+                } finally {
+                    permits.release();
+                }
+            });
+            dispatched.increment();
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            failed.increment();
+        }
+    }
+
+    /**
+     * Whether updates actually run on virtual threads.
+     */
+    public boolean usesVirtualThreads() {
+        return virtual;
+    }
+
+    public int inFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    public long dispatchedCount() {
+        return dispatched.sum();
+    }
+
+    public long failedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * Publishes the in-flight gauge and the dispatched/failed counters.
+     */
+    public void registerMetrics(UpdateMetrics metrics) {
+        metrics.registerGauge("telegram_handler_in_flight", "Updates currently being printed.", false,
+                this::inFlight);
+        metrics.registerGauge("telegram_handler_dispatched_total", "Updates handed to a handler thread.", true,
+                this::dispatchedCount);
+        metrics.registerGauge("telegram_handler_failed_total", "Updates that failed to print.", true,
+                this::failedCount);
+    }
+
+    /**
+     * Stops accepting updates, waits for in-flight ones to finish and flushes the printer.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        printer.flush();
+    }
+}
@@ -0,0 +1,509 @@
+package com.example.telegram;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import org.telegram.telegrambots.meta.api.objects.ChatJoinRequest;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.polls.PollAnswer;
+import org.telegram.telegrambots.meta.api.objects.reactions.MessageReactionCountUpdated;
+import org.telegram.telegrambots.meta.api.objects.reactions.ReactionCount;
+
+/**
+ * Turns the update stream into one NDJSON summary per window instead of one record per update:
+ * updates per type, messages per chat, the latest reaction total per message, poll votes per option
+ * and join requests per invite link. Counts are kept per pane of {@link Window#stepMillis()} in
+ * {@link LongPairCounter}s; a tumbling window is a single pane, a sliding one merges the last few. Pane
+ * boundaries follow the wall clock, so windows line up with whole minutes and so on. With a
+ * {@code downstream} handler the aggregator is a companion that passes every update on; without one it
+ * replaces the raw output.
+ */
+public class UpdateAggregator implements UpdateHandler, Closeable {
+
+    /**
+     * Window length and how often a summary is emitted.
+     */
+    public static final class Window {
+        private final long sizeMillis;
+        private final long stepMillis;
+
+        private Window(long sizeMillis, long stepMillis) {
+            this.sizeMillis = sizeMillis;
+            this.stepMillis = stepMillis;
+        }
+
+        public static Window tumbling(long sizeMillis) {
+            return sliding(sizeMillis, sizeMillis);
+        }
+
+        /**
+         * @param stepMillis emit every {@code stepMillis} a summary of the last {@code sizeMillis}; must
+         *                   divide {@code sizeMillis}
+         */
+        public static Window sliding(long sizeMillis, long stepMillis) {
+            if (stepMillis < 1 || sizeMillis < stepMillis || sizeMillis % stepMillis != 0) {
+                throw new IllegalArgumentException(
+                        "need 1 <= step <= size with size a multiple of step: " + sizeMillis + ", " + stepMillis);
+            }
+            if (sizeMillis / stepMillis > 1024) {
+                throw new IllegalArgumentException("at most 1024 steps per window: " + sizeMillis + ", " + stepMillis);
+            }
+            return new Window(sizeMillis, stepMillis);
+        }
+
+        public long sizeMillis() {
+            return sizeMillis;
+        }
+
+        public long stepMillis() {
+            return stepMillis;
+        }
+
+        public boolean isTumbling() {
+            return sizeMillis == stepMillis;
+        }
+    }
+
+    /**
+     * Counts of one step. Strings (poll ids, invite links) are numbered per pane so the counters stay
+     * primitive.
+     */
+    private static final class Pane {
+        private final long[] types = new long[UpdateType.all().length];
+        private final LongPairCounter chatMessages = new LongPairCounter(256);
+        private final LongPairCounter reactions = new LongPairCounter(64);
+        private final LongPairCounter pollVotes = new LongPairCounter(64);
+        private final LongPairCounter joinRequests = new LongPairCounter(16);
+        private final Map<String, Integer> stringIds = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private long start;
+        private long updates;
+
+        private int intern(String value) {
+            Integer id = stringIds.get(value);
+            if (id == null) {
+                id = strings.size();
+                stringIds.put(value, id);
+                strings.add(value);
+            }
+            return id;
+        }
+
+        private void reset(long start) {
+            this.start = start;
+            updates = 0;
+            Arrays.fill(types, 0);
+            chatMessages.clear();
+            reactions.clear();
+            pollVotes.clear();
+            joinRequests.clear();
+            stringIds.clear();
+            strings.clear();
+        }
+
+        /**
+         * Adds this pane's counts to {@code into}; reaction totals are snapshots, so the newer pane wins.
+         */
+        private void mergeInto(Pane into) {
+            into.updates += updates;
+            for (int i = 0; i < types.length; i++) {
+                into.types[i] += types[i];
+            }
+            for (int i = 0; i < chatMessages.slots(); i++) {
+                if (chatMessages.used(i)) {
+                    into.chatMessages.add(chatMessages.first(i), 0, chatMessages.value(i));
+                }
+            }
+            for (int i = 0; i < reactions.slots(); i++) {
+                if (reactions.used(i)) {
+                    into.reactions.put(reactions.first(i), reactions.second(i), reactions.value(i));
+                }
+            }
+            for (int i = 0; i < pollVotes.slots(); i++) {
+                if (pollVotes.used(i)) {
+                    into.pollVotes.add(into.intern(strings.get((int) pollVotes.first(i))), pollVotes.second(i),
+                            pollVotes.value(i));
+                }
+            }
+            for (int i = 0; i < joinRequests.slots(); i++) {
+                if (joinRequests.used(i)) {
+                    into.joinRequests.add(joinRequests.first(i), into.intern(strings.get((int) joinRequests.second(i))),
+                            joinRequests.value(i));
+                }
+            }
+        }
+    }
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final UpdateHandler downstream;
+    private final Window window;
+    private final StdoutSink stdout;
+    private final LogFileSink logSink;
+    private final LongSupplier clock;
+    private final JsonFactory json = UpdatePrinter.newObjectMapper().getFactory();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition stopped = lock.newCondition();
+    private final Pane[] panes;
+    private final Pane merged = new Pane();
+    private final LongAdder aggregated = new LongAdder();
+    private final LongAdder summaries = new LongAdder();
+    private final LongAdder failedSummaries = new LongAdder();
+    private final Thread ticker;
+    private int current;
+    private boolean running = true;
+
+    /**
+     * @param downstream receives every update as well; {@code null} keeps only the summaries
+     * @param stdout     where summaries go, or {@code null}
+     * @param logSink    where summaries go, or {@code null}; one of the two is required
+     */
+    public UpdateAggregator(UpdateHandler downstream, Window window, StdoutSink stdout, LogFileSink logSink) {
+        this(downstream, window, stdout, logSink, System::currentTimeMillis, true);
+    }
+
+    UpdateAggregator(UpdateHandler downstream, Window window, StdoutSink stdout, LogFileSink logSink,
+            LongSupplier clock, boolean startTicker) {
+        if (stdout == null && logSink == null) {
+            throw new IllegalArgumentException("Summaries need stdout or a log file");
+        }
+        this.downstream = downstream;
+        this.window = Objects.requireNonNull(window, "window");
+        this.stdout = stdout;
+        this.logSink = logSink;
+        this.clock = clock;
+        this.panes = new Pane[(int) (window.sizeMillis / window.stepMillis)];
+        long start = paneStart(clock.getAsLong());
+        for (int i = 0; i < panes.length; i++) {
+            panes[i] = new Pane();
+            panes[i].reset(start - (long) (panes.length - 1 - i) * window.stepMillis);
+        }
+        this.current = panes.length - 1;
+        if (startTicker) {
+            this.ticker = new Thread(this::runTicker, "update-aggregator");
+            this.ticker.setDaemon(true);
+            this.ticker.start();
+        } else {
+            this.ticker = null;
+        }
+    }
+
+    @Override
+    public void handle(Update update) {
+        handle(update, UpdateClassification.of(update));
+    }
+
+    @Override
+    public void handle(Update update, long classification) {
+        if (update == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            roll(clock.getAsLong());
+            count(panes[current], update, classification);
+        } finally {
+            lock.unlock();
+        }
+        aggregated.increment();
+        if (downstream != null) {
+            downstream.handle(update, classification);
+        }
+    }
+
+    public Window window() {
+        return window;
+    }
+
+    public long aggregatedCount() {
+        return aggregated.sum();
+    }
+
+    public long summaryCount() {
+        return summaries.sum();
+    }
+
+    public long failedSummaryCount() {
+        return failedSummaries.sum();
+    }
+
+    public void registerMetrics(UpdateMetrics metrics) {
+        metrics.registerGauge("telegram_aggregate_updates_total", "Updates counted into windows.", true,
+                this::aggregatedCount);
+        metrics.registerGauge("telegram_aggregate_summaries_total", "Window summaries written.", true,
+                this::summaryCount);
+        metrics.registerGauge("telegram_aggregate_summary_errors_total", "Window summaries that failed to write.",
+                true, this::failedSummaryCount);
+    }
+
+    /**
+     * Emits the summary of every window that has ended by now. The ticker calls this on each step
+     * boundary.
+     */
+    void tick() {
+        lock.lock();
+        try {
+            roll(clock.getAsLong());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the ticker and emits the window in progress, which is cut short at the current time.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            stopped.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (ticker != null) {
+            try {
+                ticker.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lock.lock();
+        try {
+            long now = clock.getAsLong();
+            roll(now);
+            if (now > panes[current].start) {
+                emitReporting(now);
+            }
+        } finally {
+            lock.unlock();
+        }
+        flush();
+    }
+
+    /**
+     * Looks only at the sections the classification lists.
+     */
+    private static void count(Pane pane, Update update, long classification) {
+        pane.updates++;
+        int mask = UpdateClassification.types(classification);
+        while (mask != 0) {
+            pane.types[Integer.numberOfTrailingZeros(mask)]++;
+            mask &= mask - 1;
+        }
+        Message message = null;
+        if (UpdateClassification.has(classification, UpdateType.MESSAGE)) {
+            message = update.getMessage();
+        } else if (UpdateClassification.has(classification, UpdateType.CHANNEL_POST)) {
+            message = update.getChannelPost();
+        }
+        if (message != null && message.getChat() != null) {
+            pane.chatMessages.add(message.getChat().getId(), 0, 1);
+        }
+        MessageReactionCountUpdated reactions = UpdateClassification.has(classification,
+                UpdateType.MESSAGE_REACTION_COUNT) ? update.getMessageReactionCount() : null;
+        if (reactions != null && reactions.getChat() != null && reactions.getMessageId() != null) {
+            long total = 0;
+            if (reactions.getReactions() != null) {
+                for (ReactionCount reaction : reactions.getReactions()) {
+                    total += reaction.getTotalCount() == null ? 0 : reaction.getTotalCount();
+                }
+            }
+            pane.reactions.put(reactions.getChat().getId(), reactions.getMessageId(), total);
+        }
+        PollAnswer answer = UpdateClassification.has(classification, UpdateType.POLL_ANSWER)
+                ? update.getPollAnswer() : null;
+        if (answer != null && answer.getPollId() != null && answer.getOptionIds() != null) {
+            int poll = pane.intern(answer.getPollId());
+            for (Integer option : answer.getOptionIds()) {
+                pane.pollVotes.add(poll, option, 1);
+            }
+        }
+        ChatJoinRequest request = UpdateClassification.has(classification, UpdateType.CHAT_JOIN_REQUEST)
+                ? update.getChatJoinRequest() : null;
+        if (request != null && request.getChat() != null) {
+            String link = request.getInviteLink() == null ? "" : request.getInviteLink().getInviteLink();
+            pane.joinRequests.add(request.getChat().getId(), pane.intern(link == null ? "" : link), 1);
+        }
+    }
+
+    /**
+     * Advances to the pane that contains {@code now}, emitting a summary at each step boundary passed.
+     * Once a gap has emptied the whole ring, the remaining empty windows are skipped.
+     */
+    private void roll(long now) {
+        long target = paneStart(now);
+        int emitted = 0;
+        while (panes[current].start < target) {
+            if (emitted == panes.length) {
+                long base = target - (long) (panes.length - 1) * window.stepMillis;
+                for (int i = 1; i <= panes.length; i++) {
+                    panes[(current + i) % panes.length].reset(base + (i - 1) * window.stepMillis);
+                }
+                return;
+            }
+            long next = panes[current].start + window.stepMillis;
+            emitReporting(next);
+            emitted++;
+            current = (current + 1) % panes.length;
+            panes[current].reset(next);
+        }
+    }
+
+    /**
+     * {@link #emit} that reports a failed write instead of throwing it, so a broken summary sink neither
+     * stops the windows from rolling nor keeps {@link #handle} from counting and forwarding the update.
+     */
+    private void emitReporting(long end) {
+        try {
+            emit(end);
+        } catch (RuntimeException e) {
+            failedSummaries.increment();
+            System.err.println("Failed to emit window summary: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the window that ends at {@code end}: the current pane and the ones before it.
+     */
+    private void emit(long end) {
+        Pane oldest = panes[(current + 1) % panes.length];
+        merged.reset(oldest.start);
+        for (int i = 1; i <= panes.length; i++) {
+            panes[(current + i) % panes.length].mergeInto(merged);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = json.createGenerator(out)) {
+            write(generator, oldest.start, end);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write window summary", e);
+        }
+        out.writeBytes(LINE_SEPARATOR);
+        byte[] bytes = out.toByteArray();
+        if (stdout != null) {
+            stdout.write(bytes, 0, bytes.length);
+        }
+        if (logSink != null) {
+            logSink.write(bytes, 0, bytes.length);
+        }
+        summaries.increment();
+    }
+
+    private void write(JsonGenerator generator, long start, long end) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("window_start_ms", start);
+        generator.writeNumberField("window_end_ms", end);
+        generator.writeNumberField("updates", merged.updates);
+        generator.writeObjectFieldStart("types");
+        for (UpdateType type : UpdateType.all()) {
+            if (merged.types[type.ordinal()] > 0) {
+                generator.writeNumberField(type.apiName(), merged.types[type.ordinal()]);
+            }
+        }
+        generator.writeEndObject();
+        generator.writeArrayFieldStart("chats");
+        LongPairCounter chats = merged.chatMessages;
+        for (int i = 0; i < chats.slots(); i++) {
+            if (chats.used(i)) {
+                generator.writeStartObject();
+                generator.writeNumberField("chat_id", chats.first(i));
+                generator.writeNumberField("messages", chats.value(i));
+                generator.writeEndObject();
+            }
+        }
+        generator.writeEndArray();
+        generator.writeArrayFieldStart("reactions");
+        LongPairCounter reactions = merged.reactions;
+        for (int i = 0; i < reactions.slots(); i++) {
+            if (reactions.used(i)) {
+                generator.writeStartObject();
+                generator.writeNumberField("chat_id", reactions.first(i));
+                generator.writeNumberField("message_id", reactions.second(i));
+                generator.writeNumberField("total", reactions.value(i));
+                generator.writeEndObject();
+            }
+        }
+        generator.writeEndArray();
+        generator.writeArrayFieldStart("poll_votes");
+        LongPairCounter votes = merged.pollVotes;
+        for (int i = 0; i < votes.slots(); i++) {
+            if (votes.used(i)) {
+                generator.writeStartObject();
+                generator.writeStringField("poll_id", merged.strings.get((int) votes.first(i)));
+                generator.writeNumberField("option_id", votes.second(i));
+                generator.writeNumberField("votes", votes.value(i));
+                generator.writeEndObject();
+            }
+        }
+        generator.writeEndArray();
+        generator.writeArrayFieldStart("join_requests");
+        LongPairCounter joins = merged.joinRequests;
+        for (int i = 0; i < joins.slots(); i++) {
+            if (joins.used(i)) {
+                String link = merged.strings.get((int) joins.second(i));
+                generator.writeStartObject();
+                generator.writeNumberField("chat_id", joins.first(i));
+                generator.writeStringField("invite_link", link.isEmpty() ? null : link);
+                generator.writeNumberField("requests", joins.value(i));
+                generator.writeEndObject();
+            }
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private void flush() {
+        if (stdout != null) {
+            stdout.flush();
+        }
+        if (logSink != null) {
+            logSink.flush();
+        }
+    }
+
+    private long paneStart(long millis) {
+        return Math.floorDiv(millis, window.stepMillis) * window.stepMillis;
+    }
+
+    private void runTicker() {
+        while (true) {
+            lock.lock();
+            try {
+                long wait = paneStart(clock.getAsLong()) + window.stepMillis - clock.getAsLong();
+                long remaining = TimeUnit.MILLISECONDS.toNanos(Math.max(1, wait));
+                while (running && remaining > 0) {
+                    remaining = stopped.awaitNanos(remaining);
+                }
+                if (!running) {
+                    return;
+                }
+                roll(clock.getAsLong());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("Failed to emit window summary: " + e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+            flush();
+        }
+    }
+}
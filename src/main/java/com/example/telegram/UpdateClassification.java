@@ -0,0 +1,78 @@
+package com.example.telegram;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * One pass over an {@link Update} that records which sections are present and what the message
+ * carries, packed into a {@code long} so it can be passed around and stored without allocating. The
+ * low 32 bits are the {@link UpdateType#mask} and the next byte is the {@link MessageContent} of the
+ * first message-like section. Routing, filtering and counting can work from the classification alone;
+ * {@link UpdatePrinter} renders only the sections it lists.
+ */
+public final class UpdateClassification {
+
+    private static final int CONTENT_SHIFT = 32;
+
+    private static final int MESSAGE_SECTIONS = UpdateType.MESSAGE.bit() | UpdateType.EDITED_MESSAGE.bit()
+            | UpdateType.CHANNEL_POST.bit() | UpdateType.EDITED_CHANNEL_POST.bit();
+
+    private UpdateClassification() {
+    }
+
+    public static long of(Update update) {
+        int types = UpdateType.mask(update);
+        MessageContent content = MessageContent.NONE;
+        if ((types & MESSAGE_SECTIONS) != 0) {
+            switch (firstMessageType(types)) {
+                case MESSAGE:
+                    content = MessageContent.of(update.getMessage());
+                    break;
+                case EDITED_MESSAGE:
+                    content = MessageContent.of(update.getEditedMessage());
+                    break;
+                case CHANNEL_POST:
+                    content = MessageContent.of(update.getChannelPost());
+                    break;
+                default:
+                    content = MessageContent.of(update.getEditedChannelPost());
+                    break;
+            }
+        }
+        return ((long) content.ordinal() << CONTENT_SHIFT) | (types & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Bit {@code 1 << ordinal()} per {@link UpdateType} present, as returned by {@link UpdateType#mask}.
+     */
+    public static int types(long classification) {
+        return (int) classification;
+    }
+
+    public static boolean has(long classification, UpdateType type) {
+        return (types(classification) & type.bit()) != 0;
+    }
+
+    /**
+     * The section an update is normally about: the only one it carries, or the first in declaration
+     * order if it carries several. {@code null} for an update without any known section.
+     */
+    public static UpdateType primaryType(long classification) {
+        int types = types(classification);
+        return types == 0 ? null : UpdateType.first(types);
+    }
+
+    /**
+     * First of the message-like sections present, or {@code null}.
+     */
+    static UpdateType firstMessageType(long classification) {
+        int messages = types(classification) & MESSAGE_SECTIONS;
+        return messages == 0 ? null : UpdateType.first(messages);
+    }
+
+    /**
+     * Content of the first message-like section, {@link MessageContent#NONE} if there is none.
+     */
+    public static MessageContent content(long classification) {
+        return MessageContent.fromOrdinal((int) (classification >>> CONTENT_SHIFT) & 0xFF);
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.telegram;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Drops updates that were already handed downstream: either the same {@code update_id} (Telegram
+ * redelivering after a lost offset confirmation) or the same message identity, i.e. chat, message
+ * id and edit date, arriving under a new id. Both are remembered in a {@link RecentIdSet} bounded by
+ * entry count and age, and can be snapshotted to disk so a restart skips what was already logged.
+ */
+public class UpdateDeduplicator implements UpdateHandler, Closeable {
+
+    public static final long DEFAULT_MAX_AGE_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final int SNAPSHOT_MAGIC = 0x54474444; // "TGDD"
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private final UpdateHandler downstream;
+    private final RecentIdSet updateIds;
+    private final RecentIdSet messageKeys;
+    private final Path snapshot;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder duplicateIds = new LongAdder();
+    private final LongAdder duplicateMessages = new LongAdder();
+
+    /**
+     * @param capacity     how many update ids, and separately how many message identities, to remember
+     * @param maxAgeMillis forget entries older than this; {@code 0} evicts by capacity only
+     * @param snapshot     file loaded now and rewritten on {@link #close()}; {@code null} keeps state in
+     *                     memory only
+     */
+    public UpdateDeduplicator(UpdateHandler downstream, int capacity, long maxAgeMillis, Path snapshot) {
+        this.downstream = Objects.requireNonNull(downstream, "downstream");
+        this.updateIds = new RecentIdSet(capacity, maxAgeMillis);
+        this.messageKeys = new RecentIdSet(capacity, maxAgeMillis);
+        this.snapshot = snapshot;
+        if (snapshot != null) {
+            load(snapshot);
+        }
+    }
+
+    @Override
+    public void handle(Update update) {
+        handle(update, UpdateClassification.of(update));
+    }
+
+    @Override
+    public void handle(Update update, long classification) {
+        if (update == null) {
+            return;
+        }
+        long messageKey = ChatKeys.messageKey(update);
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            updateIds.expire(now);
+            messageKeys.expire(now);
+            if (update.getUpdateId() != null && updateIds.contains(update.getUpdateId())) {
+                duplicateIds.increment();
+                return;
+            }
+            if (messageKey != ChatKeys.NO_MESSAGE && messageKeys.contains(messageKey)) {
+                duplicateMessages.increment();
+                return;
+            }
+            if (update.getUpdateId() != null) {
+                updateIds.add(update.getUpdateId(), now);
+            }
+            if (messageKey != ChatKeys.NO_MESSAGE) {
+                messageKeys.add(messageKey, now);
+            }
+        } finally {
+            lock.unlock();
+        }
+        passed.increment();
+        downstream.handle(update, classification);
+    }
+
+    public long passedCount() {
+        return passed.sum();
+    }
+
+    public long duplicateIdCount() {
+        return duplicateIds.sum();
+    }
+
+    public long duplicateMessageCount() {
+        return duplicateMessages.sum();
+    }
+
+    public int rememberedUpdateIds() {
+        lock.lock();
+        try {
+            return updateIds.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void registerMetrics(UpdateMetrics metrics) {
+        metrics.registerGauge("telegram_dedup_passed_total", "Updates passed on by the deduplicator.", true,
+                this::passedCount);
+        metrics.registerGauge("telegram_dedup_duplicate_ids_total", "Updates dropped for a repeated update_id.",
+                true, this::duplicateIdCount);
+        metrics.registerGauge("telegram_dedup_duplicate_messages_total",
+                "Updates dropped for a repeated chat/message/edit identity.", true, this::duplicateMessageCount);
+        metrics.registerGauge("telegram_dedup_remembered_ids", "Update ids currently remembered.", false,
+                this::rememberedUpdateIds);
+    }
+
+    /**
+     * Writes the snapshot, if configured. Downstream stages are closed by their owners.
+     */
+    @Override
+    public void close() {
+        if (snapshot == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            updateIds.expire(now);
+            messageKeys.expire(now);
+            Path partial = snapshot.resolveSibling(snapshot.getFileName() + ".partial");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(partial)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                updateIds.writeTo(out);
+                messageKeys.writeTo(out);
+            }
+            Files.move(partial, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write dedup snapshot " + snapshot, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void load(Path file) {
+        long now = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != SNAPSHOT_MAGIC || version != SNAPSHOT_VERSION) {
+                throw new IOException("Not a version " + SNAPSHOT_VERSION + " dedup snapshot");
+            }
+            updateIds.readFrom(in, now);
+            messageKeys.readFrom(in, now);
+        } catch (NoSuchFileException e) {
+            // First start.
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read dedup snapshot " + file, e);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.telegram;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Drops unwanted updates before anything is formatted. {@link Rules} are compiled once into a chain
+ * of predicates ordered cheapest-first: update type, chat and user allow/deny sets, substring, then
+ * regex. An update is passed downstream only if every configured rule accepts it.
+ */
+public class UpdateFilter implements UpdateHandler {
+
+    /**
+     * Immutable filter configuration. Each {@code with*} call returns a copy; rules that are never set
+     * accept everything.
+     */
+    public static final class Rules {
+        private static final long[] NONE = new long[0];
+
+        private final Set<UpdateType> types;
+        private final long[] chatAllow;
+        private final long[] chatDeny;
+        private final long[] userAllow;
+        private final long[] userDeny;
+        private final String textContains;
+        private final Pattern textPattern;
+
+        private Rules(Set<UpdateType> types, long[] chatAllow, long[] chatDeny, long[] userAllow, long[] userDeny,
+                String textContains, Pattern textPattern) {
+            this.types = types;
+            this.chatAllow = chatAllow;
+            this.chatDeny = chatDeny;
+            this.userAllow = userAllow;
+            this.userDeny = userDeny;
+            this.textContains = textContains;
+            this.textPattern = textPattern;
+        }
+
+        public static Rules acceptAll() {
+            return new Rules(EnumSet.noneOf(UpdateType.class), NONE, NONE, NONE, NONE, null, null);
+        }
+
+        /**
+         * Accept only updates carrying at least one of {@code types}; empty accepts every type.
+         */
+        public Rules withTypes(Collection<UpdateType> types) {
+            Set<UpdateType> copy = types.isEmpty() ? EnumSet.noneOf(UpdateType.class) : EnumSet.copyOf(types);
+            return new Rules(copy, chatAllow, chatDeny, userAllow, userDeny, textContains, textPattern);
+        }
+
+        /**
+         * Chat ids as resolved by {@link ChatKeys#routingKey}: inline, payment and poll-answer updates
+         * without a chat are matched by the id of their user.
+         *
+         * @param allow if non-empty, only these chats pass
+         * @param deny  these chats never pass
+         */
+        public Rules withChats(long[] allow, long[] deny) {
+            return new Rules(types, allow.clone(), deny.clone(), userAllow, userDeny, textContains, textPattern);
+        }
+
+        /**
+         * @param allow if non-empty, only updates caused by these users pass
+         * @param deny  updates caused by these users never pass
+         */
+        public Rules withUsers(long[] allow, long[] deny) {
+            return new Rules(types, chatAllow, chatDeny, allow.clone(), deny.clone(), textContains, textPattern);
+        }
+
+        /**
+         * Case-insensitive substring that the text or caption of a message must contain. Updates without
+         * a text or caption are dropped while this rule is set.
+         */
+        public Rules withTextContaining(String needle) {
+            return new Rules(types, chatAllow, chatDeny, userAllow, userDeny,
+                    needle == null || needle.isEmpty() ? null : needle, textPattern);
+        }
+
+        /**
+         * Pattern that must be {@link java.util.regex.Matcher#find() found} in the text or caption of a
+         * message. Updates without a text or caption are dropped while this rule is set.
+         */
+        public Rules withTextMatching(Pattern pattern) {
+            return new Rules(types, chatAllow, chatDeny, userAllow, userDeny, textContains, pattern);
+        }
+
+        public boolean acceptsEverything() {
+            return types.isEmpty() && chatAllow.length == 0 && chatDeny.length == 0 && userAllow.length == 0
+                    && userDeny.length == 0 && textContains == null && textPattern == null;
+        }
+
+        /**
+         * Value for the {@code allowed_updates} parameter of {@code getUpdates}/{@code setWebhook}, so
+         * Telegram does not send types the filter would drop anyway. Empty when every type is accepted.
+         */
+        public List<String> allowedUpdates() {
+            List<String> names = new ArrayList<>(types.size());
+            for (UpdateType type : types) {
+                names.add(type.apiName());
+            }
+            return names;
+        }
+    }
+
+    private final UpdateHandler downstream;
+    // Bits of the wanted UpdateTypes, 0 when any type passes; checked against the classification first.
+    private final int wantedTypes;
+    private final List<Predicate<Update>> chain;
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public UpdateFilter(UpdateHandler downstream, Rules rules) {
+        this.downstream = Objects.requireNonNull(downstream, "downstream");
+        int types = 0;
+        for (UpdateType type : Objects.requireNonNull(rules, "rules").types) {
+            types |= type.bit();
+        }
+        this.wantedTypes = types;
+        this.chain = compile(rules);
+    }
+
+    @Override
+    public void handle(Update update) {
+        handle(update, UpdateClassification.of(update));
+    }
+
+    @Override
+    public void handle(Update update, long classification) {
+        if (update == null) {
+            return;
+        }
+        if (!accepts(update, classification)) {
+            rejected.increment();
+            return;
+        }
+        passed.increment();
+        downstream.handle(update, classification);
+    }
+
+    public boolean accepts(Update update) {
+        return accepts(update, UpdateClassification.of(update));
+    }
+
+    /**
+     * {@link #accepts(Update)} for an update already classified by the receiver.
+     */
+    public boolean accepts(Update update, long classification) {
+        if (wantedTypes != 0 && (UpdateClassification.types(classification) & wantedTypes) == 0) {
+            return false;
+        }
+        for (int i = 0; i < chain.size(); i++) {
+            if (!chain.get(i).test(update)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long passedCount() {
+        return passed.sum();
+    }
+
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    public void registerMetrics(UpdateMetrics metrics) {
+        metrics.registerGauge("telegram_filter_passed_total", "Updates accepted by the filter.", true,
+                this::passedCount);
+        metrics.registerGauge("telegram_filter_rejected_total", "Updates dropped by the filter.", true,
+                this::rejectedCount);
+    }
+
+    private static List<Predicate<Update>> compile(Rules rules) {
+        List<Predicate<Update>> chain = new ArrayList<>();
+        if (rules.chatAllow.length > 0) {
+            RecentIdSet allow = idSet(rules.chatAllow);
+            chain.add(update -> allow.contains(ChatKeys.routingKey(update)));
+        }
+        if (rules.chatDeny.length > 0) {
+            RecentIdSet deny = idSet(rules.chatDeny);
+            chain.add(update -> !deny.contains(ChatKeys.routingKey(update)));
+        }
+        if (rules.userAllow.length > 0) {
+            RecentIdSet allow = idSet(rules.userAllow);
+            chain.add(update -> allow.contains(ChatKeys.userKey(update)));
+        }
+        if (rules.userDeny.length > 0) {
+            RecentIdSet deny = idSet(rules.userDeny);
+            chain.add(update -> !deny.contains(ChatKeys.userKey(update)));
+        }
+        if (rules.textContains != null) {
+            String needle = rules.textContains;
+            chain.add(update -> containsIgnoreCase(text(update), needle));
+        }
+        if (rules.textPattern != null) {
+            Pattern pattern = rules.textPattern;
+            chain.add(update -> {
+                String text = text(update);
+                return text != null && pattern.matcher(text).find();
+            });
+        }
+        return List.copyOf(chain);
+    }
+
+    private static RecentIdSet idSet(long[] ids) {
+        // Nothing is ever evicted: the set is sized for the ids and entries do not age.
+        RecentIdSet set = new RecentIdSet(ids.length, 0);
+        for (long id : ids) {
+            set.add(id, 0);
+        }
+        return set;
+    }
+
+    /**
+     * Text, or caption when there is no text, of the first message-like section.
+     */
+    static String text(Update update) {
+        Message message = update.getMessage();
+        if (message == null) {
+            message = update.getEditedMessage();
+        }
+        if (message == null) {
+            message = update.getChannelPost();
+        }
+        if (message == null) {
+            message = update.getEditedChannelPost();
+        }
+        if (message == null) {
+            return null;
+        }
+        return message.getText() != null ? message.getText() : message.getCaption();
+    }
+
+    private static boolean containsIgnoreCase(String text, String needle) {
+        if (text == null) {
+            return false;
+        }
+        int last = text.length() - needle.length();
+        for (int i = 0; i <= last; i++) {
+            if (text.regionMatches(true, i, needle, 0, needle.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
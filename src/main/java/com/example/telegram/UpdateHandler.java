@@ -0,0 +1,21 @@
+package com.example.telegram;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * A stage that accepts updates handed over by {@link TelegramTriggerBot}.
+ */
+@FunctionalInterface
+public interface UpdateHandler {
+
+    void handle(Update update);
+
+    /**
+     * Same as {@link #handle(Update)}, with the {@link UpdateClassification} the receiver computed once
+     * for the update. Stages that look at the update's sections override this and pass the value on, so
+     * no stage down the chain classifies the update again.
+     */
+    default void handle(Update update, long classification) {
+        handle(update);
+    }
+}
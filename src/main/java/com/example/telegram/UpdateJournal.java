@@ -0,0 +1,595 @@
+package com.example.telegram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of {@link UpdatePrinter.Format#BINARY} records in memory-mapped segment files.
+ * Segments are preallocated, named after the global byte offset they start at, and each record is
+ * followed by a CRC32C of its bytes, so a record torn by a crash is detected and cut off when the
+ * journal is reopened.
+ *
+ * <p>Two in-memory indexes are rebuilt from the record headers on open: a sparse one that keeps
+ * the update id range of every block of {@code indexInterval} records, and a per-chat list of
+ * record positions. Ranges rather than single ids keep the sparse index correct when parallel
+ * writer lanes append updates slightly out of order.
+ *
+ * <p>With {@code maxSegments} set, the oldest sealed segments beyond that count are deleted when the
+ * journal rolls over or is opened, together with their index entries, so both the index and the scan
+ * on open stay bounded by the retained segments.
+ */
+public class UpdateJournal implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_INDEX_INTERVAL = 64;
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int TRAILER_BYTES = 4;
+    private static final int MIN_SEGMENT_BYTES = 64 * 1024;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final int indexInterval;
+    private final int maxSegments;
+    private final boolean readOnly;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final CRC32C crc = new CRC32C();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final Map<Long, LongList> chats = new HashMap<>();
+    private long[] blockStart = new long[64];
+    private long[] blockMinId = new long[64];
+    private long[] blockMaxId = new long[64];
+    private int blocks;
+    private int recordsInBlock;
+    private long records;
+    private long truncatedBytes;
+    private long deletedSegments;
+    private Segment active;
+    private boolean closed;
+
+    public UpdateJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_INDEX_INTERVAL);
+    }
+
+    public UpdateJournal(Path directory, long segmentBytes, int indexInterval) throws IOException {
+        this(directory, segmentBytes, indexInterval, 0);
+    }
+
+    /**
+     * @param maxSegments sealed segments to keep besides the one being appended to, oldest are deleted
+     *                    first; {@code 0} keeps all
+     */
+    public UpdateJournal(Path directory, long segmentBytes, int indexInterval, int maxSegments)
+            throws IOException {
+        this(directory, segmentBytes, indexInterval, maxSegments, false);
+    }
+
+    private UpdateJournal(Path directory, long segmentBytes, int indexInterval, int maxSegments, boolean readOnly)
+            throws IOException {
+        if (segmentBytes < MIN_SEGMENT_BYTES || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentBytes must be between " + MIN_SEGMENT_BYTES + " and "
+                    + Integer.MAX_VALUE + ": " + segmentBytes);
+        }
+        if (indexInterval < 1) {
+            throw new IllegalArgumentException("indexInterval must be >= 1: " + indexInterval);
+        }
+        if (maxSegments < 0) {
+            throw new IllegalArgumentException("maxSegments must be >= 0: " + maxSegments);
+        }
+        this.directory = Objects.requireNonNull(directory, "directory").toAbsolutePath();
+        this.segmentBytes = segmentBytes;
+        this.indexInterval = indexInterval;
+        this.maxSegments = maxSegments;
+        this.readOnly = readOnly;
+        if (!readOnly) {
+            Files.createDirectories(this.directory);
+        }
+        recover();
+        if (!readOnly && active == null) {
+            active = openSegment(0);
+        }
+    }
+
+    /**
+     * Opens an existing journal for lookups only, e.g. from a tool while the bot keeps appending.
+     * Nothing is preallocated or repaired, and records appended later by the writer are not seen.
+     */
+    public static UpdateJournal openReadOnly(Path directory) throws IOException {
+        return new UpdateJournal(directory, Integer.MAX_VALUE, DEFAULT_INDEX_INTERVAL, 0, true);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Appends one encoded record. The bytes go straight from the formatter's buffer into the
+     * mapped segment.
+     */
+    public void append(byte[] record, int offset, int length) {
+        if (length < BinaryRecordFormat.PREFIX_BYTES || record[offset] != BinaryRecordFormat.MAGIC) {
+            throw new IllegalArgumentException("Not a binary update record");
+        }
+        if (length + TRAILER_BYTES > segmentBytes) {
+            throw new IllegalArgumentException("Record of " + length + " bytes does not fit into journal segments of "
+                    + segmentBytes + " bytes");
+        }
+        BinaryRecord header = BinaryRecord.parse(record[offset + 1],
+                ByteBuffer.wrap(record, offset + BinaryRecordFormat.PREFIX_BYTES, length - BinaryRecordFormat.PREFIX_BYTES));
+        lock.lock();
+        try {
+            if (closed || readOnly) {
+                throw new IllegalStateException("Journal " + directory + " is not open for writing");
+            }
+            if (active.map.remaining() < length + TRAILER_BYTES) {
+                roll();
+            }
+            long position = active.base + active.map.position();
+            active.map.put(record, offset, length);
+            crc.reset();
+            crc.update(record, offset, length);
+            active.map.putInt((int) crc.getValue());
+            index(active, position, header);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to journal " + directory, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the record of an update by id, scanning only the blocks whose id range covers it.
+     *
+     * @return the record, or {@code null} if the journal does not contain the update
+     */
+    public BinaryRecord find(long updateId) {
+        lock.lock();
+        try {
+            for (int block = blocks - 1; block >= 0; block--) {
+                if (updateId < blockMinId[block] || updateId > blockMaxId[block]) {
+                    continue;
+                }
+                long position = blockStart[block];
+                for (int i = 0; i < indexInterval; i++) {
+                    ByteBuffer frame = readFrame(position);
+                    if (frame == null) {
+                        break;
+                    }
+                    BinaryRecord record = parseFrame(frame);
+                    if (record.updateId() == updateId) {
+                        return record;
+                    }
+                    position += frame.limit() + TRAILER_BYTES;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read journal " + directory, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Every record of a chat, in append order. See {@link ChatKeys#routingKey} for the key.
+     */
+    public List<BinaryRecord> chatHistory(long chatId) {
+        lock.lock();
+        try {
+            LongList positions = chats.get(chatId);
+            if (positions == null) {
+                return List.of();
+            }
+            List<BinaryRecord> history = new ArrayList<>(positions.size);
+            for (int i = 0; i < positions.size; i++) {
+                history.add(parseFrame(readFrame(positions.values[i])));
+            }
+            return history;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read journal " + directory, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long recordCount() {
+        lock.lock();
+        try {
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bytes of torn records cut off while opening the journal.
+     */
+    public long truncatedBytes() {
+        return truncatedBytes;
+    }
+
+    /**
+     * Segments deleted because they fell out of {@code maxSegments}.
+     */
+    public long deletedSegmentCount() {
+        lock.lock();
+        try {
+            return deletedSegments;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void registerMetrics(UpdateMetrics metrics) {
+        metrics.registerGauge("telegram_journal_records", "Records in the update journal.", false,
+                this::recordCount);
+        metrics.registerGauge("telegram_journal_segments", "Segment files of the update journal.", false, () -> {
+            lock.lock();
+            try {
+                return segments.size();
+            } finally {
+                lock.unlock();
+            }
+        });
+        metrics.registerGauge("telegram_journal_deleted_segments_total",
+                "Journal segments deleted by retention.", true, this::deletedSegmentCount);
+    }
+
+    /**
+     * Forces the active segment's dirty pages to disk.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            if (!closed && active != null) {
+                active.map.force();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (active != null) {
+                active.map.force();
+                active.map = null;
+            }
+            for (Segment segment : segments.values()) {
+                if (segment.reader != null) {
+                    segment.reader.close();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void roll() throws IOException {
+        active.map.force();
+        active.used = active.map.position();
+        // Lookups in a sealed segment go through a read channel; the mapping is released by the GC.
+        active.map = null;
+        active = openSegment(active.base + active.used);
+        // A block must not span segments: its records are scanned as one contiguous run.
+        recordsInBlock = 0;
+        retain();
+    }
+
+    /**
+     * Deletes the oldest sealed segments beyond {@code maxSegments} and drops their index entries.
+     */
+    private void retain() throws IOException {
+        if (maxSegments == 0) {
+            return;
+        }
+        while (segments.size() > maxSegments + 1) {
+            Segment oldest = segments.pollFirstEntry().getValue();
+            if (oldest.reader != null) {
+                oldest.reader.close();
+            }
+            Files.deleteIfExists(oldest.file);
+            records -= oldest.records;
+            deletedSegments++;
+        }
+        dropIndexBelow(segments.firstKey());
+    }
+
+    /**
+     * Forgets the blocks and chat positions before {@code position}. Both are in append order, and a
+     * block never spans segments, so whole leading runs go.
+     */
+    private void dropIndexBelow(long position) {
+        int dropped = 0;
+        while (dropped < blocks && blockStart[dropped] < position) {
+            dropped++;
+        }
+        if (dropped > 0) {
+            blocks -= dropped;
+            System.arraycopy(blockStart, dropped, blockStart, 0, blocks);
+            System.arraycopy(blockMinId, dropped, blockMinId, 0, blocks);
+            System.arraycopy(blockMaxId, dropped, blockMaxId, 0, blocks);
+        }
+        chats.values().removeIf(positions -> positions.dropBelow(position) == 0);
+    }
+
+    private Segment openSegment(long base) throws IOException {
+        Segment segment = new Segment(base, directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX)));
+        try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = Math.max(channel.size(), segmentBytes);
+            if (channel.size() < size) {
+                // Sparse on most file systems; unwritten space reads back as zeros, which ends a scan.
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+            segment.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        segments.put(base, segment);
+        return segment;
+    }
+
+    /**
+     * Rebuilds the indexes from every segment and truncates a torn tail in the last one.
+     */
+    private void recover() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            if (readOnly) {
+                throw new IOException("No journal at " + directory);
+            }
+            return;
+        }
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    bases.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours.
+                }
+            }
+        }
+        bases.sort(null);
+        if (maxSegments > 0 && !readOnly) {
+            // Deleted before the scan, so reopening a long-running journal only reads what is kept.
+            while (bases.size() > maxSegments + 1) {
+                Files.deleteIfExists(directory.resolve(String.format("%020d%s", bases.remove(0), SEGMENT_SUFFIX)));
+                deletedSegments++;
+            }
+        }
+        for (int i = 0; i < bases.size(); i++) {
+            long base = bases.get(i);
+            boolean last = i == bases.size() - 1;
+            Segment segment = new Segment(base, directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX)));
+            segments.put(base, segment);
+            try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                segment.used = scan(segment, map);
+            }
+            recordsInBlock = 0;
+            if (last && !readOnly) {
+                segments.remove(base);
+                active = openSegment(base);
+                active.records = segment.records;
+                int tornEnd = zeroTail(active.map, (int) segment.used);
+                truncatedBytes += tornEnd - segment.used;
+                active.map.position((int) segment.used);
+            }
+        }
+    }
+
+    /**
+     * Indexes every intact record of a segment.
+     *
+     * @return the number of bytes holding intact records
+     */
+    private long scan(Segment segment, MappedByteBuffer map) {
+        int position = 0;
+        int limit = map.limit();
+        while (position + BinaryRecordFormat.PREFIX_BYTES + TRAILER_BYTES <= limit) {
+            if (map.get(position) != BinaryRecordFormat.MAGIC) {
+                break;
+            }
+            int length = map.getInt(position + 2);
+            if (length < 0 || length > BinaryRecordFormat.MAX_RECORD_BYTES
+                    || (long) position + BinaryRecordFormat.PREFIX_BYTES + length + TRAILER_BYTES > limit) {
+                break;
+            }
+            int frameLength = BinaryRecordFormat.PREFIX_BYTES + length;
+            crc.reset();
+            crc.update(map.slice(position, frameLength));
+            if ((int) crc.getValue() != map.getInt(position + frameLength)) {
+                break;
+            }
+            BinaryRecord header;
+            try {
+                header = parseFrame(map.slice(position, frameLength));
+            } catch (RuntimeException e) {
+                break;
+            }
+            index(segment, segment.base + position, header);
+            position += frameLength + TRAILER_BYTES;
+        }
+        return position;
+    }
+
+    /**
+     * Zeroes whatever a torn write left after the last intact record, up to the first run of zeros.
+     *
+     * @return offset where the zeroed region ends
+     */
+    private static int zeroTail(MappedByteBuffer map, int from) {
+        int end = from;
+        int zeros = 0;
+        while (end < map.limit() && zeros < BinaryRecordFormat.PREFIX_BYTES + TRAILER_BYTES) {
+            zeros = map.get(end) == 0 ? zeros + 1 : 0;
+            map.put(end, (byte) 0);
+            end++;
+        }
+        return end - zeros;
+    }
+
+    private void index(Segment segment, long position, BinaryRecord header) {
+        long updateId = header.updateId();
+        if (recordsInBlock == 0) {
+            if (blocks == blockStart.length) {
+                blockStart = Arrays.copyOf(blockStart, blocks * 2);
+                blockMinId = Arrays.copyOf(blockMinId, blocks * 2);
+                blockMaxId = Arrays.copyOf(blockMaxId, blocks * 2);
+            }
+            blockStart[blocks] = position;
+            blockMinId[blocks] = updateId;
+            blockMaxId[blocks] = updateId;
+            blocks++;
+        } else {
+            blockMinId[blocks - 1] = Math.min(blockMinId[blocks - 1], updateId);
+            blockMaxId[blocks - 1] = Math.max(blockMaxId[blocks - 1], updateId);
+        }
+        recordsInBlock = (recordsInBlock + 1) % indexInterval;
+        chats.computeIfAbsent(header.chatId(), chat -> new LongList()).add(position);
+        segment.records++;
+        records++;
+    }
+
+    /**
+     * Reads the record at a global position without its CRC trailer.
+     *
+     * @return the record bytes starting at the magic byte, or {@code null} past the last record
+     */
+    private ByteBuffer readFrame(long position) throws IOException {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(position);
+        if (entry == null) {
+            return null;
+        }
+        Segment segment = entry.getValue();
+        int local = (int) (position - segment.base);
+        if (segment.map != null) {
+            if (local >= segment.map.position()) {
+                return null;
+            }
+            int length = segment.map.getInt(local + 2);
+            return segment.map.slice(local, BinaryRecordFormat.PREFIX_BYTES + length);
+        }
+        if (local >= segment.used) {
+            return null;
+        }
+        if (segment.reader == null) {
+            segment.reader = FileChannel.open(segment.file, StandardOpenOption.READ);
+        }
+        ByteBuffer prefix = ByteBuffer.allocate(BinaryRecordFormat.PREFIX_BYTES);
+        readFully(segment.reader, prefix, local);
+        ByteBuffer frame = ByteBuffer.allocate(BinaryRecordFormat.PREFIX_BYTES + prefix.getInt(2));
+        readFully(segment.reader, frame, local);
+        return frame;
+    }
+
+    private static BinaryRecord parseFrame(ByteBuffer frame) {
+        return BinaryRecord.parse(frame.get(1),
+                frame.slice(BinaryRecordFormat.PREFIX_BYTES, frame.limit() - BinaryRecordFormat.PREFIX_BYTES));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position + target.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of journal segment");
+            }
+        }
+        target.flip();
+    }
+
+    /**
+     * Looks up updates in a journal directory and prints them as NDJSON:
+     * {@code UpdateJournal <dir> update <updateId>} or {@code UpdateJournal <dir> chat <chatId>}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !("update".equals(args[1]) || "chat".equals(args[1]))) {
+            System.err.println("Usage: UpdateJournal <dir> update <updateId> | UpdateJournal <dir> chat <chatId>");
+            System.exit(2);
+        }
+        long key = Long.parseLong(args[2]);
+        try (UpdateJournal journal = openReadOnly(Paths.get(args[0]))) {
+            if ("update".equals(args[1])) {
+                BinaryRecord record = journal.find(key);
+                if (record == null) {
+                    System.err.println("Update " + key + " not found");
+                    System.exit(1);
+                }
+                System.out.println(record.toJson());
+            } else {
+                for (BinaryRecord record : journal.chatHistory(key)) {
+                    System.out.println(record.toJson());
+                }
+            }
+        }
+    }
+
+    private static final class Segment {
+        private final long base;
+        private final Path file;
+        /** Only set for the segment being appended to. */
+        private MappedByteBuffer map;
+        private long used;
+        private long records;
+        /** Opened on the first lookup in a sealed segment. */
+        private FileChannel reader;
+
+        private Segment(long base, Path file) {
+            this.base = base;
+            this.file = file;
+        }
+    }
+
+    private static final class LongList {
+        private long[] values = new long[4];
+        private int size;
+
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        /**
+         * Removes the leading values below {@code bound}.
+         *
+         * @return the number of values left
+         */
+        private int dropBelow(long bound) {
+            int dropped = 0;
+            while (dropped < size && values[dropped] < bound) {
+                dropped++;
+            }
+            if (dropped > 0) {
+                size -= dropped;
+                System.arraycopy(values, dropped, values, 0, size);
+            }
+            return size;
+        }
+    }
+}
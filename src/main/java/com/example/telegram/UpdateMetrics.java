@@ -0,0 +1,305 @@
+package com.example.telegram;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Counters and latency histograms for the listener. Per-section counters use {@link LongAdder}
+ * stripes and histograms are {@link LatencyHistogram}s, so recording never takes a lock. Other
+ * components contribute values through {@link #registerGauge}.
+ */
+public class UpdateMetrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final LongAdder[] updatesByType = new LongAdder[UpdateType.all().length];
+    private final LongAdder updatesReceived = new LongAdder();
+    private final LongAdder updatesWithoutPayload = new LongAdder();
+    private final LatencyHistogram formatLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram endToEndLatency = new LatencyHistogram();
+    private final LatencyHistogram pollLatency = new LatencyHistogram();
+    private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+    private final List<Summary> summaries = new CopyOnWriteArrayList<>();
+
+    public UpdateMetrics() {
+        for (int i = 0; i < updatesByType.length; i++) {
+            updatesByType[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Counts the update once, plus once per payload section it carries.
+     */
+    public void recordReceived(Update update) {
+        recordReceived(UpdateClassification.of(update));
+    }
+
+    /**
+     * {@link #recordReceived(Update)} for an update already classified by the receiver.
+     */
+    public void recordReceived(long classification) {
+        updatesReceived.increment();
+        int types = UpdateClassification.types(classification);
+        if (types == 0) {
+            updatesWithoutPayload.increment();
+        }
+        for (; types != 0; types &= types - 1) {
+            updatesByType[Integer.numberOfTrailingZeros(types)].increment();
+        }
+    }
+
+    public void recordFormat(long nanos) {
+        formatLatency.record(nanos);
+    }
+
+    public void recordWrite(long nanos) {
+        writeLatency.record(nanos);
+    }
+
+    public void recordEndToEnd(long nanos) {
+        endToEndLatency.record(nanos);
+    }
+
+    /**
+     * Round trip of one {@code getUpdates} call, including the long-poll wait.
+     */
+    public void recordPoll(long nanos) {
+        pollLatency.record(nanos);
+    }
+
+    public long updatesReceived() {
+        return updatesReceived.sum();
+    }
+
+    public long updates(UpdateType type) {
+        return updatesByType[type.ordinal()].sum();
+    }
+
+    public LatencyHistogram formatLatency() {
+        return formatLatency;
+    }
+
+    public LatencyHistogram writeLatency() {
+        return writeLatency;
+    }
+
+    public LatencyHistogram endToEndLatency() {
+        return endToEndLatency;
+    }
+
+    public LatencyHistogram pollLatency() {
+        return pollLatency;
+    }
+
+    /**
+     * Exposes a value owned by another component, e.g. the queue depth of
+     * {@link AsyncUpdatePipeline}. {@code name} must be a valid Prometheus metric name.
+     *
+     * @param counter {@code true} for monotonically increasing values
+     */
+    public void registerGauge(String name, String help, boolean counter, LongSupplier value) {
+        gauges.add(new Gauge(name, help, counter, value));
+    }
+
+    /**
+     * Exposes a latency histogram owned by another component, e.g. the write latency of one
+     * {@link SinkQueue}. It is published as {@code <name>_seconds}.
+     */
+    public void registerSummary(String name, String help, LatencyHistogram histogram) {
+        summaries.add(new Summary(name, help, histogram));
+    }
+
+    /**
+     * Flat view used by JMX: counters, gauges and histogram quantiles in nanoseconds.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        values.put("updates_received_total", updatesReceived.sum());
+        values.put("updates_without_payload_total", updatesWithoutPayload.sum());
+        for (UpdateType type : UpdateType.all()) {
+            values.put("updates_" + type.name().toLowerCase(Locale.ROOT) + "_total", updates(type));
+        }
+        putHistogram(values, "format", formatLatency);
+        putHistogram(values, "write", writeLatency);
+        putHistogram(values, "end_to_end", endToEndLatency);
+        putHistogram(values, "poll", pollLatency);
+        for (Summary summary : summaries) {
+            putHistogram(values, summary.name, summary.histogram);
+        }
+        for (Gauge gauge : gauges) {
+            values.put(gauge.name, gauge.value.getAsLong());
+        }
+        return values;
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format (version 0.0.4).
+     */
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# HELP telegram_updates_total Updates received, by payload section.\n")
+                .append("# TYPE telegram_updates_total counter\n");
+        for (UpdateType type : UpdateType.all()) {
+            sb.append("telegram_updates_total{type=\"").append(type.name()).append("\"} ")
+                    .append(updates(type)).append('\n');
+        }
+        appendCounter(sb, "telegram_updates_received_total", "Updates handed over by Telegram.",
+                updatesReceived.sum());
+        appendCounter(sb, "telegram_updates_without_payload_total", "Updates with no recognized section.",
+                updatesWithoutPayload.sum());
+        appendSummary(sb, "telegram_update_format_seconds", "Time spent formatting one update.", formatLatency);
+        appendSummary(sb, "telegram_update_write_seconds", "Time spent writing one update to the sinks.",
+                writeLatency);
+        appendSummary(sb, "telegram_update_end_to_end_seconds",
+                "Time from receiving an update to finishing its write.", endToEndLatency);
+        appendSummary(sb, "telegram_poll_round_trip_seconds", "Duration of one getUpdates call.", pollLatency);
+        for (Summary summary : summaries) {
+            appendSummary(sb, summary.name + "_seconds", summary.help, summary.histogram);
+        }
+        for (Gauge gauge : gauges) {
+            sb.append("# HELP ").append(gauge.name).append(' ').append(gauge.help).append('\n')
+                    .append("# TYPE ").append(gauge.name).append(gauge.counter ? " counter\n" : " gauge\n")
+                    .append(gauge.name).append(' ').append(gauge.value.getAsLong()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Registers a read-only MBean whose attributes mirror {@link #snapshot()}.
+     */
+    public void registerMBean(String objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new SnapshotMBean(), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to register metrics MBean " + objectName, e);
+        }
+    }
+
+    private static void putHistogram(Map<String, Long> values, String name, LatencyHistogram histogram) {
+        values.put(name + "_count", histogram.count());
+        values.put(name + "_p50_nanos", histogram.percentileNanos(50));
+        values.put(name + "_p99_nanos", histogram.percentileNanos(99));
+        values.put(name + "_p999_nanos", histogram.percentileNanos(99.9));
+        values.put(name + "_max_nanos", histogram.maxNanos());
+    }
+
+    private static void appendCounter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" counter\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendSummary(StringBuilder sb, String name, String help, LatencyHistogram histogram) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : QUANTILES) {
+            sb.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(toSeconds(histogram.percentileNanos(quantile * 100))).append('\n');
+        }
+        sb.append(name).append("_sum ").append(toSeconds(histogram.sumNanos())).append('\n')
+                .append(name).append("_count ").append(histogram.count()).append('\n');
+    }
+
+    private static String toSeconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1_000_000_000.0);
+    }
+
+    private static final class Gauge {
+        private final String name;
+        private final String help;
+        private final boolean counter;
+        private final LongSupplier value;
+
+        private Gauge(String name, String help, boolean counter, LongSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.counter = counter;
+            this.value = value;
+        }
+    }
+
+    private static final class Summary {
+        private final String name;
+        private final String help;
+        private final LatencyHistogram histogram;
+
+        private Summary(String name, String help, LatencyHistogram histogram) {
+            this.name = name;
+            this.help = help;
+            this.histogram = histogram;
+        }
+    }
+
+    private final class SnapshotMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Long value = values.get(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("No operations: " + actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : snapshot().keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false));
+            }
+            return new MBeanInfo(UpdateMetrics.class.getName(), "Telegram listener metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
@@ -1,21 +1,24 @@
 package com.example.telegram;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
-import java.util.StringJoiner;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
 import org.telegram.telegrambots.meta.api.objects.Chat;
@@ -50,11 +53,16 @@ import org.telegram.telegrambots.meta.api.objects.boost.ChatBoostUpdated;
  * Converts {@link Update} objects into diagnostic strings or NDJSON lines so we can quickly see
  * which Telegram event(s) fired. Can optionally duplicate output into a log file.
  */
-public class UpdatePrinter {
+public class UpdatePrinter implements UpdateHandler, Closeable {
 
     public enum Format {
         TEXT,
-        JSON;
+        JSON,
+        /**
+         * Length-prefixed records described in {@link BinaryRecordFormat}; file only, nothing is
+         * written to stdout. Decode with {@link BinaryRecordReader}.
+         */
+        BINARY;
 
         public static Format fromString(String raw) {
             if (raw == null || raw.isBlank()) {
@@ -67,28 +75,214 @@ public class UpdatePrinter {
                 case "json":
                 case "ndjson":
                     return JSON;
+                case "binary":
+                case "bin":
+                    return BINARY;
                 default:
                     throw new IllegalArgumentException("Unknown format: " + raw);
             }
         }
     }
 
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final String NULL_UPDATE = "=== Update <null> ===\n";
+    private static final int MAX_SHARED_ENCODERS = 64;
+
+    public static final int DEFAULT_BATCH_BYTES = 256 * 1024;
+    public static final long DEFAULT_BATCH_MAX_NANOS = 1_000_000L;
+
     private final Format format;
-    private final Path logFile;
-    private final Lock fileLock = new ReentrantLock();
-    private final ObjectMapper objectMapper;
+    private final StdoutSink stdout;
+    private final LogFileSink logSink;
+    private final UpdateJournal journal;
+    private final UpdateMetrics metrics;
+    private final ObjectWriter jsonWriter;
+    private final EncoderCache<JsonEncoder> jsonEncoders;
+    private final EncoderCache<BinaryUpdateEncoder> binaryEncoders;
+    private final EncoderCache<TextEncoder> textEncoders = new EncoderCache<>(TextEncoder::new, MAX_SHARED_ENCODERS);
+    private final EncoderCache<WriteBatch> writeBatches = new EncoderCache<>(WriteBatch::new, MAX_SHARED_ENCODERS);
+    private final int batchBytes;
+    private final long batchMaxNanos;
+    private final Consumer<SinkQueue.Batch> forward;
 
     public UpdatePrinter() {
-        this(Format.TEXT, null);
+        this(Format.TEXT, (LogFileSink) null);
     }
 
     public UpdatePrinter(Format format, Path logFile) {
+        this(format, logFile == null ? null : openSink(logFile));
+    }
+
+    public UpdatePrinter(Format format, LogFileSink logSink) {
+        this(format, logSink, new UpdateMetrics());
+    }
+
+    public UpdatePrinter(Format format, LogFileSink logSink, UpdateMetrics metrics) {
+        this(format, logSink, metrics, null);
+    }
+
+    /**
+     * @param journal receives every record as well; requires {@link Format#BINARY}
+     */
+    public UpdatePrinter(Format format, LogFileSink logSink, UpdateMetrics metrics, UpdateJournal journal) {
+        this(format, logSink, metrics, journal, DEFAULT_BATCH_BYTES, DEFAULT_BATCH_MAX_NANOS);
+    }
+
+    /**
+     * @param batchBytes    {@link #printBatch} writes out what it has encoded once it holds this many bytes
+     * @param batchMaxNanos ... or once it has been encoding for this long; {@code 0} disables the limit
+     */
+    public UpdatePrinter(Format format, LogFileSink logSink, UpdateMetrics metrics, UpdateJournal journal,
+            int batchBytes, long batchMaxNanos) {
+        this(format, null, logSink, metrics, journal, batchBytes, batchMaxNanos);
+    }
+
+    /**
+     * @param stdout receives the stdout copy instead of {@link System#out}; {@code null} keeps
+     *               {@code System.out}, which is what tests capturing it rely on
+     */
+    public UpdatePrinter(Format format, StdoutSink stdout, LogFileSink logSink, UpdateMetrics metrics,
+            UpdateJournal journal, int batchBytes, long batchMaxNanos) {
+        this(format, stdout, logSink, metrics, journal, batchBytes, batchMaxNanos, null);
+    }
+
+    /**
+     * @param projection writes only these paths of each update; requires {@link Format#JSON},
+     *                   {@code null} writes the whole update
+     */
+    public UpdatePrinter(Format format, StdoutSink stdout, LogFileSink logSink, UpdateMetrics metrics,
+            UpdateJournal journal, int batchBytes, long batchMaxNanos, JsonProjection projection) {
+        if (batchBytes < 1) {
+            throw new IllegalArgumentException("batchBytes must be >= 1: " + batchBytes);
+        }
+        if (batchMaxNanos < 0) {
+            throw new IllegalArgumentException("batchMaxNanos must be >= 0: " + batchMaxNanos);
+        }
+        this.batchBytes = batchBytes;
+        this.batchMaxNanos = batchMaxNanos;
         this.format = format == null ? Format.TEXT : format;
-        this.logFile = logFile;
-        this.objectMapper = this.format == Format.JSON ? buildObjectMapper() : null;
+        if (journal != null && this.format != Format.BINARY) {
+            throw new IllegalArgumentException("The update journal stores BINARY records, not " + this.format);
+        }
+        if (projection != null && this.format != Format.JSON) {
+            throw new IllegalArgumentException("A JSON projection needs JSON output, not " + this.format);
+        }
+        this.stdout = stdout;
+        this.logSink = logSink;
+        this.journal = journal;
+        this.metrics = Objects.requireNonNull(metrics, "metrics");
+        this.jsonWriter = this.format != Format.TEXT ? newObjectMapper().writer() : null;
+        this.jsonEncoders = this.format == Format.JSON
+                ? new EncoderCache<>(() -> new JsonEncoder(jsonWriter, projection), MAX_SHARED_ENCODERS)
+                : null;
+        this.binaryEncoders = this.format == Format.BINARY
+                ? new EncoderCache<>(() -> new BinaryUpdateEncoder(jsonWriter), MAX_SHARED_ENCODERS)
+                : null;
+        this.forward = null;
+    }
+
+    /**
+     * Encodes like {@code source} but hands every encoded batch to {@code forward} instead of writing it.
+     */
+    private UpdatePrinter(UpdatePrinter source, Consumer<SinkQueue.Batch> forward) {
+        this.format = source.format;
+        this.stdout = null;
+        this.logSink = null;
+        this.journal = null;
+        this.metrics = source.metrics;
+        this.jsonWriter = source.jsonWriter;
+        this.jsonEncoders = source.jsonEncoders;
+        this.binaryEncoders = source.binaryEncoders;
+        this.batchBytes = source.batchBytes;
+        this.batchMaxNanos = source.batchMaxNanos;
+        this.forward = Objects.requireNonNull(forward, "forward");
+    }
+
+    /**
+     * A printer that shares this one's encoders but passes each batch to {@code forward}, e.g. to the
+     * {@link SinkQueue}s of a {@link SinkRouter} route, which then write it to this printer's
+     * {@link #targets()}.
+     */
+    UpdatePrinter forwardingTo(Consumer<SinkQueue.Batch> forward) {
+        return new UpdatePrinter(this, forward);
     }
 
-    private ObjectMapper buildObjectMapper() {
+    /**
+     * The sinks this printer writes to, by name: {@code stdout} unless the format is BINARY, then
+     * {@code file} and {@code journal} when configured.
+     */
+    Map<String, SinkQueue.Target> targets() {
+        Map<String, SinkQueue.Target> targets = new LinkedHashMap<>();
+        if (format != Format.BINARY) {
+            targets.put("stdout", new SinkQueue.Target() {
+                @Override
+                public void write(byte[] bytes, int size, int[] ends, int count) {
+                    writeStdout(bytes, size);
+                }
+
+                @Override
+                public void flush() {
+                    flushStdout();
+                }
+
+                @Override
+                public void sync() {
+                    flushStdout();
+                }
+            });
+        }
+        if (logSink != null) {
+            targets.put("file", new SinkQueue.Target() {
+                @Override
+                public void write(byte[] bytes, int size, int[] ends, int count) {
+                    logSink.writeBatch(bytes, 0, size, count);
+                }
+
+                @Override
+                public void flush() {
+                    logSink.flush();
+                }
+
+                @Override
+                public void sync() {
+                    logSink.sync();
+                }
+            });
+        }
+        if (journal != null) {
+            targets.put("journal", new SinkQueue.Target() {
+                @Override
+                public void write(byte[] bytes, int size, int[] ends, int count) {
+                    appendToJournal(bytes, ends, count);
+                }
+
+                @Override
+                public void flush() {
+                    journal.flush();
+                }
+
+                @Override
+                public void sync() {
+                    journal.flush();
+                }
+            });
+        }
+        return targets;
+    }
+
+    private static LogFileSink openSink(Path logFile) {
+        try {
+            return new LogFileSink(logFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open log file " + logFile, e);
+        }
+    }
+
+    /**
+     * The Jackson configuration used for NDJSON output; anything that reads our output back should
+     * use the same one.
+     */
+    static ObjectMapper newObjectMapper() {
         ObjectMapper mapper = new ObjectMapper();
         mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
         mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
@@ -100,540 +294,1006 @@ public class UpdatePrinter {
      */
     public String describe(Update update) {
         if (update == null) {
-            return "=== Update <null> ===\n";
-        }
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("=== Update #")
-                .append(update.getUpdateId() == null ? "?" : update.getUpdateId())
-                .append(" ===\n");
-
-        int sections = 0;
-        if (appendMessage(sb, "MESSAGE", update.getMessage())) sections++;
-        if (appendMessage(sb, "EDITED_MESSAGE", update.getEditedMessage())) sections++;
-        if (appendMessage(sb, "CHANNEL_POST", update.getChannelPost())) sections++;
-        if (appendMessage(sb, "EDITED_CHANNEL_POST", update.getEditedChannelPost())) sections++;
-        if (appendInlineQuery(sb, update.getInlineQuery())) sections++;
-        if (appendChosenInlineQuery(sb, update.getChosenInlineQuery())) sections++;
-        if (appendCallbackQuery(sb, update.getCallbackQuery())) sections++;
-        if (appendShippingQuery(sb, update.getShippingQuery())) sections++;
-        if (appendPreCheckoutQuery(sb, update.getPreCheckoutQuery())) sections++;
-        if (appendPoll(sb, update.getPoll())) sections++;
-        if (appendPollAnswer(sb, update.getPollAnswer())) sections++;
-        if (appendChatMemberUpdate(sb, "MY_CHAT_MEMBER", update.getMyChatMember())) sections++;
-        if (appendChatMemberUpdate(sb, "CHAT_MEMBER", update.getChatMember())) sections++;
-        if (appendChatJoinRequest(sb, update.getChatJoinRequest())) sections++;
-        if (appendMessageReaction(sb, update.getMessageReaction())) sections++;
-        if (appendMessageReactionCount(sb, update.getMessageReactionCount())) sections++;
-        if (appendChatBoost(sb, update.getChatBoost())) sections++;
-        if (appendChatBoostRemoved(sb, update.getRemovedChatBoost())) sections++;
-
-        if (sections == 0) {
-            sb.append("No recognized payloads in this update.\n");
+            return NULL_UPDATE;
+        }
+        TextEncoder encoder = textEncoders.acquire();
+        try {
+            StringBuilder sb = encoder.begin();
+            render(sb, update, UpdateClassification.of(update));
+            return sb.toString();
+        } finally {
+            textEncoders.release(encoder);
         }
-
-        sb.append("=============================\n");
-        return sb.toString();
     }
 
     /**
      * Convenience helper that prints the formatted update to stdout and optionally a file.
      */
     public void print(Update update) {
-        String payload = format == Format.TEXT ? describe(update) : toJson(update);
-        System.out.print(payload);
-        if (logFile != null) {
-            writeToFile(payload);
+        print(update, System.nanoTime());
+    }
+
+    /**
+     * Prints the update on the calling thread, for chains without a writer queue.
+     */
+    @Override
+    public void handle(Update update) {
+        print(update);
+    }
+
+    @Override
+    public void handle(Update update, long classification) {
+        print(update, System.nanoTime(), classification);
+    }
+
+    /**
+     * Prints the update and records format, write and end-to-end latency.
+     *
+     * @param receivedAtNanos {@link System#nanoTime()} when the update was handed over by Telegram
+     */
+    public void print(Update update, long receivedAtNanos) {
+        print(update, receivedAtNanos, UpdateClassification.of(update));
+    }
+
+    /**
+     * {@link #print(Update, long)} for an update already classified by the receiver.
+     */
+    public void print(Update update, long receivedAtNanos, long classification) {
+        long start = System.nanoTime();
+        if (format == Format.TEXT) {
+            TextEncoder encoder = textEncoders.acquire();
+            try {
+                emit(encodeText(encoder, update, classification), start, receivedAtNanos);
+            } finally {
+                textEncoders.release(encoder);
+            }
+        } else if (format == Format.JSON) {
+            JsonEncoder encoder = jsonEncoders.acquire();
+            try {
+                emit(encodeJson(encoder, update), start, receivedAtNanos);
+            } finally {
+                jsonEncoders.release(encoder);
+            }
+        } else {
+            BinaryUpdateEncoder encoder = binaryEncoders.acquire();
+            try {
+                emit(encodeBinary(encoder, update, classification), start, receivedAtNanos);
+            } finally {
+                binaryEncoders.release(encoder);
+            }
+        }
+    }
+
+    /**
+     * Prints updates drained from a queue together. Payloads are encoded back to back into one reusable
+     * buffer, which then goes out with a single stdout write and a single gathering file write, instead
+     * of one of each per update. The batch is written early once it holds {@code batchBytes} or has been
+     * encoding for {@code batchMaxNanos}, so a burst does not hold back its first updates for long.
+     *
+     * @return how many updates were printed; an update that fails to encode is reported on stderr and
+     *         skipped
+     */
+    public int printBatch(Update[] updates, long[] receivedAtNanos, int count) {
+        long[] classifications = new long[count];
+        for (int i = 0; i < count; i++) {
+            classifications[i] = UpdateClassification.of(updates[i]);
         }
+        return printBatch(updates, receivedAtNanos, classifications, count);
     }
 
-    private String toJson(Update update) {
+    /**
+     * {@link #printBatch(Update[], long[], int)} for updates already classified by the receiver.
+     */
+    public int printBatch(Update[] updates, long[] receivedAtNanos, long[] classifications, int count) {
+        WriteBatch batch = writeBatches.acquire();
         try {
-            return objectMapper.writeValueAsString(update) + System.lineSeparator();
-        } catch (JsonProcessingException e) {
+            batch.reset();
+            int printed = 0;
+            long batchStart = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                long start = System.nanoTime();
+                try {
+                    appendEncoded(batch.bytes, updates[i], classifications[i]);
+                } catch (RuntimeException e) {
+                    System.err.println("Failed to print update: " + e.getMessage());
+                    continue;
+                }
+                long formatted = System.nanoTime();
+                metrics.recordFormat(formatted - start);
+                batch.add(receivedAtNanos[i]);
+                boolean overBudget = batchMaxNanos > 0 && formatted - batchStart >= batchMaxNanos;
+                if (batch.bytes.size() >= batchBytes || overBudget) {
+                    printed += emitBatch(batch);
+                    batch.reset();
+                    batchStart = System.nanoTime();
+                }
+            }
+            return printed + emitBatch(batch);
+        } finally {
+            writeBatches.release(batch);
+        }
+    }
+
+    /**
+     * Encodes the update with the configured format and appends the payload to {@code target}.
+     */
+    private void appendEncoded(PayloadBuffer target, Update update, long classification) {
+        if (format == Format.TEXT) {
+            TextEncoder encoder = textEncoders.acquire();
+            try {
+                PayloadBuffer payload = encodeText(encoder, update, classification);
+                target.write(payload.array(), 0, payload.size());
+            } finally {
+                textEncoders.release(encoder);
+            }
+        } else if (format == Format.JSON) {
+            JsonEncoder encoder = jsonEncoders.acquire();
+            try {
+                PayloadBuffer payload = encodeJson(encoder, update);
+                target.write(payload.array(), 0, payload.size());
+            } finally {
+                jsonEncoders.release(encoder);
+            }
+        } else {
+            BinaryUpdateEncoder encoder = binaryEncoders.acquire();
+            try {
+                PayloadBuffer payload = encodeBinary(encoder, update, classification);
+                target.write(payload.array(), 0, payload.size());
+            } finally {
+                binaryEncoders.release(encoder);
+            }
+        }
+    }
+
+    /**
+     * Writes every payload of the batch, then attributes the write time evenly to its updates.
+     */
+    private int emitBatch(WriteBatch batch) {
+        int count = batch.count;
+        if (count == 0) {
+            return 0;
+        }
+        byte[] bytes = batch.bytes.array();
+        int size = batch.bytes.size();
+        if (forward != null) {
+            // The targets' queues keep the bytes while the writer reuses its buffer.
+            forward.accept(new SinkQueue.Batch(Arrays.copyOf(bytes, size), size, Arrays.copyOf(batch.ends, count),
+                    Arrays.copyOf(batch.receivedAt, count), count));
+            return count;
+        }
+        long start = System.nanoTime();
+        if (format != Format.BINARY) {
+            writeStdout(bytes, size);
+        }
+        if (logSink != null) {
+            logSink.writeBatch(bytes, 0, size, count);
+        }
+        if (journal != null) {
+            appendToJournal(bytes, batch.ends, count);
+        }
+        long written = System.nanoTime();
+        long perUpdate = (written - start) / count;
+        for (int i = 0; i < count; i++) {
+            metrics.recordWrite(perUpdate);
+            metrics.recordEndToEnd(written - batch.receivedAt[i]);
+        }
+        return count;
+    }
+
+    private void appendToJournal(byte[] bytes, int[] ends, int count) {
+        int from = 0;
+        for (int i = 0; i < count; i++) {
+            journal.append(bytes, from, ends[i] - from);
+            from = ends[i];
+        }
+    }
+
+    /**
+     * Writes an encoded payload to every sink. Both sinks guard their state with
+     * {@link java.util.concurrent.locks.ReentrantLock}s rather than monitors, so a virtual thread
+     * blocked here unmounts instead of pinning its carrier.
+     */
+    private void emit(PayloadBuffer payload, long start, long receivedAtNanos) {
+        long formatted = System.nanoTime();
+        if (forward != null) {
+            metrics.recordFormat(formatted - start);
+            int size = payload.size();
+            forward.accept(new SinkQueue.Batch(Arrays.copyOf(payload.array(), size), size, new int[] {size},
+                    new long[] {receivedAtNanos}, 1));
+            return;
+        }
+        if (format != Format.BINARY) {
+            writeStdout(payload.array(), payload.size());
+        }
+        if (logSink != null) {
+            logSink.write(payload.array(), 0, payload.size());
+        }
+        if (journal != null) {
+            journal.append(payload.array(), 0, payload.size());
+        }
+        long written = System.nanoTime();
+        metrics.recordFormat(formatted - start);
+        metrics.recordWrite(written - formatted);
+        metrics.recordEndToEnd(written - receivedAtNanos);
+    }
+
+    private void writeStdout(byte[] bytes, int size) {
+        if (stdout != null) {
+            stdout.write(bytes, 0, size);
+        } else {
+            System.out.write(bytes, 0, size);
+        }
+    }
+
+    public Format format() {
+        return format;
+    }
+
+    public UpdateMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Serializes the update as a single NDJSON line, including the trailing line separator.
+     */
+    public String toJson(Update update) {
+        if (jsonEncoders == null) {
+            throw new IllegalStateException("JSON output is not enabled for format " + format);
+        }
+        JsonEncoder encoder = jsonEncoders.acquire();
+        try {
+            PayloadBuffer payload = encodeJson(encoder, update);
+            return new String(payload.array(), 0, payload.size(), StandardCharsets.UTF_8);
+        } finally {
+            jsonEncoders.release(encoder);
+        }
+    }
+
+    /**
+     * Renders the update into the encoder's reusable builder and encodes it as UTF-8. The returned
+     * buffer is only valid until the encoder is used again.
+     */
+    private PayloadBuffer encodeText(TextEncoder encoder, Update update, long classification) {
+        StringBuilder sb = encoder.begin();
+        if (update == null) {
+            sb.append(NULL_UPDATE);
+        } else {
+            render(sb, update, classification);
+        }
+        return encoder.encode();
+    }
+
+    /**
+     * Streams the update into the encoder's reusable buffer. The returned buffer is only valid
+     * until the encoder is used again.
+     */
+    private PayloadBuffer encodeJson(JsonEncoder encoder, Update update) {
+        try {
+            return encoder.encode(update);
+        } catch (IOException e) {
+            // A generator that failed mid-object cannot be reused.
+            encoder.reopen();
             throw new IllegalStateException("Failed to serialize update to JSON", e);
         }
     }
 
-    private void writeToFile(String payload) {
-        fileLock.lock();
+    private PayloadBuffer encodeBinary(BinaryUpdateEncoder encoder, Update update, long classification) {
+        if (update == null) {
+            throw new IllegalArgumentException("Cannot encode a null update as a binary record");
+        }
         try {
-            if (logFile.getParent() != null) {
-                Files.createDirectories(logFile.getParent());
-            }
-            Files.writeString(
-                    logFile,
-                    payload,
-                    StandardCharsets.UTF_8,
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.APPEND);
+            return encoder.encode(update, classification);
         } catch (IOException e) {
-            throw new UncheckedIOException("Failed to write update payload to " + logFile, e);
+            throw new IllegalStateException("Failed to encode update as a binary record", e);
+        }
+    }
+
+    /**
+     * Forces any buffered stdout and log file output out.
+     */
+    public void flush() {
+        flushStdout();
+        if (logSink != null) {
+            logSink.flush();
+        }
+        if (journal != null) {
+            journal.flush();
+        }
+    }
+
+    /**
+     * Like {@link #flush()}, but also forces the log file and journal to stable storage.
+     */
+    public void sync() {
+        flushStdout();
+        if (logSink != null) {
+            logSink.sync();
+        }
+        if (journal != null) {
+            journal.flush();
+        }
+    }
+
+    private void flushStdout() {
+        if (stdout != null) {
+            stdout.flush();
+        } else {
+            System.out.flush();
+        }
+    }
+
+    /**
+     * Flushes stdout and releases the log file and journal. Safe to call from a shutdown hook.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (stdout != null) {
+                stdout.close();
+            } else {
+                System.out.flush();
+            }
         } finally {
-            fileLock.unlock();
+            try {
+                if (logSink != null) {
+                    logSink.close();
+                }
+            } finally {
+                if (journal != null) {
+                    journal.close();
+                }
+            }
+        }
+    }
+
+    private void render(StringBuilder sb, Update update, long classification) {
+        sb.append("=== Update #");
+        if (update.getUpdateId() == null) {
+            sb.append('?');
+        } else {
+            sb.append(update.getUpdateId().intValue());
+        }
+        sb.append(" ===\n");
+
+        int types = UpdateClassification.types(classification);
+        if (types == 0) {
+            sb.append("No recognized payloads in this update.\n");
         }
+        // Only the sections that are present, in declaration order; usually exactly one.
+        for (int remaining = types; remaining != 0; remaining &= remaining - 1) {
+            appendSection(sb, update, UpdateType.first(remaining), classification);
+        }
+
+        sb.append("=============================\n");
     }
 
-    private boolean appendMessage(StringBuilder sb, String label, Message message) {
-        if (message == null) {
-            return false;
+    private void appendSection(StringBuilder sb, Update update, UpdateType type, long classification) {
+        switch (type) {
+            case MESSAGE:
+                appendMessage(sb, type, update.getMessage(), classification);
+                break;
+            case EDITED_MESSAGE:
+                appendMessage(sb, type, update.getEditedMessage(), classification);
+                break;
+            case CHANNEL_POST:
+                appendMessage(sb, type, update.getChannelPost(), classification);
+                break;
+            case EDITED_CHANNEL_POST:
+                appendMessage(sb, type, update.getEditedChannelPost(), classification);
+                break;
+            case INLINE_QUERY:
+                appendInlineQuery(sb, update.getInlineQuery());
+                break;
+            case CHOSEN_INLINE_RESULT:
+                appendChosenInlineQuery(sb, update.getChosenInlineQuery());
+                break;
+            case CALLBACK_QUERY:
+                appendCallbackQuery(sb, update.getCallbackQuery());
+                break;
+            case SHIPPING_QUERY:
+                appendShippingQuery(sb, update.getShippingQuery());
+                break;
+            case PRE_CHECKOUT_QUERY:
+                appendPreCheckoutQuery(sb, update.getPreCheckoutQuery());
+                break;
+            case POLL:
+                appendPoll(sb, update.getPoll());
+                break;
+            case POLL_ANSWER:
+                appendPollAnswer(sb, update.getPollAnswer());
+                break;
+            case MY_CHAT_MEMBER:
+                appendChatMemberUpdate(sb, "MY_CHAT_MEMBER", update.getMyChatMember());
+                break;
+            case CHAT_MEMBER:
+                appendChatMemberUpdate(sb, "CHAT_MEMBER", update.getChatMember());
+                break;
+            case CHAT_JOIN_REQUEST:
+                appendChatJoinRequest(sb, update.getChatJoinRequest());
+                break;
+            case MESSAGE_REACTION:
+                appendMessageReaction(sb, update.getMessageReaction());
+                break;
+            case MESSAGE_REACTION_COUNT:
+                appendMessageReactionCount(sb, update.getMessageReactionCount());
+                break;
+            case CHAT_BOOST:
+                appendChatBoost(sb, update.getChatBoost());
+                break;
+            case REMOVED_CHAT_BOOST:
+                appendChatBoostRemoved(sb, update.getRemovedChatBoost());
+                break;
+            default:
+                throw new IllegalStateException("Unhandled update type " + type);
         }
-        sb.append('[').append(label).append("] id=")
-                .append(valueOrUnknown(message.getMessageId()))
-                .append(", chat=").append(formatChat(message.getChat()))
-                .append(", from=").append(formatUser(message.getFrom()));
+    }
+
+    private void appendMessage(StringBuilder sb, UpdateType type, Message message, long classification) {
+        // The classification holds the content of the first message section; a second one is rare.
+        MessageContent content = type == UpdateClassification.firstMessageType(classification)
+                ? UpdateClassification.content(classification) : MessageContent.of(message);
+        sb.append('[').append(type.name()).append("] id=");
+        appendValue(sb, message.getMessageId());
+        sb.append(", chat=");
+        appendChat(sb, message.getChat());
+        sb.append(", from=");
+        appendUser(sb, message.getFrom());
         if (message.hasText()) {
-            sb.append(", text=\"").append(trimmed(message.getText())).append('\"');
+            sb.append(", text=\"");
+            appendTrimmed(sb, message.getText());
+            sb.append('\"');
         } else if (message.getCaption() != null) {
-            sb.append(", caption=\"").append(trimmed(message.getCaption())).append('\"');
+            sb.append(", caption=\"");
+            appendTrimmed(sb, message.getCaption());
+            sb.append('\"');
         } else {
-            sb.append(", type=").append(detectMessagePayload(message));
+            sb.append(", type=").append(content.label());
         }
         if (Boolean.TRUE.equals(message.getIsAutomaticForward())) {
             sb.append(", automaticForward=true");
         }
         sb.append('\n');
-        return true;
     }
 
-    private boolean appendInlineQuery(StringBuilder sb, InlineQuery inlineQuery) {
-        if (inlineQuery == null) {
-            return false;
-        }
-        sb.append("[INLINE_QUERY] id=").append(valueOrUnknown(inlineQuery.getId()))
-                .append(", from=").append(formatUser(inlineQuery.getFrom()))
-                .append(", query=\"").append(trimmed(inlineQuery.getQuery())).append('\"')
-                .append(", offset=").append(valueOrUnknown(inlineQuery.getOffset()))
-                .append(", chatType=").append(valueOrUnknown(inlineQuery.getChatType()));
+    private void appendInlineQuery(StringBuilder sb, InlineQuery inlineQuery) {
+        sb.append("[INLINE_QUERY] id=");
+        appendValue(sb, inlineQuery.getId());
+        sb.append(", from=");
+        appendUser(sb, inlineQuery.getFrom());
+        sb.append(", query=\"");
+        appendTrimmed(sb, inlineQuery.getQuery());
+        sb.append("\", offset=");
+        appendValue(sb, inlineQuery.getOffset());
+        sb.append(", chatType=");
+        appendValue(sb, inlineQuery.getChatType());
         Location location = inlineQuery.getLocation();
         if (location != null) {
-            sb.append(", location=")
-                    .append(formatCoordinate(location.getLatitude(), location.getLongitude()));
+            sb.append(", location=");
+            appendCoordinate(sb, location.getLatitude(), location.getLongitude());
         }
         sb.append('\n');
-        return true;
     }
 
-    private boolean appendChosenInlineQuery(StringBuilder sb, ChosenInlineQuery chosen) {
-        if (chosen == null) {
-            return false;
-        }
-        sb.append("[CHOSEN_INLINE_RESULT] resultId=")
-                .append(valueOrUnknown(chosen.getResultId()))
-                .append(", from=").append(formatUser(chosen.getFrom()))
-                .append(", query=\"").append(trimmed(chosen.getQuery())).append('\"')
-                .append(", inlineMessageId=").append(valueOrUnknown(chosen.getInlineMessageId()));
+    private void appendChosenInlineQuery(StringBuilder sb, ChosenInlineQuery chosen) {
+        sb.append("[CHOSEN_INLINE_RESULT] resultId=");
+        appendValue(sb, chosen.getResultId());
+        sb.append(", from=");
+        appendUser(sb, chosen.getFrom());
+        sb.append(", query=\"");
+        appendTrimmed(sb, chosen.getQuery());
+        sb.append("\", inlineMessageId=");
+        appendValue(sb, chosen.getInlineMessageId());
         if (chosen.getLocation() != null) {
-            sb.append(", location=")
-                    .append(formatCoordinate(
-                            chosen.getLocation().getLatitude(),
-                            chosen.getLocation().getLongitude()));
+            sb.append(", location=");
+            appendCoordinate(sb, chosen.getLocation().getLatitude(), chosen.getLocation().getLongitude());
         }
         sb.append('\n');
-        return true;
     }
 
-    private boolean appendCallbackQuery(StringBuilder sb, CallbackQuery callbackQuery) {
-        if (callbackQuery == null) {
-            return false;
-        }
-        sb.append("[CALLBACK_QUERY] id=").append(valueOrUnknown(callbackQuery.getId()))
-                .append(", from=").append(formatUser(callbackQuery.getFrom()))
-                .append(", chatInstance=")
-                .append(valueOrUnknown(callbackQuery.getChatInstance()))
-                .append(", data=")
-                .append(valueOrUnknown(callbackQuery.getData()))
-                .append(", gameShortName=")
-                .append(valueOrUnknown(callbackQuery.getGameShortName()));
+    private void appendCallbackQuery(StringBuilder sb, CallbackQuery callbackQuery) {
+        sb.append("[CALLBACK_QUERY] id=");
+        appendValue(sb, callbackQuery.getId());
+        sb.append(", from=");
+        appendUser(sb, callbackQuery.getFrom());
+        sb.append(", chatInstance=");
+        appendValue(sb, callbackQuery.getChatInstance());
+        sb.append(", data=");
+        appendValue(sb, callbackQuery.getData());
+        sb.append(", gameShortName=");
+        appendValue(sb, callbackQuery.getGameShortName());
         sb.append('\n');
-        return true;
     }
 
-    private boolean appendShippingQuery(StringBuilder sb, ShippingQuery shippingQuery) {
-        if (shippingQuery == null) {
-            return false;
-        }
-        sb.append("[SHIPPING_QUERY] id=")
-                .append(valueOrUnknown(shippingQuery.getId()))
-                .append(", from=").append(formatUser(shippingQuery.getFrom()))
-                .append(", invoicePayload=")
-                .append(valueOrUnknown(shippingQuery.getInvoicePayload()));
+    private void appendShippingQuery(StringBuilder sb, ShippingQuery shippingQuery) {
+        sb.append("[SHIPPING_QUERY] id=");
+        appendValue(sb, shippingQuery.getId());
+        sb.append(", from=");
+        appendUser(sb, shippingQuery.getFrom());
+        sb.append(", invoicePayload=");
+        appendValue(sb, shippingQuery.getInvoicePayload());
         ShippingAddress address = shippingQuery.getShippingAddress();
         if (address != null) {
-            sb.append(", address=")
-                    .append(formatAddress(address));
+            sb.append(", address=");
+            appendAddress(sb, address);
         }
         sb.append('\n');
-        return true;
-    }
-
-    private boolean appendPreCheckoutQuery(StringBuilder sb, PreCheckoutQuery query) {
-        if (query == null) {
-            return false;
-        }
-        sb.append("[PRE_CHECKOUT_QUERY] id=")
-                .append(valueOrUnknown(query.getId()))
-                .append(", from=").append(formatUser(query.getFrom()))
-                .append(", totalAmount=")
-                .append(valueOrUnknown(query.getTotalAmount()))
-                .append(' ')
-                .append(valueOrUnknown(query.getCurrency()))
-                .append(", invoicePayload=")
-                .append(valueOrUnknown(query.getInvoicePayload()))
-                .append(", shippingOptionId=")
-                .append(valueOrUnknown(query.getShippingOptionId()));
+    }
+
+    private void appendPreCheckoutQuery(StringBuilder sb, PreCheckoutQuery query) {
+        sb.append("[PRE_CHECKOUT_QUERY] id=");
+        appendValue(sb, query.getId());
+        sb.append(", from=");
+        appendUser(sb, query.getFrom());
+        sb.append(", totalAmount=");
+        appendValue(sb, query.getTotalAmount());
+        sb.append(' ');
+        appendValue(sb, query.getCurrency());
+        sb.append(", invoicePayload=");
+        appendValue(sb, query.getInvoicePayload());
+        sb.append(", shippingOptionId=");
+        appendValue(sb, query.getShippingOptionId());
         OrderInfo info = query.getOrderInfo();
         if (info != null) {
-            sb.append(", orderInfo=")
-                    .append(formatOrderInfo(info));
+            sb.append(", orderInfo=");
+            appendOrderInfo(sb, info);
         }
         sb.append('\n');
-        return true;
-    }
-
-    private boolean appendPoll(StringBuilder sb, Poll poll) {
-        if (poll == null) {
-            return false;
-        }
-        sb.append("[POLL] id=").append(valueOrUnknown(poll.getId()))
-                .append(", question=\"").append(trimmed(poll.getQuestion())).append('\"')
-                .append(", totalVoters=")
-                .append(valueOrUnknown(poll.getTotalVoterCount()))
-                .append(", allowsMultiple=")
-                .append(valueOrUnknown(poll.getAllowMultipleAnswers()))
-                .append(", type=").append(valueOrUnknown(poll.getType()))
-                .append(", options=")
-                .append(formatPollOptions(poll.getOptions()));
-        sb.append('\n');
-        return true;
     }
 
-    private boolean appendPollAnswer(StringBuilder sb, PollAnswer pollAnswer) {
-        if (pollAnswer == null) {
-            return false;
-        }
-        sb.append("[POLL_ANSWER] pollId=")
-                .append(valueOrUnknown(pollAnswer.getPollId()))
-                .append(", voter=").append(formatUser(pollAnswer.getUser()))
-                .append(", optionIds=")
-                .append(pollAnswer.getOptionIds() == null ? "[]" : pollAnswer.getOptionIds());
+    private void appendPoll(StringBuilder sb, Poll poll) {
+        sb.append("[POLL] id=");
+        appendValue(sb, poll.getId());
+        sb.append(", question=\"");
+        appendTrimmed(sb, poll.getQuestion());
+        sb.append("\", totalVoters=");
+        appendValue(sb, poll.getTotalVoterCount());
+        sb.append(", allowsMultiple=");
+        appendValue(sb, poll.getAllowMultipleAnswers());
+        sb.append(", type=");
+        appendValue(sb, poll.getType());
+        sb.append(", options=");
+        appendPollOptions(sb, poll.getOptions());
         sb.append('\n');
-        return true;
     }
 
-    private boolean appendChatMemberUpdate(StringBuilder sb, String label, ChatMemberUpdated payload) {
-        if (payload == null) {
-            return false;
+    private void appendPollAnswer(StringBuilder sb, PollAnswer pollAnswer) {
+        sb.append("[POLL_ANSWER] pollId=");
+        appendValue(sb, pollAnswer.getPollId());
+        sb.append(", voter=");
+        appendUser(sb, pollAnswer.getUser());
+        sb.append(", optionIds=[");
+        List<Integer> optionIds = pollAnswer.getOptionIds();
+        if (optionIds != null) {
+            for (int i = 0; i < optionIds.size(); i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                appendNullable(sb, optionIds.get(i));
+            }
         }
-        sb.append('[').append(label).append("] chat=")
-                .append(formatChat(payload.getChat()))
-                .append(", actor=").append(formatUser(payload.getFrom()))
-                .append(", oldStatus=")
-                .append(describeChatMember(payload.getOldChatMember()))
-                .append(", newStatus=")
-                .append(describeChatMember(payload.getNewChatMember()));
+        sb.append("]\n");
+    }
+
+    private void appendChatMemberUpdate(StringBuilder sb, String label, ChatMemberUpdated payload) {
+        sb.append('[').append(label).append("] chat=");
+        appendChat(sb, payload.getChat());
+        sb.append(", actor=");
+        appendUser(sb, payload.getFrom());
+        sb.append(", oldStatus=");
+        appendChatMember(sb, payload.getOldChatMember());
+        sb.append(", newStatus=");
+        appendChatMember(sb, payload.getNewChatMember());
         if (Boolean.TRUE.equals(payload.getViaChatFolderInviteLink())) {
             sb.append(", viaFolderInvite=true");
         }
         if (payload.getInviteLink() != null) {
-            sb.append(", inviteLink=")
-                    .append(formatInviteLink(payload.getInviteLink()));
+            sb.append(", inviteLink=");
+            appendInviteLink(sb, payload.getInviteLink());
         }
         sb.append('\n');
-        return true;
     }
 
-    private boolean appendChatJoinRequest(StringBuilder sb, ChatJoinRequest request) {
-        if (request == null) {
-            return false;
+    private void appendChatJoinRequest(StringBuilder sb, ChatJoinRequest request) {
+        sb.append("[CHAT_JOIN_REQUEST] chat=");
+        appendChat(sb, request.getChat());
+        sb.append(", user=");
+        appendUser(sb, request.getUser());
+        sb.append(", bio=");
+        appendValue(sb, request.getBio());
+        sb.append(", inviteLink=");
+        if (request.getInviteLink() == null) {
+            sb.append("none");
+        } else {
+            appendInviteLink(sb, request.getInviteLink());
         }
-        sb.append("[CHAT_JOIN_REQUEST] chat=")
-                .append(formatChat(request.getChat()))
-                .append(", user=").append(formatUser(request.getUser()))
-                .append(", bio=")
-                .append(valueOrUnknown(request.getBio()))
-                .append(", inviteLink=")
-                .append(request.getInviteLink() == null ? "none" : formatInviteLink(request.getInviteLink()));
         sb.append('\n');
-        return true;
     }
 
-    private boolean appendMessageReaction(StringBuilder sb, MessageReactionUpdated reaction) {
-        if (reaction == null) {
-            return false;
-        }
-        sb.append("[MESSAGE_REACTION] chat=")
-                .append(formatChat(reaction.getChat()))
-                .append(", messageId=")
-                .append(valueOrUnknown(reaction.getMessageId()))
-                .append(", actor=")
-                .append(reaction.getUser() != null ? formatUser(reaction.getUser()) : formatChat(reaction.getActorChat()))
-                .append(", old=")
-                .append(formatReactionTypes(reaction.getOldReaction()))
-                .append(", new=")
-                .append(formatReactionTypes(reaction.getNewReaction()));
+    private void appendMessageReaction(StringBuilder sb, MessageReactionUpdated reaction) {
+        sb.append("[MESSAGE_REACTION] chat=");
+        appendChat(sb, reaction.getChat());
+        sb.append(", messageId=");
+        appendValue(sb, reaction.getMessageId());
+        sb.append(", actor=");
+        if (reaction.getUser() != null) {
+            appendUser(sb, reaction.getUser());
+        } else {
+            appendChat(sb, reaction.getActorChat());
+        }
+        sb.append(", old=");
+        appendReactionTypes(sb, reaction.getOldReaction());
+        sb.append(", new=");
+        appendReactionTypes(sb, reaction.getNewReaction());
         sb.append('\n');
-        return true;
     }
 
-    private boolean appendMessageReactionCount(StringBuilder sb, MessageReactionCountUpdated reactionCount) {
-        if (reactionCount == null) {
-            return false;
-        }
-        sb.append("[MESSAGE_REACTION_COUNT] chat=")
-                .append(formatChat(reactionCount.getChat()))
-                .append(", messageId=")
-                .append(valueOrUnknown(reactionCount.getMessageId()))
-                .append(", total=")
-                .append(formatReactionCounts(reactionCount.getReactions()));
+    private void appendMessageReactionCount(StringBuilder sb, MessageReactionCountUpdated reactionCount) {
+        sb.append("[MESSAGE_REACTION_COUNT] chat=");
+        appendChat(sb, reactionCount.getChat());
+        sb.append(", messageId=");
+        appendValue(sb, reactionCount.getMessageId());
+        sb.append(", total=");
+        appendReactionCounts(sb, reactionCount.getReactions());
         sb.append('\n');
-        return true;
     }
 
-    private boolean appendChatBoost(StringBuilder sb, ChatBoostUpdated updated) {
-        if (updated == null) {
-            return false;
-        }
+    private void appendChatBoost(StringBuilder sb, ChatBoostUpdated updated) {
         ChatBoost boost = updated.getBoost();
-        sb.append("[CHAT_BOOST] chat=")
-                .append(formatChat(updated.getChat()))
-                .append(", boostId=")
-                .append(boost == null ? "unknown" : valueOrUnknown(boost.getBoostId()))
-                .append(", source=")
-                .append(formatBoostSource(boost == null ? null : boost.getSource()));
+        sb.append("[CHAT_BOOST] chat=");
+        appendChat(sb, updated.getChat());
+        sb.append(", boostId=");
+        appendValue(sb, boost == null ? null : boost.getBoostId());
+        sb.append(", source=");
+        appendBoostSource(sb, boost == null ? null : boost.getSource());
         if (boost != null) {
-            sb.append(", expiresAt=")
-                    .append(valueOrUnknown(boost.getExpirationDate()));
+            sb.append(", expiresAt=");
+            appendValue(sb, boost.getExpirationDate());
         }
         sb.append('\n');
-        return true;
     }
 
-    private boolean appendChatBoostRemoved(StringBuilder sb, ChatBoostRemoved removed) {
-        if (removed == null) {
-            return false;
-        }
-        sb.append("[REMOVED_CHAT_BOOST] boostId=")
-                .append(valueOrUnknown(removed.getBoostId()))
-                .append(", chat=")
-                .append(formatChat(removed.getChat()))
-                .append(", removedAt=")
-                .append(valueOrUnknown(removed.getRemoveDate()))
-                .append(", source=")
-                .append(formatBoostSource(removed.getSource()));
+    private void appendChatBoostRemoved(StringBuilder sb, ChatBoostRemoved removed) {
+        sb.append("[REMOVED_CHAT_BOOST] boostId=");
+        appendValue(sb, removed.getBoostId());
+        sb.append(", chat=");
+        appendChat(sb, removed.getChat());
+        sb.append(", removedAt=");
+        appendValue(sb, removed.getRemoveDate());
+        sb.append(", source=");
+        appendBoostSource(sb, removed.getSource());
         sb.append('\n');
-        return true;
     }
 
-    private String describeChatMember(org.telegram.telegrambots.meta.api.objects.chatmember.ChatMember chatMember) {
+    private void appendChatMember(StringBuilder sb,
+            org.telegram.telegrambots.meta.api.objects.chatmember.ChatMember chatMember) {
         if (chatMember == null) {
-            return "unknown";
+            sb.append("unknown");
+            return;
         }
-        return chatMember.getClass().getSimpleName() + "(" + chatMember.getStatus() + ")";
+        sb.append(chatMember.getClass().getSimpleName()).append('(').append(chatMember.getStatus()).append(')');
     }
 
-    private String formatInviteLink(ChatInviteLink inviteLink) {
-        return valueOrUnknown(inviteLink.getInviteLink())
-                + " (creator=" + formatUser(inviteLink.getCreator()) + ")";
+    private void appendInviteLink(StringBuilder sb, ChatInviteLink inviteLink) {
+        appendValue(sb, inviteLink.getInviteLink());
+        sb.append(" (creator=");
+        appendUser(sb, inviteLink.getCreator());
+        sb.append(')');
     }
 
-    private String formatOrderInfo(OrderInfo orderInfo) {
-        StringJoiner joiner = new StringJoiner(", ", "{", "}");
-        joiner.add("name=" + valueOrUnknown(orderInfo.getName()));
-        joiner.add("phone=" + valueOrUnknown(orderInfo.getPhoneNumber()));
-        joiner.add("email=" + valueOrUnknown(orderInfo.getEmail()));
+    private void appendOrderInfo(StringBuilder sb, OrderInfo orderInfo) {
+        sb.append("{name=");
+        appendValue(sb, orderInfo.getName());
+        sb.append(", phone=");
+        appendValue(sb, orderInfo.getPhoneNumber());
+        sb.append(", email=");
+        appendValue(sb, orderInfo.getEmail());
         if (orderInfo.getShippingAddress() != null) {
-            joiner.add("address=" + formatAddress(orderInfo.getShippingAddress()));
+            sb.append(", address=");
+            appendAddress(sb, orderInfo.getShippingAddress());
         }
-        return joiner.toString();
+        sb.append('}');
     }
 
-    private String formatAddress(ShippingAddress address) {
-        if (address == null) {
-            return "unknown address";
-        }
-        StringBuilder builder = new StringBuilder();
-        builder.append(valueOrUnknown(address.getCountryCode()))
-                .append(", ")
-                .append(valueOrUnknown(address.getState()))
-                .append(", ")
-                .append(valueOrUnknown(address.getCity()))
-                .append(", ")
-                .append(valueOrUnknown(address.getStreetLine1()));
-        if (address.getStreetLine2() != null && !address.getStreetLine2().isBlank()) {
-            builder.append(' ')
-                    .append(address.getStreetLine2().trim());
-        }
-        builder.append(", ")
-                .append(valueOrUnknown(address.getPostCode()));
-        return builder.toString();
+    private void appendAddress(StringBuilder sb, ShippingAddress address) {
+        appendValue(sb, address.getCountryCode());
+        sb.append(", ");
+        appendValue(sb, address.getState());
+        sb.append(", ");
+        appendValue(sb, address.getCity());
+        sb.append(", ");
+        appendValue(sb, address.getStreetLine1());
+        String streetLine2 = address.getStreetLine2();
+        if (streetLine2 != null && !streetLine2.isBlank()) {
+            sb.append(' ');
+            appendStripped(sb, streetLine2);
+        }
+        sb.append(", ");
+        appendValue(sb, address.getPostCode());
     }
 
-    private String formatPollOptions(List<PollOption> options) {
-        if (options == null || options.isEmpty()) {
-            return "[]";
-        }
-        StringJoiner joiner = new StringJoiner(", ", "[", "]");
-        for (PollOption option : options) {
-            if (option == null) {
-                continue;
+    private void appendPollOptions(StringBuilder sb, List<PollOption> options) {
+        sb.append('[');
+        if (options != null) {
+            boolean first = true;
+            for (PollOption option : options) {
+                if (option == null) {
+                    continue;
+                }
+                if (!first) {
+                    sb.append(", ");
+                }
+                first = false;
+                sb.append(option.getText()).append('=');
+                appendNullable(sb, option.getVoterCount());
             }
-            joiner.add(option.getText() + "=" + option.getVoterCount());
         }
-        return joiner.toString();
+        sb.append(']');
     }
 
-    private String formatReactionTypes(List<ReactionType> reactions) {
-        if (reactions == null || reactions.isEmpty()) {
-            return "[]";
-        }
-        StringJoiner joiner = new StringJoiner(", ", "[", "]");
-        for (ReactionType reaction : reactions) {
-            if (reaction == null) {
-                continue;
-            }
-            if (reaction instanceof ReactionTypeEmoji) {
-                joiner.add(":emoji=" + ((ReactionTypeEmoji) reaction).getEmoji());
-            } else if (reaction instanceof ReactionTypeCustomEmoji) {
-                joiner.add(":custom=" + ((ReactionTypeCustomEmoji) reaction).getCustomEmoji());
-            } else {
-                joiner.add(reaction.toString());
+    private void appendReactionTypes(StringBuilder sb, List<ReactionType> reactions) {
+        sb.append('[');
+        if (reactions != null) {
+            boolean first = true;
+            for (ReactionType reaction : reactions) {
+                if (reaction == null) {
+                    continue;
+                }
+                if (!first) {
+                    sb.append(", ");
+                }
+                first = false;
+                appendReactionType(sb, reaction);
             }
         }
-        return joiner.toString();
+        sb.append(']');
     }
 
-    private String formatReactionCounts(List<ReactionCount> reactions) {
-        if (reactions == null || reactions.isEmpty()) {
-            return "[]";
-        }
-        StringJoiner joiner = new StringJoiner(", ", "[", "]");
-        for (ReactionCount reaction : reactions) {
-            if (reaction == null) {
-                continue;
+    private void appendReactionCounts(StringBuilder sb, List<ReactionCount> reactions) {
+        sb.append('[');
+        if (reactions != null) {
+            boolean first = true;
+            for (ReactionCount reaction : reactions) {
+                if (reaction == null) {
+                    continue;
+                }
+                if (!first) {
+                    sb.append(", ");
+                }
+                first = false;
+                appendReactionType(sb, reaction.getType());
+                sb.append('=');
+                appendValue(sb, reaction.getTotalCount());
             }
-            joiner.add(formatReactionType(reaction.getType()) + "=" + valueOrUnknown(reaction.getTotalCount()));
         }
-        return joiner.toString();
+        sb.append(']');
     }
 
-    private String formatReactionType(ReactionType reaction) {
+    private void appendReactionType(StringBuilder sb, ReactionType reaction) {
         if (reaction == null) {
-            return "unknown";
-        }
-        if (reaction instanceof ReactionTypeEmoji) {
-            return ":emoji=" + ((ReactionTypeEmoji) reaction).getEmoji();
-        }
-        if (reaction instanceof ReactionTypeCustomEmoji) {
-            return ":custom=" + ((ReactionTypeCustomEmoji) reaction).getCustomEmoji();
+            sb.append("unknown");
+        } else if (reaction instanceof ReactionTypeEmoji) {
+            sb.append(":emoji=").append(((ReactionTypeEmoji) reaction).getEmoji());
+        } else if (reaction instanceof ReactionTypeCustomEmoji) {
+            sb.append(":custom=").append(((ReactionTypeCustomEmoji) reaction).getCustomEmoji());
+        } else {
+            sb.append(reaction);
         }
-        return reaction.toString();
     }
 
-    private String formatBoostSource(ChatBoostSource source) {
-        if (source == null) {
-            return "unknown";
-        }
-        return source.getClass().getSimpleName();
+    private void appendBoostSource(StringBuilder sb, ChatBoostSource source) {
+        sb.append(source == null ? "unknown" : source.getClass().getSimpleName());
     }
 
-    private String formatChat(Chat chat) {
+    private void appendChat(StringBuilder sb, Chat chat) {
         if (chat == null) {
-            return "unknown chat";
+            sb.append("unknown chat");
+            return;
         }
-        String title = firstNonNull(chat.getTitle(), chat.getUserName(), chat.getFirstName());
+        String title = firstNonBlank(chat.getTitle(), chat.getUserName(), chat.getFirstName());
         if (title == null && chat.getLastName() != null) {
             title = chat.getLastName();
         }
-        if (title == null) {
-            title = "chat";
+        sb.append(title == null ? "chat" : title).append("(id=");
+        if (chat.getId() == null) {
+            sb.append('?');
+        } else {
+            sb.append(chat.getId().longValue());
         }
-        String idPart = chat.getId() == null ? "?" : chat.getId().toString();
-        String typePart = chat.getType() == null ? "unknown" : chat.getType();
-        return title + "(id=" + idPart + ",type=" + typePart + ")";
+        sb.append(",type=").append(chat.getType() == null ? "unknown" : chat.getType()).append(')');
     }
 
-    private String formatUser(User user) {
+    private void appendUser(StringBuilder sb, User user) {
         if (user == null) {
-            return "unknown user";
+            sb.append("unknown user");
+            return;
         }
-        String display = firstNonNull(
-                user.getUserName() != null ? "@" + user.getUserName() : null,
-                user.getFirstName(),
-                user.getLastName());
-        if (display == null) {
-            display = "user";
+        // "@" + username is never blank, so a present username always wins.
+        if (user.getUserName() != null) {
+            sb.append('@').append(user.getUserName());
+        } else {
+            String display = firstNonBlank(user.getFirstName(), user.getLastName(), null);
+            sb.append(display == null ? "user" : display);
         }
-        return display + "(id=" + user.getId() + ")";
+        sb.append("(id=");
+        appendNullable(sb, user.getId());
+        sb.append(')');
     }
 
-    private String formatCoordinate(Double latitude, Double longitude) {
-        return "(" + valueOrUnknown(latitude) + "," + valueOrUnknown(longitude) + ")";
+    private void appendCoordinate(StringBuilder sb, Double latitude, Double longitude) {
+        sb.append('(');
+        appendValue(sb, latitude);
+        sb.append(',');
+        appendValue(sb, longitude);
+        sb.append(')');
     }
 
-    private String trimmed(String text) {
+    private void appendTrimmed(StringBuilder sb, String text) {
         if (text == null) {
-            return "";
+            return;
+        }
+        if (text.length() > 80) {
+            sb.append(text, 0, 77).append("...");
+        } else {
+            sb.append(text);
         }
-        return text.length() > 80 ? text.substring(0, 77) + "..." : text;
-    }
-
-    private String valueOrUnknown(Object value) {
-        return value == null ? "unknown" : Objects.toString(value);
     }
 
-    private String detectMessagePayload(Message message) {
-        if (message.hasPhoto()) {
-            return "photo";
-        }
-        if (message.hasDocument()) {
-            return "document";
-        }
-        if (message.hasVideo()) {
-            return "video";
+    /**
+     * Appends {@code text.trim()} without materializing the trimmed copy.
+     */
+    private void appendStripped(StringBuilder sb, String text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
         }
-        if (message.hasAnimation()) {
-            return "animation";
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
         }
-        if (message.hasSticker()) {
-            return "sticker";
+        sb.append(text, start, end);
+    }
+
+    /**
+     * Appends the value, or {@code unknown} when it is absent. Boxed numbers are unboxed so they do
+     * not go through {@code toString()}.
+     */
+    private void appendValue(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("unknown");
+        } else {
+            appendNullable(sb, value);
         }
-        if (message.hasAudio()) {
-            return "audio";
+    }
+
+    /**
+     * Same rendering as string concatenation, {@code null} included.
+     */
+    private void appendNullable(StringBuilder sb, Object value) {
+        if (value instanceof String) {
+            sb.append((String) value);
+        } else if (value instanceof Integer) {
+            sb.append(((Integer) value).intValue());
+        } else if (value instanceof Long) {
+            sb.append(((Long) value).longValue());
+        } else if (value instanceof Double) {
+            sb.append(((Double) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            sb.append(((Boolean) value).booleanValue());
+        } else {
+            sb.append(value);
         }
-        if (message.hasVoice()) {
-            return "voice";
+    }
+
+    private String firstNonBlank(String first, String second, String third) {
+        if (first != null && !first.isBlank()) {
+            return first;
         }
-        if (message.hasVideoNote()) {
-            return "video_note";
+        if (second != null && !second.isBlank()) {
+            return second;
         }
-        if (message.hasPoll()) {
-            return "poll";
+        if (third != null && !third.isBlank()) {
+            return third;
         }
-        if (message.hasLocation()) {
-            return "location";
+        return null;
+    }
+
+    /**
+     * Staging area for {@link #printBatch}: payloads back to back plus where each one ends.
+     */
+    private static final class WriteBatch {
+        private static final int MAX_RETAINED_BYTES = 4 * 1024 * 1024;
+
+        private PayloadBuffer bytes = new PayloadBuffer(64 * 1024);
+        private int[] ends = new int[256];
+        private long[] receivedAt = new long[256];
+        private int count;
+
+        private void reset() {
+            // A single huge burst should not pin its buffer for the lifetime of the writer.
+            if (bytes.array().length > MAX_RETAINED_BYTES) {
+                bytes = new PayloadBuffer(64 * 1024);
+            }
+            bytes.reset();
+            count = 0;
         }
-        if (message.hasContact()) {
-            return "contact";
+
+        private void add(long receivedAtNanos) {
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, count * 2);
+                receivedAt = Arrays.copyOf(receivedAt, count * 2);
+            }
+            ends[count] = bytes.size();
+            receivedAt[count] = receivedAtNanos;
+            count++;
         }
-        if (message.hasDice()) {
-            return "dice";
+    }
+
+    /**
+     * Builder reset for every update, plus the byte buffer it is encoded into.
+     */
+    private static final class TextEncoder {
+        private static final int MAX_RETAINED_CHARS = 256 * 1024;
+
+        private StringBuilder builder = new StringBuilder(1024);
+        private final PayloadBuffer buffer = new PayloadBuffer();
+
+        private StringBuilder begin() {
+            if (builder.capacity() > MAX_RETAINED_CHARS) {
+                builder = new StringBuilder(1024);
+            }
+            builder.setLength(0);
+            return builder;
         }
-        if (message.getGame() != null) {
-            return "game";
+
+        private PayloadBuffer encode() {
+            buffer.reset();
+            buffer.writeUtf8(builder);
+            return buffer;
         }
-        return "unknown";
     }
 
-    private String firstNonNull(String... values) {
-        if (values == null) {
-            return null;
+    /**
+     * One generator per encoder, bound to a buffer that is reset before every update, so JSON is
+     * written straight to bytes without an intermediate String. The generator is writer-based on
+     * purpose: the UTF-8 byte generator escapes surrogate pairs (emoji) as numeric escapes, which
+     * would change the NDJSON output compared to {@code writeValueAsString}.
+     */
+    private static final class JsonEncoder {
+        private final ObjectWriter writer;
+        private final JsonProjection projection;
+        private final PayloadBuffer buffer = new PayloadBuffer();
+        private JsonGenerator generator;
+
+        private JsonEncoder(ObjectWriter writer, JsonProjection projection) {
+            this.writer = writer;
+            this.projection = projection;
+            reopen();
         }
-        for (String value : values) {
-            if (value != null && !value.isBlank()) {
-                return value;
+
+        /**
+         * Replaces the generator and its writer, e.g. after one failed half-way through an update.
+         */
+        private void reopen() {
+            buffer.reset();
+            Writer utf8 = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+            try {
+                generator = writer.createGenerator(utf8);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to create JSON generator", e);
             }
+            generator.setRootValueSeparator(null);
+        }
+
+        private PayloadBuffer encode(Update update) throws IOException {
+            buffer.reset();
+            if (projection != null && update != null) {
+                projection.write(generator, update);
+            } else {
+                writer.writeValue(generator, update);
+            }
+            generator.flush();
+            buffer.write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+            return buffer;
         }
-        return null;
     }
 }
@@ -0,0 +1,363 @@
+package com.example.telegram;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Keeps output bounded during floods. Each update type is sampled at its own rate, deterministically
+ * (a rate of 0.01 keeps every hundredth update of that type), and what survives may additionally have
+ * to take a token from its chat's bucket. Instead of one line per dropped update, every run of drops
+ * of one type in one chat is reported as a single "suppressed N ... in chat X" line, either when an
+ * update of that type and chat is kept again or when the report interval passes.
+ */
+public class UpdateSampler implements UpdateHandler, Closeable {
+
+    public static final long DEFAULT_REPORT_INTERVAL_MILLIS = 10_000;
+
+    private static final long ONE = 1_000_000; // rates are kept in parts per million
+
+    /**
+     * Immutable sampling configuration. Types that are never given a rate are kept in full.
+     */
+    public static final class Rules {
+        private final long[] keepPpm;
+        private final int chatRatePerSecond;
+        private final int chatBurst;
+
+        private Rules(long[] keepPpm, int chatRatePerSecond, int chatBurst) {
+            this.keepPpm = keepPpm;
+            this.chatRatePerSecond = chatRatePerSecond;
+            this.chatBurst = chatBurst;
+        }
+
+        public static Rules keepAll() {
+            long[] keepPpm = new long[UpdateType.all().length];
+            Arrays.fill(keepPpm, ONE);
+            return new Rules(keepPpm, 0, 0);
+        }
+
+        /**
+         * @param rate share of updates of {@code type} to keep, from {@code 0} to {@code 1}
+         */
+        public Rules withRate(UpdateType type, double rate) {
+            if (!(rate >= 0 && rate <= 1)) {
+                throw new IllegalArgumentException("rate must be in [0, 1]: " + rate);
+            }
+            long[] copy = keepPpm.clone();
+            copy[type.ordinal()] = Math.round(rate * ONE);
+            return new Rules(copy, chatRatePerSecond, chatBurst);
+        }
+
+        /**
+         * Token bucket per chat, as resolved by {@link ChatKeys#routingKey}.
+         *
+         * @param perSecond tokens added per second; {@code 0} disables the limit
+         * @param burst     bucket size, i.e. how many updates a quiet chat may send at once
+         */
+        public Rules withChatLimit(int perSecond, int burst) {
+            if (perSecond < 0 || (perSecond > 0 && burst < 1)) {
+                throw new IllegalArgumentException(
+                        "need perSecond >= 0 and burst >= 1: " + perSecond + ", " + burst);
+            }
+            return new Rules(keepPpm, perSecond, perSecond == 0 ? 0 : burst);
+        }
+
+        public double rate(UpdateType type) {
+            return (double) keepPpm[type.ordinal()] / ONE;
+        }
+
+        public boolean keepsEverything() {
+            if (chatRatePerSecond > 0) {
+                return false;
+            }
+            for (long ppm : keepPpm) {
+                if (ppm != ONE) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final UpdateHandler downstream;
+    private final Rules rules;
+    private final Consumer<String> reporter;
+    private final long reportIntervalNanos;
+    private final AtomicLongArray credit = new AtomicLongArray(UpdateType.all().length);
+    // Bucket and open drop runs per chat; guarded by lock.
+    private final ChatStateTable chats = new ChatStateTable(UpdateType.all().length);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition stopped = lock.newCondition();
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder summaries = new LongAdder();
+    private final Thread sweeper;
+    private boolean running = true;
+    // Written under the lock; read without it to skip chat state while nothing is suppressed.
+    private volatile int openRuns;
+
+    /**
+     * @param reporter             receives the "suppressed" lines, without line separator
+     * @param reportIntervalMillis longest a run of drops stays unreported
+     */
+    public UpdateSampler(UpdateHandler downstream, Rules rules, Consumer<String> reporter,
+            long reportIntervalMillis) {
+        if (reportIntervalMillis < 1) {
+            throw new IllegalArgumentException("reportIntervalMillis must be >= 1: " + reportIntervalMillis);
+        }
+        this.downstream = Objects.requireNonNull(downstream, "downstream");
+        this.rules = Objects.requireNonNull(rules, "rules");
+        this.reporter = Objects.requireNonNull(reporter, "reporter");
+        this.reportIntervalNanos = TimeUnit.MILLISECONDS.toNanos(reportIntervalMillis);
+        this.sweeper = new Thread(this::runSweeper, "sampler-reporter");
+        this.sweeper.setDaemon(true);
+        this.sweeper.start();
+    }
+
+    @Override
+    public void handle(Update update) {
+        handle(update, UpdateClassification.of(update));
+    }
+
+    @Override
+    public void handle(Update update, long classification) {
+        if (update == null) {
+            return;
+        }
+        int mask = UpdateClassification.types(classification);
+        if (mask == 0) {
+            passed.increment();
+            downstream.handle(update, classification);
+            return;
+        }
+        // An update carries one section; the lowest bit names it.
+        int type = Integer.numberOfTrailingZeros(mask);
+        boolean sampled = sample(type);
+        if (sampled && rules.chatRatePerSecond == 0 && openRuns == 0) {
+            // No bucket to take from and no run to close: the chat needs no state at all.
+            passed.increment();
+            downstream.handle(update, classification);
+            return;
+        }
+        long chat = ChatKeys.routingKey(update);
+        String summary = null;
+        lock.lock();
+        try {
+            if (sampled && rules.chatRatePerSecond == 0) {
+                int slot = chats.find(chat);
+                if (slot >= 0 && chats.suppressed(slot, type) > 0) {
+                    summary = summary(slot, type);
+                }
+            } else {
+                int slot = chats.findOrInsert(chat, rules.chatBurst, System.nanoTime());
+                if (!sampled) {
+                    sampledOut.increment();
+                    suppress(slot, type);
+                    return;
+                }
+                if (!takeToken(slot)) {
+                    rateLimited.increment();
+                    suppress(slot, type);
+                    return;
+                }
+                if (chats.suppressed(slot, type) > 0) {
+                    summary = summary(slot, type);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (summary != null) {
+            report(summary);
+        }
+        passed.increment();
+        downstream.handle(update, classification);
+    }
+
+    public long passedCount() {
+        return passed.sum();
+    }
+
+    public long sampledOutCount() {
+        return sampledOut.sum();
+    }
+
+    public long rateLimitedCount() {
+        return rateLimited.sum();
+    }
+
+    public long summaryCount() {
+        return summaries.sum();
+    }
+
+    public int trackedChats() {
+        lock.lock();
+        try {
+            return chats.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void registerMetrics(UpdateMetrics metrics) {
+        metrics.registerGauge("telegram_sample_passed_total", "Updates kept by the sampler.", true,
+                this::passedCount);
+        metrics.registerGauge("telegram_sample_dropped_total", "Updates dropped by per-type sampling.", true,
+                this::sampledOutCount);
+        metrics.registerGauge("telegram_sample_rate_limited_total", "Updates dropped by the per-chat rate limit.",
+                true, this::rateLimitedCount);
+        metrics.registerGauge("telegram_sample_summaries_total", "Suppressed-run lines reported.", true,
+                this::summaryCount);
+        metrics.registerGauge("telegram_sample_tracked_chats", "Chats with a bucket or an open drop run.", false,
+                this::trackedChats);
+    }
+
+    /**
+     * Reports every open run and stops the report thread.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            stopped.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            sweeper.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sweep();
+    }
+
+    /**
+     * Adds the type's rate to its credit and keeps the update whenever that crosses a whole unit, which
+     * spreads the kept updates evenly instead of in bursts.
+     */
+    private boolean sample(int type) {
+        long ppm = rules.keepPpm[type];
+        if (ppm == ONE) {
+            return true;
+        }
+        if (ppm == 0) {
+            return false;
+        }
+        long after = credit.addAndGet(type, ppm);
+        return after / ONE != (after - ppm) / ONE;
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private boolean takeToken(int slot) {
+        long now = System.nanoTime();
+        double refill = (now - chats.refilledAt(slot)) * (double) rules.chatRatePerSecond
+                / TimeUnit.SECONDS.toNanos(1);
+        double tokens = Math.min(rules.chatBurst, chats.tokens(slot) + refill);
+        if (tokens < 1) {
+            chats.refill(slot, tokens, now);
+            return false;
+        }
+        chats.refill(slot, tokens - 1, now);
+        return true;
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private void suppress(int slot, int type) {
+        if (chats.suppress(slot, type)) {
+            openRuns++;
+        }
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private String summary(int slot, int type) {
+        long count = chats.closeRun(slot, type);
+        openRuns--;
+        return "suppressed " + count + " " + UpdateType.all()[type] + " updates in chat " + chats.chat(slot);
+    }
+
+    private void report(String line) {
+        summaries.increment();
+        try {
+            reporter.accept(line);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to report suppressed updates: " + e.getMessage());
+        }
+    }
+
+    private void runSweeper() {
+        while (true) {
+            lock.lock();
+            try {
+                long remaining = reportIntervalNanos;
+                while (running && remaining > 0) {
+                    remaining = stopped.awaitNanos(remaining);
+                }
+                if (!running) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            sweep();
+        }
+    }
+
+    /**
+     * Closes every open run and forgets chats whose bucket has refilled, so the map only holds chats that
+     * were active within the last interval.
+     */
+    private void sweep() {
+        List<String> lines = new ArrayList<>();
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            int removed = 0;
+            for (int slot = 0; slot < chats.slots(); slot++) {
+                if (!chats.used(slot)) {
+                    continue;
+                }
+                for (int type = 0; chats.openRuns(slot) > 0 && type < UpdateType.all().length; type++) {
+                    if (chats.suppressed(slot, type) > 0) {
+                        lines.add(summary(slot, type));
+                    }
+                }
+                long idleNanos = now - chats.refilledAt(slot);
+                if (rules.chatRatePerSecond == 0
+                        || idleNanos * rules.chatRatePerSecond >= rules.chatBurst * TimeUnit.SECONDS.toNanos(1)) {
+                    chats.remove(slot);
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                chats.compact();
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (String line : lines) {
+            report(line);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.telegram;
+
+import java.util.Locale;
+import java.util.function.Function;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Payload sections an {@link Update} can carry. Names match the section labels printed by
+ * {@link UpdatePrinter#describe(Update)}.
+ */
+public enum UpdateType {
+    MESSAGE(Update::getMessage),
+    EDITED_MESSAGE(Update::getEditedMessage),
+    CHANNEL_POST(Update::getChannelPost),
+    EDITED_CHANNEL_POST(Update::getEditedChannelPost),
+    INLINE_QUERY(Update::getInlineQuery),
+    CHOSEN_INLINE_RESULT(Update::getChosenInlineQuery),
+    CALLBACK_QUERY(Update::getCallbackQuery),
+    SHIPPING_QUERY(Update::getShippingQuery),
+    PRE_CHECKOUT_QUERY(Update::getPreCheckoutQuery),
+    POLL(Update::getPoll),
+    POLL_ANSWER(Update::getPollAnswer),
+    MY_CHAT_MEMBER(Update::getMyChatMember),
+    CHAT_MEMBER(Update::getChatMember),
+    CHAT_JOIN_REQUEST(Update::getChatJoinRequest),
+    MESSAGE_REACTION(Update::getMessageReaction),
+    MESSAGE_REACTION_COUNT(Update::getMessageReactionCount),
+    CHAT_BOOST(Update::getChatBoost),
+    REMOVED_CHAT_BOOST(Update::getRemovedChatBoost);
+
+    private static final UpdateType[] VALUES = values();
+
+    private final Function<Update, Object> payload;
+    private final int bit;
+
+    UpdateType(Function<Update, Object> payload) {
+        this.payload = payload;
+        this.bit = 1 << ordinal();
+    }
+
+    public boolean isPresent(Update update) {
+        return update != null && payload.apply(update) != null;
+    }
+
+    /**
+     * Field name of this section in the Bot API, as used by {@code allowed_updates}.
+     */
+    public String apiName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Accepts the constant name or the Bot API field name, e.g. {@code callback_query}.
+     */
+    public static UpdateType fromString(String raw) {
+        if (raw == null || raw.isBlank()) {
+            throw new IllegalArgumentException("Unknown update type: " + raw);
+        }
+        String normalized = raw.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+        for (UpdateType type : VALUES) {
+            if (type.name().equals(normalized)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown update type: " + raw);
+    }
+
+    /**
+     * This type's bit in {@link #mask}, {@code 1 << ordinal()}.
+     */
+    public int bit() {
+        return bit;
+    }
+
+    /**
+     * Lowest-ordinal type whose bit is set in a non-zero {@code mask}.
+     */
+    public static UpdateType first(int mask) {
+        return VALUES[Integer.numberOfTrailingZeros(mask)];
+    }
+
+    /**
+     * {@link #bit()} set for every section present in the update. Calls the getters directly rather
+     * than through {@link #isPresent}, as this runs for every update.
+     */
+    public static int mask(Update update) {
+        if (update == null) {
+            return 0;
+        }
+        int mask = 0;
+        if (update.getMessage() != null) {
+            mask |= MESSAGE.bit;
+        }
+        if (update.getEditedMessage() != null) {
+            mask |= EDITED_MESSAGE.bit;
+        }
+        if (update.getChannelPost() != null) {
+            mask |= CHANNEL_POST.bit;
+        }
+        if (update.getEditedChannelPost() != null) {
+            mask |= EDITED_CHANNEL_POST.bit;
+        }
+        if (update.getInlineQuery() != null) {
+            mask |= INLINE_QUERY.bit;
+        }
+        if (update.getChosenInlineQuery() != null) {
+            mask |= CHOSEN_INLINE_RESULT.bit;
+        }
+        if (update.getCallbackQuery() != null) {
+            mask |= CALLBACK_QUERY.bit;
+        }
+        if (update.getShippingQuery() != null) {
+            mask |= SHIPPING_QUERY.bit;
+        }
+        if (update.getPreCheckoutQuery() != null) {
+            mask |= PRE_CHECKOUT_QUERY.bit;
+        }
+        if (update.getPoll() != null) {
+            mask |= POLL.bit;
+        }
+        if (update.getPollAnswer() != null) {
+            mask |= POLL_ANSWER.bit;
+        }
+        if (update.getMyChatMember() != null) {
+            mask |= MY_CHAT_MEMBER.bit;
+        }
+        if (update.getChatMember() != null) {
+            mask |= CHAT_MEMBER.bit;
+        }
+        if (update.getChatJoinRequest() != null) {
+            mask |= CHAT_JOIN_REQUEST.bit;
+        }
+        if (update.getMessageReaction() != null) {
+            mask |= MESSAGE_REACTION.bit;
+        }
+        if (update.getMessageReactionCount() != null) {
+            mask |= MESSAGE_REACTION_COUNT.bit;
+        }
+        if (update.getChatBoost() != null) {
+            mask |= CHAT_BOOST.bit;
+        }
+        if (update.getRemovedChatBoost() != null) {
+            mask |= REMOVED_CHAT_BOOST.bit;
+        }
+        return mask;
+    }
+
+    /**
+     * Shared copy of {@link #values()} for hot loops that must not clone the array.
+     */
+    static UpdateType[] all() {
+        return VALUES;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.telegram;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Access to JDK 21 virtual threads from code compiled for JDK 17. Everything is looked up
+ * reflectively once; on older runtimes the factories fall back to a fixed pool of daemon platform
+ * threads.
+ */
+final class VirtualThreads {
+
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Whether this runtime can create virtual threads.
+     */
+    static boolean isSupported() {
+        return IS_VIRTUAL != null;
+    }
+
+    /**
+     * Whether {@code thread} is a virtual thread; always {@code false} before JDK 21.
+     */
+    static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs each task on a new virtual thread named {@code prefix-N} when supported, otherwise on a
+     * fixed pool of {@link #platformPoolSize()} daemon platform threads, so a burst queues up instead
+     * of starting an OS thread per task.
+     *
+     * @param preferVirtual {@code false} forces platform threads even on JDK 21+
+     */
+    static ExecutorService newTaskExecutor(String prefix, boolean preferVirtual) {
+        if (preferVirtual && isSupported()) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix + "-", 1L);
+                ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+                return (ExecutorService) Executors.class
+                        .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Failed to create virtual thread executor", e);
+            }
+        }
+        return Executors.newFixedThreadPool(platformPoolSize(), platformFactory(prefix));
+    }
+
+    /**
+     * Size of the platform thread pool: two threads per core, as printing mostly waits on writes.
+     */
+    static int platformPoolSize() {
+        return Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    static ThreadFactory platformFactory(String prefix) {
+        AtomicInteger threadIds = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup()
+                    .findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.telegram;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Alternative to long polling: an embedded HTTP endpoint that Telegram POSTs updates to. Each body
+ * is parsed with the same Jackson configuration {@link UpdatePrinter} uses and handed to the
+ * regular {@link UpdateHandler} chain.
+ */
+public class WebhookReceiver implements Closeable {
+
+    public static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+    public static final String DEFAULT_PATH = "/telegram/webhook";
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final ObjectReader updateReader;
+    private final UpdateHandler handler;
+    private final UpdateMetrics metrics;
+    private final byte[] secret;
+
+    /**
+     * @param secret  expected value of {@value #SECRET_HEADER}; {@code null} disables the check
+     * @param threads size of the worker pool that parses and dispatches requests
+     */
+    public WebhookReceiver(UpdateHandler handler, UpdateMetrics metrics, InetSocketAddress address,
+            String path, String secret, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be >= 1: " + threads);
+        }
+        this.handler = Objects.requireNonNull(handler, "handler");
+        this.metrics = Objects.requireNonNull(metrics, "metrics");
+        this.secret = secret == null ? null : secret.getBytes(StandardCharsets.UTF_8);
+        this.updateReader = UpdatePrinter.newObjectMapper()
+                .readerFor(Update.class)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        AtomicInteger threadIds = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "webhook-worker-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(Objects.requireNonNull(address, "address"), 0);
+        this.server.createContext(path == null ? DEFAULT_PATH : path, this::handleExchange);
+        this.server.setExecutor(workers);
+        this.server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting connections, giving in-flight requests a second to complete.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        workers.shutdown();
+    }
+
+    private void handleExchange(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (!secretMatches(exchange.getRequestHeaders().getFirst(SECRET_HEADER))) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            Update update;
+            try (InputStream body = exchange.getRequestBody()) {
+                update = updateReader.readValue(body);
+            } catch (JsonProcessingException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            if (update == null) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            try {
+                long classification = UpdateClassification.of(update);
+                metrics.recordReceived(classification);
+                handler.handle(update, classification);
+            } catch (RuntimeException e) {
+                // Non-2xx makes Telegram redeliver the update later.
+                System.err.println("Failed to handle webhook update: " + e.getMessage());
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, -1);
+        }
+    }
+
+    private boolean secretMatches(String provided) {
+        if (secret == null) {
+            return true;
+        }
+        return provided != null && MessageDigest.isEqual(secret, provided.getBytes(StandardCharsets.UTF_8));
+    }
+}
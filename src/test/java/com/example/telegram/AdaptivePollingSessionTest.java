@@ -0,0 +1,71 @@
+package com.example.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class AdaptivePollingSessionTest {
+
+    @Test
+    void burstDrainsInFewGrowingPollsThenFallsBackToLongPolls() throws Exception {
+        List<Update> fixtures = new SyntheticUpdates(13, 20).next(1000);
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(fixtures.size());
+        UpdateMetrics metrics = new UpdateMetrics();
+
+        try (FakeBotApiServer api = new FakeBotApiServer(FakeBotApiServer.MAX_LIMIT, 0, 6)) {
+            api.enqueue(fixtures);
+            DefaultBotOptions options = new DefaultBotOptions();
+            options.setBaseUrl(api.baseUrl());
+            TelegramTriggerBot bot = new TelegramTriggerBot(options, "123:fake", "fake_bot", update -> {
+                received.add(update.getUpdateId());
+                done.countDown();
+            }, metrics);
+            AdaptivePollingSession session = AdaptivePollingSession.register(bot, "123:fake",
+                    AdaptivePollingSession.Tuning.of(1, 5, 100), metrics);
+            session.registerMetrics(metrics);
+            try {
+                assertTrue(done.await(30, TimeUnit.SECONDS), "received " + received.size());
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (session.currentTimeoutSeconds() != 1 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertEquals(1, session.currentTimeoutSeconds());
+            } finally {
+                session.stop();
+            }
+            assertFalse(session.isRunning());
+
+            // 5, 10, 20, 40, 80, then 100 per call instead of 200 calls at the starting limit.
+            assertTrue(session.pollCount() <= 20, "polls " + session.pollCount());
+            assertEquals(FakeBotApiServer.MAX_LIMIT, api.largestBatch());
+            assertTrue(session.failedPollCount() > 0);
+            assertEquals(session.pollCount(), metrics.pollLatency().count());
+            assertEquals(1000L, metrics.snapshot().get("telegram_poll_updates_total"));
+        }
+
+        List<Integer> expected = new ArrayList<>();
+        for (Update update : fixtures) {
+            expected.add(update.getUpdateId());
+        }
+        assertEquals(expected, received);
+    }
+
+    @Test
+    void tuningRejectsValuesOutsideTheBotApiRange() {
+        assertThrows(IllegalArgumentException.class, () -> AdaptivePollingSession.Tuning.of(50, 10, 101));
+        assertThrows(IllegalArgumentException.class, () -> AdaptivePollingSession.Tuning.of(50, 20, 10));
+        assertThrows(IllegalArgumentException.class, () -> AdaptivePollingSession.Tuning.of(61, 1, 100));
+        assertEquals(10, AdaptivePollingSession.Tuning.defaults().minLimit());
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.telegram;
+
+import static com.example.telegram.TestUpdates.update;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class AsyncUpdatePipelineTest {
+
+    @Test
+    void closeDrainsEveryQueuedUpdateInOrder() {
+        RecordingPrinter printer = new RecordingPrinter(null);
+        AsyncUpdatePipeline pipeline = new AsyncUpdatePipeline(
+                printer, 4, 2, AsyncUpdatePipeline.BackpressurePolicy.BLOCK);
+        for (int i = 1; i <= 20; i++) {
+            pipeline.handle(update(i));
+        }
+        pipeline.close();
+
+        assertEquals(20, printer.seen.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i + 1, printer.seen.get(i));
+        }
+        assertEquals(20, pipeline.writtenCount());
+        assertEquals(0, pipeline.droppedCount());
+        assertEquals(0, pipeline.queueDepth());
+    }
+
+    @Test
+    void dropPoliciesCountRejectedUpdates() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingPrinter printer = new RecordingPrinter(release);
+        AsyncUpdatePipeline pipeline = new AsyncUpdatePipeline(
+                printer, 2, 1, AsyncUpdatePipeline.BackpressurePolicy.DROP_OLDEST);
+        pipeline.handle(update(1));
+        assertTrue(printer.started.await(5, TimeUnit.SECONDS));
+        pipeline.handle(update(2));
+        pipeline.handle(update(3));
+        pipeline.handle(update(4));
+
+        assertEquals(2, pipeline.queueDepth());
+        assertEquals(1, pipeline.droppedCount());
+        release.countDown();
+        pipeline.close();
+
+        assertEquals(List.of(1, 3, 4), printer.seen);
+    }
+
+    @Test
+    void backpressurePolicyParsesAliases() {
+        assertEquals(AsyncUpdatePipeline.BackpressurePolicy.BLOCK,
+                AsyncUpdatePipeline.BackpressurePolicy.fromString(null));
+        assertEquals(AsyncUpdatePipeline.BackpressurePolicy.DROP_OLDEST,
+                AsyncUpdatePipeline.BackpressurePolicy.fromString("drop-oldest"));
+        assertEquals(AsyncUpdatePipeline.BackpressurePolicy.DROP_NEWEST,
+                AsyncUpdatePipeline.BackpressurePolicy.fromString("DROP_NEWEST"));
+        assertThrows(IllegalArgumentException.class,
+                () -> AsyncUpdatePipeline.BackpressurePolicy.fromString("spill"));
+    }
+
+    private static final class RecordingPrinter extends UpdatePrinter {
+        private final List<Integer> seen = new CopyOnWriteArrayList<>();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release;
+
+        private RecordingPrinter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public int printBatch(Update[] updates, long[] receivedAtNanos, long[] classifications, int count) {
+            started.countDown();
+            if (release != null) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                seen.add(updates[i].getUpdateId());
+            }
+            return count;
+        }
+    }
+}
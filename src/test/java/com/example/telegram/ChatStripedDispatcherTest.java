@@ -0,0 +1,80 @@
+package com.example.telegram;
+
+import static com.example.telegram.TestUpdates.message;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
+import org.telegram.telegrambots.meta.api.objects.reactions.MessageReactionUpdated;
+
+class ChatStripedDispatcherTest {
+
+    @Test
+    void keepsPerChatOrderAcrossLanes() {
+        RecordingPrinter printer = new RecordingPrinter();
+        ChatStripedDispatcher dispatcher = new ChatStripedDispatcher(
+                printer, 4, 16, 4, AsyncUpdatePipeline.BackpressurePolicy.BLOCK);
+        int updateId = 0;
+        for (int round = 0; round < 50; round++) {
+            for (long chat = 1; chat <= 10; chat++) {
+                dispatcher.handle(message(++updateId, -1_000_000_000_000L - chat));
+            }
+        }
+        dispatcher.close();
+
+        assertEquals(500, dispatcher.writtenCount());
+        assertEquals(10, printer.byChat.size());
+        for (List<Integer> ids : printer.byChat.values()) {
+            assertEquals(50, ids.size());
+            for (int i = 1; i < ids.size(); i++) {
+                assertEquals(ids.get(i - 1) + 10, ids.get(i));
+            }
+        }
+    }
+
+    @Test
+    void routingKeyPrefersChatAndFallsBackToUser() {
+        assertEquals(-100L, ChatKeys.routingKey(message(1, -100L)));
+
+        Update reaction = new Update();
+        MessageReactionUpdated reactionUpdated = new MessageReactionUpdated();
+        reactionUpdated.setChat(chat(-200L));
+        reaction.setMessageReaction(reactionUpdated);
+        assertEquals(-200L, ChatKeys.routingKey(reaction));
+
+        Update callback = new Update();
+        CallbackQuery callbackQuery = new CallbackQuery();
+        callbackQuery.setFrom(new User(42L, "Ann", false));
+        callback.setCallbackQuery(callbackQuery);
+        assertEquals(42L, ChatKeys.routingKey(callback));
+
+        assertEquals(ChatKeys.NO_CHAT, ChatKeys.routingKey(new Update()));
+    }
+
+    private static Chat chat(long id) {
+        Chat chat = new Chat();
+        chat.setId(id);
+        return chat;
+    }
+
+    private static final class RecordingPrinter extends UpdatePrinter {
+        private final Map<Long, List<Integer>> byChat = new ConcurrentHashMap<>();
+
+        @Override
+        public int printBatch(Update[] updates, long[] receivedAtNanos, long[] classifications, int count) {
+            for (int i = 0; i < count; i++) {
+                // Each chat is only ever touched by its own lane thread.
+                byChat.computeIfAbsent(updates[i].getMessage().getChatId(), chat -> new ArrayList<>())
+                        .add(updates[i].getUpdateId());
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.telegram;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * Local stand-in for the Bot API, enough to drive {@code DefaultBotSession}: {@code getUpdates} serves
+ * queued fixtures with Telegram's offset semantics (an offset confirms every update below it) and the
+ * 100-update limit, long-polls while the queue is empty and can inject latency and {@code 429}
+ * errors. Every other method answers {@code {"ok":true,"result":true}}.
+ */
+final class FakeBotApiServer implements Closeable {
+
+    static final int MAX_LIMIT = 100;
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final ObjectMapper mapper = UpdatePrinter.newObjectMapper();
+    private final int batchSize;
+    private final long latencyMillis;
+    private final int errorEvery;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition arrived = lock.newCondition();
+    private final ArrayDeque<Update> pending = new ArrayDeque<>();
+    private final AtomicLong getUpdatesCalls = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicInteger largestBatch = new AtomicInteger();
+    private final AtomicLong lastOffset = new AtomicLong();
+    private boolean closed;
+
+    /**
+     * @param batchSize     most updates returned per call, further capped by the request's {@code limit}
+     * @param latencyMillis delay added before every {@code getUpdates} response
+     * @param errorEvery    answer every N-th {@code getUpdates} call with {@code 429}; {@code 0} disables
+     */
+    FakeBotApiServer(int batchSize, long latencyMillis, int errorEvery) throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be >= 1: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        this.latencyMillis = latencyMillis;
+        this.errorEvery = errorEvery;
+        AtomicInteger threadIds = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fake-bot-api-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", this::handleExchange);
+        this.server.setExecutor(workers);
+        this.server.start();
+    }
+
+    /**
+     * Value for {@code DefaultBotOptions.setBaseUrl}.
+     */
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/bot";
+    }
+
+    /**
+     * Queues updates in id order and wakes up a pending long poll.
+     */
+    void enqueue(Collection<Update> updates) {
+        lock.lock();
+        try {
+            pending.addAll(updates);
+            arrived.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getUpdatesCalls() {
+        return getUpdatesCalls.get();
+    }
+
+    long injectedErrors() {
+        return injectedErrors.get();
+    }
+
+    /**
+     * Updates sent to the client, counting redeliveries of unconfirmed ones.
+     */
+    long delivered() {
+        return delivered.get();
+    }
+
+    int largestBatch() {
+        return largestBatch.get();
+    }
+
+    /**
+     * Offset of the most recent {@code getUpdates} call.
+     */
+    long lastOffset() {
+        return lastOffset.get();
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            arrived.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        server.stop(0);
+        workers.shutdownNow();
+    }
+
+    private void handleExchange(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            String method = path.substring(path.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+            JsonNode request;
+            try (InputStream body = exchange.getRequestBody()) {
+                byte[] bytes = body.readAllBytes();
+                request = bytes.length == 0 ? mapper.createObjectNode() : mapper.readTree(bytes);
+            }
+            if (!"getupdates".equals(method)) {
+                respond(exchange, 200, "{\"ok\":true,\"result\":true}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            long call = getUpdatesCalls.incrementAndGet();
+            if (errorEvery > 0 && call % errorEvery == 0) {
+                injectedErrors.incrementAndGet();
+                respond(exchange, 429, ("{\"ok\":false,\"error_code\":429,\"description\":"
+                        + "\"Too Many Requests: retry after 1\",\"parameters\":{\"retry_after\":1}}")
+                        .getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            respond(exchange, 200, getUpdates(request.path("offset").asLong(0),
+                    request.path("limit").asInt(MAX_LIMIT), request.path("timeout").asInt(0)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private byte[] getUpdates(long offset, int limit, int timeoutSeconds) throws IOException, InterruptedException {
+        lastOffset.set(offset);
+        int max = Math.min(batchSize, limit < 1 || limit > MAX_LIMIT ? MAX_LIMIT : limit);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeBooleanField("ok", true);
+            generator.writeArrayFieldStart("result");
+            lock.lock();
+            try {
+                while (!pending.isEmpty() && pending.peekFirst().getUpdateId() < offset) {
+                    pending.pollFirst();
+                }
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+                while (pending.isEmpty() && !closed) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    arrived.awaitNanos(remaining);
+                }
+                int count = 0;
+                for (Update update : pending) {
+                    if (count == max) {
+                        break;
+                    }
+                    mapper.writeValue(generator, update);
+                    count++;
+                }
+                delivered.addAndGet(count);
+                largestBatch.accumulateAndGet(count, Math::max);
+            } finally {
+                lock.unlock();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.PhotoSize;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class JsonProjectionTest {
+
+    private static final String SPEC =
+            "update_id, message.chat.id, message.text, callback_query.data, callback_query.message.chat.id";
+
+    @Test
+    void projectedJsonIsTheFullJsonPrunedToThePaths() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        UpdatePrinter full = new UpdatePrinter(UpdatePrinter.Format.JSON, (LogFileSink) null);
+        UpdatePrinter slim = new UpdatePrinter(UpdatePrinter.Format.JSON, null, null, new UpdateMetrics(), null,
+                UpdatePrinter.DEFAULT_BATCH_BYTES, UpdatePrinter.DEFAULT_BATCH_MAX_NANOS,
+                JsonProjection.compile(SPEC));
+        List<String[]> paths = List.of(new String[] {"update_id"}, new String[] {"message", "chat", "id"},
+                new String[] {"message", "text"}, new String[] {"callback_query", "data"},
+                new String[] {"callback_query", "message", "chat", "id"});
+
+        int callbacks = 0;
+        for (Update update : new SyntheticUpdates(21, 4).next(300)) {
+            JsonNode whole = mapper.readTree(full.toJson(update));
+            String line = slim.toJson(update);
+            assertTrue(line.length() <= full.toJson(update).length());
+            ObjectNode expected = mapper.createObjectNode();
+            for (String[] path : paths) {
+                copyPath(whole, expected, path, 0);
+            }
+            assertEquals(expected, mapper.readTree(line), line);
+            if (update.getCallbackQuery() != null) {
+                callbacks++;
+            }
+        }
+        assertTrue(callbacks > 0);
+    }
+
+    @Test
+    void listsAreProjectedPerElementAndPrefixPathsWinWhole() throws Exception {
+        Message message = new Message();
+        message.setMessageId(5);
+        Chat chat = new Chat(-100L, "supergroup");
+        message.setChat(chat);
+        message.setPhoto(List.of(photo("small", 90), photo("large", 1280)));
+        Update update = new Update();
+        update.setUpdateId(9);
+        update.setMessage(message);
+
+        UpdatePrinter printer = new UpdatePrinter(UpdatePrinter.Format.JSON, null, null, new UpdateMetrics(), null,
+                UpdatePrinter.DEFAULT_BATCH_BYTES, UpdatePrinter.DEFAULT_BATCH_MAX_NANOS,
+                JsonProjection.compile("message.photo.file_id,message.chat.type,message.chat,message.text"));
+        assertEquals("{\"message\":{\"photo\":[{\"file_id\":\"small\"},{\"file_id\":\"large\"}],"
+                + "\"chat\":{\"id\":-100,\"type\":\"supergroup\"}}}" + System.lineSeparator(), printer.toJson(update));
+
+        assertThrows(IllegalArgumentException.class, () -> JsonProjection.compile("message.chat.nope"));
+        assertThrows(IllegalArgumentException.class, () -> JsonProjection.compile("message..text"));
+        assertThrows(IllegalArgumentException.class, () -> JsonProjection.compile(" , "));
+        assertThrows(IllegalArgumentException.class, () -> new UpdatePrinter(UpdatePrinter.Format.TEXT, null, null,
+                new UpdateMetrics(), null, 1, 0, JsonProjection.compile("update_id")));
+    }
+
+    private static void copyPath(JsonNode from, ObjectNode to, String[] path, int depth) {
+        JsonNode value = from.get(path[depth]);
+        if (value == null || value.isNull()) {
+            return;
+        }
+        if (depth == path.length - 1) {
+            to.set(path[depth], value);
+            return;
+        }
+        ObjectNode child = to.has(path[depth]) ? (ObjectNode) to.get(path[depth]) : to.putObject(path[depth]);
+        copyPath(value, child, path, depth + 1);
+    }
+
+    private static PhotoSize photo(String fileId, int width) {
+        PhotoSize photo = new PhotoSize();
+        photo.setFileId(fileId);
+        photo.setFileUniqueId(fileId + "-unique");
+        photo.setWidth(width);
+        photo.setHeight(width);
+        return photo;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LogFileSinkTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void flushesAfterConfiguredNumberOfUpdates() throws IOException {
+        Path file = tempDir.resolve("nested/updates.log");
+        try (LogFileSink sink = new LogFileSink(file, LogFileSink.FlushPolicy.of(2, 0), 1024)) {
+            sink.write("first\n");
+            assertEquals("", Files.readString(file));
+            sink.write("second\n");
+            assertEquals("first\nsecond\n", Files.readString(file));
+        }
+    }
+
+    @Test
+    void closeFlushesPendingBytesAndAppendsToExistingFile() throws IOException {
+        Path file = tempDir.resolve("updates.log");
+        Files.writeString(file, "existing\n");
+        LogFileSink sink = new LogFileSink(file, LogFileSink.FlushPolicy.onShutdown(), 1024);
+        String large = "ж".repeat(3000) + "\n";
+        sink.write(large);
+        sink.write("tail\n");
+        sink.close();
+
+        assertEquals("existing\n" + large + "tail\n", Files.readString(file));
+        assertThrows(UncheckedIOException.class, () -> sink.write("late\n"));
+    }
+
+    @Test
+    void writeBatchStagesSmallBatchesAndGathersLargeOnes() throws IOException {
+        Path file = tempDir.resolve("batched.log");
+        byte[] small = "a\nb\n".getBytes(StandardCharsets.UTF_8);
+        byte[] large = ("x".repeat(2000) + "\n").getBytes(StandardCharsets.UTF_8);
+        try (LogFileSink sink = new LogFileSink(file, LogFileSink.FlushPolicy.of(3, 0), 1024)) {
+            sink.writeBatch(small, 0, small.length, 2);
+            assertEquals("", Files.readString(file));
+            sink.writeBatch(large, 0, large.length, 1);
+            assertEquals("a\nb\n" + "x".repeat(2000) + "\n", Files.readString(file));
+            sink.write("tail\n");
+        }
+        assertTrue(Files.readString(file).endsWith("x\ntail\n"));
+    }
+
+    @Test
+    void rotatesBySizeCompressesAndKeepsNewestSegments() throws IOException {
+        Path file = tempDir.resolve("updates.log");
+        LogFileSink.RotationPolicy rotation = LogFileSink.RotationPolicy.of(
+                10, 0, 2, LogFileSink.Compression.GZIP);
+        LogFileSink sink = new LogFileSink(file, LogFileSink.FlushPolicy.everyUpdate(), rotation, 1024);
+        for (int i = 0; i < 4; i++) {
+            sink.write("payload-" + i + "\n");
+        }
+        sink.write("tail\n");
+        sink.close();
+
+        List<Path> segments = sink.listSegments();
+        assertEquals(2, segments.size(), segments::toString);
+        for (Path segment : segments) {
+            assertTrue(segment.getFileName().toString().endsWith(".gz"), segment::toString);
+        }
+        assertEquals("payload-2\n", gunzip(segments.get(0)));
+        assertEquals("payload-3\n", gunzip(segments.get(1)));
+        assertEquals("tail\n", Files.readString(file));
+    }
+
+    @Test
+    void retentionLeavesFilesThatAreNotThisSinksSegments() throws IOException {
+        Path file = tempDir.resolve("updates");
+        List<Path> unrelated = List.of(tempDir.resolve("updates.bak"), tempDir.resolve("updates.old"),
+                tempDir.resolve("updates.json"), tempDir.resolve("updates.json.20240101-000000-000-0000"));
+        for (Path path : unrelated) {
+            Files.writeString(path, "keep\n");
+        }
+        LogFileSink.RotationPolicy rotation = LogFileSink.RotationPolicy.of(
+                10, 0, 1, LogFileSink.Compression.NONE);
+        LogFileSink sink = new LogFileSink(file, LogFileSink.FlushPolicy.everyUpdate(), rotation, 1024);
+        for (int i = 0; i < 3; i++) {
+            sink.write("payload-" + i + "\n");
+        }
+        sink.close();
+
+        List<Path> segments = sink.listSegments();
+        assertEquals(1, segments.size(), segments::toString);
+        assertEquals("payload-2\n", Files.readString(segments.get(0)));
+        for (Path path : unrelated) {
+            assertEquals("keep\n", Files.readString(path));
+        }
+    }
+
+    @Test
+    void quietSinkStillRollsAtTheIntervalBoundary() throws Exception {
+        Path file = tempDir.resolve("quiet.log");
+        LogFileSink.RotationPolicy rotation = LogFileSink.RotationPolicy.of(
+                0, 200, 0, LogFileSink.Compression.NONE);
+        try (LogFileSink sink = new LogFileSink(file, LogFileSink.FlushPolicy.onShutdown(), rotation, 1024)) {
+            sink.write("before\n");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (sink.listSegments().isEmpty()) {
+                assertTrue(System.nanoTime() < deadline, "no segment was closed");
+                Thread.sleep(20);
+            }
+            assertEquals("before\n", Files.readString(sink.listSegments().get(0)));
+            // Idle intervals leave no empty segments behind.
+            Thread.sleep(500);
+            assertEquals(1, sink.listSegments().size());
+            sink.write("after\n");
+        }
+        assertEquals("after\n", Files.readString(file));
+    }
+
+    @Test
+    void compressionParsesAliases() {
+        assertEquals(LogFileSink.Compression.NONE, LogFileSink.Compression.fromString(null));
+        assertEquals(LogFileSink.Compression.GZIP, LogFileSink.Compression.fromString("GZ"));
+        assertThrows(IllegalArgumentException.class, () -> LogFileSink.Compression.fromString("rar"));
+    }
+
+    private static String gunzip(Path path) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
+import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.generics.BotSession;
+import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
+
+class LongPollingEndToEndTest {
+
+    @Test
+    void defaultBotSessionReceivesEveryUpdateThroughTheFakeApi() throws Exception {
+        List<Update> fixtures = new SyntheticUpdates(3, 20).next(450);
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(fixtures.size());
+        UpdateMetrics metrics = new UpdateMetrics();
+
+        try (FakeBotApiServer api = new FakeBotApiServer(FakeBotApiServer.MAX_LIMIT, 0, 4)) {
+            api.enqueue(fixtures);
+            DefaultBotOptions options = new DefaultBotOptions();
+            options.setBaseUrl(api.baseUrl());
+            options.setGetUpdatesTimeout(1);
+            TelegramTriggerBot bot = new TelegramTriggerBot(options, "123:fake", "fake_bot", update -> {
+                received.add(update.getUpdateId());
+                done.countDown();
+            }, metrics);
+            BotSession session = new TelegramBotsApi(DefaultBotSession.class).registerBot(bot);
+            try {
+                assertTrue(done.await(30, TimeUnit.SECONDS), "received " + received.size());
+                long confirmed = fixtures.get(fixtures.size() - 1).getUpdateId() + 1L;
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (api.lastOffset() != confirmed && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertEquals(confirmed, api.lastOffset());
+            } finally {
+                session.stop();
+            }
+            assertTrue(api.injectedErrors() > 0);
+            assertEquals(FakeBotApiServer.MAX_LIMIT, api.largestBatch());
+        }
+
+        List<Integer> expected = new ArrayList<>();
+        for (Update update : fixtures) {
+            expected.add(update.getUpdateId());
+        }
+        assertEquals(expected, received);
+        assertEquals(fixtures.size(), metrics.updatesReceived());
+    }
+
+    @Test
+    void getUpdatesHonoursOffsetAndLimit() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        try (FakeBotApiServer api = new FakeBotApiServer(30, 0, 0)) {
+            api.enqueue(new SyntheticUpdates(5, 3).next(50));
+            URI uri = URI.create(api.baseUrl() + "123:fake/getupdates");
+
+            JsonNode first = mapper.readTree(post(client, uri, "{\"offset\":0,\"limit\":500}"));
+            assertTrue(first.path("ok").asBoolean());
+            assertEquals(30, first.path("result").size());
+            assertEquals(1, first.path("result").get(0).path("update_id").asInt());
+
+            JsonNode limited = mapper.readTree(post(client, uri, "{\"offset\":0,\"limit\":5}"));
+            assertEquals(5, limited.path("result").size());
+            assertEquals(1, limited.path("result").get(0).path("update_id").asInt());
+
+            JsonNode rest = mapper.readTree(post(client, uri, "{\"offset\":31,\"limit\":100}"));
+            assertEquals(20, rest.path("result").size());
+            assertEquals(31, rest.path("result").get(0).path("update_id").asInt());
+
+            JsonNode empty = mapper.readTree(post(client, uri, "{\"offset\":51,\"timeout\":0}"));
+            assertEquals(0, empty.path("result").size());
+            assertEquals(55, api.delivered());
+        }
+    }
+
+    private static String post(HttpClient client, URI uri, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+}
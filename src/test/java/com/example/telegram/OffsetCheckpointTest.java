@@ -0,0 +1,267 @@
+package com.example.telegram;
+
+import static com.example.telegram.TestUpdates.update;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class OffsetCheckpointTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void manyDeliveriesShareFewCommitsAndOnlyWrittenUpdatesBecomeDurable() throws Exception {
+        Path log = dir.resolve("updates.bin");
+        Path state = dir.resolve("offset.ckpt");
+        List<Update> updates = new SyntheticUpdates(7, 10).next(1000);
+        int last = updates.get(updates.size() - 1).getUpdateId();
+
+        UpdatePrinter printer = new UpdatePrinter(UpdatePrinter.Format.BINARY,
+                new LogFileSink(log, LogFileSink.FlushPolicy.onShutdown(), 4096));
+        AsyncUpdatePipeline pipeline = new AsyncUpdatePipeline(printer);
+        OffsetCheckpoint checkpoint = new OffsetCheckpoint(state, 20);
+        checkpoint.register(pipeline);
+        for (int i = 0; i < updates.size(); i += 10) {
+            for (Update update : updates.subList(i, i + 10)) {
+                pipeline.handle(update);
+            }
+            checkpoint.delivered(updates.get(i + 9).getUpdateId());
+        }
+        assertTrue(checkpoint.awaitDurable(last, 10, TimeUnit.SECONDS));
+        assertEquals(1000, pipeline.writtenCount());
+        long durableSize = Files.size(log);
+        assertTrue(checkpoint.commitCount() < 100, "commits " + checkpoint.commitCount());
+        pipeline.close();
+        checkpoint.close();
+        printer.close();
+        // Nothing was left in a buffer when the checkpoint vouched for the last update.
+        assertEquals(Files.size(log), durableSize);
+
+        try (OffsetCheckpoint reopened = new OffsetCheckpoint(state)) {
+            assertEquals(last, reopened.durableUpdateId());
+        }
+        Files.write(state, new byte[] {1, 2, 3});
+        assertThrows(IOException.class, () -> new OffsetCheckpoint(state));
+    }
+
+    @Test
+    void failedOrDroppedUpdatesHaltTheCheckpointBeforeThem() throws Exception {
+        Path state = dir.resolve("offset.ckpt");
+        UpdatePrinter failing = new UpdatePrinter(UpdatePrinter.Format.BINARY, (LogFileSink) null) {
+            @Override
+            public int printBatch(Update[] updates, long[] receivedAtNanos, long[] classifications, int count) {
+                for (int i = 0; i < count; i++) {
+                    if (updates[i].getUpdateId() == 15) {
+                        throw new IllegalStateException("disk full");
+                    }
+                }
+                return super.printBatch(updates, receivedAtNanos, classifications, count);
+            }
+        };
+        AsyncUpdatePipeline pipeline = new AsyncUpdatePipeline(failing, 64, 1,
+                AsyncUpdatePipeline.BackpressurePolicy.BLOCK);
+        try (OffsetCheckpoint checkpoint = new OffsetCheckpoint(state, 5)) {
+            checkpoint.register(pipeline);
+            for (int id = 1; id <= 30; id++) {
+                pipeline.handle(update(id));
+                if (id % 10 == 0) {
+                    checkpoint.delivered(id);
+                }
+            }
+            assertTrue(checkpoint.awaitDurable(10, 10, TimeUnit.SECONDS));
+            // Updates 16..30 are written, but 15 is not, so nothing after 10 may be confirmed.
+            assertFalse(checkpoint.awaitDurable(30, 10, TimeUnit.SECONDS));
+            pipeline.close();
+            assertEquals(29, pipeline.writtenCount());
+            assertEquals(10, checkpoint.durableUpdateId());
+            assertTrue(checkpoint.isHalted());
+        }
+
+        CountDownLatch release = new CountDownLatch(1);
+        UpdatePrinter stalled = new UpdatePrinter(UpdatePrinter.Format.BINARY, (LogFileSink) null) {
+            @Override
+            public int printBatch(Update[] updates, long[] receivedAtNanos, long[] classifications, int count) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.printBatch(updates, receivedAtNanos, classifications, count);
+            }
+        };
+        AsyncUpdatePipeline dropping = new AsyncUpdatePipeline(stalled, 1, 1,
+                AsyncUpdatePipeline.BackpressurePolicy.DROP_NEWEST);
+        try (OffsetCheckpoint checkpoint = new OffsetCheckpoint(state, 5)) {
+            checkpoint.register(dropping);
+            for (int id = 31; id <= 40; id++) {
+                dropping.handle(update(id));
+            }
+            checkpoint.delivered(40);
+            release.countDown();
+            assertFalse(checkpoint.awaitDurable(40, 10, TimeUnit.SECONDS));
+            assertTrue(dropping.droppedCount() > 0);
+            assertEquals(10, checkpoint.durableUpdateId());
+            dropping.close();
+        }
+        try (OffsetCheckpoint reopened = new OffsetCheckpoint(state)) {
+            assertEquals(10, reopened.durableUpdateId());
+        }
+    }
+
+    @Test
+    void restartedSessionResumesAfterTheCheckpointedOffset() throws Exception {
+        Path state = dir.resolve("offset.ckpt");
+        SyntheticUpdates source = new SyntheticUpdates(11, 5);
+        List<Update> first = source.next(300);
+        List<Update> second = source.next(120);
+
+        try (FakeBotApiServer api = new FakeBotApiServer(FakeBotApiServer.MAX_LIMIT, 0, 0)) {
+            api.enqueue(first);
+            assertEquals(ids(first), poll(api, state, first.size()));
+
+            // Everything comes back, as if Telegram had never been told; only the new updates are handled.
+            api.enqueue(first);
+            api.enqueue(second);
+            assertEquals(ids(second), poll(api, state, second.size()));
+        }
+        try (OffsetCheckpoint checkpoint = new OffsetCheckpoint(state)) {
+            assertEquals((long) second.get(second.size() - 1).getUpdateId(), checkpoint.durableUpdateId());
+        }
+    }
+
+    @Test
+    void anUpdateThatFailsInEveryRunIsSkippedAfterMaxAttempts() throws Exception {
+        Path state = dir.resolve("offset.ckpt");
+        List<Update> updates = new ArrayList<>();
+        for (int id = 1; id <= 30; id++) {
+            updates.add(update(id));
+        }
+        Set<Integer> written = ConcurrentHashMap.newKeySet();
+        int runs = 0;
+        try (FakeBotApiServer api = new FakeBotApiServer(FakeBotApiServer.MAX_LIMIT, 0, 0)) {
+            long durable = 0;
+            while (durable < 30 && runs < 10) {
+                runs++;
+                // Telegram keeps everything that was never confirmed.
+                api.enqueue(updates);
+                durable = pollUntilHalted(api, state, 15, written);
+            }
+        }
+        // The batched first run fails, two runs pin 15 on its own, the fourth skips it.
+        assertEquals(4, runs);
+        Set<Integer> expected = new HashSet<>(ids(updates));
+        expected.remove(15);
+        assertEquals(expected, written);
+        try (OffsetCheckpoint checkpoint = new OffsetCheckpoint(state)) {
+            assertEquals(30, checkpoint.durableUpdateId());
+            assertEquals(0, checkpoint.failedAttempts());
+        }
+    }
+
+    /**
+     * One run of a session whose writer always fails on {@code poison}, until the checkpoint halts or
+     * reaches update 30; returns the durable id it left behind.
+     */
+    private long pollUntilHalted(FakeBotApiServer api, Path state, int poison, Set<Integer> written)
+            throws Exception {
+        UpdateMetrics metrics = new UpdateMetrics();
+        UpdatePrinter printer = new UpdatePrinter(UpdatePrinter.Format.BINARY, (LogFileSink) null) {
+            @Override
+            public int printBatch(Update[] updates, long[] receivedAtNanos, long[] classifications, int count) {
+                for (int i = 0; i < count; i++) {
+                    if (updates[i].getUpdateId() == poison) {
+                        throw new IllegalStateException("cannot encode " + poison);
+                    }
+                }
+                for (int i = 0; i < count; i++) {
+                    written.add(updates[i].getUpdateId());
+                }
+                return super.printBatch(updates, receivedAtNanos, classifications, count);
+            }
+        };
+        AsyncUpdatePipeline pipeline = new AsyncUpdatePipeline(printer);
+        OffsetCheckpoint checkpoint = new OffsetCheckpoint(state, 5, 2);
+        checkpoint.register(pipeline);
+        DefaultBotOptions options = new DefaultBotOptions();
+        options.setBaseUrl(api.baseUrl());
+        TelegramTriggerBot bot = new TelegramTriggerBot(options, "123:fake", "fake_bot", pipeline, metrics);
+        CountDownLatch halted = new CountDownLatch(1);
+        AdaptivePollingSession session = AdaptivePollingSession.register(bot, "123:fake",
+                AdaptivePollingSession.Tuning.of(1, 10, 100), metrics, checkpoint, halted::countDown);
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (!halted.await(10, TimeUnit.MILLISECONDS)
+                    && !checkpoint.awaitDurable(30, 10, TimeUnit.MILLISECONDS)) {
+                assertTrue(System.nanoTime() < deadline, "neither halted nor done");
+            }
+        } finally {
+            session.stop();
+            pipeline.close();
+            checkpoint.close();
+            printer.close();
+        }
+        try (OffsetCheckpoint reopened = new OffsetCheckpoint(state)) {
+            return reopened.durableUpdateId();
+        }
+    }
+
+    /**
+     * Runs a session with a queued writer until {@code expected} updates have been handled, then shuts it
+     * down in launcher order.
+     */
+    private List<Integer> poll(FakeBotApiServer api, Path state, int expected) throws Exception {
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(expected);
+        UpdateMetrics metrics = new UpdateMetrics();
+        UpdatePrinter printer = new UpdatePrinter(UpdatePrinter.Format.BINARY,
+                new LogFileSink(dir.resolve("updates.bin")), metrics);
+        AsyncUpdatePipeline pipeline = new AsyncUpdatePipeline(printer);
+        OffsetCheckpoint checkpoint = new OffsetCheckpoint(state, 20);
+        checkpoint.register(pipeline);
+        DefaultBotOptions options = new DefaultBotOptions();
+        options.setBaseUrl(api.baseUrl());
+        TelegramTriggerBot bot = new TelegramTriggerBot(options, "123:fake", "fake_bot", update -> {
+            received.add(update.getUpdateId());
+            pipeline.handle(update);
+            done.countDown();
+        }, metrics);
+        AdaptivePollingSession session = AdaptivePollingSession.register(bot, "123:fake",
+                AdaptivePollingSession.Tuning.of(1, 10, 100), metrics, checkpoint);
+        try {
+            assertTrue(done.await(30, TimeUnit.SECONDS), "received " + received.size());
+            assertTrue(checkpoint.awaitDurable(received.get(received.size() - 1), 10, TimeUnit.SECONDS));
+        } finally {
+            session.stop();
+            pipeline.close();
+            checkpoint.close();
+            printer.close();
+        }
+        return received;
+    }
+
+    private static List<Integer> ids(List<Update> updates) {
+        List<Integer> ids = new ArrayList<>();
+        for (Update update : updates) {
+            ids.add(update.getUpdateId());
+        }
+        return ids;
+    }
+}
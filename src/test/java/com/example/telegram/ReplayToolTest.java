@@ -0,0 +1,77 @@
+package com.example.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class ReplayToolTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rateSchedulesSpaceUpdatesAsConfigured() {
+        ReplayTool.RateSchedule fixed = ReplayTool.RateSchedule.fromString("1000");
+        assertEquals(0, fixed.dueNanos(0));
+        assertEquals(1_000_000_000L, fixed.dueNanos(1000));
+
+        // 100 -> 300 rps over 10 s sends 2000 updates during the ramp, then 300 per second.
+        ReplayTool.RateSchedule ramp = ReplayTool.RateSchedule.fromString("ramp:100:300:10");
+        assertEquals(10_000_000_000L, ramp.dueNanos(2000), 1_000_000);
+        assertEquals(11_000_000_000L, ramp.dueNanos(2300), 1_000_000);
+        assertTrue(ramp.dueNanos(100) > ramp.dueNanos(99));
+
+        assertTrue(ReplayTool.RateSchedule.fromString("max").isUnlimited());
+        assertThrows(IllegalArgumentException.class, () -> ReplayTool.RateSchedule.fromString("ramp:1:2"));
+    }
+
+    @Test
+    void syntheticUpdatesCoverEveryTypeTheFormatterKnows() {
+        SyntheticUpdates synthetic = new SyntheticUpdates(7, 5);
+        UpdatePrinter printer = new UpdatePrinter();
+        for (UpdateType type : UpdateType.all()) {
+            Update update = synthetic.next(type);
+            assertEquals(1 << type.ordinal(), UpdateType.mask(update), type.name());
+            assertTrue(printer.describe(update).contains("[" + type.name() + "]"), type.name());
+        }
+    }
+
+    @Test
+    void replaysRecordedNdjsonThroughTheBot() throws IOException {
+        Path recorded = tempDir.resolve("recorded.ndjson");
+        List<Update> original = new SyntheticUpdates(1, 10).next(200);
+        UpdateMetrics metrics = new UpdateMetrics();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            try (UpdatePrinter recorder = new UpdatePrinter(UpdatePrinter.Format.JSON, recorded)) {
+                ReplayTool.run(original, original.size(), ReplayTool.RateSchedule.unlimited(),
+                        ReplayTool.Target.PRINTER, recorder, 1);
+            }
+            List<Update> replayed = ReplayTool.readNdjson(recorded);
+            assertEquals(original, replayed);
+
+            try (UpdatePrinter printer = new UpdatePrinter(UpdatePrinter.Format.JSON, (LogFileSink) null, metrics)) {
+                ReplayTool.Result result = ReplayTool.run(replayed, 1000, ReplayTool.RateSchedule.fixed(20_000),
+                        ReplayTool.Target.BOT, printer, 2);
+                assertEquals(1000, result.updates());
+                assertEquals(1000, result.latency().count());
+                assertFalse(result.describe().isEmpty());
+            }
+        } finally {
+            System.setOut(console);
+        }
+        assertEquals(1000, metrics.updatesReceived());
+        assertEquals(1000, metrics.endToEndLatency().count());
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class SinkRouterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void everyFormatReceivesEveryUpdateOnce() throws Exception {
+        Path text = tempDir.resolve("stdout.txt");
+        Path json = tempDir.resolve("updates.ndjson");
+        Path jsonStdout = tempDir.resolve("stdout.ndjson");
+        List<Update> updates = new SyntheticUpdates(7, 5).next(40);
+        UpdateMetrics metrics = new UpdateMetrics();
+        try (FileChannel textChannel = open(text); FileChannel jsonChannel = open(jsonStdout)) {
+            UpdatePrinter textPrinter = new UpdatePrinter(UpdatePrinter.Format.TEXT,
+                    new StdoutSink(textChannel, StdoutSink.FlushMode.BUFFERED, 4096, 50), null, new UpdateMetrics(),
+                    null, UpdatePrinter.DEFAULT_BATCH_BYTES, UpdatePrinter.DEFAULT_BATCH_MAX_NANOS);
+            UpdatePrinter jsonPrinter = new UpdatePrinter(UpdatePrinter.Format.JSON,
+                    new StdoutSink(jsonChannel, StdoutSink.FlushMode.BUFFERED, 4096, 50),
+                    new LogFileSink(json), new UpdateMetrics(), null,
+                    UpdatePrinter.DEFAULT_BATCH_BYTES, UpdatePrinter.DEFAULT_BATCH_MAX_NANOS);
+            SinkRouter router = new SinkRouter(List.of(textPrinter, jsonPrinter), 8, 4,
+                    AsyncUpdatePipeline.BackpressurePolicy.BLOCK);
+            router.registerMetrics(metrics);
+            try (OffsetCheckpoint checkpoint = new OffsetCheckpoint(tempDir.resolve("offset.ckpt"), 5)) {
+                router.registerStages(checkpoint);
+                for (Update update : updates) {
+                    router.handle(update);
+                }
+                long last = updates.get(updates.size() - 1).getUpdateId();
+                checkpoint.delivered(last);
+                // Durable only once every target of every route has written it.
+                assertTrue(checkpoint.awaitDurable(last, 10, TimeUnit.SECONDS));
+            }
+            router.close();
+            textPrinter.close();
+            jsonPrinter.close();
+
+            assertEquals(List.of("text", "json"), router.routes().stream().map(SinkRouter.Route::name).toList());
+            assertEquals(List.of("json_stdout", "json_file"),
+                    router.routes().get(1).targets().stream().map(SinkQueue::name).toList());
+            Map<String, Long> snapshot = metrics.snapshot();
+            assertEquals(40L, snapshot.get("telegram_sink_text_encoded_total"));
+            assertEquals(40L, snapshot.get("telegram_sink_json_encoded_total"));
+            for (String target : List.of("text_stdout", "json_stdout", "json_file")) {
+                assertEquals(40L, snapshot.get("telegram_sink_" + target + "_written_total"), target);
+                assertEquals(40L, snapshot.get("telegram_sink_" + target + "_write_count"), target);
+            }
+            // Each format keeps its own histogram.
+            assertEquals(40L, snapshot.get("telegram_sink_text_format_count"));
+            assertEquals(40L, snapshot.get("telegram_sink_json_format_count"));
+            assertTrue(metrics.toPrometheus().contains("telegram_sink_json_file_end_to_end_seconds_count 40"));
+        }
+        assertEquals(40, Files.readAllLines(json).size());
+        assertEquals(Files.readString(json), Files.readString(jsonStdout));
+        String stdout = Files.readString(text);
+        assertEquals(40, stdout.split("=== Update #", -1).length - 1);
+        assertThrows(IllegalArgumentException.class, () -> new SinkRouter(
+                List.of(new UpdatePrinter(UpdatePrinter.Format.JSON, (Path) null),
+                        new UpdatePrinter(UpdatePrinter.Format.JSON, (Path) null)),
+                8, 4, AsyncUpdatePipeline.BackpressurePolicy.BLOCK));
+    }
+
+    @Test
+    void slowTargetDropsWithoutHoldingBackTheOthersOfItsFormat() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        LogFileSink slowFile = new LogFileSink(tempDir.resolve("slow.log")) {
+            @Override
+            public void writeBatch(byte[] payload, int offset, int length, int updates) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.writeBatch(payload, offset, length, updates);
+            }
+        };
+        Path stdoutCopy = tempDir.resolve("stdout.txt");
+        try (FileChannel channel = open(stdoutCopy)) {
+            UpdatePrinter printer = new UpdatePrinter(UpdatePrinter.Format.TEXT,
+                    new StdoutSink(channel, StdoutSink.FlushMode.BUFFERED, 4096, 50), slowFile, new UpdateMetrics(),
+                    null, UpdatePrinter.DEFAULT_BATCH_BYTES, UpdatePrinter.DEFAULT_BATCH_MAX_NANOS);
+            SinkRouter router = new SinkRouter(List.of(printer), 16, 4,
+                    AsyncUpdatePipeline.BackpressurePolicy.DROP_NEWEST);
+            SinkQueue stdout = router.routes().get(0).targets().get(0);
+            SinkQueue file = router.routes().get(0).targets().get(1);
+            List<Update> updates = new SyntheticUpdates(11, 5).next(100);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            for (int i = 0; i < updates.size(); i++) {
+                router.handle(updates.get(i));
+                // Feed the route no quicker than stdout writes; the file never catches up.
+                while (stdout.writtenCount() < i + 1 && System.nanoTime() < deadline) {
+                    Thread.sleep(1);
+                }
+            }
+            assertEquals(100, stdout.writtenCount());
+            assertEquals(0, stdout.droppedCount());
+            assertTrue(file.droppedCount() > 0, "slow file should have dropped");
+
+            release.countDown();
+            router.close();
+            printer.close();
+            assertEquals(100, file.writtenCount() + file.droppedCount());
+        }
+        assertEquals(100, Files.readString(stdoutCopy).split("=== Update #", -1).length - 1);
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StdoutSinkTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void bufferedModeWritesOnlyAtFlushPointsAndKeepsOrder() throws IOException {
+        Path file = tempDir.resolve("stdout");
+        try (FileChannel channel = open(file)) {
+            StdoutSink sink = new StdoutSink(channel, StdoutSink.FlushMode.BUFFERED, 1024, 50);
+            write(sink, "first\n");
+            assertEquals("", Files.readString(file));
+            sink.flush();
+            assertEquals("first\n", Files.readString(file));
+
+            write(sink, "second\n");
+            String large = "ж".repeat(1000) + "\n";
+            write(sink, large);
+            assertEquals("first\nsecond\n" + large, Files.readString(file));
+
+            write(sink, "third\n");
+            sink.close();
+            assertEquals("first\nsecond\n" + large + "third\n", Files.readString(file));
+            assertThrows(IllegalArgumentException.class, () -> StdoutSink.FlushMode.fromString("sometimes"));
+        }
+    }
+
+    @Test
+    void alwaysFlushesEachWriteAndIdleFlushesOnceOutputGoesQuiet() throws Exception {
+        Path always = tempDir.resolve("always");
+        try (FileChannel channel = open(always);
+                StdoutSink sink = new StdoutSink(channel, StdoutSink.FlushMode.ALWAYS, 1024, 50)) {
+            write(sink, "now\n");
+            assertEquals("now\n", Files.readString(always));
+        }
+
+        Path idle = tempDir.resolve("idle");
+        try (FileChannel channel = open(idle);
+                StdoutSink sink = new StdoutSink(channel, StdoutSink.FlushMode.IDLE, 1024, 20)) {
+            write(sink, "later\n");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (Files.size(idle) == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals("later\n", Files.readString(idle));
+        }
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private static void write(StdoutSink sink, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        sink.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.telegram;
+
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
+
+/**
+ * Hand-built updates shared by the tests, for the cases where {@link SyntheticUpdates} is too random:
+ * a given update id, chat, sender or text.
+ */
+final class TestUpdates {
+
+    private TestUpdates() {
+    }
+
+    /**
+     * An update that carries nothing but its id, for stages that never look inside.
+     */
+    static Update update(int updateId) {
+        Update update = new Update();
+        update.setUpdateId(updateId);
+        return update;
+    }
+
+    /**
+     * A message in supergroup {@code chatId} whose message id is the update id.
+     */
+    static Update message(int updateId, long chatId) {
+        return message(updateId, chatId, null);
+    }
+
+    /**
+     * Like {@link #message(int, long)}, with {@code text} unless it is {@code null}.
+     */
+    static Update message(int updateId, long chatId, String text) {
+        Message message = new Message();
+        message.setMessageId(updateId);
+        message.setChat(new Chat(chatId, "supergroup"));
+        message.setDate(1_700_000_000 + updateId);
+        message.setText(text);
+        Update update = update(updateId);
+        update.setMessage(message);
+        return update;
+    }
+
+    /**
+     * Moves the message of the update to {@code edited_message}.
+     */
+    static Update edited(Update update) {
+        update.setEditedMessage(update.getMessage());
+        update.setMessage(null);
+        return update;
+    }
+
+    /**
+     * Sets the sender of the update's message or edited message.
+     */
+    static Update from(Update update, long userId) {
+        Message message = update.hasMessage() ? update.getMessage() : update.getEditedMessage();
+        message.setFrom(new User(userId, "u" + userId, false));
+        return update;
+    }
+}
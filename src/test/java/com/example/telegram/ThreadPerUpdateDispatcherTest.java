@@ -0,0 +1,93 @@
+package com.example.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class ThreadPerUpdateDispatcherTest {
+
+    @Test
+    void closeWaitsForEveryDispatchedUpdate() {
+        RecordingPrinter printer = new RecordingPrinter();
+        ThreadPerUpdateDispatcher dispatcher = new ThreadPerUpdateDispatcher(printer, 4, true);
+        for (int i = 1; i <= 200; i++) {
+            Update update = new Update();
+            update.setUpdateId(i);
+            dispatcher.handle(update);
+        }
+        dispatcher.close();
+
+        assertEquals(200, printer.seen.size());
+        assertEquals(200, dispatcher.dispatchedCount());
+        assertEquals(0, dispatcher.inFlight());
+        assertEquals(VirtualThreads.isSupported(), dispatcher.usesVirtualThreads());
+        assertEquals(VirtualThreads.isSupported(), printer.virtualThreadSeen);
+    }
+
+    @Test
+    void platformThreadsComeFromABoundedPool() {
+        RecordingPrinter printer = new RecordingPrinter();
+        ThreadPerUpdateDispatcher dispatcher = new ThreadPerUpdateDispatcher(printer, 10_000, false);
+        for (int i = 1; i <= 2000; i++) {
+            Update update = new Update();
+            update.setUpdateId(i);
+            dispatcher.handle(update);
+        }
+        dispatcher.close();
+
+        assertEquals(2000, printer.seen.size());
+        assertTrue(printer.threads.size() <= VirtualThreads.platformPoolSize(), printer.threads.toString());
+    }
+
+    @Test
+    void concurrentPrintsWriteWholeLines(@TempDir Path tempDir) throws IOException {
+        Path logFile = tempDir.resolve("updates.ndjson");
+        UpdatePrinter printer = new UpdatePrinter(UpdatePrinter.Format.JSON, new LogFileSink(logFile));
+        Set<String> expected = new HashSet<>();
+        ThreadPerUpdateDispatcher dispatcher = new ThreadPerUpdateDispatcher(printer, 8, false);
+        PrintStream originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int i = 1; i <= 100; i++) {
+                Update update = new Update();
+                update.setUpdateId(i);
+                expected.add(printer.toJson(update).strip());
+                dispatcher.handle(update);
+            }
+            dispatcher.close();
+        } finally {
+            System.setOut(originalOut);
+            printer.close();
+        }
+
+        assertFalse(dispatcher.usesVirtualThreads());
+        assertEquals(expected, new HashSet<>(Files.readAllLines(logFile)));
+    }
+
+    private static final class RecordingPrinter extends UpdatePrinter {
+        private final Set<Integer> seen = ConcurrentHashMap.newKeySet();
+        private final Set<String> threads = ConcurrentHashMap.newKeySet();
+        private volatile boolean virtualThreadSeen;
+
+        @Override
+        public void print(Update update, long receivedAtNanos, long classification) {
+            threads.add(Thread.currentThread().getName());
+            if (VirtualThreads.isVirtual(Thread.currentThread())) {
+                virtualThreadSeen = true;
+            }
+            seen.add(update.getUpdateId());
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.telegram;
+
+import static com.example.telegram.TestUpdates.message;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.ChatInviteLink;
+import org.telegram.telegrambots.meta.api.objects.ChatJoinRequest;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.polls.PollAnswer;
+import org.telegram.telegrambots.meta.api.objects.reactions.MessageReactionCountUpdated;
+import org.telegram.telegrambots.meta.api.objects.reactions.ReactionCount;
+
+class UpdateAggregatorTest {
+
+    private static final long MINUTE = 60_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void tumblingWindowSummarizesEachKindOfTrafficInOneRecord() throws Exception {
+        Path file = dir.resolve("aggregate.ndjson");
+        AtomicLong clock = new AtomicLong(100 * MINUTE);
+        List<Update> passed = new ArrayList<>();
+        UpdateAggregator aggregator = new UpdateAggregator(passed::add, UpdateAggregator.Window.tumbling(MINUTE),
+                null, new LogFileSink(file), clock::get, false);
+
+        int id = 1;
+        for (int i = 0; i < 1000; i++) {
+            aggregator.handle(message(id++, i % 4 == 0 ? -1L : -2L));
+        }
+        aggregator.handle(reactions(id++, -1L, 7, 3, 1));
+        aggregator.handle(reactions(id++, -1L, 7, 5, 2));
+        aggregator.handle(vote(id++, "poll-1", 0));
+        aggregator.handle(vote(id++, "poll-1", 0));
+        aggregator.handle(vote(id++, "poll-1", 2));
+        aggregator.handle(joinRequest(id++, -3L, "https://t.me/+abc"));
+        aggregator.handle(joinRequest(id++, -3L, "https://t.me/+abc"));
+        aggregator.handle(joinRequest(id++, -3L, null));
+        clock.addAndGet(MINUTE);
+        aggregator.tick();
+        aggregator.handle(message(id++, -1L));
+        clock.addAndGet(MINUTE / 2);
+        aggregator.close();
+
+        assertEquals(id - 1, passed.size());
+        List<JsonNode> records = read(file);
+        assertEquals(2, records.size());
+        JsonNode first = records.get(0);
+        assertEquals(100 * MINUTE, first.get("window_start_ms").asLong());
+        assertEquals(101 * MINUTE, first.get("window_end_ms").asLong());
+        assertEquals(1008, first.get("updates").asLong());
+        assertEquals(1000, first.get("types").get("message").asLong());
+        assertEquals(3, first.get("types").get("poll_answer").asLong());
+        assertEquals(250, count(first.get("chats"), "chat_id", -1, "messages"));
+        assertEquals(750, count(first.get("chats"), "chat_id", -2, "messages"));
+        assertEquals(1, first.get("reactions").size());
+        assertEquals(7, first.get("reactions").get(0).get("total").asLong());
+        assertEquals(2, count(first.get("poll_votes"), "option_id", 0, "votes"));
+        assertEquals(1, count(first.get("poll_votes"), "option_id", 2, "votes"));
+        assertEquals(2, first.get("join_requests").size());
+        for (JsonNode row : first.get("join_requests")) {
+            assertEquals(row.get("invite_link").isNull() ? 1 : 2, row.get("requests").asLong(), row.toString());
+        }
+
+        JsonNode last = records.get(1);
+        assertEquals(1, last.get("updates").asLong());
+        assertEquals(101 * MINUTE + MINUTE / 2, last.get("window_end_ms").asLong());
+    }
+
+    @Test
+    void slidingWindowMergesRecentStepsAndSkipsEmptyWindowsAfterAGap() throws Exception {
+        Path file = dir.resolve("aggregate.ndjson");
+        AtomicLong clock = new AtomicLong(50_000);
+        UpdateAggregator aggregator = new UpdateAggregator(null, UpdateAggregator.Window.sliding(3000, 1000),
+                null, new LogFileSink(file), clock::get, false);
+
+        int id = 1;
+        for (int step = 0; step < 3; step++) {
+            // Many distinct chats make the per-pane counters grow.
+            for (int i = 0; i < (step + 1) * 2000; i++) {
+                aggregator.handle(message(id++, -1000L - i));
+            }
+            clock.addAndGet(1000);
+            aggregator.tick();
+        }
+        clock.addAndGet(1000);
+        aggregator.tick();
+        clock.addAndGet(100_000);
+        aggregator.tick();
+        aggregator.close();
+
+        List<Long> updates = new ArrayList<>();
+        for (JsonNode record : read(file)) {
+            updates.add(record.get("updates").asLong());
+        }
+        // 3 windows while filling, 1 after the first step slid out, then 3 while the gap drains the ring.
+        assertEquals(List.of(2000L, 6000L, 12000L, 10000L, 6000L, 0L, 0L), updates);
+        JsonNode full = read(file).get(2);
+        assertEquals(6000, full.get("chats").size());
+        assertEquals(3, count(full.get("chats"), "chat_id", -1000, "messages"));
+
+        assertThrows(IllegalArgumentException.class, () -> UpdateAggregator.Window.sliding(3000, 700));
+        assertTrue(UpdateAggregator.Window.tumbling(MINUTE).isTumbling());
+    }
+
+    @Test
+    void failedSummaryWriteStillCountsAndForwardsTheUpdate() throws Exception {
+        AtomicLong clock = new AtomicLong(100 * MINUTE);
+        List<Update> passed = new ArrayList<>();
+        LogFileSink broken = new LogFileSink(dir.resolve("aggregate.ndjson"));
+        broken.close();
+        UpdateAggregator aggregator = new UpdateAggregator(passed::add, UpdateAggregator.Window.tumbling(MINUTE),
+                null, broken, clock::get, false);
+
+        aggregator.handle(message(1, -1L));
+        clock.addAndGet(MINUTE);
+        // Rolls the window from handle(), where the summary write fails.
+        aggregator.handle(message(2, -1L));
+        clock.addAndGet(MINUTE);
+        aggregator.tick();
+        aggregator.close();
+
+        assertEquals(2, passed.size());
+        assertEquals(2, aggregator.aggregatedCount());
+        assertEquals(0, aggregator.summaryCount());
+        assertEquals(2, aggregator.failedSummaryCount());
+    }
+
+    private static List<JsonNode> read(Path file) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        List<JsonNode> records = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            records.add(mapper.readTree(line));
+        }
+        return records;
+    }
+
+    private static long count(JsonNode rows, String key, long keyValue, String field) {
+        for (JsonNode row : rows) {
+            if (row.get(key).asLong() == keyValue) {
+                return row.get(field).asLong();
+            }
+        }
+        return 0;
+    }
+
+    private static Update reactions(int updateId, long chatId, int messageId, int... counts) {
+        List<ReactionCount> reactions = new ArrayList<>();
+        for (int count : counts) {
+            ReactionCount reaction = new ReactionCount();
+            reaction.setTotalCount(count);
+            reactions.add(reaction);
+        }
+        MessageReactionCountUpdated updated = new MessageReactionCountUpdated();
+        updated.setChat(new Chat(chatId, "supergroup"));
+        updated.setMessageId(messageId);
+        updated.setReactions(reactions);
+        Update update = new Update();
+        update.setUpdateId(updateId);
+        update.setMessageReactionCount(updated);
+        return update;
+    }
+
+    private static Update vote(int updateId, String pollId, int option) {
+        PollAnswer answer = new PollAnswer();
+        answer.setPollId(pollId);
+        answer.setOptionIds(List.of(option));
+        Update update = new Update();
+        update.setUpdateId(updateId);
+        update.setPollAnswer(answer);
+        return update;
+    }
+
+    private static Update joinRequest(int updateId, long chatId, String link) {
+        ChatJoinRequest request = new ChatJoinRequest();
+        request.setChat(new Chat(chatId, "supergroup"));
+        if (link != null) {
+            ChatInviteLink inviteLink = new ChatInviteLink();
+            inviteLink.setInviteLink(link);
+            request.setInviteLink(inviteLink);
+        }
+        Update update = new Update();
+        update.setUpdateId(updateId);
+        update.setChatJoinRequest(request);
+        return update;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.PhotoSize;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.polls.PollAnswer;
+import org.telegram.telegrambots.meta.api.objects.stickers.Sticker;
+
+class UpdateClassificationTest {
+
+    @Test
+    void maskMatchesEveryTypeGetter() {
+        for (Update update : new SyntheticUpdates(5, 8).next(2000)) {
+            long classification = UpdateClassification.of(update);
+            int expected = 0;
+            for (UpdateType type : UpdateType.all()) {
+                if (type.isPresent(update)) {
+                    expected |= 1 << type.ordinal();
+                }
+                assertEquals(type.isPresent(update), UpdateClassification.has(classification, type));
+            }
+            assertEquals(expected, UpdateType.mask(update));
+            assertEquals(expected, UpdateClassification.types(classification));
+        }
+        long empty = UpdateClassification.of(new Update());
+        assertEquals(0, UpdateClassification.types(empty));
+        assertNull(UpdateClassification.primaryType(empty));
+        assertEquals(MessageContent.NONE, UpdateClassification.content(empty));
+    }
+
+    @Test
+    void contentIsClassifiedOnceAndRenderedForEverySectionPresent() {
+        Message photo = message(1);
+        PhotoSize size = new PhotoSize();
+        size.setFileId("p");
+        photo.setPhoto(List.of(size));
+        Message sticker = message(2);
+        sticker.setSticker(new Sticker());
+        Update update = new Update();
+        update.setUpdateId(77);
+        update.setEditedMessage(sticker);
+        update.setChannelPost(photo);
+
+        long classification = UpdateClassification.of(update);
+        assertEquals(UpdateType.EDITED_MESSAGE, UpdateClassification.primaryType(classification));
+        assertEquals(MessageContent.STICKER, UpdateClassification.content(classification));
+
+        String text = new UpdatePrinter().describe(update);
+        int edited = text.indexOf("[EDITED_MESSAGE] id=2");
+        int post = text.indexOf("[CHANNEL_POST] id=1");
+        assertTrue(edited > 0 && post > edited, text);
+        assertTrue(text.contains("type=sticker") && text.contains("type=photo"), text);
+        assertTrue(new UpdatePrinter().describe(new Update()).contains("No recognized payloads"));
+    }
+
+    @Test
+    void classificationIsComputedOnceAndPassedDownTheChain() {
+        AtomicInteger passes = new AtomicInteger();
+        Update update = new Update() {
+            @Override
+            public PollAnswer getPollAnswer() {
+                passes.incrementAndGet();
+                return super.getPollAnswer();
+            }
+        };
+        update.setUpdateId(5);
+        update.setMessage(message(3));
+
+        List<Long> received = new ArrayList<>();
+        UpdateHandler last = new UpdateHandler() {
+            @Override
+            public void handle(Update update) {
+                throw new AssertionError("classification was dropped");
+            }
+
+            @Override
+            public void handle(Update update, long classification) {
+                received.add(classification);
+            }
+        };
+        UpdateSampler sampler = new UpdateSampler(last, UpdateSampler.Rules.keepAll(), line -> { }, 60_000);
+        UpdateFilter filter = new UpdateFilter(sampler,
+                UpdateFilter.Rules.acceptAll().withTypes(EnumSet.of(UpdateType.MESSAGE)));
+        new TelegramTriggerBot("123:fake", "fake_bot", filter).onUpdateReceived(update);
+
+        assertEquals(1, passes.get());
+        assertEquals(List.of(UpdateClassification.of(update)), received);
+    }
+
+    private static Message message(int id) {
+        Message message = new Message();
+        message.setMessageId(id);
+        message.setChat(new Chat(-1L, "channel"));
+        return message;
+    }
+}
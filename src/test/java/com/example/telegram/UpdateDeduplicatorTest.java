@@ -0,0 +1,96 @@
+package com.example.telegram;
+
+import static com.example.telegram.TestUpdates.edited;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class UpdateDeduplicatorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void recentIdSetEvictsOldestByCapacityAndAge() {
+        RecentIdSet set = new RecentIdSet(64, 1_000);
+        LinkedHashSet<Long> model = new LinkedHashSet<>();
+        SplittableRandom random = new SplittableRandom(11);
+        for (int i = 0; i < 20_000; i++) {
+            // A small key range forces collisions, repeats and long probe chains through eviction.
+            long key = random.nextLong(200) * 1024;
+            boolean added = set.add(key, 0);
+            assertEquals(!model.contains(key), added);
+            if (added) {
+                model.add(key);
+                if (model.size() > 64) {
+                    model.remove(model.iterator().next());
+                }
+            }
+            assertEquals(model.size(), set.size());
+        }
+        for (long key = 0; key < 200 * 1024; key += 1024) {
+            assertEquals(model.contains(key), set.contains(key));
+        }
+
+        set.expire(1_000);
+        assertEquals(64, set.size());
+        assertTrue(set.add(Long.MIN_VALUE, 1_500));
+        set.expire(1_001);
+        assertEquals(1, set.size());
+        assertTrue(set.contains(Long.MIN_VALUE));
+    }
+
+    @Test
+    void dropsRedeliveriesAndRemembersThemAcrossRestarts() {
+        Path snapshot = tempDir.resolve("dedup.bin");
+        List<Integer> passed = new ArrayList<>();
+
+        UpdateDeduplicator first = new UpdateDeduplicator(update -> passed.add(update.getUpdateId()),
+                1024, UpdateDeduplicator.DEFAULT_MAX_AGE_MILLIS, snapshot);
+        first.handle(message(1, 42, null));
+        first.handle(message(1, 42, null));
+        first.handle(message(2, 42, null));
+        first.handle(message(3, 42, 1_700_000_100));
+        first.handle(message(4, 43, null));
+        first.close();
+
+        assertEquals(List.of(1, 3, 4), passed);
+        assertEquals(1, first.duplicateIdCount());
+        assertEquals(1, first.duplicateMessageCount());
+
+        UpdateDeduplicator second = new UpdateDeduplicator(update -> passed.add(update.getUpdateId()),
+                1024, UpdateDeduplicator.DEFAULT_MAX_AGE_MILLIS, snapshot);
+        second.handle(message(4, 43, null));
+        second.handle(message(5, 42, 1_700_000_100));
+        second.handle(message(6, 42, 1_700_000_200));
+        Update withoutChatId = message(7, 44, null);
+        withoutChatId.getMessage().setChat(new Chat());
+        assertEquals(ChatKeys.NO_MESSAGE, ChatKeys.messageKey(withoutChatId));
+        second.handle(withoutChatId);
+        second.close();
+
+        assertEquals(List.of(1, 3, 4, 6, 7), passed);
+        assertEquals(5, second.rememberedUpdateIds());
+        assertFalse(tempDir.resolve("dedup.bin.partial").toFile().exists());
+    }
+
+    private static Update message(int updateId, int messageId, Integer editDate) {
+        Update update = TestUpdates.message(updateId, -100500L);
+        update.getMessage().setMessageId(messageId);
+        if (editDate == null) {
+            return update;
+        }
+        update.getMessage().setEditDate(editDate);
+        return edited(update);
+    }
+}
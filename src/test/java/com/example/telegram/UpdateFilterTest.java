@@ -0,0 +1,74 @@
+package com.example.telegram;
+
+import static com.example.telegram.TestUpdates.edited;
+import static com.example.telegram.TestUpdates.from;
+import static com.example.telegram.TestUpdates.message;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class UpdateFilterTest {
+
+    @Test
+    void typeChatAndUserRulesAllMustAccept() {
+        List<Update> passed = new ArrayList<>();
+        UpdateFilter filter = new UpdateFilter(passed::add, UpdateFilter.Rules.acceptAll()
+                .withTypes(List.of(UpdateType.MESSAGE, UpdateType.EDITED_MESSAGE))
+                .withChats(new long[] {-100L, -200L}, new long[0])
+                .withUsers(new long[0], new long[] {666L}));
+
+        filter.handle(from(message(1, -100L, "hello"), 1L));
+        filter.handle(from(message(2, -300L, "wrong chat"), 1L));
+        filter.handle(edited(from(message(3, -200L, "blocked user"), 666L)));
+        filter.handle(edited(from(message(4, -200L, "edited"), 2L)));
+        filter.handle(new SyntheticUpdates(1, 1).next(UpdateType.CALLBACK_QUERY));
+
+        assertEquals(List.of(1, 4), ids(passed));
+        assertEquals(2, filter.passedCount());
+        assertEquals(3, filter.rejectedCount());
+    }
+
+    @Test
+    void textRulesMatchTextOrCaption() {
+        UpdateFilter filter = new UpdateFilter(update -> { }, UpdateFilter.Rules.acceptAll()
+                .withTextContaining("ORDER")
+                .withTextMatching(Pattern.compile("#\\d+")));
+
+        assertTrue(filter.accepts(from(message(1, 1L, "new order #42"), 1L)));
+        Update captioned = from(message(2, 1L, null), 1L);
+        captioned.getMessage().setCaption("Order #7 photo");
+        assertTrue(filter.accepts(captioned));
+        assertFalse(filter.accepts(from(message(3, 1L, "order without number"), 1L)));
+        assertFalse(filter.accepts(from(message(4, 1L, null), 1L)));
+        assertFalse(filter.accepts(new SyntheticUpdates(1, 1).next(UpdateType.POLL)));
+    }
+
+    @Test
+    void typeNamesMapToAllowedUpdates() {
+        assertEquals(UpdateType.CALLBACK_QUERY, UpdateType.fromString("callback_query"));
+        assertEquals(UpdateType.MESSAGE_REACTION_COUNT, UpdateType.fromString(" message-reaction-count "));
+        assertThrows(IllegalArgumentException.class, () -> UpdateType.fromString("photo"));
+
+        UpdateFilter.Rules rules = UpdateFilter.Rules.acceptAll()
+                .withTypes(List.of(UpdateType.CHAT_MEMBER, UpdateType.MESSAGE));
+        assertEquals(List.of("message", "chat_member"), rules.allowedUpdates());
+        assertTrue(UpdateFilter.Rules.acceptAll().allowedUpdates().isEmpty());
+        assertTrue(UpdateFilter.Rules.acceptAll().withTextContaining("").acceptsEverything());
+        assertFalse(rules.acceptsEverything());
+    }
+
+    private static List<Integer> ids(List<Update> updates) {
+        List<Integer> ids = new ArrayList<>();
+        for (Update update : updates) {
+            ids.add(update.getUpdateId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.telegram;
+
+import static com.example.telegram.TestUpdates.message;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class UpdateJournalTest {
+
+    private static final int SEGMENT_BYTES = 64 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private final BinaryUpdateEncoder encoder = new BinaryUpdateEncoder(UpdatePrinter.newObjectMapper().writer());
+
+    @Test
+    void findsUpdatesAndChatHistoryAcrossSegmentsAndReopen() throws IOException {
+        try (UpdateJournal journal = new UpdateJournal(tempDir, SEGMENT_BYTES, 8)) {
+            // Slightly out of order, as parallel lanes would append them.
+            for (int i = 1; i <= 2000; i++) {
+                int updateId = i % 2 == 0 ? i - 1 : i + 1;
+                append(journal, message(updateId, -100L - updateId % 3, "text #" + updateId));
+            }
+            assertTrue(segmentFiles().size() > 1);
+            assertEquals(2000, journal.recordCount());
+            assertEquals(1234, journal.find(1234).updateId());
+            assertTrue(journal.find(1234).toJson().contains("\"text #1234\""));
+            assertNull(journal.find(5000));
+        }
+
+        try (UpdateJournal reopened = UpdateJournal.openReadOnly(tempDir)) {
+            assertEquals(2000, reopened.recordCount());
+            assertEquals(7, reopened.find(7).updateId());
+            List<BinaryRecord> history = reopened.chatHistory(-101L);
+            assertEquals(667, history.size());
+            for (BinaryRecord record : history) {
+                assertEquals(-101L, record.chatId());
+            }
+        }
+    }
+
+    @Test
+    void retentionDeletesTheOldestSegmentsAndTheirIndexEntries() throws IOException {
+        try (UpdateJournal journal = new UpdateJournal(tempDir, SEGMENT_BYTES, 8, 2)) {
+            for (int i = 1; i <= 3000; i++) {
+                append(journal, message(i, -100L - i % 3, "text #" + i));
+            }
+            assertTrue(journal.deletedSegmentCount() > 0);
+            assertEquals(3, segmentFiles().size());
+            long kept = journal.recordCount();
+            assertTrue(kept < 3000);
+            assertNull(journal.find(1));
+            assertEquals(3000, journal.find(3000).updateId());
+            long oldest = 3000 - kept + 1;
+            assertEquals(oldest, journal.find(oldest).updateId());
+            assertNull(journal.find(oldest - 1));
+            int history = 0;
+            for (long chat = -100L; chat >= -102L; chat--) {
+                history += journal.chatHistory(chat).size();
+            }
+            assertEquals(kept, history);
+        }
+
+        // Reopening with a lower limit deletes before scanning.
+        try (UpdateJournal journal = new UpdateJournal(tempDir, SEGMENT_BYTES, 8, 1)) {
+            assertEquals(2, segmentFiles().size());
+            assertEquals(1, journal.deletedSegmentCount());
+            assertEquals(3000, journal.find(3000).updateId());
+        }
+    }
+
+    @Test
+    void reopenCutsOffATornTailRecord() throws IOException {
+        try (UpdateJournal journal = new UpdateJournal(tempDir, SEGMENT_BYTES, 4)) {
+            for (int i = 1; i <= 10; i++) {
+                append(journal, message(i, -1L, "hello"));
+            }
+        }
+        // Simulate a crash halfway through writing record 10: corrupt its last bytes.
+        Path segment = segmentFiles().get(0);
+        long end;
+        try (UpdateJournal journal = UpdateJournal.openReadOnly(tempDir)) {
+            assertEquals(10, journal.recordCount());
+            end = locateEnd(segment);
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 0, 0, 0}), end - 6);
+        }
+
+        try (UpdateJournal journal = new UpdateJournal(tempDir, SEGMENT_BYTES, 4)) {
+            assertEquals(9, journal.recordCount());
+            assertTrue(journal.truncatedBytes() > 0);
+            assertNull(journal.find(10));
+            append(journal, message(11, -1L, "after crash"));
+        }
+        try (UpdateJournal journal = UpdateJournal.openReadOnly(tempDir)) {
+            assertEquals(10, journal.recordCount());
+            assertEquals(11, journal.find(11).updateId());
+        }
+    }
+
+    private void append(UpdateJournal journal, Update update) throws IOException {
+        PayloadBuffer record = encoder.encode(update, UpdateClassification.of(update));
+        journal.append(record.array(), 0, record.size());
+    }
+
+    /**
+     * Offset just past the last non-zero byte, i.e. the end of the last record's CRC trailer.
+     */
+    private static long locateEnd(Path segment) throws IOException {
+        byte[] bytes = Files.readAllBytes(segment);
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] == 0) {
+            end--;
+        }
+        return end;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class UpdateMetricsTest {
+
+    @Test
+    void histogramPercentilesStayWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1_000);
+        }
+
+        assertEquals(100_000, histogram.count());
+        assertEquals(100_000_000L, histogram.maxNanos());
+        assertWithin(50_000_000L, histogram.percentileNanos(50), 0.07);
+        assertWithin(99_000_000L, histogram.percentileNanos(99), 0.07);
+        assertEquals(0, new LatencyHistogram().percentileNanos(99));
+    }
+
+    @Test
+    void bucketBoundsRoundTrip() {
+        for (long value : new long[] {0, 1, 15, 16, 17, 31, 32, 33, 1_000, 123_456_789L}) {
+            long lower = LatencyHistogram.bucketLowerBound(LatencyHistogram.bucketIndex(value));
+            assertTrue(lower <= value && value - lower <= Math.max(1, value / 16), () -> value + " -> " + lower);
+        }
+    }
+
+    @Test
+    void countsSectionsAndServesPrometheusText() throws IOException {
+        UpdateMetrics metrics = new UpdateMetrics();
+        Update update = new Update();
+        update.setUpdateId(1);
+        update.setMessage(new Message());
+        update.setCallbackQuery(new CallbackQuery());
+        metrics.recordReceived(update);
+        metrics.recordReceived(new Update());
+        metrics.registerGauge("telegram_test_gauge", "Test gauge.", false, () -> 42);
+
+        UpdatePrinter printer = new UpdatePrinter(UpdatePrinter.Format.TEXT, null, metrics);
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            printer.print(update);
+        } finally {
+            System.setOut(original);
+        }
+
+        assertEquals(2, metrics.updatesReceived());
+        assertEquals(1, metrics.updates(UpdateType.MESSAGE));
+        assertEquals(1, metrics.updates(UpdateType.CALLBACK_QUERY));
+        assertEquals(0, metrics.updates(UpdateType.POLL));
+        assertEquals(1, metrics.formatLatency().count());
+        assertEquals(1, metrics.snapshot().get("updates_without_payload_total"));
+
+        try (MetricsHttpServer server = new MetricsHttpServer(metrics, 0)) {
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://127.0.0.1:" + server.getPort() + "/metrics").openConnection();
+            String body;
+            try (InputStream in = connection.getInputStream()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(body.contains("telegram_updates_total{type=\"MESSAGE\"} 1\n"), body);
+            assertTrue(body.contains("telegram_update_format_seconds_count 1\n"), body);
+            assertTrue(body.contains("telegram_test_gauge 42\n"), body);
+        }
+    }
+
+    private static void assertWithin(long expected, long actual, double tolerance) {
+        assertTrue(Math.abs(actual - expected) <= expected * tolerance, () -> expected + " vs " + actual);
+    }
+}
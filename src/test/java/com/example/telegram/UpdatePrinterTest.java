@@ -1,12 +1,17 @@
 package com.example.telegram;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
@@ -21,6 +26,7 @@ import org.telegram.telegrambots.meta.api.objects.ChatJoinRequest;
 import org.telegram.telegrambots.meta.api.objects.ChatMemberUpdated;
 import org.telegram.telegrambots.meta.api.objects.Location;
 import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.PhotoSize;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.User;
 import org.telegram.telegrambots.meta.api.objects.boost.ChatBoost;
@@ -91,6 +97,7 @@ class UpdatePrinterTest {
         assertEquals(UpdatePrinter.Format.TEXT, UpdatePrinter.Format.fromString("TEXT"));
         assertEquals(UpdatePrinter.Format.JSON, UpdatePrinter.Format.fromString("json"));
         assertEquals(UpdatePrinter.Format.JSON, UpdatePrinter.Format.fromString("NdJsOn"));
+        assertEquals(UpdatePrinter.Format.BINARY, UpdatePrinter.Format.fromString("binary"));
         assertThrows(IllegalArgumentException.class, () -> UpdatePrinter.Format.fromString("xml"));
     }
 
@@ -117,6 +124,193 @@ class UpdatePrinterTest {
         assertEquals(stdout, fileContent);
     }
 
+    @Test
+    void printEncodesTextAsUtf8IntoFile() throws IOException {
+        Path logFile = tempDir.resolve("updates.log");
+        UpdatePrinter textPrinter = new UpdatePrinter(UpdatePrinter.Format.TEXT, logFile);
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            textPrinter.print(buildFullUpdate());
+            textPrinter.print(buildEdgeCaseUpdate());
+            textPrinter.print(null);
+        } finally {
+            System.setOut(original);
+        }
+
+        String expected = printer.describe(buildFullUpdate())
+                + printer.describe(buildEdgeCaseUpdate())
+                + printer.describe(null);
+        assertEquals(expected, Files.readString(logFile));
+    }
+
+    @Test
+    void streamingJsonMatchesObjectMapperOutput() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        UpdatePrinter jsonPrinter = new UpdatePrinter(UpdatePrinter.Format.JSON, (Path) null);
+        Update full = buildFullUpdate();
+        Update empty = new Update();
+        empty.setUpdateId(5);
+
+        assertEquals(mapper.writeValueAsString(full) + System.lineSeparator(), jsonPrinter.toJson(full));
+        assertEquals(mapper.writeValueAsString(empty) + System.lineSeparator(), jsonPrinter.toJson(empty));
+    }
+
+    @Test
+    void printBatchWritesTheSameBytesAsPrintingOneByOne() throws IOException {
+        List<Update> updates = new SyntheticUpdates(9, 4).next(300);
+        Update[] batch = updates.toArray(new Update[0]);
+        long[] receivedAt = new long[batch.length];
+        Arrays.fill(receivedAt, System.nanoTime());
+        Path singleFile = tempDir.resolve("single.ndjson");
+        Path batchFile = tempDir.resolve("batch.ndjson");
+        UpdateMetrics metrics = new UpdateMetrics();
+        UpdatePrinter single = new UpdatePrinter(UpdatePrinter.Format.JSON, singleFile);
+        // A small byte budget splits the batch into several writes, the large file payloads bypass the buffer.
+        UpdatePrinter batched = new UpdatePrinter(UpdatePrinter.Format.JSON,
+                new LogFileSink(batchFile, LogFileSink.FlushPolicy.everyUpdate(), 1024), metrics, null, 16 * 1024, 0);
+
+        ByteArrayOutputStream singleOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream batchOut = new ByteArrayOutputStream();
+        PrintStream original = System.out;
+        try {
+            System.setOut(new PrintStream(singleOut));
+            for (Update update : updates) {
+                single.print(update);
+            }
+            System.setOut(new PrintStream(batchOut));
+            assertEquals(batch.length, batched.printBatch(batch, receivedAt, batch.length));
+        } finally {
+            System.setOut(original);
+            single.close();
+            batched.close();
+        }
+
+        assertEquals(singleOut.toString(StandardCharsets.UTF_8), batchOut.toString(StandardCharsets.UTF_8));
+        assertEquals(Files.readString(singleFile), Files.readString(batchFile));
+        assertEquals(batch.length, metrics.writeLatency().count());
+        assertEquals(batch.length, metrics.endToEndLatency().count());
+    }
+
+    @Test
+    void binaryRecordsDecodeBackToTheSameNdjson() throws IOException {
+        Path logFile = tempDir.resolve("updates.bin");
+        UpdatePrinter binaryPrinter = new UpdatePrinter(UpdatePrinter.Format.BINARY, logFile);
+        UpdatePrinter jsonPrinter = new UpdatePrinter(UpdatePrinter.Format.JSON, (Path) null);
+        List<Update> updates = List.of(buildFullUpdate(), buildEdgeCaseUpdate(), new Update());
+
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(capture));
+        try {
+            for (Update update : updates) {
+                binaryPrinter.print(update);
+            }
+        } finally {
+            System.setOut(original);
+            binaryPrinter.close();
+        }
+
+        assertEquals(0, capture.size());
+        long ndjsonBytes = 0;
+        try (BinaryRecordReader reader = BinaryRecordReader.open(logFile)) {
+            for (Update update : updates) {
+                String json = jsonPrinter.toJson(update);
+                ndjsonBytes += json.getBytes(StandardCharsets.UTF_8).length;
+                BinaryRecord record = reader.next();
+                assertEquals(json.strip(), record.toJson());
+                assertEquals(update.getUpdateId() == null ? -1 : update.getUpdateId(), record.updateId());
+                assertEquals(UpdateType.mask(update), record.typeMask());
+                assertEquals(ChatKeys.routingKey(update), record.chatId());
+            }
+            assertNull(reader.next());
+        }
+        assertTrue(Files.size(logFile) < ndjsonBytes);
+    }
+
+    @Test
+    void describeRendersEveryFieldExactly() {
+        String expected = String.join("\n",
+                "=== Update #777 ===",
+                "[MESSAGE] id=10, chat=Chat 10(id=110,type=supergroup), from=@user10(id=1010), text=\"Hello world\"",
+                "[EDITED_MESSAGE] id=11, chat=Chat 11(id=111,type=supergroup), from=@user11(id=1011), text=\"Edited\"",
+                "[CHANNEL_POST] id=12, chat=Chat 12(id=112,type=supergroup), from=@user12(id=1012), text=\"Channel post\"",
+                "[EDITED_CHANNEL_POST] id=13, chat=Chat 13(id=113,type=supergroup), from=@user13(id=1013), text=\"Edited channel\"",
+                "[INLINE_QUERY] id=inline-1, from=@inline(id=2000), query=\"search term\", offset=5, chatType=private, location=(55.75,37.61)",
+                "[CHOSEN_INLINE_RESULT] resultId=result-1, from=@chooser(id=2001), query=\"search term\", inlineMessageId=inline-msg-1, location=(40.71,-74.0)",
+                "[CALLBACK_QUERY] id=cb-1, from=@callback(id=2002), chatInstance=chat-instance, data=data, gameShortName=unknown",
+                "[SHIPPING_QUERY] id=ship-1, from=@shipper(id=2003), invoicePayload=payload, address=RU, Moscow, Moscow, Tverskaya 1 Apt 1, 101000",
+                "[PRE_CHECKOUT_QUERY] id=pre-1, from=@buyer(id=2004), totalAmount=1000 RUB, invoicePayload=payload, shippingOptionId=option-1, orderInfo={name=Ivan, phone=+7000000000, email=ivan@example.com, address=RU, Moscow, Moscow, Tverskaya 1 Apt 1, 101000}",
+                "[POLL] id=poll-1, question=\"Favourite color?\", totalVoters=15, allowsMultiple=true, type=regular, options=[blue=10, red=5]",
+                "[POLL_ANSWER] pollId=poll-1, voter=@voter(id=2005), optionIds=[0, 1]",
+                "[MY_CHAT_MEMBER] chat=Moderated(id=300,type=group), actor=@moderator(id=2006), oldStatus=ChatMemberOwner(creator), newStatus=ChatMemberAdministrator(administrator), viaFolderInvite=true, inviteLink=https://t.me/+invite (creator=@creator(id=2007))",
+                "[CHAT_MEMBER] chat=Moderated(id=300,type=group), actor=@moderator(id=2006), oldStatus=ChatMemberOwner(creator), newStatus=ChatMemberAdministrator(administrator), viaFolderInvite=true, inviteLink=https://t.me/+invite (creator=@creator(id=2007))",
+                "[CHAT_JOIN_REQUEST] chat=Requests(id=400,type=supergroup), user=@applicant(id=2008), bio=Let me in, inviteLink=unknown (creator=unknown user)",
+                "[MESSAGE_REACTION] chat=Reactions(id=500,type=supergroup), messageId=50, actor=@reactor(id=2009), old=[:emoji=👍], new=[:custom=custom-emoji-1]",
+                "[MESSAGE_REACTION_COUNT] chat=Counts(id=501,type=supergroup), messageId=51, total=[:custom=custom-emoji-2=3]",
+                "[CHAT_BOOST] chat=Boosted(id=600,type=supergroup), boostId=boost-1, source=ChatBoostSourceGiftCode, expiresAt=123456",
+                "[REMOVED_CHAT_BOOST] boostId=boost-1, chat=Boosted(id=601,type=supergroup), removedAt=123500, source=ChatBoostSourceGiftCode",
+                "=============================") + "\n";
+        assertEquals(expected, printer.describe(buildFullUpdate()));
+    }
+
+    @Test
+    void describeRendersFallbacksAndTrimmingExactly() {
+        String expected = String.join("\n",
+                "=== Update #? ===",
+                "[MESSAGE] id=1, chat=Anna(id=42,type=private), from=Smith(id=43), text=\"xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx...\"",
+                "[EDITED_MESSAGE] id=2, chat=unknown chat, from=unknown user, caption=\"ßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßßß...\"",
+                "[CHANNEL_POST] id=unknown, chat=unknown chat, from=unknown user, type=photo, automaticForward=true",
+                "[POLL] id=unknown, question=\"\", totalVoters=unknown, allowsMultiple=unknown, type=unknown, options=[]",
+                "[POLL_ANSWER] pollId=unknown, voter=unknown user, optionIds=[]",
+                "[CHAT_JOIN_REQUEST] chat=unknown chat, user=unknown user, bio=unknown, inviteLink=none",
+                "[MESSAGE_REACTION] chat=unknown chat, messageId=unknown, actor=chat(id=-100,type=channel), old=[], new=[]",
+                "[CHAT_BOOST] chat=unknown chat, boostId=unknown, source=unknown",
+                "=============================") + "\n";
+        assertEquals(expected, printer.describe(buildEdgeCaseUpdate()));
+        assertEquals(expected, printer.describe(buildEdgeCaseUpdate()));
+    }
+
+    private static Update buildEdgeCaseUpdate() {
+        Update update = new Update();
+        Message longText = new Message();
+        longText.setMessageId(1);
+        Chat privateChat = new Chat();
+        privateChat.setId(42L);
+        privateChat.setType("private");
+        privateChat.setFirstName("Anna");
+        longText.setChat(privateChat);
+        User lastNameOnly = new User();
+        lastNameOnly.setId(43L);
+        lastNameOnly.setLastName("Smith");
+        longText.setFrom(lastNameOnly);
+        longText.setText("x".repeat(100));
+        update.setMessage(longText);
+
+        Message captioned = new Message();
+        captioned.setMessageId(2);
+        captioned.setCaption("ß".repeat(90));
+        update.setEditedMessage(captioned);
+
+        Message photo = new Message();
+        photo.setPhoto(List.of(new PhotoSize()));
+        photo.setIsAutomaticForward(true);
+        update.setChannelPost(photo);
+
+        Poll emptyPoll = new Poll();
+        update.setPoll(emptyPoll);
+        update.setPollAnswer(new PollAnswer());
+
+        MessageReactionUpdated anonymous = new MessageReactionUpdated();
+        anonymous.setActorChat(sampleChat(-100L, "channel", null));
+        update.setMessageReaction(anonymous);
+        update.setChatBoost(new ChatBoostUpdated());
+        update.setChatJoinRequest(new ChatJoinRequest());
+        return update;
+    }
+
     private static Update buildFullUpdate() {
         Update update = new Update();
         update.setUpdateId(777);
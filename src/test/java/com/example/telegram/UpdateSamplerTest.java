@@ -0,0 +1,96 @@
+package com.example.telegram;
+
+import static com.example.telegram.TestUpdates.edited;
+import static com.example.telegram.TestUpdates.message;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class UpdateSamplerTest {
+
+    @Test
+    void eachTypeIsSampledAtItsRateAndEveryDropRunBecomesOneLine() {
+        List<Update> passed = new ArrayList<>();
+        List<String> lines = new CopyOnWriteArrayList<>();
+        UpdateSampler.Rules rules = UpdateSampler.Rules.keepAll().withRate(UpdateType.MESSAGE, 0.01);
+        UpdateSampler sampler = new UpdateSampler(passed::add, rules, lines::add, 60_000);
+
+        int id = 1;
+        for (int i = 0; i < 1000; i++) {
+            sampler.handle(message(id++, -5L, "flood"));
+            if (i % 20 == 0) {
+                sampler.handle(edited(message(id++, -5L, "flood")));
+            }
+        }
+        sampler.close();
+
+        long messages = passed.stream().filter(update -> update.getMessage() != null).count();
+        long edits = passed.stream().filter(update -> update.getEditedMessage() != null).count();
+        assertEquals(10, messages);
+        assertEquals(50, edits);
+        assertEquals(990, sampler.sampledOutCount());
+        // Every hundredth message is kept and closes the run before it; nothing is left for close().
+        assertEquals(10, lines.size());
+        for (String line : lines) {
+            assertEquals("suppressed 99 MESSAGE updates in chat -5", line);
+        }
+    }
+
+    @Test
+    void floodingChatIsRateLimitedWhileQuietChatsPassAndLeftoverRunsAreReportedOnClose() {
+        List<Update> passed = new ArrayList<>();
+        List<String> lines = new CopyOnWriteArrayList<>();
+        UpdateSampler.Rules rules = UpdateSampler.Rules.keepAll().withChatLimit(1, 3);
+        UpdateSampler sampler = new UpdateSampler(passed::add, rules, lines::add, 60_000);
+
+        for (int i = 1; i <= 100; i++) {
+            sampler.handle(message(i, -100L, "flood"));
+        }
+        sampler.handle(message(101, -200L, "flood"));
+        sampler.handle(message(102, -200L, "flood"));
+        assertEquals(2, sampler.trackedChats());
+        sampler.close();
+
+        long flooded = passed.stream().filter(update -> update.getMessage().getChatId() == -100L).count();
+        assertTrue(flooded >= 3 && flooded <= 4, "flooded chat passed " + flooded);
+        assertEquals(flooded + 2, passed.size());
+        assertEquals(100 - flooded, sampler.rateLimitedCount());
+        assertEquals(List.of("suppressed " + (100 - flooded) + " MESSAGE updates in chat -100"), lines);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> UpdateSampler.Rules.keepAll().withRate(UpdateType.POLL, 1.5));
+        assertThrows(IllegalArgumentException.class, () -> UpdateSampler.Rules.keepAll().withChatLimit(5, 0));
+    }
+
+    @Test
+    void keptUpdatesNeedNoChatStateWithoutAChatLimit() {
+        List<Update> passed = new ArrayList<>();
+        List<String> lines = new CopyOnWriteArrayList<>();
+        UpdateSampler.Rules rules = UpdateSampler.Rules.keepAll().withRate(UpdateType.MESSAGE, 0);
+        UpdateSampler sampler = new UpdateSampler(passed::add, rules, lines::add, 60_000);
+
+        int id = 1;
+        for (int i = 0; i < 1000; i++) {
+            sampler.handle(edited(message(id++, -1000L - i, "flood")));
+        }
+        assertEquals(0, sampler.trackedChats());
+        for (int i = 0; i < 100; i++) {
+            sampler.handle(message(id++, -1000L - i, "flood"));
+        }
+        assertEquals(100, sampler.trackedChats());
+        // Kept updates of another type leave the open runs alone.
+        sampler.handle(edited(message(id++, -1000L, "flood")));
+        sampler.close();
+
+        assertEquals(1001, passed.size());
+        assertEquals(100, lines.size());
+        assertTrue(lines.contains("suppressed 1 MESSAGE updates in chat -1099"));
+        assertEquals(0, sampler.trackedChats());
+    }
+}
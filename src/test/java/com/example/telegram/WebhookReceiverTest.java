@@ -0,0 +1,77 @@
+package com.example.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+class WebhookReceiverTest {
+
+    private static final String RECORDED_UPDATE = "{\"update_id\":9001,\"message\":{\"message_id\":7,"
+            + "\"date\":1700000000,\"chat\":{\"id\":-100123,\"type\":\"supergroup\",\"title\":\"Devs\"},"
+            + "\"from\":{\"id\":42,\"is_bot\":false,\"first_name\":\"Ann\"},\"text\":\"hi\","
+            + "\"some_future_field\":true}}";
+
+    private final List<Update> received = new CopyOnWriteArrayList<>();
+    private final UpdateMetrics metrics = new UpdateMetrics();
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private WebhookReceiver receiver;
+
+    @BeforeEach
+    void startReceiver() throws IOException {
+        receiver = new WebhookReceiver(received::add, metrics,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), "/hook", "s3cret", 2);
+    }
+
+    @AfterEach
+    void stopReceiver() {
+        receiver.close();
+    }
+
+    @Test
+    void acceptsRecordedUpdateWithValidSecret() throws Exception {
+        HttpResponse<String> response = post(RECORDED_UPDATE, "s3cret");
+
+        assertEquals(200, response.statusCode());
+        assertEquals(1, received.size());
+        assertEquals(9001, received.get(0).getUpdateId());
+        assertEquals("hi", received.get(0).getMessage().getText());
+        assertEquals(1, metrics.updates(UpdateType.MESSAGE));
+    }
+
+    @Test
+    void rejectsWrongSecretMalformedBodyAndOtherMethods() throws Exception {
+        assertEquals(401, post(RECORDED_UPDATE, "guess").statusCode());
+        assertEquals(401, post(RECORDED_UPDATE, null).statusCode());
+        assertEquals(400, post("{not json", "s3cret").statusCode());
+        HttpResponse<String> get = client.send(
+                HttpRequest.newBuilder(uri()).GET().build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(405, get.statusCode());
+        assertEquals(0, received.size());
+    }
+
+    private HttpResponse<String> post(String body, String secret) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri())
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+        if (secret != null) {
+            request.header(WebhookReceiver.SECRET_HEADER, secret);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri() {
+        return URI.create("http://127.0.0.1:" + receiver.getPort() + "/hook");
+    }
+}